@@ -17,9 +17,14 @@
 
 package org.xipki.audit;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 
+import org.slf4j.LoggerFactory;
+import org.xipki.audit.services.AsyncAuditService;
 import org.xipki.audit.services.EmbedAuditService;
+import org.xipki.audit.services.FileAuditService;
 import org.xipki.audit.services.SyslogAuditService;
 
 /**
@@ -36,12 +41,28 @@ public class Audits {
      * valid values are:
      *   embed: use the embedded slf4j logging
      *   syslog: use the syslog
+     *   file: use the binary, hash-chained audit files
      *   java:&lt;name of class that implements org.xipki.audit.AuditService&gt;
      */
     private String type;
 
     private String conf;
 
+    /**
+     * Whether the events are written asynchronously in a dedicated thread.
+     */
+    private boolean async;
+
+    /**
+     * Number of events which can be buffered in the asynchronous mode.
+     */
+    private int asyncBufferSize = 8192;
+
+    /**
+     * Maximal number of events written in one batch in the asynchronous mode.
+     */
+    private int asyncBatchSize = 256;
+
     public static AuditConf DEFAULT = new AuditConf();
 
     public String getType() {
@@ -60,6 +81,30 @@ public class Audits {
       this.conf = conf;
     }
 
+    public boolean isAsync() {
+      return async;
+    }
+
+    public void setAsync(boolean async) {
+      this.async = async;
+    }
+
+    public int getAsyncBufferSize() {
+      return asyncBufferSize;
+    }
+
+    public void setAsyncBufferSize(int asyncBufferSize) {
+      this.asyncBufferSize = asyncBufferSize;
+    }
+
+    public int getAsyncBatchSize() {
+      return asyncBatchSize;
+    }
+
+    public void setAsyncBatchSize(int asyncBatchSize) {
+      this.asyncBatchSize = asyncBatchSize;
+    }
+
   }
 
   private static AuditService auditService;
@@ -82,12 +127,32 @@ public class Audits {
   } // method getAuditService
 
   public static void init(String auditType, String auditConf)  {
+    init(auditType, auditConf, false, 0, 0);
+  }
+
+  /**
+   * Initializes the audit service.
+   * @param auditType
+   *          Type of the audit service.
+   * @param auditConf
+   *          Configuration of the audit service.
+   * @param async
+   *          Whether the events are written asynchronously in a dedicated thread.
+   * @param asyncBufferSize
+   *          Number of events which can be buffered. Only used if async is true.
+   * @param asyncBatchSize
+   *          Maximal number of events written in one batch. Only used if async is true.
+   */
+  public static void init(String auditType, String auditConf, boolean async,
+      int asyncBufferSize, int asyncBatchSize) {
     try {
       AuditService service;
       if ("embed".equalsIgnoreCase(auditType)) {
         service = new EmbedAuditService();
       } else if ("syslog".equalsIgnoreCase(auditType)) {
         service = new SyslogAuditService();
+      } else if ("file".equalsIgnoreCase(auditType)) {
+        service = new FileAuditService();
       } else  if (auditType.startsWith("java:")) {
         String className = auditType.substring("java:".length());
         try {
@@ -101,11 +166,14 @@ public class Audits {
         }
       } else {
         throw new AuditServiceRuntimeException("invalid Audit.Type '" + auditType
-            + "'. Valid values are 'embed', 'syslog' or java:<name of class that implements "
-            + AuditService.class.getName() + ">");
+            + "'. Valid values are 'embed', 'syslog', 'file' or java:<name of class that "
+            + "implements " + AuditService.class.getName() + ">");
       }
 
       service.init(auditConf);
+      if (async) {
+        service = new AsyncAuditService(service, asyncBufferSize, asyncBatchSize);
+      }
       auditService = service;
     } catch (AuditServiceRuntimeException ex) {
       initializationException = ex;
@@ -114,4 +182,18 @@ public class Audits {
     }
   } // method init
 
+  /**
+   * Closes the audit service. In the asynchronous mode, the buffered events are written.
+   */
+  public static void close() {
+    if (auditService instanceof Closeable) {
+      try {
+        ((Closeable) auditService).close();
+      } catch (IOException | RuntimeException ex) {
+        LoggerFactory.getLogger(Audits.class).warn("could not close AuditService: {}",
+            ex.getMessage());
+      }
+    }
+  } // method close
+
 }
@@ -0,0 +1,324 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.audit.AuditEvent;
+import org.xipki.audit.AuditLevel;
+import org.xipki.audit.AuditService;
+import org.xipki.audit.PciAuditEvent;
+import org.xipki.util.Args;
+
+/**
+ * Audit service which passes the events to the wrapped audit service in a dedicated writer
+ * thread, so that the request threads do not pay the formatting and I/O of the audit events.
+ *
+ * <p>The events are buffered in a lock-free ring buffer. The writer thread drains the buffer in
+ * batches. If the buffer is full, the DEBUG events are dropped and counted, and the other events
+ * wait until there is space. On {@link #close()}, the buffered events are written before the
+ * writer thread terminates.
+ *
+ * <p>After the service has been closed, or if the writer thread has terminated unexpectedly,
+ * the events are written synchronously by the calling threads.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class AsyncAuditService implements AuditService, Closeable {
+
+  private class Writer implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        run0();
+      } finally {
+        writerStopped = true;
+        if (!closed) {
+          LOG.error("audit writer thread terminated unexpectedly, the audit events will be "
+              + "written synchronously");
+        }
+      }
+    } // method run
+
+    private void run0() {
+      while (true) {
+        int n = drain();
+        if (n > 0) {
+          continue;
+        }
+
+        if (closed) {
+          // events published after the last drain
+          if (drain() == 0) {
+            break;
+          } else {
+            continue;
+          }
+        }
+
+        writerWaiting = true;
+        if (head == tail.get()) {
+          LockSupport.parkNanos(this, MAX_WAIT_NANOS);
+        }
+        writerWaiting = false;
+      }
+    } // method run0
+
+    private int drain() {
+      int count = 0;
+      while (count < batchSize) {
+        long index = head;
+        if (index == tail.get()) {
+          break;
+        }
+
+        int slot = (int) (index & mask);
+        Object event = buffer.get(slot);
+        if (event == null) {
+          // the slot is claimed but the event is not published yet
+          Thread.yield();
+          continue;
+        }
+
+        buffer.lazySet(slot, null);
+        head = index + 1;
+        write(event);
+        count++;
+      }
+      return count;
+    } // method drain
+
+  } // class Writer
+
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncAuditService.class);
+
+  private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static final long FULL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private static final long CLOSE_TIMEOUT_MS = 10000;
+
+  private final AuditService underlying;
+
+  private final AtomicReferenceArray<Object> buffer;
+
+  private final int mask;
+
+  private final int batchSize;
+
+  // next index to claim by the producers
+  private final AtomicLong tail = new AtomicLong();
+
+  // next index to read by the writer thread, only written by the writer thread
+  private volatile long head;
+
+  private final AtomicLong droppedEvents = new AtomicLong();
+
+  // number of producers which may publish events to the buffer
+  private final AtomicInteger activeProducers = new AtomicInteger();
+
+  private final Writer writer;
+
+  private final Thread writerThread;
+
+  private volatile boolean writerWaiting;
+
+  private volatile boolean closed;
+
+  private volatile boolean writerStopped;
+
+  /**
+   * Constructor.
+   * @param underlying
+   *          The audit service to write the events.
+   * @param bufferSize
+   *          Number of events which can be buffered. Will be rounded up to the power of 2.
+   * @param batchSize
+   *          Maximal number of events written in one batch.
+   */
+  public AsyncAuditService(AuditService underlying, int bufferSize, int batchSize) {
+    this.underlying = Args.notNull(underlying, "underlying");
+    Args.range(bufferSize, "bufferSize", 2, 1 << 30);
+    this.batchSize = Args.positive(batchSize, "batchSize");
+
+    int size = Integer.highestOneBit(bufferSize);
+    if (size < bufferSize) {
+      size <<= 1;
+    }
+    this.buffer = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+
+    this.writer = new Writer();
+    this.writerThread = new Thread(writer, "audit-writer");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+    LOG.info("started asynchronous audit for {} with bufferSize={}, batchSize={}",
+        underlying.getClass().getName(), size, batchSize);
+  } // constructor
+
+  @Override
+  public void init(String conf) {
+    underlying.init(conf);
+  }
+
+  @Override
+  public void logEvent(AuditEvent event) {
+    Args.notNull(event, "event");
+    enqueue(event, event.getLevel());
+  }
+
+  @Override
+  public void logEvent(PciAuditEvent event) {
+    Args.notNull(event, "event");
+    enqueue(event, event.getLevel());
+  }
+
+  private void enqueue(Object event, AuditLevel level) {
+    // close() waits for the producers which have seen the service open
+    activeProducers.incrementAndGet();
+    try {
+      while (!closed && !writerStopped) {
+        long index = tail.get();
+        if (index - head > mask) {
+          // buffer is full
+          if (level == AuditLevel.DEBUG) {
+            droppedEvents.incrementAndGet();
+            return;
+          }
+          LockSupport.parkNanos(FULL_WAIT_NANOS);
+          continue;
+        }
+
+        if (tail.compareAndSet(index, index + 1)) {
+          buffer.set((int) (index & mask), event);
+          if (writerWaiting) {
+            LockSupport.unpark(writerThread);
+          }
+          return;
+        }
+      }
+    } finally {
+      activeProducers.decrementAndGet();
+    }
+
+    // the writer thread is stopping, the events buffered before this one are written first
+    if (Thread.currentThread() != writerThread) {
+      try {
+        writerThread.join(CLOSE_TIMEOUT_MS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized (writer) {
+      if (!writerThread.isAlive()) {
+        drainAll();
+      }
+      write(event);
+    }
+  } // method enqueue
+
+  private void write(Object event) {
+    try {
+      if (event instanceof AuditEvent) {
+        underlying.logEvent((AuditEvent) event);
+      } else {
+        underlying.logEvent((PciAuditEvent) event);
+      }
+    } catch (Throwable th) {
+      // the writer thread must not terminate
+      LOG.error("could not write audit event: {}", th.getMessage());
+      LOG.debug("could not write audit event", th);
+    }
+  } // method write
+
+  /**
+   * Writes the buffered events in the current thread. Must only be called if the writer thread
+   * has terminated, and while holding the lock of the writer.
+   */
+  private void drainAll() {
+    while (writer.drain() > 0) {
+    }
+  }
+
+  /**
+   * Returns the number of DEBUG events dropped because the buffer was full.
+   * @return the number of dropped events.
+   */
+  public long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    LockSupport.unpark(writerThread);
+    try {
+      writerThread.join(CLOSE_TIMEOUT_MS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (writerThread.isAlive()) {
+      LOG.warn("could not write all buffered audit events within {} ms", CLOSE_TIMEOUT_MS);
+    } else {
+      // wait for the producers which have seen the service open, and write their events
+      final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+      while (activeProducers.get() > 0 && System.currentTimeMillis() < deadline) {
+        LockSupport.parkNanos(FULL_WAIT_NANOS);
+      }
+
+      synchronized (writer) {
+        drainAll();
+      }
+
+      if (activeProducers.get() > 0) {
+        LOG.warn("audit events may be lost, {} threads are still writing to the buffer",
+            activeProducers.get());
+      }
+    }
+
+    long dropped = droppedEvents.get();
+    if (dropped > 0) {
+      LOG.warn("dropped {} DEBUG audit events because the buffer was full", dropped);
+    }
+
+    if (underlying instanceof Closeable) {
+      try {
+        ((Closeable) underlying).close();
+      } catch (Exception ex) {
+        LOG.warn("could not close audit service: {}", ex.getMessage());
+      }
+    }
+  } // method close
+
+}
@@ -0,0 +1,215 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import org.xipki.audit.AuditEvent;
+import org.xipki.audit.AuditEventData;
+import org.xipki.audit.AuditLevel;
+import org.xipki.audit.AuditStatus;
+import org.xipki.audit.PciAuditEvent;
+
+/**
+ * Binary format of the audit log files written by {@link FileAuditService}.
+ *
+ * <pre>
+ * segment  = header record* (zero-filled)
+ * header   = magic(8) version(2) reserved(2) segmentNumber(8) createdAt(8) prevHash(32)
+ *            reserved(4)
+ * record   = type(1) payloadLength(4) payload
+ * event    = timestamp(8) level(1) status(1) duration(8) applicationName(str) name(str)
+ *            count(4) (dataName(str) dataValue(str))*
+ * pciEvent = timestamp(8) level(1) text(str)
+ * seal     = count(4) sealedAt(8) hash(32)
+ * str      = length(4, -1 for null) UTF-8
+ * </pre>
+ *
+ * <p>The records between two seals form a block. The seal contains the SHA-256 hash of the
+ * previous hash and all records of the block. The previous hash of the first block of a segment
+ * is the prevHash in the header, which is the last hash of the previous segment.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+final class AuditFileFormat {
+
+  static final byte[] MAGIC = "XIAUDIT\n".getBytes(StandardCharsets.US_ASCII);
+
+  static final short VERSION = 1;
+
+  static final int HEADER_SIZE = 64;
+
+  static final int HASH_SIZE = 32;
+
+  static final int RECORD_HEADER_SIZE = 5;
+
+  static final byte TYPE_END = 0;
+
+  static final byte TYPE_EVENT = 1;
+
+  static final byte TYPE_PCI_EVENT = 2;
+
+  static final byte TYPE_SEAL = 3;
+
+  static final int SEAL_RECORD_SIZE = RECORD_HEADER_SIZE + 4 + 8 + HASH_SIZE;
+
+  static final String FILE_PREFIX = "audit-";
+
+  static final String FILE_SUFFIX = ".bin";
+
+  private AuditFileFormat() {
+  }
+
+  static String segmentFileName(long segmentNumber) {
+    return FILE_PREFIX + String.format("%010d", segmentNumber) + FILE_SUFFIX;
+  }
+
+  /**
+   * Returns the segment number of the file.
+   * @param fileName
+   *          Name of the file.
+   * @return the segment number, or -1 if the file is not a segment.
+   */
+  static long segmentNumber(String fileName) {
+    if (!(fileName.startsWith(FILE_PREFIX) && fileName.endsWith(FILE_SUFFIX))) {
+      return -1;
+    }
+
+    String str = fileName.substring(FILE_PREFIX.length(),
+        fileName.length() - FILE_SUFFIX.length());
+    try {
+      return Long.parseLong(str);
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  } // method segmentNumber
+
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 is not supported", ex);
+    }
+  }
+
+  static void writeHeader(ByteBuffer buffer, long segmentNumber, long createdAt,
+      byte[] prevHash) {
+    buffer.put(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putShort((short) 0);
+    buffer.putLong(segmentNumber);
+    buffer.putLong(createdAt);
+    buffer.put(prevHash);
+    buffer.putInt(0);
+  } // method writeHeader
+
+  static byte[] encode(AuditEvent event) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bout);
+    out.writeByte(TYPE_EVENT);
+    out.writeInt(0); // placeholder of the length
+
+    out.writeLong(event.getTimestamp().getTime());
+    out.writeByte(levelValue(event.getLevel()));
+    AuditStatus status = event.getStatus();
+    out.writeByte(status == null ? -1 : status.ordinal());
+    out.writeLong(event.getDuration());
+    writeString(out, event.getApplicationName());
+    writeString(out, event.getName());
+
+    List<AuditEventData> eventDatas = event.getEventDatas();
+    out.writeInt(eventDatas.size());
+    for (AuditEventData m : eventDatas) {
+      writeString(out, m.getName());
+      writeString(out, m.getValue());
+    }
+
+    return finishRecord(bout);
+  } // method encode(AuditEvent)
+
+  static byte[] encode(PciAuditEvent event) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bout);
+    out.writeByte(TYPE_PCI_EVENT);
+    out.writeInt(0); // placeholder of the length
+
+    out.writeLong(System.currentTimeMillis());
+    out.writeByte(levelValue(event.getLevel()));
+    writeString(out, event.toCharArrayWriter(null).toString());
+    return finishRecord(bout);
+  } // method encode(PciAuditEvent)
+
+  static byte[] encodeSeal(int count, long sealedAt, byte[] hash) {
+    ByteBuffer buffer = ByteBuffer.allocate(SEAL_RECORD_SIZE);
+    buffer.put(TYPE_SEAL);
+    buffer.putInt(SEAL_RECORD_SIZE - RECORD_HEADER_SIZE);
+    buffer.putInt(count);
+    buffer.putLong(sealedAt);
+    buffer.put(hash);
+    return buffer.array();
+  } // method encodeSeal
+
+  static String readString(ByteBuffer buffer) {
+    int len = buffer.getInt();
+    if (len == -1) {
+      return null;
+    }
+
+    if (len < 0 || len > buffer.remaining()) {
+      throw new IllegalArgumentException("invalid string length " + len);
+    }
+
+    byte[] bytes = new byte[len];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  } // method readString
+
+  private static int levelValue(AuditLevel level) {
+    return (level == null ? AuditLevel.INFO : level).getValue();
+  }
+
+  private static void writeString(DataOutputStream out, String str) throws IOException {
+    if (str == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  } // method writeString
+
+  private static byte[] finishRecord(ByteArrayOutputStream bout) {
+    byte[] record = bout.toByteArray();
+    int len = record.length - RECORD_HEADER_SIZE;
+    record[1] = (byte) (len >>> 24);
+    record[2] = (byte) (len >>> 16);
+    record[3] = (byte) (len >>> 8);
+    record[4] = (byte) len;
+    return record;
+  } // method finishRecord
+
+}
@@ -0,0 +1,335 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.xipki.audit.AuditLevel;
+import org.xipki.audit.AuditStatus;
+import org.xipki.util.Args;
+
+/**
+ * Reads and verifies a segment of the binary audit log written by {@link FileAuditService}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class AuditFileReader implements Closeable {
+
+  /**
+   * Decoded record.
+   */
+  public static class Record {
+
+    private final byte type;
+
+    private final long timestamp;
+
+    private final AuditLevel level;
+
+    private final String text;
+
+    private final boolean valid;
+
+    private Record(byte type, long timestamp, AuditLevel level, String text, boolean valid) {
+      this.type = type;
+      this.timestamp = timestamp;
+      this.level = level;
+      this.text = text;
+      this.valid = valid;
+    }
+
+    public boolean isSeal() {
+      return type == AuditFileFormat.TYPE_SEAL;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public AuditLevel getLevel() {
+      return level;
+    }
+
+    /**
+     * Returns the text of the event, or the description of the seal.
+     * @return the text.
+     */
+    public String getText() {
+      return text;
+    }
+
+    /**
+     * Returns whether the hash of the sealed block is correct. Always {@code true} for events.
+     * @return whether the seal is valid.
+     */
+    public boolean isValid() {
+      return valid;
+    }
+
+    @Override
+    public String toString() {
+      SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+      df.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return df.format(new Date(timestamp)) + " " + text;
+    }
+
+  } // class Record
+
+  private final Path file;
+
+  private final FileChannel channel;
+
+  private final ByteBuffer buffer;
+
+  private final long segmentNumber;
+
+  private final long createdAt;
+
+  private final byte[] prevHash;
+
+  private final MessageDigest digest = AuditFileFormat.newDigest();
+
+  private byte[] lastHash;
+
+  private int unsealedRecords;
+
+  public AuditFileReader(Path file) throws IOException {
+    this.file = Args.notNull(file, "file");
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < AuditFileFormat.HEADER_SIZE) {
+        throw new IOException(file + " is too short");
+      }
+
+      byte[] magic = new byte[AuditFileFormat.MAGIC.length];
+      buffer.get(magic);
+      if (!Arrays.equals(AuditFileFormat.MAGIC, magic)) {
+        throw new IOException(file + " is not an audit log file");
+      }
+
+      short version = buffer.getShort();
+      if (version != AuditFileFormat.VERSION) {
+        throw new IOException("unsupported version " + version + " of " + file);
+      }
+
+      buffer.getShort();
+      this.segmentNumber = buffer.getLong();
+      this.createdAt = buffer.getLong();
+      this.prevHash = new byte[AuditFileFormat.HASH_SIZE];
+      buffer.get(prevHash);
+      buffer.position(AuditFileFormat.HEADER_SIZE);
+    } catch (IOException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+
+    this.lastHash = prevHash;
+    digest.update(prevHash);
+  } // constructor
+
+  public long getSegmentNumber() {
+    return segmentNumber;
+  }
+
+  public long getCreatedAt() {
+    return createdAt;
+  }
+
+  /**
+   * Returns the last hash of the previous segment.
+   * @return the hash.
+   */
+  public byte[] getPrevHash() {
+    return prevHash.clone();
+  }
+
+  /**
+   * Returns the hash of the last seal read so far.
+   * @return the hash.
+   */
+  public byte[] getLastHash() {
+    return lastHash.clone();
+  }
+
+  /**
+   * Returns the number of events read since the last seal. These events are not protected by
+   * any hash, e.g. because the writer has been terminated before sealing them.
+   * @return the number of unsealed events.
+   */
+  public int getUnsealedRecords() {
+    return unsealedRecords;
+  }
+
+  /**
+   * Reads the next record.
+   * @return the next record, or {@code null} if the end of the segment is reached.
+   * @throws IOException
+   *           if the record could not be decoded.
+   */
+  public Record next() throws IOException {
+    if (buffer.remaining() < AuditFileFormat.RECORD_HEADER_SIZE) {
+      return null;
+    }
+
+    final int offset = buffer.position();
+    byte type = buffer.get();
+    if (type == AuditFileFormat.TYPE_END) {
+      buffer.position(offset);
+      return null;
+    }
+
+    int len = buffer.getInt();
+    if (len < 0 || len > buffer.remaining()) {
+      throw new IOException("corrupted record at offset " + offset + " of " + file);
+    }
+
+    ByteBuffer payload = buffer.slice();
+    payload.limit(len);
+    buffer.position(buffer.position() + len);
+
+    try {
+      if (type == AuditFileFormat.TYPE_SEAL) {
+        return readSeal(payload);
+      }
+
+      ByteBuffer record = buffer.duplicate();
+      record.position(offset);
+      record.limit(offset + AuditFileFormat.RECORD_HEADER_SIZE + len);
+      digest.update(record);
+      unsealedRecords++;
+
+      if (type == AuditFileFormat.TYPE_EVENT) {
+        return readEvent(payload);
+      } else if (type == AuditFileFormat.TYPE_PCI_EVENT) {
+        long timestamp = payload.getLong();
+        AuditLevel level = AuditLevel.forValue(payload.get());
+        String text = level.getAlignedText() + " | " + AuditFileFormat.readString(payload);
+        return new Record(type, timestamp, level, text, true);
+      } else {
+        throw new IOException("unknown record type " + type + " at offset " + offset
+            + " of " + file);
+      }
+    } catch (RuntimeException ex) {
+      throw new IOException("corrupted record at offset " + offset + " of " + file, ex);
+    }
+  } // method next
+
+  private Record readSeal(ByteBuffer payload) {
+    int count = payload.getInt();
+    long sealedAt = payload.getLong();
+    byte[] hash = new byte[AuditFileFormat.HASH_SIZE];
+    payload.get(hash);
+
+    byte[] computedHash = digest.digest();
+    boolean valid = (count == unsealedRecords) && Arrays.equals(hash, computedHash);
+
+    // continue with the stored hash, so that only the modified block is reported
+    lastHash = hash;
+    unsealedRecords = 0;
+    digest.update(hash);
+
+    String text = "SEAL  | " + count + " events: " + (valid ? "valid" : "INVALID");
+    return new Record(AuditFileFormat.TYPE_SEAL, sealedAt, null, text, valid);
+  } // method readSeal
+
+  private Record readEvent(ByteBuffer payload) {
+    long timestamp = payload.getLong();
+    AuditLevel level = AuditLevel.forValue(payload.get());
+    byte statusIndex = payload.get();
+    AuditStatus status = (statusIndex < 0) ? AuditStatus.UNDEFINED
+        : AuditStatus.values()[statusIndex];
+    long duration = payload.getLong();
+    String applicationName = AuditFileFormat.readString(payload);
+    String name = AuditFileFormat.readString(payload);
+
+    // same format as EmbedAuditService
+    StringBuilder sb = new StringBuilder(150);
+    sb.append(level.getAlignedText()).append(" | ");
+    sb.append(applicationName == null ? "undefined" : applicationName).append(" - ")
+      .append(name == null ? "undefined" : name);
+    sb.append(":\tstatus: ").append(status.name());
+    if (duration >= 0) {
+      sb.append("\tduration: ").append(duration);
+    }
+
+    int count = payload.getInt();
+    for (int i = 0; i < count; i++) {
+      String dataName = AuditFileFormat.readString(payload);
+      String dataValue = AuditFileFormat.readString(payload);
+      if (duration >= 0 && "duration".equalsIgnoreCase(dataName)) {
+        continue;
+      }
+      sb.append("\t").append(dataName).append(": ").append(dataValue);
+    }
+
+    return new Record(AuditFileFormat.TYPE_EVENT, timestamp, level, sb.toString(), true);
+  } // method readEvent
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Returns the segments in the directory, ordered by the segment number.
+   * @param dir
+   *          The directory.
+   * @return the segment files.
+   * @throws IOException
+   *           if the directory could not be read.
+   */
+  public static List<Path> listSegments(Path dir) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path path : stream) {
+        if (AuditFileFormat.segmentNumber(path.getFileName().toString()) >= 0) {
+          files.add(path);
+        }
+      }
+    }
+
+    Collections.sort(files, new Comparator<Path>() {
+      @Override
+      public int compare(Path o1, Path o2) {
+        return Long.compare(AuditFileFormat.segmentNumber(o1.getFileName().toString()),
+            AuditFileFormat.segmentNumber(o2.getFileName().toString()));
+      }
+    });
+    return files;
+  } // method listSegments
+
+}
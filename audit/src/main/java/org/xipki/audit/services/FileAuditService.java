@@ -0,0 +1,318 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.audit.AuditEvent;
+import org.xipki.audit.AuditService;
+import org.xipki.audit.AuditServiceRuntimeException;
+import org.xipki.audit.PciAuditEvent;
+import org.xipki.util.IoUtil;
+
+/**
+ * Audit service which writes the events to append-only binary files. The format is described in
+ * {@link AuditFileFormat}, the files can be decoded and verified by {@link AuditFileReader}.
+ *
+ * <p>The events are written to memory-mapped segments of fixed size. Every block of events is
+ * sealed by a record containing the hash chained over all previous blocks, also across the
+ * segments. The open block is sealed and the segment is flushed to the disk periodically.
+ * If a new segment could not be opened, the event is rejected with an
+ * {@link AuditServiceRuntimeException}, and the next event tries to open the segment again.
+ *
+ * <p>The configuration is a properties file with the following optional entries:
+ * <ul>
+ *   <li>dir: directory of the segments, default logs/audit.</li>
+ *   <li>segmentSize: size of a segment in MB, default 64.</li>
+ *   <li>blockSize: maximal number of events in a block, default 1000.</li>
+ *   <li>syncInterval: interval in milliseconds to seal and flush, default 1000.</li>
+ * </ul>
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class FileAuditService implements AuditService, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FileAuditService.class);
+
+  private Path dir;
+
+  private int segmentSize;
+
+  private int blockSize;
+
+  private ScheduledExecutorService syncer;
+
+  private final MessageDigest digest = AuditFileFormat.newDigest();
+
+  private FileChannel channel;
+
+  private MappedByteBuffer buffer;
+
+  private long segmentNumber;
+
+  private byte[] prevHash;
+
+  private int blockRecords;
+
+  private boolean dirty;
+
+  private boolean initialized;
+
+  public FileAuditService() {
+  }
+
+  @Override
+  public synchronized void init(String conf) {
+    LOG.info("initializing: {}", FileAuditService.class);
+    Properties props = new Properties();
+    if (conf != null && !conf.trim().isEmpty()) {
+      try {
+        props = IoUtil.loadProperties(conf.trim());
+      } catch (IOException ex) {
+        throw new AuditServiceRuntimeException("could not load properties from " + conf, ex);
+      }
+    }
+
+    this.dir = Paths.get(IoUtil.expandFilepath(props.getProperty("dir", "logs/audit")));
+    this.segmentSize = Integer.parseInt(props.getProperty("segmentSize", "64")) * 1024 * 1024;
+    this.blockSize = Integer.parseInt(props.getProperty("blockSize", "1000"));
+    int syncInterval = Integer.parseInt(props.getProperty("syncInterval", "1000"));
+    if (segmentSize <= 0 || blockSize <= 0 || syncInterval <= 0) {
+      throw new AuditServiceRuntimeException(
+          "segmentSize, blockSize and syncInterval must be positive");
+    }
+
+    try {
+      Files.createDirectories(dir);
+
+      // continue the hash chain of the last segment
+      long lastSegmentNumber = 0;
+      byte[] lastHash = new byte[AuditFileFormat.HASH_SIZE];
+      List<Path> segments = AuditFileReader.listSegments(dir);
+      if (!segments.isEmpty()) {
+        Path lastSegment = segments.get(segments.size() - 1);
+        try (AuditFileReader reader = new AuditFileReader(lastSegment)) {
+          lastSegmentNumber = reader.getSegmentNumber();
+          while (reader.next() != null) {
+          }
+
+          lastHash = reader.getLastHash();
+          if (reader.getUnsealedRecords() > 0) {
+            LOG.warn("found {} unsealed audit events at the end of {}",
+                reader.getUnsealedRecords(), lastSegment);
+          }
+        } catch (IOException ex) {
+          LOG.error("could not read the last hash from {}, start a new hash chain: {}",
+              lastSegment, ex.getMessage());
+          lastSegmentNumber = AuditFileFormat.segmentNumber(lastSegment.getFileName().toString());
+        }
+      }
+
+      this.prevHash = lastHash;
+      openSegment(lastSegmentNumber + 1);
+    } catch (IOException ex) {
+      throw new AuditServiceRuntimeException("could not initialize audit files in " + dir, ex);
+    }
+
+    this.syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "audit-file-sync");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    syncer.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        sync();
+      }
+    }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+
+    this.initialized = true;
+    LOG.info("initialized: {}", FileAuditService.class);
+  } // method init
+
+  @Override
+  public void logEvent(AuditEvent event) {
+    byte[] record;
+    try {
+      record = AuditFileFormat.encode(event);
+    } catch (IOException ex) {
+      LOG.error("could not encode audit event: {}", ex.getMessage());
+      return;
+    }
+    append(record);
+  } // method logEvent(AuditEvent)
+
+  @Override
+  public void logEvent(PciAuditEvent event) {
+    byte[] record;
+    try {
+      record = AuditFileFormat.encode(event);
+    } catch (IOException ex) {
+      LOG.error("could not encode audit event: {}", ex.getMessage());
+      return;
+    }
+    append(record);
+  } // method logEvent(PciAuditEvent)
+
+  private synchronized void append(byte[] record) {
+    if (!initialized) {
+      LOG.error("file audit not initialized");
+      return;
+    }
+
+    // the segment must have space for the seal of the block
+    if (record.length + AuditFileFormat.SEAL_RECORD_SIZE
+        > segmentSize - AuditFileFormat.HEADER_SIZE) {
+      LOG.warn("audit event exceeds the segment size: {} > {}, ignore it", record.length,
+          segmentSize);
+      return;
+    }
+
+    if (buffer != null && record.length + AuditFileFormat.SEAL_RECORD_SIZE > buffer.remaining()) {
+      closeSegment();
+    }
+
+    if (buffer == null) {
+      // also retries the segment which could not be opened by the previous call
+      try {
+        openSegment(segmentNumber + 1);
+      } catch (IOException ex) {
+        throw new AuditServiceRuntimeException("could not open audit segment "
+            + AuditFileFormat.segmentFileName(segmentNumber + 1), ex);
+      }
+    }
+
+    buffer.put(record);
+    digest.update(record);
+    dirty = true;
+    if (++blockRecords >= blockSize) {
+      seal();
+    }
+  } // method append
+
+  private void closeSegment() {
+    seal();
+    MappedByteBuffer buf = buffer;
+    buffer = null;
+    dirty = false;
+
+    try {
+      buf.force();
+    } catch (RuntimeException ex) {
+      LOG.error("could not flush audit segment: {}", ex.getMessage());
+    }
+
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      LOG.warn("could not close audit segment: {}", ex.getMessage());
+    }
+    channel = null;
+  } // method closeSegment
+
+  private void openSegment(long number) throws IOException {
+    Path file = dir.resolve(AuditFileFormat.segmentFileName(number));
+    FileChannel newChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer newBuffer;
+    try {
+      newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      AuditFileFormat.writeHeader(newBuffer, number, System.currentTimeMillis(), prevHash);
+      newBuffer.force();
+    } catch (IOException | RuntimeException ex) {
+      // remove the incomplete segment, so that it can be created again
+      newChannel.close();
+      Files.deleteIfExists(file);
+      throw ex;
+    }
+
+    channel = newChannel;
+    buffer = newBuffer;
+    segmentNumber = number;
+    blockRecords = 0;
+    digest.reset();
+    digest.update(prevHash);
+    LOG.info("opened audit segment {}", file);
+  } // method openSegment
+
+  private void seal() {
+    if (blockRecords == 0) {
+      return;
+    }
+
+    byte[] hash = digest.digest();
+    buffer.put(AuditFileFormat.encodeSeal(blockRecords, System.currentTimeMillis(), hash));
+    prevHash = hash;
+    blockRecords = 0;
+    digest.update(hash);
+  } // method seal
+
+  private synchronized void sync() {
+    if (!initialized || !dirty || buffer == null) {
+      return;
+    }
+
+    try {
+      seal();
+      buffer.force();
+      dirty = false;
+    } catch (RuntimeException ex) {
+      LOG.error("could not flush audit segment: {}", ex.getMessage());
+    }
+  } // method sync
+
+  @Override
+  public void close() {
+    if (syncer != null) {
+      syncer.shutdown();
+    }
+
+    synchronized (this) {
+      if (!initialized) {
+        return;
+      }
+
+      if (buffer != null) {
+        closeSegment();
+      }
+      initialized = false;
+    }
+  } // method close
+
+}
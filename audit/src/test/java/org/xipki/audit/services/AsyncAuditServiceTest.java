@@ -0,0 +1,244 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.audit.AuditEvent;
+import org.xipki.audit.AuditLevel;
+import org.xipki.audit.AuditService;
+import org.xipki.audit.PciAuditEvent;
+
+/**
+ * AsyncAuditService test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class AsyncAuditServiceTest {
+
+  /**
+   * Records the names of the written events. Events named "block" block the writer until
+   * released, events named "error" throw an {@link Error}.
+   */
+  private static class MemoryAuditService implements AuditService {
+
+    private final List<String> names = new ArrayList<>();
+
+    private final CountDownLatch blockEntered = new CountDownLatch(1);
+
+    private final CountDownLatch blockRelease = new CountDownLatch(1);
+
+    @Override
+    public void init(String conf) {
+    }
+
+    @Override
+    public void logEvent(AuditEvent event) {
+      String name = event.getName();
+      if ("block".equals(name)) {
+        blockEntered.countDown();
+        try {
+          blockRelease.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      } else if ("error".equals(name)) {
+        throw new Error("error while writing");
+      }
+
+      synchronized (names) {
+        names.add(name);
+      }
+    }
+
+    @Override
+    public void logEvent(PciAuditEvent event) {
+      synchronized (names) {
+        names.add("pci");
+      }
+    }
+
+    List<String> getNames() {
+      synchronized (names) {
+        return new ArrayList<>(names);
+      }
+    }
+
+  } // class MemoryAuditService
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    MemoryAuditService underlying = new MemoryAuditService();
+    final AsyncAuditService service = new AsyncAuditService(underlying, 64, 8);
+
+    final int numThreads = 8;
+    final int numEvents = 2000;
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      final int threadIndex = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < numEvents; j++) {
+            service.logEvent(newEvent(threadIndex + "-" + j, AuditLevel.INFO));
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    service.close();
+
+    assertEventsInOrder(underlying.getNames(), numThreads, numEvents);
+  } // method testConcurrentProducers
+
+  @Test
+  public void testFullBuffer() throws Exception {
+    MemoryAuditService underlying = new MemoryAuditService();
+    final AsyncAuditService service = new AsyncAuditService(underlying, 4, 1);
+
+    service.logEvent(newEvent("block", AuditLevel.INFO));
+    Assert.assertTrue(underlying.blockEntered.await(10, TimeUnit.SECONDS));
+
+    // fill the buffer
+    for (int i = 0; i < 4; i++) {
+      service.logEvent(newEvent("info-" + i, AuditLevel.INFO));
+    }
+
+    // DEBUG events are dropped if the buffer is full
+    service.logEvent(newEvent("debug", AuditLevel.DEBUG));
+    Assert.assertEquals(1, service.getDroppedEvents());
+
+    // other events wait until there is space
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        service.logEvent(newEvent("info-4", AuditLevel.INFO));
+      }
+    };
+    producer.start();
+    producer.join(200);
+    Assert.assertTrue("INFO event has not been blocked", producer.isAlive());
+
+    underlying.blockRelease.countDown();
+    producer.join(10000);
+    Assert.assertFalse("INFO event is still blocked", producer.isAlive());
+    service.close();
+
+    List<String> expected = new ArrayList<>();
+    expected.add("block");
+    for (int i = 0; i < 5; i++) {
+      expected.add("info-" + i);
+    }
+    Assert.assertEquals(expected, underlying.getNames());
+  } // method testFullBuffer
+
+  @Test
+  public void testWriterSurvivesError() throws Exception {
+    MemoryAuditService underlying = new MemoryAuditService();
+    AsyncAuditService service = new AsyncAuditService(underlying, 16, 4);
+
+    service.logEvent(newEvent("a", AuditLevel.INFO));
+    service.logEvent(newEvent("error", AuditLevel.INFO));
+    service.logEvent(newEvent("b", AuditLevel.INFO));
+    service.logEvent(new PciAuditEvent(new Date()));
+
+    // the events are written asynchronously by the writer
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (underlying.getNames().size() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    List<String> expected = new ArrayList<>();
+    expected.add("a");
+    expected.add("b");
+    expected.add("pci");
+    Assert.assertEquals(expected, underlying.getNames());
+    service.close();
+  } // method testWriterSurvivesError
+
+  @Test
+  public void testCloseWhileProducing() throws Exception {
+    MemoryAuditService underlying = new MemoryAuditService();
+    final AsyncAuditService service = new AsyncAuditService(underlying, 16, 4);
+
+    final int numThreads = 4;
+    final int numEvents = 5000;
+    final CountDownLatch started = new CountDownLatch(numThreads);
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      final int threadIndex = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          started.countDown();
+          for (int j = 0; j < numEvents; j++) {
+            service.logEvent(newEvent(threadIndex + "-" + j, AuditLevel.INFO));
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    started.await();
+    service.close();
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // the events logged after close() are written synchronously
+    assertEventsInOrder(underlying.getNames(), numThreads, numEvents);
+  } // method testCloseWhileProducing
+
+  private static void assertEventsInOrder(List<String> names, int numThreads, int numEvents) {
+    Assert.assertEquals(numThreads * numEvents, names.size());
+
+    Map<String, Integer> nextIndexes = new HashMap<>();
+    for (String name : names) {
+      int sep = name.indexOf('-');
+      String thread = name.substring(0, sep);
+      int index = Integer.parseInt(name.substring(sep + 1));
+      Integer expected = nextIndexes.get(thread);
+      Assert.assertEquals("event of thread " + thread, (expected == null) ? 0 : expected,
+          index);
+      nextIndexes.put(thread, index + 1);
+    }
+  } // method assertEventsInOrder
+
+  private static AuditEvent newEvent(String name, AuditLevel level) {
+    AuditEvent event = new AuditEvent(null);
+    event.setName(name);
+    event.setLevel(level);
+    return event;
+  }
+
+}
@@ -0,0 +1,300 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.audit.AuditEvent;
+import org.xipki.audit.AuditLevel;
+import org.xipki.audit.AuditServiceRuntimeException;
+import org.xipki.audit.AuditStatus;
+
+/**
+ * FileAuditService and AuditFileReader test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class FileAuditServiceTest {
+
+  private static class Segment {
+
+    private long segmentNumber;
+
+    private byte[] prevHash;
+
+    private byte[] lastHash;
+
+    private int unsealedRecords;
+
+    private final List<String> events = new ArrayList<>();
+
+    private final List<Boolean> seals = new ArrayList<>();
+
+  } // class Segment
+
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("audit-test");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path path : stream) {
+        paths.add(path);
+      }
+    }
+    for (Path path : paths) {
+      Files.delete(path);
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    FileAuditService service = newService(1, 3);
+    for (int i = 0; i < 7; i++) {
+      service.logEvent(newEvent(i, 0));
+    }
+    service.close();
+
+    // a restarted service continues the hash chain in a new segment
+    service = newService(1, 3);
+    for (int i = 7; i < 10; i++) {
+      service.logEvent(newEvent(i, 0));
+    }
+    service.close();
+
+    List<Segment> segments = readSegments();
+    Assert.assertEquals(2, segments.size());
+    assertChained(segments);
+
+    // blocks of 3, 3 and 1 events, and the block of 3 events of the restarted service
+    Assert.assertEquals(Arrays.asList(true, true, true), segments.get(0).seals);
+    Assert.assertEquals(Arrays.asList(true), segments.get(1).seals);
+
+    List<String> events = allEvents(segments);
+    Assert.assertEquals(10, events.size());
+    for (int i = 0; i < 10; i++) {
+      String text = events.get(i);
+      Assert.assertTrue(text, text.startsWith(AuditLevel.INFO.getAlignedText()
+          + " | test - event-" + i + ":\tstatus: SUCCESSFUL"));
+      Assert.assertTrue(text, text.endsWith("\tindex: " + i));
+    }
+  } // method testRoundTrip
+
+  @Test
+  public void testSegmentRollover() throws Exception {
+    FileAuditService service = newService(1, 10);
+    final int numEvents = 150;
+    for (int i = 0; i < numEvents; i++) {
+      // about 20 KB per event, 1 MB per segment
+      service.logEvent(newEvent(i, 20000));
+    }
+    service.close();
+
+    List<Segment> segments = readSegments();
+    Assert.assertTrue("too few segments: " + segments.size(), segments.size() >= 3);
+    assertChained(segments);
+    for (Segment segment : segments) {
+      Assert.assertFalse(segment.seals.contains(false));
+    }
+
+    List<String> events = allEvents(segments);
+    Assert.assertEquals(numEvents, events.size());
+    for (int i = 0; i < numEvents; i++) {
+      Assert.assertTrue(events.get(i).contains(" - event-" + i + ":"));
+    }
+  } // method testSegmentRollover
+
+  @Test
+  public void testTamperDetection() throws Exception {
+    FileAuditService service = newService(1, 2);
+    for (int i = 0; i < 5; i++) {
+      service.logEvent(newEvent(i, 0));
+    }
+    service.close();
+
+    Path file = dir.resolve(AuditFileFormat.segmentFileName(1));
+    byte[] bytes = Files.readAllBytes(file);
+    int offset = indexOf(bytes, "event-2".getBytes(StandardCharsets.UTF_8));
+    Assert.assertTrue(offset > 0);
+    bytes[offset + 6] = '9';
+    Files.write(file, bytes);
+
+    List<Segment> segments = readSegments();
+    // only the block containing the modified event is invalid
+    Assert.assertEquals(Arrays.asList(true, false, true), segments.get(0).seals);
+    Assert.assertTrue(allEvents(segments).get(2).contains(" - event-9:"));
+  } // method testTamperDetection
+
+  @Test
+  public void testRetryOpenSegment() throws Exception {
+    FileAuditService service = newService(1, 5);
+    // blocks the creation of the second segment
+    Path blocker = Files.createDirectory(dir.resolve(AuditFileFormat.segmentFileName(2)));
+    int numWritten = 0;
+    AuditServiceRuntimeException failure = null;
+    for (int i = 0; i < 100; i++) {
+      try {
+        service.logEvent(newEvent(i, 100000));
+        numWritten++;
+      } catch (AuditServiceRuntimeException ex) {
+        failure = ex;
+        break;
+      }
+    }
+    Assert.assertNotNull("segment has not been rolled over", failure);
+
+    // the service is not disabled by the failure
+    try {
+      service.logEvent(newEvent(numWritten + 1, 0));
+      Assert.fail("AuditServiceRuntimeException expected");
+    } catch (AuditServiceRuntimeException ex) {
+      // expected
+    }
+
+    Files.delete(blocker);
+    service.logEvent(newEvent(numWritten + 2, 0));
+    service.close();
+
+    List<Segment> segments = readSegments();
+    Assert.assertEquals(2, segments.size());
+    assertChained(segments);
+    Assert.assertFalse(segments.get(0).seals.contains(false));
+    Assert.assertFalse(segments.get(1).seals.contains(false));
+
+    List<String> events = allEvents(segments);
+    Assert.assertEquals(numWritten + 1, events.size());
+    Assert.assertTrue(events.get(numWritten).contains(" - event-" + (numWritten + 2) + ":"));
+  } // method testRetryOpenSegment
+
+  private FileAuditService newService(int segmentSizeMb, int blockSize) throws IOException {
+    Properties props = new Properties();
+    props.setProperty("dir", dir.toString());
+    props.setProperty("segmentSize", Integer.toString(segmentSizeMb));
+    props.setProperty("blockSize", Integer.toString(blockSize));
+    // the blocks are sealed by the block size and close() only
+    props.setProperty("syncInterval", "3600000");
+
+    Path conf = Files.createTempFile("audit-test", ".properties");
+    try {
+      try (OutputStream out = Files.newOutputStream(conf)) {
+        props.store(out, null);
+      }
+
+      FileAuditService service = new FileAuditService();
+      service.init(conf.toString());
+      return service;
+    } finally {
+      Files.delete(conf);
+    }
+  } // method newService
+
+  private List<Segment> readSegments() throws IOException {
+    List<Segment> segments = new ArrayList<>();
+    for (Path file : AuditFileReader.listSegments(dir)) {
+      Segment segment = new Segment();
+      try (AuditFileReader reader = new AuditFileReader(file)) {
+        segment.segmentNumber = reader.getSegmentNumber();
+        segment.prevHash = reader.getPrevHash();
+        AuditFileReader.Record record;
+        while ((record = reader.next()) != null) {
+          if (record.isSeal()) {
+            segment.seals.add(record.isValid());
+          } else {
+            segment.events.add(record.getText());
+          }
+        }
+        segment.lastHash = reader.getLastHash();
+        segment.unsealedRecords = reader.getUnsealedRecords();
+      }
+      segments.add(segment);
+    }
+    return segments;
+  } // method readSegments
+
+  private static void assertChained(List<Segment> segments) {
+    byte[] prevHash = new byte[AuditFileFormat.HASH_SIZE];
+    for (int i = 0; i < segments.size(); i++) {
+      Segment segment = segments.get(i);
+      Assert.assertEquals(i + 1, segment.segmentNumber);
+      Assert.assertArrayEquals("prevHash of segment " + (i + 1), prevHash, segment.prevHash);
+      Assert.assertEquals(0, segment.unsealedRecords);
+      prevHash = segment.lastHash;
+    }
+  } // method assertChained
+
+  private static List<String> allEvents(List<Segment> segments) {
+    List<String> events = new ArrayList<>();
+    for (Segment segment : segments) {
+      events.addAll(segment.events);
+    }
+    return events;
+  }
+
+  private static AuditEvent newEvent(int index, int paddingSize) {
+    AuditEvent event = new AuditEvent(new Date());
+    event.setApplicationName("test");
+    event.setName("event-" + index);
+    event.setStatus(AuditStatus.SUCCESSFUL);
+    if (paddingSize > 0) {
+      event.addEventData("padding", String.join("", Collections.nCopies(paddingSize, "x")));
+    }
+    event.addEventData("index", index);
+    return event;
+  } // method newEvent
+
+  private static int indexOf(byte[] bytes, byte[] pattern) {
+    for (int i = 0; i + pattern.length <= bytes.length; i++) {
+      boolean match = true;
+      for (int j = 0; j < pattern.length; j++) {
+        if (bytes[i + j] != pattern[j]) {
+          match = false;
+          break;
+        }
+      }
+
+      if (match) {
+        return i;
+      }
+    }
+    return -1;
+  } // method indexOf
+
+}
@@ -18,6 +18,7 @@
 package org.xipki.ca.api.publisher;
 
 import java.io.Closeable;
+import java.util.List;
 import java.util.Map;
 
 import org.bouncycastle.cert.X509CRLHolder;
@@ -81,6 +82,25 @@ public abstract class CertPublisher implements Closeable {
    */
   public abstract boolean certificateAdded(CertificateInfo certInfo);
 
+  /**
+   * Publishes the certificates. The default implementation calls
+   * {@link #certificateAdded(CertificateInfo)} for each certificate, publishers which can
+   * write several certificates at once should overwrite it.
+   *
+   * @param certInfos
+   *          Certificates to be published.
+   * @return whether all certificates are published.
+   * @since 5.3.8
+   */
+  public boolean certificatesAdded(List<CertificateInfo> certInfos) {
+    for (CertificateInfo certInfo : certInfos) {
+      if (!certificateAdded(certInfo)) {
+        return false;
+      }
+    }
+    return true;
+  } // method certificatesAdded
+
   /**
    * Publishes the revocation of a certificate.
    *
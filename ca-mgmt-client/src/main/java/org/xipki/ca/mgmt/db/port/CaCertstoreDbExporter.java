@@ -30,9 +30,18 @@ import java.security.cert.CRLException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -64,21 +73,70 @@ import com.alibaba.fastjson.JSON;
 
 class CaCertstoreDbExporter extends DbPorter {
 
+  /**
+   * ZIP file exported to a temporary file.
+   */
+  private static class ExportedZip {
+
+    private final File tmpFile;
+
+    private final String filename;
+
+    private final int numEntries;
+
+    ExportedZip(File tmpFile, String filename, int numEntries) {
+      this.tmpFile = tmpFile;
+      this.filename = filename;
+      this.numEntries = numEntries;
+    }
+
+  } // class ExportedZip
+
+  /**
+   * ZIP files of a range of ids.
+   */
+  private static class ExportedRange {
+
+    private final long toId;
+
+    private final List<ExportedZip> zips = new ArrayList<>();
+
+    ExportedRange(long toId) {
+      this.toId = toId;
+    }
+
+  } // class ExportedRange
+
   private static final Logger LOG = LoggerFactory.getLogger(CaCertstoreDbExporter.class);
 
+  // number of ZIP files per range of ids exported by one thread
+  private static final int ZIPS_PER_RANGE = 4;
+
   private final int numCertsInBundle;
 
   private final int numCertsPerSelect;
 
   private final boolean resume;
 
+  private final int numThreads;
+
+  private final boolean storeEntries;
+
   CaCertstoreDbExporter(DataSourceWrapper datasource, String baseDir, int numCertsInBundle,
       int numCertsPerSelect, boolean resume, AtomicBoolean stopMe)
           throws DataAccessException {
+    this(datasource, baseDir, numCertsInBundle, numCertsPerSelect, 1, false, resume, stopMe);
+  }
+
+  CaCertstoreDbExporter(DataSourceWrapper datasource, String baseDir, int numCertsInBundle,
+      int numCertsPerSelect, int numThreads, boolean storeEntries, boolean resume,
+      AtomicBoolean stopMe) throws DataAccessException {
     super(datasource, baseDir, stopMe);
 
     this.numCertsInBundle = Args.positive(numCertsInBundle, "numCertsInBundle");
     this.numCertsPerSelect = Args.positive(numCertsPerSelect, "numCertsPerSelect");
+    this.numThreads = Args.positive(numThreads, "numThreads");
+    this.storeEntries = storeEntries;
     this.resume = resume;
   } // constructor
 
@@ -227,6 +285,21 @@ class CaCertstoreDbExporter extends DbPorter {
       total = 1; // to avoid exception
     }
 
+    if (numThreads > 1) {
+      ProcessLog processLog = new ProcessLog(total);
+      processLog.printHeader();
+
+      int sum = exportEntriesInParallel(type, certstore, processLogFile, filenameListOs,
+          coreSql + " AND ID<=?", minId, maxId, numProcessedBefore, processLog,
+          numEntriesPerSelect, numEntriesPerZip);
+
+      processLog.printTrailer();
+      // all successful, delete the processLogFile
+      processLogFile.delete();
+      System.out.println(" exported " + sum + " entries from " + tablesText);
+      return;
+    }
+
     String sql = datasource.buildSelectFirstSql(numEntriesPerSelect, "ID ASC", coreSql);
 
     Object entriesInCurrentFile = createContainer(type);
@@ -237,7 +310,7 @@ class CaCertstoreDbExporter extends DbPorter {
     int sum = 0;
     File currentEntriesZipFile = new File(baseDir,
         "tmp-" + type.getDirName() + "-" + System.currentTimeMillis() + ".zip");
-    ZipOutputStream currentEntriesZip = getZipOutputStream(currentEntriesZipFile);
+    ZipOutputStream currentEntriesZip = newZipOutputStream(currentEntriesZipFile);
 
     long minIdOfCurrentFile = -1;
     long maxIdOfCurrentFile = -1;
@@ -283,135 +356,8 @@ class CaCertstoreDbExporter extends DbPorter {
             maxIdOfCurrentFile = id;
           }
 
-          if (CaDbEntryType.CERT == type) {
-            byte[] certBytes = Base64.decodeFast(rs.getString("CERT"));
-
-            String sha1 = HashAlgo.SHA1.hexHash(certBytes);
-            String certFileName = sha1 + ".der";
-            ZipEntry certZipEntry = new ZipEntry(certFileName);
-            currentEntriesZip.putNextEntry(certZipEntry);
-            try {
-              currentEntriesZip.write(certBytes);
-            } finally {
-              currentEntriesZip.closeEntry();
-            }
-
-            CaCertstore.Cert cert = new CaCertstore.Cert();
-            cert.setId(id);
-            cert.setCaId(rs.getInt("CA_ID"));
-            cert.setEe(rs.getBoolean("EE"));
-            cert.setFile(certFileName);
-
-            long fpReqSubject = rs.getLong("FP_RS");
-            if (fpReqSubject != 0) {
-              cert.setFpRs(fpReqSubject);
-              cert.setRs(rs.getString("REQ_SUBJECT"));
-            }
-
-            cert.setPid(rs.getInt("PID"));
-            cert.setReqType(rs.getInt("RTYPE"));
-            cert.setRid(rs.getInt("RID"));
-            cert.setSn(rs.getString("SN"));
-
-            String str = rs.getString("TID");
-            if (StringUtil.isNotBlank(str)) {
-              cert.setTid(str);
-            }
-
-            int userId = rs.getInt("UID");
-            if (userId != 0) {
-              cert.setUid(userId);
-            }
-            cert.setUpdate(rs.getLong("LUPDATE"));
-
-            int revoked = rs.getInt("REV");
-            cert.setRev(revoked);
-
-            if (revoked == 1) {
-              cert.setRr(rs.getInt("RR"));
-              cert.setRt(rs.getLong("RT"));
-              long revInvTime = rs.getLong("RIT");
-              if (revInvTime != 0) {
-                cert.setRit(revInvTime);
-              }
-            }
-
-            cert.setCrlScope(rs.getInt("CRL_SCOPE"));
-
-            cert.validate();
-            ((CaCertstore.Certs) entriesInCurrentFile).add(cert);
-          } else if (CaDbEntryType.CRL == type) {
-            byte[] crlBytes = Base64.decodeFast(rs.getString("CRL"));
-
-            X509CRLHolder x509Crl = null;
-            try {
-              x509Crl = X509Util.parseCrl(crlBytes);
-            } catch (CRLException ex) {
-              LogUtil.error(LOG, ex, "could not parse CRL with id " + id);
-              throw ex;
-            } catch (Exception ex) {
-              LogUtil.error(LOG, ex, "could not parse CRL with id " + id);
-              throw new CRLException(ex.getMessage(), ex);
-            }
-
-            byte[] extnValue = X509Util.getCoreExtValue(x509Crl.getExtensions(),
-                                  Extension.cRLNumber);
-            if (extnValue == null) {
-              LOG.warn("CRL without CRL number, ignore it");
-              continue;
-            }
-            String sha1 = HashAlgo.SHA1.hexHash(crlBytes);
-
-            final String crlFilename = sha1 + ".crl";
-            ZipEntry certZipEntry = new ZipEntry(crlFilename);
-            currentEntriesZip.putNextEntry(certZipEntry);
-            try {
-              currentEntriesZip.write(crlBytes);
-            } finally {
-              currentEntriesZip.closeEntry();
-            }
-
-            CaCertstore.Crl crl = new CaCertstore.Crl();
-            crl.setId(id);
-
-            crl.setCaId(rs.getInt("CA_ID"));
-
-            BigInteger crlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
-            crl.setCrlNo(crlNumber.toString());
-            crl.setCrlScope(rs.getInt("CRL_SCOPE"));
-            crl.setFile(crlFilename);
-
-            crl.validate();
-            ((CaCertstore.Crls) entriesInCurrentFile).add(crl);
-          } else if (CaDbEntryType.REQUEST == type) {
-            byte[] dataBytes = Base64.decodeFast(rs.getString("DATA"));
-            String sha1 = HashAlgo.SHA1.hexHash(dataBytes);
-            final String dataFilename = sha1 + ".req";
-            ZipEntry certZipEntry = new ZipEntry(dataFilename);
-            currentEntriesZip.putNextEntry(certZipEntry);
-            try {
-              currentEntriesZip.write(dataBytes);
-            } finally {
-              currentEntriesZip.closeEntry();
-            }
-
-            CaCertstore.Request entry = new CaCertstore.Request();
-            entry.setId(id);
-            entry.setUpdate(rs.getLong("LUPDATE"));
-            entry.setFile(dataFilename);
-
-            entry.validate();
-            ((CaCertstore.Requests) entriesInCurrentFile).add(entry);
-          } else if (CaDbEntryType.REQCERT == type) {
-            CaCertstore.ReqCert entry = new CaCertstore.ReqCert();
-            entry.setId(id);
-            entry.setCid(rs.getLong("CID"));
-            entry.setRid(rs.getLong("RID"));
-
-            entry.validate();
-            ((CaCertstore.ReqCerts) entriesInCurrentFile).add(entry);
-          } else {
-            throw new IllegalStateException("unknown CaDbEntryType " + type);
+          if (!exportEntry(type, id, rs, currentEntriesZip, entriesInCurrentFile)) {
+            continue;
           }
 
           numEntriesInCurrentFile++;
@@ -437,7 +383,7 @@ class CaCertstoreDbExporter extends DbPorter {
             maxIdOfCurrentFile = -1;
             currentEntriesZipFile = new File(baseDir, "tmp-" + type.getDirName() + "-"
                 + System.currentTimeMillis() + ".zip");
-            currentEntriesZip = getZipOutputStream(currentEntriesZipFile);
+            currentEntriesZip = newZipOutputStream(currentEntriesZipFile);
           }
         } while (rs.next());
 
@@ -480,6 +426,351 @@ class CaCertstoreDbExporter extends DbPorter {
     System.out.println(" exported " + sum + " entries from " + tablesText);
   } // method exportEntries
 
+  /**
+   * Exports the entries with ids in [minId, maxId]. The entries are split into ranges of the
+   * same number of entries, exported concurrently, each with its own database connection and
+   * ZIP files. The ZIP files are registered in the order of the ids, so that the result equals
+   * the sequential export.
+   * @return number of exported entries.
+   */
+  private int exportEntriesInParallel(final CaDbEntryType type, CaCertstore certstore,
+      File processLogFile, OutputStream filenameListOs, String coreSql, long minId,
+      final long maxId, int numProcessedBefore, ProcessLog processLog, int numEntriesPerSelect,
+      final int numEntriesPerZip) throws Exception {
+    final String sql = datasource.buildSelectFirstSql(numEntriesPerSelect, "ID ASC", coreSql);
+    final int rangeSize = numEntriesPerZip * ZIPS_PER_RANGE;
+    // the ids are not dense, the ranges are bounded by every rangeSize-th id
+    final String boundarySql = datasource.buildSelectFirstSql(rangeSize, "ID ASC",
+        "ID FROM " + type.getTableName() + " WHERE ID>=?");
+    File entriesDir = new File(baseDir, type.getDirName());
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    LinkedList<Future<ExportedRange>> pendingRanges = new LinkedList<>();
+    ExportedRange range = null;
+    boolean successful = false;
+    int sum = 0;
+
+    PreparedStatement boundaryPs = prepareStatement(boundarySql);
+    try {
+      long nextFromId = minId;
+      while (true) {
+        // limit the number of exported but not yet registered ZIP files
+        while (nextFromId <= maxId && pendingRanges.size() < 2 * numThreads) {
+          final long fromId = nextFromId;
+          final long toId = getRangeEnd(boundaryPs, boundarySql, rangeSize, fromId, maxId);
+          nextFromId = toId + 1;
+
+          pendingRanges.add(executor.submit(new Callable<ExportedRange>() {
+            @Override
+            public ExportedRange call() throws Exception {
+              return exportRange(type, sql, fromId, toId, maxId, numEntriesPerZip);
+            }
+          }));
+        }
+
+        if (pendingRanges.isEmpty()) {
+          break;
+        }
+
+        try {
+          range = pendingRanges.removeFirst().get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          throw (cause instanceof Exception) ? (Exception) cause : ex;
+        }
+
+        for (ExportedZip zip : range.zips) {
+          File file = new File(entriesDir, zip.filename);
+          if (!zip.tmpFile.renameTo(file)) {
+            throw new IOException("could not rename " + zip.tmpFile.getPath() + " to "
+                + file.getPath());
+          }
+
+          writeLine(filenameListOs, zip.filename);
+          sum += zip.numEntries;
+          processLog.addNumProcessed(zip.numEntries);
+        }
+
+        setCount(type, certstore, numProcessedBefore + sum);
+        echoToFile(type.getTableName() + ":" + range.toId, processLogFile);
+        processLog.printStatus();
+        range = null;
+      }
+      successful = true;
+    } finally {
+      releaseResources(boundaryPs, null);
+      executor.shutdownNow();
+      // the temporary files may only be deleted after all threads are terminated
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+      if (!successful) {
+        // delete the ZIP files exported but not registered
+        if (range != null) {
+          deleteTmpFiles(range);
+        }
+
+        for (Future<ExportedRange> future : pendingRanges) {
+          // ranges not started will never be done
+          if (future.isDone()) {
+            try {
+              deleteTmpFiles(future.get());
+            } catch (ExecutionException | CancellationException ex) {
+              // a failed range has deleted its own files
+            }
+          }
+        }
+      }
+    }
+
+    return sum;
+  } // method exportEntriesInParallel
+
+  /**
+   * Returns the last id of the range starting with fromId.
+   */
+  private long getRangeEnd(PreparedStatement ps, String sql, int rangeSize, long fromId,
+      long maxId) throws DataAccessException {
+    ResultSet rs = null;
+    try {
+      ps.setLong(1, fromId);
+      rs = ps.executeQuery();
+      long lastId = maxId;
+      int numIds = 0;
+      while (rs.next()) {
+        lastId = rs.getLong(1);
+        numIds++;
+      }
+
+      // the last range is extended to maxId
+      return (numIds < rangeSize || lastId >= maxId) ? maxId : lastId;
+    } catch (SQLException ex) {
+      throw translate(sql, ex);
+    } finally {
+      releaseResources(null, rs);
+    }
+  } // method getRangeEnd
+
+  private static void deleteTmpFiles(ExportedRange range) {
+    for (ExportedZip zip : range.zips) {
+      // the registered ZIP files have been renamed already
+      if (zip.tmpFile.exists() && !zip.tmpFile.delete()) {
+        LOG.warn("could not delete temporary file {}", zip.tmpFile.getPath());
+      }
+    }
+  } // method deleteTmpFiles
+
+  private ExportedRange exportRange(CaDbEntryType type, String sql, long fromId, long toId,
+      long maxId, int numEntriesPerZip) throws Exception {
+    ExportedRange range = new ExportedRange(toId);
+
+    // uses its own connection
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    File zipFile = null;
+    ZipOutputStream zip = null;
+    Object container = null;
+    int numEntries = 0;
+    long minIdOfFile = -1;
+    long maxIdOfFile = -1;
+    boolean successful = false;
+
+    try {
+      long lastMaxId = fromId - 1;
+      while (true) {
+        if (stopMe.get() || Thread.currentThread().isInterrupted()) {
+          throw new InterruptedException("interrupted by the user");
+        }
+
+        ps.setLong(1, lastMaxId + 1);
+        ps.setLong(2, toId);
+
+        ResultSet rs = ps.executeQuery();
+        try {
+          // no entries anymore
+          if (!rs.next()) {
+            break;
+          }
+
+          do {
+            long id = rs.getLong("ID");
+            lastMaxId = id;
+
+            if (zip == null) {
+              zipFile = new File(baseDir, "tmp-" + type.getDirName() + "-" + id + ".zip");
+              zip = newZipOutputStream(zipFile);
+              container = createContainer(type);
+              minIdOfFile = id;
+            }
+            maxIdOfFile = id;
+
+            if (!exportEntry(type, id, rs, zip, container)) {
+              continue;
+            }
+
+            if (++numEntries == numEntriesPerZip) {
+              finalizeZip(zip, "overview.json", container);
+              zip = null;
+              range.zips.add(new ExportedZip(zipFile, buildFilename(type.getDirName() + "_",
+                  ".zip", minIdOfFile, maxIdOfFile, maxId), numEntries));
+              numEntries = 0;
+            }
+          } while (rs.next());
+        } finally {
+          rs.close();
+        }
+      }
+
+      if (zip != null) {
+        if (numEntries > 0) {
+          finalizeZip(zip, "overview.json", container);
+          range.zips.add(new ExportedZip(zipFile, buildFilename(type.getDirName() + "_",
+              ".zip", minIdOfFile, maxIdOfFile, maxId), numEntries));
+        } else {
+          zip.close();
+          zipFile.delete();
+        }
+        zip = null;
+      }
+      successful = true;
+    } catch (SQLException ex) {
+      throw translate(sql, ex);
+    } finally {
+      IoUtil.closeQuietly(zip);
+      datasource.releaseResources(ps, null);
+
+      if (!successful) {
+        if (zip != null) {
+          zipFile.delete();
+        }
+        deleteTmpFiles(range);
+      }
+    }
+
+    return range;
+  } // method exportRange
+
+  /**
+   * Writes the entry of the current row to the ZIP file and adds its description to the
+   * container.
+   * @return whether the entry has been exported.
+   */
+  private boolean exportEntry(CaDbEntryType type, long id, ResultSet rs, ZipOutputStream zip,
+      Object container) throws Exception {
+    if (CaDbEntryType.CERT == type) {
+      byte[] certBytes = Base64.decodeFast(rs.getString("CERT"));
+
+      String sha1 = HashAlgo.SHA1.hexHash(certBytes);
+      String certFileName = sha1 + ".der";
+      putEntry(zip, certFileName, certBytes);
+
+      CaCertstore.Cert cert = new CaCertstore.Cert();
+      cert.setId(id);
+      cert.setCaId(rs.getInt("CA_ID"));
+      cert.setEe(rs.getBoolean("EE"));
+      cert.setFile(certFileName);
+
+      long fpReqSubject = rs.getLong("FP_RS");
+      if (fpReqSubject != 0) {
+        cert.setFpRs(fpReqSubject);
+        cert.setRs(rs.getString("REQ_SUBJECT"));
+      }
+
+      cert.setPid(rs.getInt("PID"));
+      cert.setReqType(rs.getInt("RTYPE"));
+      cert.setRid(rs.getInt("RID"));
+      cert.setSn(rs.getString("SN"));
+
+      String str = rs.getString("TID");
+      if (StringUtil.isNotBlank(str)) {
+        cert.setTid(str);
+      }
+
+      int userId = rs.getInt("UID");
+      if (userId != 0) {
+        cert.setUid(userId);
+      }
+      cert.setUpdate(rs.getLong("LUPDATE"));
+
+      int revoked = rs.getInt("REV");
+      cert.setRev(revoked);
+
+      if (revoked == 1) {
+        cert.setRr(rs.getInt("RR"));
+        cert.setRt(rs.getLong("RT"));
+        long revInvTime = rs.getLong("RIT");
+        if (revInvTime != 0) {
+          cert.setRit(revInvTime);
+        }
+      }
+
+      cert.setCrlScope(rs.getInt("CRL_SCOPE"));
+
+      cert.validate();
+      ((CaCertstore.Certs) container).add(cert);
+    } else if (CaDbEntryType.CRL == type) {
+      byte[] crlBytes = Base64.decodeFast(rs.getString("CRL"));
+
+      X509CRLHolder x509Crl = null;
+      try {
+        x509Crl = X509Util.parseCrl(crlBytes);
+      } catch (CRLException ex) {
+        LogUtil.error(LOG, ex, "could not parse CRL with id " + id);
+        throw ex;
+      } catch (Exception ex) {
+        LogUtil.error(LOG, ex, "could not parse CRL with id " + id);
+        throw new CRLException(ex.getMessage(), ex);
+      }
+
+      byte[] extnValue = X509Util.getCoreExtValue(x509Crl.getExtensions(),
+                      Extension.cRLNumber);
+      if (extnValue == null) {
+        LOG.warn("CRL without CRL number, ignore it");
+        return false;
+      }
+      String sha1 = HashAlgo.SHA1.hexHash(crlBytes);
+
+      final String crlFilename = sha1 + ".crl";
+      putEntry(zip, crlFilename, crlBytes);
+
+      CaCertstore.Crl crl = new CaCertstore.Crl();
+      crl.setId(id);
+
+      crl.setCaId(rs.getInt("CA_ID"));
+
+      BigInteger crlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
+      crl.setCrlNo(crlNumber.toString());
+      crl.setCrlScope(rs.getInt("CRL_SCOPE"));
+      crl.setFile(crlFilename);
+
+      crl.validate();
+      ((CaCertstore.Crls) container).add(crl);
+    } else if (CaDbEntryType.REQUEST == type) {
+      byte[] dataBytes = Base64.decodeFast(rs.getString("DATA"));
+      String sha1 = HashAlgo.SHA1.hexHash(dataBytes);
+      final String dataFilename = sha1 + ".req";
+      putEntry(zip, dataFilename, dataBytes);
+
+      CaCertstore.Request entry = new CaCertstore.Request();
+      entry.setId(id);
+      entry.setUpdate(rs.getLong("LUPDATE"));
+      entry.setFile(dataFilename);
+
+      entry.validate();
+      ((CaCertstore.Requests) container).add(entry);
+    } else if (CaDbEntryType.REQCERT == type) {
+      CaCertstore.ReqCert entry = new CaCertstore.ReqCert();
+      entry.setId(id);
+      entry.setCid(rs.getLong("CID"));
+      entry.setRid(rs.getLong("RID"));
+
+      entry.validate();
+      ((CaCertstore.ReqCerts) container).add(entry);
+    } else {
+      throw new IllegalStateException("unknown CaDbEntryType " + type);
+    }
+
+    return true;
+  } // method exportEntry
+
   private void exportPublishQueue(CaCertstore certstore)
       throws DataAccessException, InvalidConfException {
     System.out.println("exporting table PUBLISHQUEUE");
@@ -559,16 +850,37 @@ class CaCertstoreDbExporter extends DbPorter {
 
   private void finalizeZip(ZipOutputStream zipOutStream, String filename, Object container)
       throws IOException {
-    ZipEntry certZipEntry = new ZipEntry(filename);
-    zipOutStream.putNextEntry(certZipEntry);
+    putEntry(zipOutStream, filename, JSON.toJSONBytes(container));
+    zipOutStream.close();
+  } // method finalizeZip
+
+  private ZipOutputStream newZipOutputStream(File zipFile) throws IOException {
+    ZipOutputStream zipOutStream = getZipOutputStream(zipFile);
+    if (storeEntries) {
+      zipOutStream.setMethod(ZipOutputStream.STORED);
+    }
+    return zipOutStream;
+  } // method newZipOutputStream
+
+  private void putEntry(ZipOutputStream zipOutStream, String filename, byte[] data)
+      throws IOException {
+    ZipEntry zipEntry = new ZipEntry(filename);
+    if (storeEntries) {
+      // stored entries require the size and CRC in advance
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      zipEntry.setSize(data.length);
+      zipEntry.setCompressedSize(data.length);
+      zipEntry.setCrc(crc.getValue());
+    }
+
+    zipOutStream.putNextEntry(zipEntry);
     try {
-      JSON.writeJSONString(zipOutStream, Charset.forName("UTF-8"), container);
+      zipOutStream.write(data);
     } finally {
       zipOutStream.closeEntry();
     }
-
-    zipOutStream.close();
-  } // method finalizeZip
+  } // method putEntry
 
   private static Object createContainer(CaDbEntryType type) throws IOException {
     switch (type) {
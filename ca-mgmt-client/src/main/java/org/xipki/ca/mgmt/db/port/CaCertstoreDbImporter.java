@@ -18,18 +18,30 @@
 package org.xipki.ca.mgmt.db.port;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -64,6 +76,397 @@ import com.alibaba.fastjson.JSON;
 
 class CaCertstoreDbImporter extends DbPorter {
 
+  /**
+   * Certificate parsed from the exported files, ready to be inserted into the table CERT.
+   */
+  private static class CertRow {
+
+    private CaCertstore.Cert cert;
+
+    private TBSCertificate tbsCert;
+
+    private String b64Cert;
+
+    private String b64Sha1FpCert;
+
+    private String subjectText;
+
+    private long fpSubject;
+
+    private long fpKey;
+
+    private boolean ee;
+
+  } // class CertRow
+
+  /**
+   * Certificates of a ZIP file committed in one transaction.
+   */
+  private static class CertChunk {
+
+    private final int fileIndex;
+
+    private final int chunkIndex;
+
+    private final boolean lastInFile;
+
+    private final List<CaCertstore.Cert> certs;
+
+    private final List<byte[]> encodedCerts;
+
+    private final List<CertRow> rows;
+
+    CertChunk(int fileIndex, int chunkIndex, boolean lastInFile, List<CaCertstore.Cert> certs) {
+      this.fileIndex = fileIndex;
+      this.chunkIndex = chunkIndex;
+      this.lastInFile = lastInFile;
+      this.certs = certs;
+      this.encodedCerts = new ArrayList<>(certs.size());
+      this.rows = new ArrayList<>(certs.size());
+    }
+
+    long key() {
+      return key(fileIndex, chunkIndex);
+    }
+
+    static long key(int fileIndex, int chunkIndex) {
+      return ((long) fileIndex << 32) | chunkIndex;
+    }
+
+  } // class CertChunk
+
+  /**
+   * Chunk committed before the chunks preceding it. Only the numbers needed to advance the
+   * checkpoint are kept.
+   */
+  private static class CommittedChunk {
+
+    private final int fileIndex;
+
+    private final boolean lastInFile;
+
+    private final int numRows;
+
+    // -1 if the chunk has no rows
+    private final long lastId;
+
+    CommittedChunk(CertChunk chunk) {
+      this.fileIndex = chunk.fileIndex;
+      this.lastInFile = chunk.lastInFile;
+      this.numRows = chunk.rows.size();
+      this.lastId = chunk.rows.isEmpty() ? -1 : chunk.certs.get(chunk.certs.size() - 1).getId();
+    }
+
+  } // class CommittedChunk
+
+  /**
+   * Imports the certificates in a pipeline. The ZIP files are read by the reader threads, the
+   * certificates are parsed by the parser threads and written by the writer threads, each with
+   * its own database connection. The chunks cover disjoint ranges of ids, and are committed
+   * independently. The process log is advanced only to the last id below which all chunks are
+   * committed, so that the import can be resumed as after the sequential import.
+   */
+  private class CertsImportPipeline {
+
+    private final CertChunk endOfChunks = new CertChunk(-1, -1, true,
+        new ArrayList<CaCertstore.Cert>(0));
+
+    private final File processLogFile;
+
+    private final ProcessLog processLog;
+
+    private final int numProcessedBefore;
+
+    private final long minId;
+
+    private final int numEntriesPerCommit;
+
+    private final ExecutorService readers;
+
+    private final ExecutorService parsers;
+
+    private final List<Thread> writers;
+
+    private final BlockingQueue<CertChunk> parsedChunks;
+
+    // limits the number of chunks in memory
+    private final Semaphore chunkPermits;
+
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    // chunks committed after the checkpoint, ordered by the key
+    private final TreeMap<Long, CommittedChunk> committedChunks = new TreeMap<>();
+
+    private long nextChunkKey = CertChunk.key(0, 0);
+
+    private long numCommitted;
+
+    private long lastCommittedId;
+
+    CertsImportPipeline(File processLogFile, ProcessLog processLog, int numProcessedBefore,
+        long minId) {
+      this.processLogFile = processLogFile;
+      this.processLog = processLog;
+      this.numProcessedBefore = numProcessedBefore;
+      this.minId = minId;
+      this.lastCommittedId = minId - 1;
+      this.numEntriesPerCommit = Math.max(1,
+          Math.round(CaDbEntryType.CERT.getSqlBatchFactor() * numCertsPerCommit));
+
+      this.readers = Executors.newFixedThreadPool(Math.max(1, (numThreads + 1) / 2));
+      this.parsers = Executors.newFixedThreadPool(numThreads);
+      this.parsedChunks = new ArrayBlockingQueue<>(2 * numThreads + 1);
+      this.chunkPermits = new Semaphore(4 * numThreads);
+      this.writers = new ArrayList<>(numThreads);
+    } // constructor
+
+    /**
+     * Imports the certificates.
+     * @param entriesFiles
+     *          ZIP files to import, ordered by the ids.
+     * @return the last id below which all certificates are committed.
+     * @throws Exception
+     *           if error occurs.
+     */
+    long importCerts(List<String> entriesFiles) throws Exception {
+      for (int i = 0; i < numThreads; i++) {
+        Thread writer = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            writeChunks();
+          }
+        }, "import-cert-writer-" + (i + 1));
+        writers.add(writer);
+        writer.start();
+      }
+
+      try {
+        for (int i = 0; i < entriesFiles.size(); i++) {
+          final int fileIndex = i;
+          final String entriesFile = entriesFiles.get(i);
+          readers.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                readChunks(fileIndex, entriesFile);
+              } catch (Exception ex) {
+                fail(new Exception("could not import entries from file " + entriesFile, ex));
+              }
+            }
+          });
+        }
+
+        readers.shutdown();
+        readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        parsers.shutdown();
+        parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } finally {
+        readers.shutdownNow();
+        parsers.shutdownNow();
+        for (int i = 0; i < writers.size(); i++) {
+          parsedChunks.put(endOfChunks);
+        }
+        for (Thread writer : writers) {
+          writer.join();
+        }
+      }
+
+      Exception ex = failure.get();
+      if (ex != null) {
+        // remove the certificates committed after the checkpoint
+        deleteFromTableWithLargerId(CaDbEntryType.CERT.getTableName(), "ID", lastCommittedId, LOG);
+        throw ex;
+      }
+
+      return lastCommittedId;
+    } // method importCerts
+
+    private void fail(Exception ex) {
+      if (failure.compareAndSet(null, ex)) {
+        LOG.error("import of certificates failed", ex);
+      }
+    }
+
+    private boolean failed() {
+      if (failure.get() == null && stopMe.get()) {
+        fail(new InterruptedException("interrupted by the user"));
+      }
+      return failure.get() != null;
+    }
+
+    private void readChunks(int fileIndex, String entriesZipFile) throws Exception {
+      if (failed()) {
+        return;
+      }
+
+      try (ZipFile zipFile = new ZipFile(new File(entriesZipFile))) {
+        ZipEntry entriesEntry = zipFile.getEntry("overview.json");
+        CaCertstore.Certs certs =
+            JSON.parseObject(zipFile.getInputStream(entriesEntry), CaCertstore.Certs.class);
+        certs.validate();
+
+        List<CaCertstore.Cert> list = new ArrayList<>(certs.getCerts().size());
+        for (CaCertstore.Cert cert : certs.getCerts()) {
+          if (cert.getId() >= minId) {
+            list.add(cert);
+          }
+        }
+
+        // a file without certificates to import still needs a chunk to advance the checkpoint
+        int numChunks = Math.max(1, (list.size() + numEntriesPerCommit - 1) / numEntriesPerCommit);
+        for (int i = 0; i < numChunks; i++) {
+          chunkPermits.acquire();
+          if (failed()) {
+            chunkPermits.release();
+            return;
+          }
+
+          List<CaCertstore.Cert> chunkCerts = list.subList(i * numEntriesPerCommit,
+              Math.min(list.size(), (i + 1) * numEntriesPerCommit));
+          final CertChunk chunk = new CertChunk(fileIndex, i, i == numChunks - 1, chunkCerts);
+          try {
+            for (CaCertstore.Cert cert : chunkCerts) {
+              ZipEntry certZipEnty = zipFile.getEntry(cert.getFile());
+              chunk.encodedCerts.add(IoUtil.read(zipFile.getInputStream(certZipEnty)));
+            }
+
+            parsers.execute(new Runnable() {
+              @Override
+              public void run() {
+                parseChunk(chunk);
+              }
+            });
+          } catch (Exception ex) {
+            chunkPermits.release();
+            throw ex;
+          }
+        }
+      }
+    } // method readChunks
+
+    private void parseChunk(CertChunk chunk) {
+      try {
+        if (!failed()) {
+          for (int i = 0; i < chunk.certs.size(); i++) {
+            chunk.rows.add(parseCert(chunk.certs.get(i), chunk.encodedCerts.get(i)));
+          }
+          chunk.encodedCerts.clear();
+        }
+        parsedChunks.put(chunk);
+      } catch (Exception ex) {
+        chunkPermits.release();
+        fail(ex);
+      }
+    } // method parseChunk
+
+    private void writeChunks() {
+      Connection conn = null;
+      PreparedStatement stmt = null;
+      try {
+        conn = datasource.getConnection();
+        conn.setAutoCommit(false);
+        stmt = datasource.prepareStatement(conn, SQL_ADD_CERT);
+      } catch (Exception ex) {
+        fail(ex);
+      }
+
+      try {
+        while (true) {
+          CertChunk chunk;
+          try {
+            chunk = parsedChunks.take();
+          } catch (InterruptedException ex) {
+            fail(ex);
+            break;
+          }
+
+          if (chunk == endOfChunks) {
+            break;
+          }
+
+          try {
+            // after a failure the chunks are only drained
+            if (!failed()) {
+              writeChunk(conn, stmt, chunk);
+            }
+          } finally {
+            chunkPermits.release();
+          }
+        }
+      } finally {
+        if (conn != null) {
+          releaseResources(stmt, null);
+          try {
+            conn.setAutoCommit(true);
+          } catch (SQLException ex) {
+            LOG.warn("could not recover AutoCommit: {}", ex.getMessage());
+          }
+          datasource.returnConnection(conn);
+        }
+      }
+    } // method writeChunks
+
+    private void writeChunk(Connection conn, PreparedStatement stmt, CertChunk chunk) {
+      if (!chunk.rows.isEmpty()) {
+        try {
+          for (CertRow row : chunk.rows) {
+            bindCert(stmt, row);
+            stmt.addBatch();
+          }
+          stmt.executeBatch();
+          conn.commit();
+        } catch (SQLException ex) {
+          try {
+            conn.rollback();
+          } catch (SQLException ex2) {
+            LOG.warn("could not rollback: {}", ex2.getMessage());
+          }
+          fail(translate(SQL_ADD_CERT, ex));
+          return;
+        }
+      }
+
+      try {
+        checkpoint(chunk);
+      } catch (IOException ex) {
+        fail(ex);
+      }
+    } // method writeChunk
+
+    private synchronized void checkpoint(CertChunk chunk) throws IOException {
+      processLog.addNumProcessed(chunk.rows.size());
+      committedChunks.put(chunk.key(), new CommittedChunk(chunk));
+      // release the memory
+      chunk.rows.clear();
+
+      boolean advanced = false;
+      CommittedChunk next;
+      while ((next = committedChunks.remove(nextChunkKey)) != null) {
+        advanced = true;
+        numCommitted += next.numRows;
+        if (next.lastId != -1) {
+          lastCommittedId = next.lastId;
+        }
+        nextChunkKey = next.lastInFile ? CertChunk.key(next.fileIndex + 1, 0) : nextChunkKey + 1;
+      }
+
+      if (advanced) {
+        echoToFile(CaDbEntryType.CERT + ":" + (numProcessedBefore + numCommitted) + ":"
+            + lastCommittedId, processLogFile);
+      }
+      processLog.printStatus();
+    } // method checkpoint
+
+  } // class CertsImportPipeline
+
+  // indexes and constraints of the table CERT which can be created after the import
+  private static final String[][] CERT_INDEXES = {
+    {"IDX_CA_FPK", "CA_ID", "FP_K"},
+    {"IDX_CA_FPS", "CA_ID", "FP_S"},
+    {"IDX_CA_FPRS", "CA_ID", "FP_RS"}};
+
+  private static final String[] CERT_UNIQUE_CONSTRAINT = {"CONST_CA_SN", "CA_ID", "SN"};
+
   private static final Logger LOG = LoggerFactory.getLogger(CaCertstoreDbImporter.class);
 
   private static final String SQL_ADD_CERT =
@@ -82,11 +485,23 @@ class CaCertstoreDbImporter extends DbPorter {
 
   private final int numCertsPerCommit;
 
+  private final int numThreads;
+
+  private final boolean deferIndexes;
+
   CaCertstoreDbImporter(DataSourceWrapper datasource, String srcDir, int numCertsPerCommit,
       boolean resume, AtomicBoolean stopMe) throws Exception {
+    this(datasource, srcDir, numCertsPerCommit, 1, false, resume, stopMe);
+  }
+
+  CaCertstoreDbImporter(DataSourceWrapper datasource, String srcDir, int numCertsPerCommit,
+      int numThreads, boolean deferIndexes, boolean resume, AtomicBoolean stopMe)
+      throws Exception {
     super(datasource, srcDir, stopMe);
 
     this.numCertsPerCommit = Args.positive(numCertsPerCommit, "numCertsPerCommit");
+    this.numThreads = Args.positive(numThreads, "numThreads");
+    this.deferIndexes = deferIndexes;
 
     File processLogFile = new File(baseDir, DbPorter.IMPORT_PROCESS_LOG_FILENAME);
     if (resume) {
@@ -250,6 +665,7 @@ class CaCertstoreDbImporter extends DbPorter {
   private Exception importEntries(CaDbEntryType type, CaCertstore certstore,
       File processLogFile, Integer numProcessedInLastProcess, Long idProcessedInLastProcess) {
     String tablesText = "table " + type.getTableName();
+    boolean indexesDropped = false;
 
     try {
       int numProcessedBefore = 0;
@@ -285,6 +701,12 @@ class CaCertstoreDbImporter extends DbPorter {
           throw new IllegalStateException("unsupported DbEntryType " + type);
       }
 
+      final boolean parallel = type == CaDbEntryType.CERT && numThreads > 1;
+      if (type == CaDbEntryType.CERT && deferIndexes) {
+        dropCertIndexes();
+        indexesDropped = true;
+      }
+
       final long remainingTotal = total - numProcessedBefore;
       final ProcessLog processLog = new ProcessLog(remainingTotal);
 
@@ -293,12 +715,16 @@ class CaCertstoreDbImporter extends DbPorter {
 
       DbPortFileNameIterator entriesFileIterator = null;
       PreparedStatement stmt = null;
+      // files to be imported by the pipeline
+      List<String> entriesFiles = new ArrayList<>();
 
       try {
         entriesFileIterator = new DbPortFileNameIterator(
             baseDir + File.separator + type.getDirName() + ".mf");
 
-        stmt = prepareStatement(sql);
+        if (!parallel) {
+          stmt = prepareStatement(sql);
+        }
 
         while (entriesFileIterator.hasNext()) {
           String entriesFile = baseDir + File.separator + type.getDirName()
@@ -321,6 +747,11 @@ class CaCertstoreDbImporter extends DbPorter {
             LOG.warn("invalid file name '{}', but will still be processed", entriesFile);
           }
 
+          if (parallel) {
+            entriesFiles.add(entriesFile);
+            continue;
+          }
+
           try {
             long lastId;
             switch (type) {
@@ -359,6 +790,23 @@ class CaCertstoreDbImporter extends DbPorter {
         }
       }
 
+      if (parallel && !entriesFiles.isEmpty()) {
+        try {
+          new CertsImportPipeline(processLogFile, processLog, numProcessedBefore, minId)
+              .importCerts(entriesFiles);
+        } catch (Exception ex) {
+          System.err.println("\ncould not import entries to " + tablesText
+              + ".\nplease continue with the option '--resume'");
+          LOG.error("Exception", ex);
+          return ex;
+        }
+      }
+
+      if (indexesDropped) {
+        indexesDropped = false;
+        createCertIndexes();
+      }
+
       processLog.printTrailer();
       echoToFile(type + ":" + (numProcessedBefore + processLog.numProcessed()) + ":-1",
           processLogFile);
@@ -370,9 +818,56 @@ class CaCertstoreDbImporter extends DbPorter {
           + "please continue with the option '--resume'");
       LOG.error("Exception", ex);
       return ex;
+    } finally {
+      if (indexesDropped) {
+        // do not leave the table without the unique constraint and the indexes
+        recreateCertIndexes();
+      }
     }
   } // method importEntries
 
+  private void dropCertIndexes() {
+    // the indexes may have been dropped by the interrupted import
+    String table = CaDbEntryType.CERT.getTableName();
+    try {
+      datasource.dropUniqueConstrain(connection, CERT_UNIQUE_CONSTRAINT[0], table);
+    } catch (DataAccessException ex) {
+      LOG.warn("could not drop constraint {}: {}", CERT_UNIQUE_CONSTRAINT[0], ex.getMessage());
+    }
+
+    for (String[] index : CERT_INDEXES) {
+      try {
+        datasource.dropIndex(connection, table, index[0]);
+      } catch (DataAccessException ex) {
+        LOG.warn("could not drop index {}: {}", index[0], ex.getMessage());
+      }
+    }
+  } // method dropCertIndexes
+
+  private void recreateCertIndexes() {
+    try {
+      createCertIndexes();
+    } catch (DataAccessException ex) {
+      System.err.println("\ncould not recreate the indexes of table "
+          + CaDbEntryType.CERT.getTableName() + ",\nplease continue with the options "
+          + "'--resume --defer-indexes' to create them");
+      LOG.error("could not recreate the indexes of table " + CaDbEntryType.CERT.getTableName(),
+          ex);
+    }
+  } // method recreateCertIndexes
+
+  private void createCertIndexes() throws DataAccessException {
+    String table = CaDbEntryType.CERT.getTableName();
+    System.out.println("creating indexes of " + table);
+    datasource.addUniqueConstrain(connection, CERT_UNIQUE_CONSTRAINT[0], table,
+        Arrays.copyOfRange(CERT_UNIQUE_CONSTRAINT, 1, CERT_UNIQUE_CONSTRAINT.length));
+    for (String[] index : CERT_INDEXES) {
+      datasource.createIndex(connection, index[0], table,
+          Arrays.copyOfRange(index, 1, index.length));
+    }
+    System.out.println(" created indexes of " + table);
+  } // method createCertIndexes
+
   private long importCerts(String entriesZipFile, long minId,
       File processLogFile, ProcessLog processLog, int numProcessedInLastProcess,
       PreparedStatement stmt, String sql) throws Exception {
@@ -425,71 +920,10 @@ class CaCertstoreDbImporter extends DbPorter {
         ZipEntry certZipEnty = zipFile.getEntry(filename);
         // rawcert
         byte[] encodedCert = IoUtil.read(zipFile.getInputStream(certZipEnty));
-
-        TBSCertificate tbsCert;
-        try {
-          Certificate cc = Certificate.getInstance(encodedCert);
-          tbsCert = cc.getTBSCertificate();
-        } catch (RuntimeException ex) {
-          LOG.error("could not parse certificate in file {}", filename);
-          LOG.debug("could not parse certificate in file " + filename, ex);
-          throw new CertificateException(ex.getMessage(), ex);
-        }
-
-        byte[] encodedKey = tbsCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes();
-
-        String b64Sha1FpCert = HashAlgo.SHA1.base64Hash(encodedCert);
-
-        // cert
-        String subjectText = X509Util.cutX500Name(tbsCert.getSubject(), maxX500nameLen);
+        CertRow row = parseCert(cert, encodedCert);
 
         try {
-          int idx = 1;
-
-          stmt.setLong(idx++, id);
-          stmt.setLong(idx++, cert.getUpdate());
-          stmt.setString(idx++, tbsCert.getSerialNumber().getPositiveValue().toString(16));
-
-          stmt.setString(idx++, subjectText);
-          long fpSubject = X509Util.fpCanonicalizedName(tbsCert.getSubject());
-          stmt.setLong(idx++, fpSubject);
-
-          if (cert.getFpRs() != null) {
-            stmt.setLong(idx++, cert.getFpRs());
-          } else {
-            stmt.setNull(idx++, Types.BIGINT);
-          }
-
-          stmt.setLong(idx++, tbsCert.getStartDate().getDate().getTime() / 1000);
-          stmt.setLong(idx++, tbsCert.getEndDate().getDate().getTime() / 1000);
-          setInt(stmt, idx++, cert.getRev());
-          setInt(stmt, idx++, cert.getRr());
-          setLong(stmt, idx++, cert.getRt());
-          setLong(stmt, idx++, cert.getRit());
-          setInt(stmt, idx++, cert.getPid());
-          setInt(stmt, idx++, cert.getCaId());
-
-          setInt(stmt, idx++, cert.getRid());
-          setInt(stmt, idx++, cert.getUid());
-          stmt.setLong(idx++, FpIdCalculator.hash(encodedKey));
-          Extension extension = tbsCert.getExtensions().getExtension(Extension.basicConstraints);
-          boolean ee = true;
-          if (extension != null) {
-            ASN1Encodable asn1 = extension.getParsedValue();
-            ee = !BasicConstraints.getInstance(asn1).isCA();
-          }
-
-          stmt.setInt(idx++, ee ? 1 : 0);
-          stmt.setInt(idx++, cert.getReqType());
-          String tidS = null;
-          if (cert.getTid() != null) {
-            tidS = cert.getTid();
-          }
-          stmt.setString(idx++, tidS);
-          stmt.setString(idx++, b64Sha1FpCert);
-          stmt.setString(idx++, cert.getRs());
-          stmt.setInt(idx++, cert.getCrlScope());
-          stmt.setString(idx++, Base64.encodeToString(encodedCert));
+          bindCert(stmt, row);
           stmt.addBatch();
         } catch (SQLException ex) {
           throw translate(sql, ex);
@@ -530,6 +964,77 @@ class CaCertstoreDbImporter extends DbPorter {
     }
   } // method importCerts
 
+  private CertRow parseCert(CaCertstore.Cert cert, byte[] encodedCert)
+      throws CertificateException {
+    TBSCertificate tbsCert;
+    try {
+      Certificate cc = Certificate.getInstance(encodedCert);
+      tbsCert = cc.getTBSCertificate();
+    } catch (RuntimeException ex) {
+      LOG.error("could not parse certificate in file {}", cert.getFile());
+      LOG.debug("could not parse certificate in file " + cert.getFile(), ex);
+      throw new CertificateException(ex.getMessage(), ex);
+    }
+
+    CertRow row = new CertRow();
+    row.cert = cert;
+    row.tbsCert = tbsCert;
+    row.b64Cert = Base64.encodeToString(encodedCert);
+    row.b64Sha1FpCert = HashAlgo.SHA1.base64Hash(encodedCert);
+    row.subjectText = X509Util.cutX500Name(tbsCert.getSubject(), maxX500nameLen);
+    row.fpSubject = X509Util.fpCanonicalizedName(tbsCert.getSubject());
+
+    byte[] encodedKey = tbsCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes();
+    row.fpKey = FpIdCalculator.hash(encodedKey);
+
+    Extension extension = tbsCert.getExtensions().getExtension(Extension.basicConstraints);
+    row.ee = true;
+    if (extension != null) {
+      ASN1Encodable asn1 = extension.getParsedValue();
+      row.ee = !BasicConstraints.getInstance(asn1).isCA();
+    }
+    return row;
+  } // method parseCert
+
+  private static void bindCert(PreparedStatement stmt, CertRow row) throws SQLException {
+    CaCertstore.Cert cert = row.cert;
+    TBSCertificate tbsCert = row.tbsCert;
+
+    int idx = 1;
+    stmt.setLong(idx++, cert.getId());
+    stmt.setLong(idx++, cert.getUpdate());
+    stmt.setString(idx++, tbsCert.getSerialNumber().getPositiveValue().toString(16));
+
+    stmt.setString(idx++, row.subjectText);
+    stmt.setLong(idx++, row.fpSubject);
+
+    if (cert.getFpRs() != null) {
+      stmt.setLong(idx++, cert.getFpRs());
+    } else {
+      stmt.setNull(idx++, Types.BIGINT);
+    }
+
+    stmt.setLong(idx++, tbsCert.getStartDate().getDate().getTime() / 1000);
+    stmt.setLong(idx++, tbsCert.getEndDate().getDate().getTime() / 1000);
+    setInt(stmt, idx++, cert.getRev());
+    setInt(stmt, idx++, cert.getRr());
+    setLong(stmt, idx++, cert.getRt());
+    setLong(stmt, idx++, cert.getRit());
+    setInt(stmt, idx++, cert.getPid());
+    setInt(stmt, idx++, cert.getCaId());
+
+    setInt(stmt, idx++, cert.getRid());
+    setInt(stmt, idx++, cert.getUid());
+    stmt.setLong(idx++, row.fpKey);
+    stmt.setInt(idx++, row.ee ? 1 : 0);
+    stmt.setInt(idx++, cert.getReqType());
+    stmt.setString(idx++, cert.getTid());
+    stmt.setString(idx++, row.b64Sha1FpCert);
+    stmt.setString(idx++, cert.getRs());
+    stmt.setInt(idx++, cert.getCrlScope());
+    stmt.setString(idx++, row.b64Cert);
+  } // method bindCert
+
   private long importCrls(String entriesZipFile, long minId,
       File processLogFile, ProcessLog processLog, int numProcessedInLastProcess,
       PreparedStatement stmt, String sql) throws Exception {
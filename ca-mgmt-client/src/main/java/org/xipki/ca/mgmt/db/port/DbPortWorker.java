@@ -87,13 +87,35 @@ public abstract class DbPortWorker implements Runnable {
 
     private final int batchEntriesPerCommit;
 
+    private final int numThreads;
+
+    private final boolean deferIndexes;
+
     public ImportCaDb(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
         String dbConfFile, boolean resume, String srcFolder, int batchEntriesPerCommit)
         throws PasswordResolverException, IOException {
+      this(datasourceFactory, passwordResolver, dbConfFile, resume, srcFolder,
+          batchEntriesPerCommit, 1, false);
+    }
+
+    /**
+     * Constructor.
+     * @param numThreads
+     *          Number of threads to import the certificates. The database connection pool must
+     *          provide at least numThreads + 1 connections.
+     * @param deferIndexes
+     *          Whether the indexes of the table CERT are created after the import of the
+     *          certificates. An interrupted import must be resumed with the same value.
+     */
+    public ImportCaDb(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
+        String dbConfFile, boolean resume, String srcFolder, int batchEntriesPerCommit,
+        int numThreads, boolean deferIndexes) throws PasswordResolverException, IOException {
       super(datasourceFactory, passwordResolver, dbConfFile);
       this.resume = resume;
       this.srcFolder = IoUtil.expandFilepath(srcFolder);
       this.batchEntriesPerCommit = batchEntriesPerCommit;
+      this.numThreads = numThreads;
+      this.deferIndexes = deferIndexes;
     }
 
     @Override
@@ -121,7 +143,7 @@ public abstract class DbPortWorker implements Runnable {
 
         // CertStore
         CaCertstoreDbImporter certStoreImporter = new CaCertstoreDbImporter(datasource,
-            srcFolder, batchEntriesPerCommit, resume, stopMe);
+            srcFolder, batchEntriesPerCommit, numThreads, deferIndexes, resume, stopMe);
         certStoreImporter.importToDb();
         certStoreImporter.close();
       } finally {
@@ -147,14 +169,36 @@ public abstract class DbPortWorker implements Runnable {
 
     private final int numCertsPerSelect;
 
+    private final int numThreads;
+
+    private final boolean storeEntries;
+
     public ExportCaDb(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
         String dbConfFile, String destFolder, boolean resume, int numCertsInBundle,
         int numCertsPerSelect) throws PasswordResolverException, IOException {
+      this(datasourceFactory, passwordResolver, dbConfFile, destFolder, resume, numCertsInBundle,
+          numCertsPerSelect, 1, false);
+    }
+
+    /**
+     * Constructor.
+     * @param numThreads
+     *          Number of threads to export the entries. The database connection pool must
+     *          provide at least numThreads + 1 connections.
+     * @param storeEntries
+     *          Whether the entries in the ZIP files are stored without compression.
+     */
+    public ExportCaDb(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
+        String dbConfFile, String destFolder, boolean resume, int numCertsInBundle,
+        int numCertsPerSelect, int numThreads, boolean storeEntries)
+        throws PasswordResolverException, IOException {
       super(datasourceFactory, passwordResolver, dbConfFile);
       this.destFolder = IoUtil.expandFilepath(destFolder);
       this.resume = resume;
       this.numCertsInBundle = numCertsInBundle;
       this.numCertsPerSelect = numCertsPerSelect;
+      this.numThreads = numThreads;
+      this.storeEntries = storeEntries;
       checkDestFolder();
     }
 
@@ -198,7 +242,7 @@ public abstract class DbPortWorker implements Runnable {
 
         // CertStore
         CaCertstoreDbExporter certStoreExporter = new CaCertstoreDbExporter(datasource, destFolder,
-            numCertsInBundle, numCertsPerSelect, resume, stopMe);
+            numCertsInBundle, numCertsPerSelect, numThreads, storeEntries, resume, stopMe);
         certStoreExporter.export();
         certStoreExporter.close();
       } finally {
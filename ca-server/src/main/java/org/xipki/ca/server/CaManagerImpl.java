@@ -40,8 +40,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -211,6 +215,7 @@ public class CaManagerImpl implements CaManager, Closeable {
           restartCaSystem();
         } else {
           LOG.debug("received no event to restart CA");
+          reloadChangedScopes();
         }
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "ScheduledCaRestarter");
@@ -227,6 +232,26 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   private static final String EVENT_CACHAGNE = "CA_CHANGE";
 
+  /**
+   * Scope of a change of the CA configuration. Each scope has its own system event, so that
+   * the slaves reload only the changed scopes instead of restarting the whole CA system.
+   * Within a scope, only the objects whose database entries differ from the loaded ones are
+   * reloaded.
+   */
+  private enum ChangeScope {
+    // the CA scope must be the last one, it refers to the objects of the other scopes
+    SIGNER,
+    CERTPROFILE,
+    PUBLISHER,
+    REQUESTOR,
+    CA; // CAs, CA aliases, and associations of CAs with profiles, publishers and requestors
+
+    String eventName() {
+      return EVENT_CACHAGNE + "." + name();
+    }
+
+  } // enum ChangeScope
+
   private final String lockInstanceId;
 
   private final CaIdNameMap idNameMap = new CaIdNameMap();
@@ -278,6 +303,26 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   private final Map<String, X509Ca> x509cas = new ConcurrentHashMap<>();
 
+  // master: scopes changed since the last notifyCaChange()
+  private final Set<ChangeScope> changedScopes = ConcurrentHashMap.newKeySet();
+
+  // slave: reloads the scopes whose change events have not been applied yet
+  private final ChangeScopeReloader<ChangeScope> scopeReloader =
+      new ChangeScopeReloader<ChangeScope>() {
+
+        @Override
+        protected Long getEventTime(ChangeScope scope) throws CaMgmtException {
+          SystemEvent event = queryExecutor.getSystemEvent(scope.eventName());
+          return (event == null) ? null : event.getEventTime();
+        }
+
+        @Override
+        protected void reload(ChangeScope scope) throws CaMgmtException {
+          reloadScope(scope);
+        }
+
+      };
+
   private final DataSourceFactory datasourceFactory;
 
   private final RestResponder restResponder;
@@ -286,6 +331,18 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   private CaServerConf caServerConf;
 
+  private KeypairPool keypairPool;
+
+  private ExecutorService certGenerationExecutor;
+
+  private ExecutorService publishQueueExecutor;
+
+  private int publishQueueThreads = 1;
+
+  private int publishQueueBatchSize = 100;
+
+  private File crlTmpDir;
+
   private boolean caSystemSetuped;
 
   private boolean signerInitialized;
@@ -441,6 +498,57 @@ public class CaManagerImpl implements CaManager, Closeable {
       throw new CaMgmtException(ex.getMessage(), ex);
     }
 
+    // only the master generates certificates
+    CaServerConf.KeypairPoolConf keypairPoolConf = caServerConf.getKeypairPool();
+    if (masterMode && keypairPoolConf != null && keypairPool == null) {
+      keypairPool = new KeypairPool(keypairPoolConf.getThreads(),
+          keypairPoolConf.getLowWatermark(), keypairPoolConf.getHighWatermark());
+    }
+
+    int certGenerationThreads = caServerConf.getCertGenerationThreads();
+    if (masterMode && certGenerationThreads > 1 && certGenerationExecutor == null) {
+      LOG.info("ca.certGenerationThreads: {}", certGenerationThreads);
+      final AtomicInteger threadIndex = new AtomicInteger();
+      certGenerationExecutor = Executors.newFixedThreadPool(certGenerationThreads,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable,
+                  "cert-generation-" + threadIndex.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+
+    publishQueueThreads = caServerConf.getPublishQueueThreads();
+    publishQueueBatchSize = caServerConf.getPublishQueueBatchSize();
+    if (masterMode && publishQueueThreads > 1 && publishQueueExecutor == null) {
+      LOG.info("ca.publishQueueThreads: {}, ca.publishQueueBatchSize: {}",
+          publishQueueThreads, publishQueueBatchSize);
+      final AtomicInteger threadIndex = new AtomicInteger();
+      publishQueueExecutor = Executors.newFixedThreadPool(publishQueueThreads,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable,
+                  "publish-queue-" + threadIndex.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+
+    String crlTmpDirName = caServerConf.getCrlTmpDir();
+    if (StringUtil.isNotBlank(crlTmpDirName)) {
+      crlTmpDir = new File(IoUtil.expandFilepath(crlTmpDirName));
+      if (!crlTmpDir.exists() && !crlTmpDir.mkdirs()) {
+        LOG.warn("could not create directory {}, use the default temporary directory",
+            crlTmpDir);
+        crlTmpDir = null;
+      }
+    }
+
     initCaAliases();
     initCertprofiles();
     initPublishers();
@@ -573,19 +681,290 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
   } // method restartCaSystem
 
+  private void reloadChangedScopes() {
+    if (!caSystemSetuped) {
+      return;
+    }
+
+    scopeReloader.reloadChangedScopes(ChangeScope.values(), lastStartTime.getTime() / 1000L);
+  } // method reloadChangedScopes
+
+  private void reloadScope(ChangeScope scope) throws CaMgmtException {
+    try {
+      switch (scope) {
+        case SIGNER:
+          reloadSigners();
+          break;
+        case CERTPROFILE:
+          reloadCertprofiles();
+          break;
+        case PUBLISHER:
+          reloadPublishers();
+          break;
+        case REQUESTOR:
+          reloadRequestors();
+          break;
+        case CA:
+          reloadCas();
+          break;
+        default:
+          throw new IllegalStateException("unknown ChangeScope " + scope);
+      }
+    } catch (CaMgmtException | RuntimeException ex) {
+      auditLogPciEvent(false, "CA_CHANGE");
+      throw ex;
+    }
+    auditLogPciEvent(true, "CA_CHANGE");
+  } // method reloadScope
+
+  private void reloadSigners() throws CaMgmtException {
+    List<String> names = queryExecutor.namesFromTable("SIGNER");
+    for (String name : new ArrayList<>(signerDbEntries.keySet())) {
+      if (!names.contains(name)) {
+        signerDbEntries.remove(name);
+        signers.remove(name);
+        LOG.info("removed signer {}", name);
+      }
+    }
+
+    for (String name : names) {
+      MgmtEntry.Signer entry = queryExecutor.createSigner(name);
+      if (entry == null) {
+        LOG.error("could not initialize signer '{}'", name);
+        continue;
+      }
+
+      MgmtEntry.Signer oldEntry = signerDbEntries.get(name);
+      if (entry.equals(oldEntry) && !oldEntry.isFaulty()) {
+        continue;
+      }
+
+      entry.setConfFaulty(true);
+      signerDbEntries.put(name, entry);
+
+      SignerEntryWrapper signer;
+      try {
+        signer = createSigner(entry);
+      } catch (CaMgmtException ex) {
+        LogUtil.error(LOG, ex, "could not load signer " + name);
+        signers.remove(name);
+        continue;
+      }
+
+      entry.setConfFaulty(false);
+      signers.put(name, signer);
+      LOG.info("reloaded signer {}", name);
+
+      for (String caName : scepResponders.keySet()) {
+        if (name.equals(getCa(caName).getScepResponderName())) {
+          scepResponders.get(caName).setResponder(signer);
+        }
+      }
+    }
+  } // method reloadSigners
+
+  private void reloadCertprofiles() throws CaMgmtException {
+    List<String> names = queryExecutor.namesFromTable("PROFILE");
+    for (String name : new ArrayList<>(certprofileDbEntries.keySet())) {
+      if (!names.contains(name)) {
+        idNameMap.removeCertprofile(certprofileDbEntries.remove(name).getIdent().getId());
+        shutdownCertprofile(certprofiles.remove(name));
+        LOG.info("removed certprofile {}", name);
+      }
+    }
+
+    for (String name : names) {
+      MgmtEntry.Certprofile dbEntry = queryExecutor.createCertprofile(name);
+      if (dbEntry == null) {
+        LOG.error("could not initialize Certprofile '{}'", name);
+        continue;
+      }
+
+      MgmtEntry.Certprofile oldEntry = certprofileDbEntries.get(name);
+      if (dbEntry.equals(oldEntry) && !oldEntry.isFaulty()) {
+        continue;
+      }
+
+      if (oldEntry != null) {
+        idNameMap.removeCertprofile(oldEntry.getIdent().getId());
+      }
+      idNameMap.addCertprofile(dbEntry.getIdent());
+      dbEntry.setFaulty(true);
+      certprofileDbEntries.put(name, dbEntry);
+
+      IdentifiedCertprofile profile;
+      try {
+        profile = createCertprofile(dbEntry);
+      } catch (CaMgmtException ex) {
+        LogUtil.error(LOG, ex, "could not load certprofile " + name);
+        shutdownCertprofile(certprofiles.remove(name));
+        continue;
+      }
+
+      dbEntry.setFaulty(false);
+      shutdownCertprofile(certprofiles.put(name, profile));
+      LOG.info("reloaded certprofile {}", name);
+    }
+  } // method reloadCertprofiles
+
+  private void reloadPublishers() throws CaMgmtException {
+    List<String> names = queryExecutor.namesFromTable("PUBLISHER");
+    for (String name : new ArrayList<>(publisherDbEntries.keySet())) {
+      if (!names.contains(name)) {
+        idNameMap.removePublisher(publisherDbEntries.remove(name).getIdent().getId());
+        shutdownPublisher(publishers.remove(name));
+        LOG.info("removed publisher {}", name);
+      }
+    }
+
+    for (String name : names) {
+      MgmtEntry.Publisher dbEntry = queryExecutor.createPublisher(name);
+      if (dbEntry == null) {
+        LOG.error("could not initialize publisher '{}'", name);
+        continue;
+      }
+
+      MgmtEntry.Publisher oldEntry = publisherDbEntries.get(name);
+      if (dbEntry.equals(oldEntry) && !oldEntry.isFaulty()) {
+        continue;
+      }
+
+      if (oldEntry != null) {
+        idNameMap.removePublisher(oldEntry.getIdent().getId());
+      }
+      idNameMap.addPublisher(dbEntry.getIdent());
+      dbEntry.setFaulty(true);
+      publisherDbEntries.put(name, dbEntry);
+
+      IdentifiedCertPublisher publisher;
+      try {
+        publisher = createPublisher(dbEntry);
+      } catch (CaMgmtException ex) {
+        LogUtil.error(LOG, ex, "could not load publisher " + name);
+        shutdownPublisher(publishers.remove(name));
+        continue;
+      }
+
+      dbEntry.setFaulty(false);
+      shutdownPublisher(publishers.put(name, publisher));
+      LOG.info("reloaded publisher {}", name);
+    }
+  } // method reloadPublishers
+
+  private void reloadRequestors() throws CaMgmtException {
+    List<String> names = queryExecutor.namesFromTable("REQUESTOR");
+    for (String name : new ArrayList<>(requestorDbEntries.keySet())) {
+      if (!names.contains(name)) {
+        idNameMap.removeRequestor(requestorDbEntries.remove(name).getIdent().getId());
+        requestors.remove(name);
+        LOG.info("removed requestor {}", name);
+      }
+    }
+
+    for (String name : names) {
+      if (RequestorInfo.NAME_BY_CA.equals(name) || RequestorInfo.NAME_BY_USER.equals(name)) {
+        continue;
+      }
+
+      MgmtEntry.Requestor dbEntry = queryExecutor.createRequestor(name);
+      if (dbEntry == null) {
+        LOG.error("could not load requestor {}", name);
+        continue;
+      }
+
+      MgmtEntry.Requestor oldEntry = requestorDbEntries.get(name);
+      if (dbEntry.equals(oldEntry)) {
+        continue;
+      }
+
+      if (oldEntry != null) {
+        idNameMap.removeRequestor(oldEntry.getIdent().getId());
+      }
+      idNameMap.addRequestor(dbEntry.getIdent());
+      requestorDbEntries.put(name, dbEntry);
+      RequestorEntryWrapper requestor = new RequestorEntryWrapper();
+      requestor.setDbEntry(dbEntry, securityFactory.getPasswordResolver());
+      requestors.put(name, requestor);
+      LOG.info("reloaded requestor {}", name);
+    }
+  } // method reloadRequestors
+
+  private void reloadCas() throws CaMgmtException {
+    caAliasesInitialized = false;
+    initCaAliases();
+
+    List<String> names = queryExecutor.namesFromTable("CA");
+    for (String name : new ArrayList<>(caInfos.keySet())) {
+      if (!names.contains(name)) {
+        removeCa0(name);
+        LOG.info("removed CA {}", name);
+      }
+    }
+
+    for (String name : names) {
+      CaInfo oldCa = caInfos.get(name);
+      if (oldCa != null) {
+        CaInfo ca = queryExecutor.createCaInfo(name, masterMode, certstore);
+        if (ca.getCaEntry().equals(oldCa.getCaEntry(), true, false)) {
+          // only the associations may have been changed
+          loadCaAssociations(name, oldCa.getIdent());
+          continue;
+        }
+      }
+
+      if (!createCa(name)) {
+        LOG.error("could not create CA {}", name);
+        continue;
+      }
+
+      if (CaStatus.ACTIVE == caInfos.get(name).getCaEntry().getStatus()) {
+        if (startCa(name)) {
+          LOG.info("reloaded CA {}", name);
+        } else {
+          LOG.error("could not start CA {}", name);
+        }
+      }
+    }
+  } // method reloadCas
+
   @Override
   public void notifyCaChange() throws CaMgmtException {
+    long eventTime = System.currentTimeMillis() / 1000L;
     try {
-      SystemEvent systemEvent = new SystemEvent(EVENT_CACHAGNE, lockInstanceId,
-          System.currentTimeMillis() / 1000L);
-      queryExecutor.changeSystemEvent(systemEvent);
-      LOG.info("notified the change of CA system");
+      if (changedScopes.isEmpty()) {
+        // changes unknown to this instance, e.g. made before its restart: restart the slaves
+        SystemEvent systemEvent = new SystemEvent(EVENT_CACHAGNE, lockInstanceId, eventTime);
+        queryExecutor.changeSystemEvent(systemEvent);
+        LOG.info("notified the change of CA system");
+        return;
+      }
+
+      List<ChangeScope> scopes = new ArrayList<>(changedScopes.size());
+      for (ChangeScope scope : ChangeScope.values()) {
+        if (!changedScopes.remove(scope)) {
+          continue;
+        }
+
+        try {
+          queryExecutor.changeSystemEvent(
+              new SystemEvent(scope.eventName(), lockInstanceId, eventTime));
+        } catch (CaMgmtException ex) {
+          changedScopes.add(scope);
+          throw ex;
+        }
+        scopes.add(scope);
+      }
+      LOG.info("notified the change of CA system in the scopes {}", scopes);
     } catch (CaMgmtException ex) {
       LogUtil.warn(LOG, ex, "could not notify slave CAs to restart");
       throw ex;
     }
   } // method notifyCaChange
 
+  private void markChanged(ChangeScope scope) {
+    changedScopes.add(scope);
+  }
+
   public void startCaSystem() {
     boolean caSystemStarted = false;
     try {
@@ -785,6 +1164,21 @@ public class CaManagerImpl implements CaManager, Closeable {
       persistentScheduledThreadPoolExecutor = null;
     }
 
+    if (keypairPool != null) {
+      keypairPool.close();
+      keypairPool = null;
+    }
+
+    if (certGenerationExecutor != null) {
+      certGenerationExecutor.shutdown();
+      certGenerationExecutor = null;
+    }
+
+    if (publishQueueExecutor != null) {
+      publishQueueExecutor.shutdown();
+      publishQueueExecutor = null;
+    }
+
     for (String caName : x509cas.keySet()) {
       X509Ca ca = x509cas.get(caName);
       try {
@@ -841,6 +1235,30 @@ public class CaManagerImpl implements CaManager, Closeable {
     return scheduledThreadPoolExecutor;
   }
 
+  KeypairPool getKeypairPool() {
+    return keypairPool;
+  }
+
+  ExecutorService getCertGenerationExecutor() {
+    return certGenerationExecutor;
+  }
+
+  ExecutorService getPublishQueueExecutor() {
+    return publishQueueExecutor;
+  }
+
+  int getPublishQueueThreads() {
+    return publishQueueThreads;
+  }
+
+  int getPublishQueueBatchSize() {
+    return publishQueueBatchSize;
+  }
+
+  File getCrlTmpDir() {
+    return crlTmpDir;
+  }
+
   @Override
   public Set<String> getCertprofileNames() {
     return certprofileDbEntries.keySet();
@@ -1076,6 +1494,17 @@ public class CaManagerImpl implements CaManager, Closeable {
   } // method initCas
 
   private boolean createCa(String name) throws CaMgmtException {
+    removeCa0(name);
+
+    CaInfo ca = queryExecutor.createCaInfo(name, masterMode, certstore);
+    LOG.info("created CA {}: {}", name, ca.toString(false));
+    caInfos.put(name, ca);
+    idNameMap.addCa(ca.getIdent());
+    loadCaAssociations(name, ca.getIdent());
+    return true;
+  } // method createCa
+
+  private void removeCa0(String name) {
     caInfos.remove(name);
     idNameMap.removeCa(name);
     caHasProfiles.remove(name);
@@ -1087,12 +1516,10 @@ public class CaManagerImpl implements CaManager, Closeable {
     if (oldCa != null) {
       oldCa.close();
     }
+  } // method removeCa0
 
-    CaInfo ca = queryExecutor.createCaInfo(name, masterMode, certstore);
-    LOG.info("created CA {}: {}", name, ca.toString(false));
-    caInfos.put(name, ca);
-    idNameMap.addCa(ca.getIdent());
-    Set<MgmtEntry.CaHasRequestor> caReqEntries = queryExecutor.createCaHasRequestors(ca.getIdent());
+  private void loadCaAssociations(String name, NameId caIdent) throws CaMgmtException {
+    Set<MgmtEntry.CaHasRequestor> caReqEntries = queryExecutor.createCaHasRequestors(caIdent);
     caHasRequestors.put(name, caReqEntries);
     if (LOG.isInfoEnabled()) {
       StringBuilder sb = new StringBuilder();
@@ -1102,7 +1529,7 @@ public class CaManagerImpl implements CaManager, Closeable {
       LOG.info("CA {} is associated with following requestors:{}", name, sb);
     }
 
-    Set<Integer> profileIds = queryExecutor.createCaHasProfiles(ca.getIdent());
+    Set<Integer> profileIds = queryExecutor.createCaHasProfiles(caIdent);
     Set<String> profileNames = new HashSet<>();
     for (Integer id : profileIds) {
       profileNames.add(idNameMap.getCertprofileName(id));
@@ -1110,16 +1537,14 @@ public class CaManagerImpl implements CaManager, Closeable {
     caHasProfiles.put(name, profileNames);
     LOG.info("CA {} is associated with following profiles: {}", name, profileNames);
 
-    Set<Integer> publisherIds = queryExecutor.createCaHasPublishers(ca.getIdent());
+    Set<Integer> publisherIds = queryExecutor.createCaHasPublishers(caIdent);
     Set<String> publisherNames = new HashSet<>();
     for (Integer id : publisherIds) {
       publisherNames.add(idNameMap.getPublisherName(id));
     }
     caHasPublishers.put(name, publisherNames);
     LOG.info("CA {} is associated with following publishers: {}", name, publisherNames);
-
-    return true;
-  } // method createCa
+  } // method loadCaAssociations
 
   public void commitNextCrlNo(NameId ca, long nextCrlNo) throws OperationException {
     try {
@@ -1177,6 +1602,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.addCa(caEntry);
+    markChanged(ChangeScope.CA);
     if (createCa(name)) {
       if (startCa(name)) {
         LOG.info("started CA {}", name);
@@ -1207,6 +1633,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     entry.getIdent().setId(ident.getId());
 
     queryExecutor.changeCa(entry, caInfos.get(name).getCaEntry(), securityFactory);
+    markChanged(ChangeScope.CA);
 
     if (createCa(name)) {
       CaInfo caInfo = caInfos.get(name);
@@ -1231,6 +1658,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     assertMasterModeAndSetuped();
 
     queryExecutor.removeCertprofileFromCa(profileName, caName);
+    markChanged(ChangeScope.CA);
 
     if (caHasProfiles.containsKey(caName)) {
       Set<String> set = caHasProfiles.get(caName);
@@ -1272,6 +1700,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.addCertprofileToCa(ident, caIdent);
+    markChanged(ChangeScope.CA);
     set.add(profileName);
   } // method addCertprofileToCa
 
@@ -1282,6 +1711,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     assertMasterModeAndSetuped();
 
     queryExecutor.removePublisherFromCa(publisherName, caName);
+    markChanged(ChangeScope.CA);
 
     Set<String> publisherNames = caHasPublishers.get(caName);
     if (publisherNames != null) {
@@ -1322,6 +1752,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.addPublisherToCa(idNameMap.getPublisher(publisherName), caIdent);
+    markChanged(ChangeScope.CA);
     publisherNames.add(publisherName);
     caHasPublishers.get(caName).add(publisherName);
 
@@ -1376,6 +1807,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     requestor.setDbEntry(requestorEntry, pwdResolver);
 
     queryExecutor.addRequestor(requestorEntry);
+    markChanged(ChangeScope.REQUESTOR);
     idNameMap.addRequestor(requestorEntry.getIdent());
     requestorDbEntries.put(name, requestorEntry);
     requestors.put(name, requestor);
@@ -1403,6 +1835,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     if (!queryExecutor.deleteRowWithName(name, "REQUESTOR")) {
       throw new CaMgmtException("unknown requestor " + name);
     }
+    markChanged(ChangeScope.REQUESTOR);
 
     idNameMap.removeRequestor(requestorDbEntries.get(name).getIdent().getId());
     requestorDbEntries.remove(name);
@@ -1425,6 +1858,7 @@ public class CaManagerImpl implements CaManager, Closeable {
 
     RequestorEntryWrapper requestor = queryExecutor.changeRequestor(ident, type, conf,
         securityFactory.getPasswordResolver());
+    markChanged(ChangeScope.REQUESTOR);
 
     requestorDbEntries.remove(name);
     requestors.remove(name);
@@ -1445,6 +1879,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.removeRequestorFromCa(requestorName, caName);
+    markChanged(ChangeScope.CA);
     if (caHasRequestors.containsKey(caName)) {
       Set<MgmtEntry.CaHasRequestor> entries = caHasRequestors.get(caName);
       MgmtEntry.CaHasRequestor entry = null;
@@ -1496,6 +1931,7 @@ public class CaManagerImpl implements CaManager, Closeable {
 
     cmpRequestors.add(requestor);
     queryExecutor.addRequestorToCa(requestor, caIdent);
+    markChanged(ChangeScope.CA);
     caHasRequestors.get(caName).add(requestor);
   } // method addRequestorToCa
 
@@ -1547,6 +1983,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     if (!bo) {
       throw new CaMgmtException("unknown profile " + name);
     }
+    markChanged(ChangeScope.CERTPROFILE);
 
     LOG.info("removed profile '{}'", name);
     idNameMap.removeCertprofile(certprofileDbEntries.get(name).getIdent().getId());
@@ -1573,6 +2010,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     assertMasterModeAndSetuped();
 
     IdentifiedCertprofile profile = queryExecutor.changeCertprofile(ident, type, conf, this);
+    markChanged(ChangeScope.CERTPROFILE);
 
     certprofileDbEntries.remove(name);
     IdentifiedCertprofile oldProfile = certprofiles.remove(name);
@@ -1602,6 +2040,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     certprofileEntry.setFaulty(false);
     certprofiles.put(name, profile);
     queryExecutor.addCertprofile(certprofileEntry);
+    markChanged(ChangeScope.CERTPROFILE);
     idNameMap.addCertprofile(certprofileEntry.getIdent());
     certprofileDbEntries.put(name, certprofileEntry);
   } // method addCertprofile
@@ -1625,6 +2064,7 @@ public class CaManagerImpl implements CaManager, Closeable {
 
     SignerEntryWrapper signer = createSigner(signerEntry);
     queryExecutor.addSigner(signerEntry);
+    markChanged(ChangeScope.SIGNER);
     signers.put(name, signer);
     signerDbEntries.put(name, signerEntry);
   } // method addSigner
@@ -1637,6 +2077,8 @@ public class CaManagerImpl implements CaManager, Closeable {
     if (!bo) {
       throw new CaMgmtException("unknown signer " + name);
     }
+    markChanged(ChangeScope.SIGNER);
+    markChanged(ChangeScope.CA);
 
     for (String caName : caInfos.keySet()) {
       CaInfo caInfo = caInfos.get(caName);
@@ -1674,6 +2116,7 @@ public class CaManagerImpl implements CaManager, Closeable {
 
     SignerEntryWrapper newResponder = queryExecutor.changeSigner(name, type, conf,
         base64Cert, this, securityFactory);
+    markChanged(ChangeScope.SIGNER);
 
     signers.remove(name);
     signerDbEntries.remove(name);
@@ -1711,6 +2154,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     entry.setFaulty(false);
 
     queryExecutor.addPublisher(entry);
+    markChanged(ChangeScope.PUBLISHER);
 
     publishers.put(name, publisher);
     idNameMap.addPublisher(entry.getIdent());
@@ -1753,6 +2197,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     if (!bo) {
       throw new CaMgmtException("unknown publisher " + name);
     }
+    markChanged(ChangeScope.PUBLISHER);
 
     LOG.info("removed publisher '{}'", name);
     publisherDbEntries.remove(name);
@@ -1772,6 +2217,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     IdentifiedCertPublisher publisher = queryExecutor.changePublisher(name, type, conf, this);
+    markChanged(ChangeScope.PUBLISHER);
 
     IdentifiedCertPublisher oldPublisher = publishers.remove(name);
     shutdownPublisher(oldPublisher);
@@ -1804,6 +2250,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.addCaAlias(aliasName, ca.getCaIdent());
+    markChanged(ChangeScope.CA);
     caAliases.put(aliasName, ca.getCaIdent().getId());
   } // method addCaAlias
 
@@ -1812,6 +2259,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     name = Args.toNonBlankLower(name, "name");
     assertMasterModeAndSetuped();
     queryExecutor.removeCaAlias(name);
+    markChanged(ChangeScope.CA);
     caAliases.remove(name);
   } // method removeCaAlias
 
@@ -1872,20 +2320,10 @@ public class CaManagerImpl implements CaManager, Closeable {
     assertMasterModeAndSetuped();
 
     queryExecutor.removeCa(name);
+    markChanged(ChangeScope.CA);
 
     LOG.info("removed CA '{}'", name);
-    caInfos.remove(name);
-    idNameMap.removeCa(name);
-    idNameMap.removeCa(name);
-    caHasProfiles.remove(name);
-    caHasPublishers.remove(name);
-    caHasRequestors.remove(name);
-    X509Ca ca = x509cas.remove(name);
-    cmpResponders.remove(name);
-    scepResponders.remove(name);
-    if (ca != null) {
-      ca.close();
-    }
+    removeCa0(name);
   } // method removeCa
 
   @Override
@@ -1928,6 +2366,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.revokeCa(caName, revocationInfo);
+    markChanged(ChangeScope.CA);
 
     try {
       ca.revokeCa(revocationInfo, CaAuditConstants.MSGID_ca_mgmt);
@@ -1950,6 +2389,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     LOG.info("unrevoking of CA '{}'", caName);
 
     queryExecutor.unrevokeCa(caName);
+    markChanged(ChangeScope.CA);
 
     X509Ca ca = x509cas.get(caName);
     try {
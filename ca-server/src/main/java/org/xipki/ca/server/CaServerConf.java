@@ -126,6 +126,62 @@ public class CaServerConf extends ValidatableConf {
 
   }
 
+  public static class KeypairPoolConf extends ValidatableConf {
+
+    /**
+     * number of threads to generate the keypairs in background.
+     */
+    private int threads = 2;
+
+    /**
+     * if the number of keypairs in a pool is less than lowWatermark, the pool will be refilled.
+     */
+    private int lowWatermark = 10;
+
+    /**
+     * maximal number of keypairs in a pool.
+     */
+    private int highWatermark = 50;
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getLowWatermark() {
+      return lowWatermark;
+    }
+
+    public void setLowWatermark(int lowWatermark) {
+      this.lowWatermark = lowWatermark;
+    }
+
+    public int getHighWatermark() {
+      return highWatermark;
+    }
+
+    public void setHighWatermark(int highWatermark) {
+      this.highWatermark = highWatermark;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (threads < 1) {
+        throw new InvalidConfException("keypairPool.threads is not positive");
+      }
+
+      if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+        throw new InvalidConfException(
+            "keypairPool.lowWatermark and keypairPool.highWatermark do not satisfy "
+            + "0 <= lowWatermark < highWatermark");
+      }
+    }
+
+  } // class KeypairPoolConf
+
   private AuditConf audit;
 
   private SecurityConf security;
@@ -149,6 +205,36 @@ public class CaServerConf extends ValidatableConf {
 
   private CtLogConf ctLog;
 
+  /**
+   * pool of keypairs generated in background for the CA-generated keypairs. If not set,
+   * the keypairs are generated on demand.
+   */
+  private KeypairPoolConf keypairPool;
+
+  /**
+   * number of threads to generate the certificates of requests with more than one certificate
+   * template in parallel. The default is 1, the certificates are generated sequentially.
+   */
+  private int certGenerationThreads = 1;
+
+  /**
+   * number of threads to publish the certificates in the publish queue in parallel. The default
+   * is 1, the certificates are published sequentially.
+   */
+  private int publishQueueThreads = 1;
+
+  /**
+   * number of certificates read from the publish queue, passed to the publisher and removed
+   * from the queue in one batch.
+   */
+  private int publishQueueBatchSize = 100;
+
+  /**
+   * directory of the temporary files used to build the CRLs. Relative paths are resolved
+   * against XIPKI_BASE.
+   */
+  private String crlTmpDir = "tmp/crl";
+
   /**
    * list of classes that implement org.xipki.ca.api.profile.CertprofileFactory
    */
@@ -254,6 +340,46 @@ public class CaServerConf extends ValidatableConf {
     this.ctLog = ctLog;
   }
 
+  public KeypairPoolConf getKeypairPool() {
+    return keypairPool;
+  }
+
+  public void setKeypairPool(KeypairPoolConf keypairPool) {
+    this.keypairPool = keypairPool;
+  }
+
+  public int getCertGenerationThreads() {
+    return certGenerationThreads;
+  }
+
+  public void setCertGenerationThreads(int certGenerationThreads) {
+    this.certGenerationThreads = certGenerationThreads;
+  }
+
+  public int getPublishQueueThreads() {
+    return publishQueueThreads;
+  }
+
+  public void setPublishQueueThreads(int publishQueueThreads) {
+    this.publishQueueThreads = publishQueueThreads;
+  }
+
+  public int getPublishQueueBatchSize() {
+    return publishQueueBatchSize;
+  }
+
+  public void setPublishQueueBatchSize(int publishQueueBatchSize) {
+    this.publishQueueBatchSize = publishQueueBatchSize;
+  }
+
+  public String getCrlTmpDir() {
+    return crlTmpDir;
+  }
+
+  public void setCrlTmpDir(String crlTmpDir) {
+    this.crlTmpDir = crlTmpDir;
+  }
+
   public synchronized SslContextConf getSslContextConf(String name) {
     if (sslContexts == null || sslContexts.isEmpty()) {
       return null;
@@ -281,9 +407,22 @@ public class CaServerConf extends ValidatableConf {
       throw new InvalidConfException("shardId is not in [0, 127]");
     }
 
+    if (certGenerationThreads < 1) {
+      throw new InvalidConfException("certGenerationThreads is not positive");
+    }
+
+    if (publishQueueThreads < 1) {
+      throw new InvalidConfException("publishQueueThreads is not positive");
+    }
+
+    if (publishQueueBatchSize < 1) {
+      throw new InvalidConfException("publishQueueBatchSize is not positive");
+    }
+
     notEmpty(datasources, "datasources");
     validate(remoteMgmt);
     validate(security);
+    validate(keypairPool);
   } // method validate
 
 }
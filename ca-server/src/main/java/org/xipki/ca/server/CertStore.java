@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -38,10 +39,14 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.DERPrintableString;
@@ -173,8 +178,90 @@ public class CertStore {
 
   } // class SerialWithId
 
+  private class PendingCert {
+
+    private final NameId ca;
+
+    private final CertWithDbId certificate;
+
+    private final NameId certprofile;
+
+    private final NameId requestor;
+
+    private final Integer userId;
+
+    private final RequestType reqType;
+
+    private final String tid;
+
+    private final List<NameId> publishQueue;
+
+    private final long certId;
+
+    private final long fpPk;
+
+    private final String subjectText;
+
+    private final long fpSubject;
+
+    private final Long fpReqSubject;
+
+    private final String reqSubjectText;
+
+    private final String b64FpCert;
+
+    private final String b64Cert;
+
+    // guarded by addCertLock
+    private Throwable exception;
+
+    private volatile boolean done;
+
+    PendingCert(NameId ca, CertWithDbId certificate, byte[] encodedSubjectPublicKey,
+        NameId certprofile, NameId requestor, Integer userId, RequestType reqType,
+        byte[] transactionId, X500Name reqSubject, List<NameId> publishQueue) {
+      this.ca = Args.notNull(ca, "ca");
+      this.certificate = Args.notNull(certificate, "certificate");
+      this.certprofile = Args.notNull(certprofile, "certprofile");
+      this.requestor = Args.notNull(requestor, "requestor");
+      this.userId = userId;
+      this.reqType = reqType;
+      this.tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
+      this.publishQueue = publishQueue;
+
+      this.certId = idGenerator.nextId();
+      this.fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
+      this.subjectText = X509Util.cutText(
+          certificate.getCert().getSubjectRfc4519Text(), maxX500nameLen);
+      this.fpSubject = X509Util.fpCanonicalizedName(certificate.getCert().getSubject());
+
+      Long fpReqSubject = null;
+      String reqSubjectText = null;
+      if (reqSubject != null) {
+        fpReqSubject = X509Util.fpCanonicalizedName(reqSubject);
+        if (fpSubject == fpReqSubject) {
+          fpReqSubject = null;
+        } else {
+          reqSubjectText = X509Util.cutX500Name(CaUtil.sortX509Name(reqSubject), maxX500nameLen);
+        }
+      }
+      this.fpReqSubject = fpReqSubject;
+      this.reqSubjectText = reqSubjectText;
+
+      byte[] encodedCert = certificate.getCert().getEncoded();
+      this.b64FpCert = base64Fp(encodedCert);
+      this.b64Cert = Base64.encodeToString(encodedCert);
+    } // constructor
+
+  } // class PendingCert
+
   private static final Logger LOG = LoggerFactory.getLogger(CertStore.class);
 
+  private static final int MAX_ADD_CERT_BATCH_SIZE = 500;
+
+  // Oracle accepts at most 1000 expressions in an IN list
+  private static final int MAX_IN_LIST_SIZE = 1000;
+
   private static final String SQL_ADD_CERT =
       "INSERT INTO CERT (ID,LUPDATE,SN,SUBJECT,FP_S,FP_RS,NBEFORE,NAFTER,REV,PID,"
       + "CA_ID,RID,UID,FP_K,EE,RTYPE,TID,SHA1,REQ_SUBJECT,CRL_SCOPE,CERT)"
@@ -192,9 +279,15 @@ public class CertStore {
   private static final String SQL_REMOVE_PUBLISHQUEUE =
       "DELETE FROM PUBLISHQUEUE WHERE PID=? AND CID=?";
 
+  private static final String SQL_COUNT_PUBLISHQUEUE =
+      "SELECT COUNT(*) FROM PUBLISHQUEUE WHERE PID=? AND CA_ID=?";
+
   private static final String SQL_MAXID_DELTACRL_CACHE =
       "SELECT MAX(ID) FROM DELTACRL_CACHE WHERE CA_ID=?";
 
+  private static final String SQL_MINID_DELTACRL_CACHE =
+      "SELECT MIN(ID) FROM DELTACRL_CACHE WHERE CA_ID=?";
+
   private static final String SQL_CLEAR_DELTACRL_CACHE =
       "DELETE FROM DELTACRL_CACHE WHERE ID<? AND CA_ID=?";
 
@@ -238,7 +331,7 @@ public class CertStore {
 
   private final String sqlKnowsCertForSerial;
 
-  private final String sqlRevForId;
+  private final String sqlRevForSerial;
 
   private final String sqlCertStatusForSubjectFp;
 
@@ -258,6 +351,8 @@ public class CertStore {
 
   private final LruCache<Integer, String> cacheSqlCidFromPublishQueue = new LruCache<>(5);
 
+  private final LruCache<Integer, String> cacheSqlCertsForIds = new LruCache<>(5);
+
   private final LruCache<Integer, String> cacheSqlExpiredSerials = new LruCache<>(5);
 
   private final LruCache<Integer, String> cacheSqlSuspendedSerials = new LruCache<>(5);
@@ -281,6 +376,10 @@ public class CertStore {
 
   private final UniqueIdGenerator idGenerator;
 
+  private final ConcurrentLinkedQueue<PendingCert> pendingCerts = new ConcurrentLinkedQueue<>();
+
+  private final ReentrantLock addCertLock = new ReentrantLock();
+
   public CertStore(DataSourceWrapper datasource, UniqueIdGenerator idGenerator)
       throws DataAccessException {
     this.datasource = Args.notNull(datasource, "datasource");
@@ -303,7 +402,8 @@ public class CertStore {
     this.sqlCaHasUser = buildSelectFirstSql(
         "PERMISSION,PROFILES FROM CA_HAS_USER WHERE CA_ID=? AND USER_ID=?");
     this.sqlKnowsCertForSerial = buildSelectFirstSql("UID FROM CERT WHERE SN=? AND CA_ID=?");
-    this.sqlRevForId = buildSelectFirstSql("SN,EE,REV,RR,RT,RIT FROM CERT WHERE ID=?");
+    this.sqlRevForSerial = buildSelectFirstSql(
+        "EE,REV,RR,RT,RIT,LUPDATE FROM CERT WHERE CA_ID=? AND SN=?");
     this.sqlCertStatusForSubjectFp = buildSelectFirstSql("REV FROM CERT WHERE FP_S=? AND CA_ID=?");
     this.sqlCertforSubjectIssued = buildSelectFirstSql("ID FROM CERT WHERE CA_ID=? AND FP_S=?");
     this.sqlCertForKeyIssued = buildSelectFirstSql("ID FROM CERT WHERE CA_ID=? AND FP_K=?");
@@ -323,11 +423,29 @@ public class CertStore {
   }
 
   public boolean addCert(CertificateInfo certInfo) {
+    return addCert(certInfo, null);
+  }
+
+  /**
+   * Adds the certificate to the database. Concurrent calls are grouped and written in JDBC
+   * batches within one transaction. This method returns only after the transaction containing
+   * the certificate has been committed.
+   *
+   * @param certInfo
+   *          Certificate to be added.
+   * @param publishQueue
+   *          Publishers for which the certificate will be added to the PUBLISHQUEUE in the same
+   *          transaction. May be {@code null}.
+   * @return whether the certificate has been added.
+   */
+  public boolean addCert(CertificateInfo certInfo, List<NameId> publishQueue) {
     Args.notNull(certInfo, "certInfo");
     try {
-      addCert(certInfo.getIssuer(), certInfo.getCert(), certInfo.getSubjectPublicKey(),
-          certInfo.getProfile(), certInfo.getRequestor(), certInfo.getUser(), certInfo.getReqType(),
-          certInfo.getTransactionId(), certInfo.getRequestedSubject());
+      PendingCert pendingCert = new PendingCert(certInfo.getIssuer(), certInfo.getCert(),
+          certInfo.getSubjectPublicKey(), certInfo.getProfile(), certInfo.getRequestor(),
+          certInfo.getUser(), certInfo.getReqType(), certInfo.getTransactionId(),
+          certInfo.getRequestedSubject(), publishQueue);
+      addCert(pendingCert);
     } catch (Exception ex) {
       LOG.error("could not save certificate {}: {}. Message: {}",
           new Object[]{certInfo.getCert().getCert().getSubject(),
@@ -340,78 +458,169 @@ public class CertStore {
     return true;
   } // method addCert
 
-  private void addCert(NameId ca, CertWithDbId certificate, byte[] encodedSubjectPublicKey,
-      NameId certprofile, NameId requestor, Integer userId, RequestType reqType,
-      byte[] transactionId, X500Name reqSubject) throws DataAccessException, OperationException {
-    Args.notNull(ca, "ca");
-    Args.notNull(certificate, "certificate");
-    Args.notNull(certprofile, "certprofile");
-    Args.notNull(requestor, "requestor");
+  private void addCert(PendingCert pendingCert) throws DataAccessException {
+    pendingCerts.add(pendingCert);
 
-    long certId = idGenerator.nextId();
+    // group commit: the thread holding the lock writes all pending certificates, including
+    // the ones queued by other threads in the meantime.
+    while (!pendingCert.done) {
+      addCertLock.lock();
+      try {
+        if (!pendingCert.done) {
+          writePendingCerts();
+        }
+      } finally {
+        addCertLock.unlock();
+      }
+    }
 
-    long fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
-    String subjectText = X509Util.cutText(
-        certificate.getCert().getSubjectRfc4519Text(), maxX500nameLen);
-    long fpSubject = X509Util.fpCanonicalizedName(certificate.getCert().getSubject());
+    Throwable ex = pendingCert.exception;
+    if (ex instanceof DataAccessException) {
+      throw (DataAccessException) ex;
+    } else if (ex instanceof RuntimeException) {
+      throw (RuntimeException) ex;
+    } else if (ex instanceof Error) {
+      throw (Error) ex;
+    } else if (ex != null) {
+      throw new DataAccessException(ex.getMessage(), ex);
+    }
 
-    String reqSubjectText = null;
-    Long fpReqSubject = null;
-    if (reqSubject != null) {
-      fpReqSubject = X509Util.fpCanonicalizedName(reqSubject);
-      if (fpSubject == fpReqSubject) {
-        fpReqSubject = null;
-      } else {
-        reqSubjectText = X509Util.cutX500Name(CaUtil.sortX509Name(reqSubject), maxX500nameLen);
-      }
+    pendingCert.certificate.setCertId(pendingCert.certId);
+  } // method addCert
+
+  private void writePendingCerts() {
+    List<PendingCert> batch = new ArrayList<>();
+    PendingCert next;
+    while (batch.size() < MAX_ADD_CERT_BATCH_SIZE && (next = pendingCerts.poll()) != null) {
+      batch.add(next);
     }
 
-    byte[] encodedCert = certificate.getCert().getEncoded();
-    String b64FpCert = base64Fp(encodedCert);
-    String b64Cert = Base64.encodeToString(encodedCert);
-    String tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
+    if (batch.isEmpty()) {
+      return;
+    }
 
-    final String sql = SQL_ADD_CERT;
-    PreparedStatement ps = borrowPreparedStatement(sql);
+    // every polled certificate must be marked as done, otherwise its thread waits forever
+    try {
+      try {
+        writeCerts(batch);
+      } catch (Throwable th) {
+        if (batch.size() == 1) {
+          batch.get(0).exception = th;
+        } else {
+          // write the certificates separately, so that one invalid certificate does not
+          // affect the others.
+          LogUtil.warn(LOG, th, "could not add " + batch.size() + " certificates in batch, "
+              + "add them separately");
+          for (PendingCert cert : batch) {
+            try {
+              writeCerts(Collections.singletonList(cert));
+            } catch (Throwable th2) {
+              cert.exception = th2;
+            }
+          }
+        }
+      }
+    } finally {
+      for (PendingCert cert : batch) {
+        cert.done = true;
+      }
+    }
+  } // method writePendingCerts
 
+  private void writeCerts(List<PendingCert> certs) throws DataAccessException {
+    long start = System.currentTimeMillis();
+    String sql = null;
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    boolean autoCommitChanged = false;
     try {
-      // cert
-      X509Cert cert = certificate.getCert();
-      int idx = 1;
-      ps.setLong(idx++, certId);
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      ps.setString(idx++, cert.getSerialNumber().toString(16));
-      ps.setString(idx++, subjectText);
-      ps.setLong(idx++, fpSubject);
-      setLong(ps, idx++, fpReqSubject);
-      ps.setLong(idx++, cert.getNotBefore().getTime() / 1000); // notBeforeSeconds
-      ps.setLong(idx++, cert.getNotAfter().getTime() / 1000); // notAfterSeconds
-      setBoolean(ps, idx++, false);
-      ps.setInt(idx++, certprofile.getId());
-      ps.setInt(idx++, ca.getId());
-      setInt(ps, idx++, requestor.getId());
-      setInt(ps, idx++, userId);
-      ps.setLong(idx++, fpPk);
-      boolean isEeCert = cert.getBasicConstraints() == -1;
-      ps.setInt(idx++, isEeCert ? 1 : 0);
-      ps.setInt(idx++, reqType.getCode());
-      ps.setString(idx++, tid);
-
-      ps.setString(idx++, b64FpCert);
-      ps.setString(idx++, reqSubjectText);
-      // in this version we set CRL_SCOPE to fixed value 0
-      ps.setInt(idx++, 0);
-      ps.setString(idx++, b64Cert);
+      if (conn.getAutoCommit()) {
+        conn.setAutoCommit(false);
+        autoCommitChanged = true;
+      }
 
-      ps.executeUpdate();
+      sql = SQL_ADD_CERT;
+      ps = datasource.prepareStatement(conn, sql);
+      long currentTimeSeconds = System.currentTimeMillis() / 1000;
+      for (PendingCert cert : certs) {
+        X509Cert x509Cert = cert.certificate.getCert();
+        int idx = 1;
+        ps.setLong(idx++, cert.certId);
+        ps.setLong(idx++, currentTimeSeconds);
+        ps.setString(idx++, x509Cert.getSerialNumber().toString(16));
+        ps.setString(idx++, cert.subjectText);
+        ps.setLong(idx++, cert.fpSubject);
+        setLong(ps, idx++, cert.fpReqSubject);
+        ps.setLong(idx++, x509Cert.getNotBefore().getTime() / 1000); // notBeforeSeconds
+        ps.setLong(idx++, x509Cert.getNotAfter().getTime() / 1000); // notAfterSeconds
+        setBoolean(ps, idx++, false);
+        ps.setInt(idx++, cert.certprofile.getId());
+        ps.setInt(idx++, cert.ca.getId());
+        setInt(ps, idx++, cert.requestor.getId());
+        setInt(ps, idx++, cert.userId);
+        ps.setLong(idx++, cert.fpPk);
+        boolean isEeCert = x509Cert.getBasicConstraints() == -1;
+        ps.setInt(idx++, isEeCert ? 1 : 0);
+        ps.setInt(idx++, cert.reqType.getCode());
+        ps.setString(idx++, cert.tid);
+
+        ps.setString(idx++, cert.b64FpCert);
+        ps.setString(idx++, cert.reqSubjectText);
+        // in this version we set CRL_SCOPE to fixed value 0
+        ps.setInt(idx++, 0);
+        ps.setString(idx++, cert.b64Cert);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+      datasource.releaseResources(ps, null, false);
+      ps = null;
+
+      sql = SQL_INSERT_PUBLISHQUEUE;
+      int numQueueEntries = 0;
+      for (PendingCert cert : certs) {
+        if (cert.publishQueue == null) {
+          continue;
+        }
+
+        for (NameId publisher : cert.publishQueue) {
+          if (ps == null) {
+            ps = datasource.prepareStatement(conn, sql);
+          }
 
-      certificate.setCertId(certId);
+          ps.setInt(1, publisher.getId());
+          ps.setInt(2, cert.ca.getId());
+          ps.setLong(3, cert.certId);
+          ps.addBatch();
+          numQueueEntries++;
+        }
+      }
+
+      if (numQueueEntries > 0) {
+        ps.executeBatch();
+      }
+
+      conn.commit();
+      LOG.debug("added {} certificates ({} PUBLISHQUEUE entries) in {} ms", certs.size(),
+          numQueueEntries, System.currentTimeMillis() - start);
     } catch (SQLException ex) {
-      throw datasource.translate(null, ex);
+      try {
+        conn.rollback();
+      } catch (SQLException ex2) {
+        LOG.warn("could not rollback: {}", ex2.getMessage());
+      }
+      throw datasource.translate(sql, ex);
     } finally {
-      datasource.releaseResources(ps, null);
+      datasource.releaseResources(ps, null, false);
+      if (autoCommitChanged) {
+        try {
+          conn.setAutoCommit(true);
+        } catch (SQLException ex) {
+          LOG.warn("could not set autoCommit: {}", ex.getMessage());
+        }
+      }
+      datasource.returnConnection(conn);
     }
-  } // method addCert
+  } // method writeCerts
 
   public void addToPublishQueue(NameId publisher, long certId, NameId ca)
       throws OperationException {
@@ -445,6 +654,46 @@ public class CertStore {
     }
   } // method removeFromPublishQueue
 
+  public void removeFromPublishQueue(NameId publisher, List<Long> certIds)
+      throws OperationException {
+    if (certIds.isEmpty()) {
+      return;
+    }
+
+    final String sql = SQL_REMOVE_PUBLISHQUEUE;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      for (Long certId : certIds) {
+        ps.setInt(1, publisher.getId());
+        ps.setLong(2, certId);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  } // method removeFromPublishQueue
+
+  public long getCountOfPublishQueueEntries(NameId ca, NameId publisher)
+      throws OperationException {
+    final String sql = SQL_COUNT_PUBLISHQUEUE;
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+
+    try {
+      ps.setInt(1, publisher.getId());
+      ps.setInt(2, ca.getId());
+      rs = ps.executeQuery();
+      return rs.next() ? rs.getLong(1) : 0;
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method getCountOfPublishQueueEntries
+
   public long getMaxIdOfDeltaCrlCache(NameId ca) throws OperationException {
     Args.notNull(ca, "ca");
 
@@ -464,6 +713,23 @@ public class CertStore {
     }
   } // method getMaxIdOfDeltaCrlCache
 
+  public long getMinIdOfDeltaCrlCache(NameId ca) throws OperationException {
+    Args.notNull(ca, "ca");
+
+    final String sql = SQL_MINID_DELTACRL_CACHE;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    ResultSet rs = null;
+    try {
+      ps.setInt(1, ca.getId());
+      rs = ps.executeQuery();
+      return rs.next() ? rs.getLong(1) : 0;
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method getMinIdOfDeltaCrlCache
+
   public void clearDeltaCrlCache(NameId ca, long maxId) throws OperationException {
     final String sql = SQL_CLEAR_DELTACRL_CACHE;
     PreparedStatement ps = borrowPreparedStatement(sql);
@@ -864,8 +1130,8 @@ public class CertStore {
     }
   } // method removeCert
 
-  public List<Long> getPublishQueueEntries(NameId ca, NameId publisher, int numEntries)
-      throws OperationException {
+  public List<Long> getPublishQueueEntries(NameId ca, NameId publisher, long afterCid,
+      int numEntries) throws OperationException {
     final String sql = getSqlCidFromPublishQueue(numEntries);
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
@@ -873,11 +1139,13 @@ public class CertStore {
     try {
       ps.setInt(1, publisher.getId());
       ps.setInt(2, ca.getId());
+      ps.setLong(3, afterCid);
       rs = ps.executeQuery();
       List<Long> ret = new ArrayList<>();
       while (rs.next() && ret.size() < numEntries) {
         long certId = rs.getLong("CID");
-        if (!ret.contains(certId)) {
+        // ordered by CID, duplicated entries are adjacent
+        if (ret.isEmpty() || ret.get(ret.size() - 1) != certId) {
           ret.add(certId);
         }
       }
@@ -1120,36 +1388,92 @@ public class CertStore {
 
     final String sql = sqlCertForId;
 
-    String b64Cert;
-    int certprofileId;
-    int requestorId;
-    boolean revoked;
-    int revReason = 0;
-    long revTime = 0;
-    long revInvTime = 0;
-
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
     try {
       ps.setLong(1, certId);
       rs = ps.executeQuery();
-      if (!rs.next()) {
-        return null;
-      }
-      b64Cert = rs.getString("CERT");
-      certprofileId = rs.getInt("PID");
-      requestorId = rs.getInt("RID");
-      revoked = rs.getBoolean("REV");
-      if (revoked) {
-        revReason = rs.getInt("RR");
-        revTime = rs.getLong("RT");
-        revInvTime = rs.getLong("RIT");
-      }
+      return rs.next() ? toCertificateInfo(rs, certId, ca, caCert, idNameMap) : null;
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
     } finally {
       datasource.releaseResources(ps, rs);
     }
+  } // method getCertForId
+
+  /**
+   * Retrieves the certificates with given ids, with one query for up to 1000 ids.
+   * @param ca
+   *          CA of the certificates.
+   * @param caCert
+   *          Certificate of the CA.
+   * @param certIds
+   *          Identifiers of the certificates.
+   * @param idNameMap
+   *          Map of the identifiers and names.
+   * @return the found certificates, in the order of the certIds. Certificates which do not exist
+   *         in the database are ignored.
+   * @throws OperationException
+   *           if database error occurs.
+   * @throws CertificateException
+   *           if a certificate could not be parsed.
+   */
+  public List<CertificateInfo> getCertsForIds(NameId ca, X509Cert caCert, List<Long> certIds,
+      CaIdNameMap idNameMap) throws OperationException, CertificateException {
+    Args.notNull(ca, "ca");
+    Args.notNull(caCert, "caCert");
+    Args.notNull(idNameMap, "idNameMap");
+    if (Args.notNull(certIds, "certIds").isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    Map<Long, CertificateInfo> certInfos = new HashMap<>();
+    for (int from = 0; from < certIds.size(); from += MAX_IN_LIST_SIZE) {
+      List<Long> ids = certIds.subList(from, Math.min(from + MAX_IN_LIST_SIZE, certIds.size()));
+
+      // pad to a power of 2 with the last id to limit the number of distinct statements
+      int numIds = Integer.highestOneBit(ids.size());
+      if (numIds < ids.size()) {
+        numIds = Math.min(numIds << 1, MAX_IN_LIST_SIZE);
+      }
+      final String sql = getSqlCertsForIds(numIds);
+
+      ResultSet rs = null;
+      PreparedStatement ps = borrowPreparedStatement(sql);
+      try {
+        for (int i = 0; i < numIds; i++) {
+          ps.setLong(i + 1, ids.get(Math.min(i, ids.size() - 1)));
+        }
+
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          long certId = rs.getLong("ID");
+          certInfos.put(certId, toCertificateInfo(rs, certId, ca, caCert, idNameMap));
+        }
+      } catch (SQLException ex) {
+        throw new OperationException(DATABASE_FAILURE,
+            datasource.translate(sql, ex).getMessage());
+      } finally {
+        datasource.releaseResources(ps, rs);
+      }
+    }
+
+    List<CertificateInfo> ret = new ArrayList<>(certInfos.size());
+    for (Long certId : certIds) {
+      CertificateInfo certInfo = certInfos.get(certId);
+      if (certInfo != null) {
+        ret.add(certInfo);
+      }
+    }
+    return ret;
+  } // method getCertsForIds
+
+  private static CertificateInfo toCertificateInfo(ResultSet rs, long certId, NameId ca,
+      X509Cert caCert, CaIdNameMap idNameMap) throws SQLException, CertificateException {
+    String b64Cert = rs.getString("CERT");
+    int certprofileId = rs.getInt("PID");
+    int requestorId = rs.getInt("RID");
+    boolean revoked = rs.getBoolean("REV");
 
     byte[] encodedCert = Base64.decodeFast(b64Cert);
     X509Cert cert = X509Util.parseCert(encodedCert);
@@ -1161,13 +1485,17 @@ public class CertStore {
     if (!revoked) {
       return certInfo;
     }
+
+    int revReason = rs.getInt("RR");
+    long revTime = rs.getLong("RT");
+    long revInvTime = rs.getLong("RIT");
     Date invalidityTime = (revInvTime == 0 || revInvTime == revTime) ? null
         : new Date(revInvTime * 1000);
     CertRevocationInfo revInfo = new CertRevocationInfo(revReason,
         new Date(revTime * 1000), invalidityTime);
     certInfo.setRevocationInfo(revInfo);
     return certInfo;
-  } // method getCertForId
+  } // method toCertificateInfo
 
   public CertWithRevocationInfo getCertWithRevocationInfo(int caId, BigInteger serial,
       CaIdNameMap idNameMap) throws OperationException {
@@ -1687,13 +2015,42 @@ public class CertStore {
 
   public List<CertRevInfoWithSerial> getCertsForDeltaCrl(NameId ca, long startId, int numEntries,
       boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
+    List<CertRevInfoWithSerial> ret = new ArrayList<>();
+    getCertsForDeltaCrl(ca, startId, numEntries, onlyUserCerts ? null : ret,
+        onlyCaCerts ? null : ret);
+    return ret;
+  } // method getCertsForDeltaCrl
+
+  /**
+   * Reads at most {@code numEntries} rows of DELTACRL_CACHE with ID &ge; {@code startId}, and
+   * adds the revocation information of their certificates to the given lists.
+   * @param ca
+   *          CA identifier.
+   * @param startId
+   *          Smallest ID of the rows to be read.
+   * @param numEntries
+   *          Maximal number of rows to be read.
+   * @param caEntries
+   *          List to which the entries of CA certificates are added. May be {@code null}.
+   * @param eeEntries
+   *          List to which the entries of end-entity certificates are added. May be
+   *          {@code null}.
+   * @return the ID of the last read row, or 0 if no row has been read.
+   * @throws OperationException
+   *           if database error occurs.
+   */
+  public long getCertsForDeltaCrl(NameId ca, long startId, int numEntries,
+      List<CertRevInfoWithSerial> caEntries, List<CertRevInfoWithSerial> eeEntries)
+      throws OperationException {
     Args.notNull(ca, "ca");
     Args.positive(numEntries, "numEntries");
 
     String sql = getSqlDeltaCrlCacheIds(numEntries);
-    List<Long> ids = new LinkedList<>();
+    // id of the entry in DELTACRL_CACHE to the serial number
+    Map<Long, String> serials = new LinkedHashMap<>();
     ResultSet rs = null;
 
+    long lastId = 0;
     PreparedStatement ps = borrowPreparedStatement(sql);
     try {
       ps.setLong(1, startId - 1);
@@ -1701,7 +2058,8 @@ public class CertStore {
       rs = ps.executeQuery();
       while (rs.next()) {
         long id = rs.getLong("ID");
-        ids.add(id);
+        serials.put(id, rs.getString("SN"));
+        lastId = Math.max(lastId, id);
       }
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
@@ -1709,52 +2067,54 @@ public class CertStore {
       datasource.releaseResources(ps, rs);
     }
 
-    sql = sqlRevForId;
+    sql = sqlRevForSerial;
     ps = borrowPreparedStatement(sql);
 
-    List<CertRevInfoWithSerial> ret = new ArrayList<>();
-    for (Long id : ids) {
-      try {
-        ps.setLong(1, id);
-        rs = ps.executeQuery();
-
-        if (!rs.next()) {
-          continue;
-        }
+    try {
+      for (Entry<Long, String> entry : serials.entrySet()) {
+        long id = entry.getKey();
+        String serial = entry.getValue();
+        try {
+          ps.setInt(1, ca.getId());
+          ps.setString(2, serial);
+          rs = ps.executeQuery();
 
-        int ee = rs.getInt("EE");
-        if (onlyCaCerts) {
-          if (ee != 0) {
+          if (!rs.next()) {
             continue;
           }
-        } else if (onlyUserCerts) {
-          if (ee != 1) {
+
+          List<CertRevInfoWithSerial> ret = (rs.getInt("EE") == 1) ? eeEntries : caEntries;
+          if (ret == null) {
             continue;
           }
-        }
-
-        CertRevInfoWithSerial revInfo;
 
-        String serial = rs.getString("SN");
-        boolean revoked = rs.getBoolean("REVOEKD");
-        if (revoked) {
-          long revInvTime = rs.getLong("RIT");
-          Date invalidityTime = (revInvTime == 0) ? null : new Date(1000 * revInvTime);
-          revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16), rs.getInt("RR"),
-              new Date(1000 * rs.getLong("RT")), invalidityTime);
-        } else {
-          revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16),
-              CrlReason.REMOVE_FROM_CRL.getCode(), new Date(1000 * rs.getLong("LUPDATE")), null);
+          CertRevInfoWithSerial revInfo;
+
+          boolean revoked = rs.getBoolean("REV");
+          if (revoked) {
+            long revInvTime = rs.getLong("RIT");
+            Date invalidityTime = (revInvTime == 0) ? null : new Date(1000 * revInvTime);
+            revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16),
+                rs.getInt("RR"), new Date(1000 * rs.getLong("RT")), invalidityTime);
+          } else {
+            revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16),
+                CrlReason.REMOVE_FROM_CRL.getCode(), new Date(1000 * rs.getLong("LUPDATE")),
+                null);
+          }
+          ret.add(revInfo);
+        } catch (SQLException ex) {
+          throw new OperationException(DATABASE_FAILURE,
+              datasource.translate(sql, ex).getMessage());
+        } finally {
+          datasource.releaseResources(null, rs);
+          rs = null;
         }
-        ret.add(revInfo);
-      } catch (SQLException ex) {
-        throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-      } finally {
-        datasource.releaseResources(null, rs);
-      }
-    } // end for
+      } // end for
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
 
-    return ret;
+    return lastId;
   } // method getCertsForDeltaCrl
 
   public CertStatus getCertStatusForSubject(NameId ca, X500Name subject) throws OperationException {
@@ -1949,12 +2309,27 @@ public class CertStore {
     String sql = cacheSqlCidFromPublishQueue.get(numEntries);
     if (sql == null) {
       sql = datasource.buildSelectFirstSql(numEntries, "CID ASC",
-          "CID FROM PUBLISHQUEUE WHERE PID=? AND CA_ID=?");
+          "CID FROM PUBLISHQUEUE WHERE PID=? AND CA_ID=? AND CID>?");
       cacheSqlCidFromPublishQueue.put(numEntries, sql);
     }
     return sql;
   } // method getSqlCidFromPublishQueue
 
+  private String getSqlCertsForIds(int numIds) {
+    String sql = cacheSqlCertsForIds.get(numIds);
+    if (sql == null) {
+      StringBuilder sb = new StringBuilder(100 + 2 * numIds);
+      sb.append("SELECT ID,PID,RID,REV,RR,RT,RIT,CERT FROM CERT WHERE ID IN (?");
+      for (int i = 1; i < numIds; i++) {
+        sb.append(",?");
+      }
+      sb.append(")");
+      sql = sb.toString();
+      cacheSqlCertsForIds.put(numIds, sql);
+    }
+    return sql;
+  } // method getSqlCertsForIds
+
   private String getSqlExpiredSerials(int numEntries) {
     String sql = cacheSqlExpiredSerials.get(numEntries);
     if (sql == null) {
@@ -1978,7 +2353,7 @@ public class CertStore {
     String sql = cacheSqlDeltaCrlCacheIds.get(numEntries);
     if (sql == null) {
       sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
-          "ID FROM DELTACRL_CACHE WHERE ID>? AND CA_ID=?");
+          "ID,SN FROM DELTACRL_CACHE WHERE ID>? AND CA_ID=?");
       cacheSqlDeltaCrlCacheIds.put(numEntries, sql);
     }
     return sql;
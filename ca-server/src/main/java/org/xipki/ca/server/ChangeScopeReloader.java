@@ -0,0 +1,112 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.mgmt.CaMgmtException;
+import org.xipki.util.LogUtil;
+
+/**
+ * Reloads the scopes of the CA configuration whose change events are newer than the ones
+ * already applied. The event time of a scope is recorded only after the scope has been
+ * reloaded successfully, so that a failed reload is retried in the next round.
+ *
+ * @param <S> type of the scope.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+abstract class ChangeScopeReloader<S> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ChangeScopeReloader.class);
+
+  private final Map<S, Long> appliedEventTimes = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the time of the last change event of the scope.
+   * @param scope
+   *          Scope of the configuration.
+   * @return the time of the event, or {@code null} if there is no event.
+   * @throws CaMgmtException
+   *           if the event could not be read.
+   */
+  protected abstract Long getEventTime(S scope) throws CaMgmtException;
+
+  /**
+   * Reloads the configuration of the scope.
+   * @param scope
+   *          Scope of the configuration.
+   * @throws CaMgmtException
+   *           if the configuration could not be reloaded.
+   */
+  protected abstract void reload(S scope) throws CaMgmtException;
+
+  /**
+   * Reloads the scopes which have been changed after the given time and after their last
+   * successful reload.
+   * @param scopes
+   *          Scopes to be checked, in the order of reloading.
+   * @param startTime
+   *          Time when the configuration has been loaded completely.
+   * @return whether all changed scopes have been reloaded successfully.
+   */
+  boolean reloadChangedScopes(S[] scopes, long startTime) {
+    boolean allReloaded = true;
+    for (S scope : scopes) {
+      Long eventTime;
+      try {
+        eventTime = getEventTime(scope);
+      } catch (CaMgmtException | RuntimeException ex) {
+        LogUtil.error(LOG, ex, "could not read the change event of the " + scope
+            + " configuration");
+        allReloaded = false;
+        continue;
+      }
+
+      if (eventTime == null) {
+        continue;
+      }
+
+      Long appliedTime = appliedEventTimes.get(scope);
+      long threshold = (appliedTime == null) ? startTime : Math.max(appliedTime, startTime);
+      if (eventTime <= threshold) {
+        continue;
+      }
+
+      LOG.info("received event to reload the {} configuration", scope);
+      try {
+        reload(scope);
+      } catch (CaMgmtException | RuntimeException ex) {
+        LogUtil.error(LOG, ex, "could not reload the " + scope
+            + " configuration, will retry it in the next round");
+        allReloaded = false;
+        continue;
+      }
+
+      appliedEventTimes.put(scope, eventTime);
+    }
+
+    return allReloaded;
+  } // method reloadChangedScopes
+
+}
@@ -0,0 +1,92 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.math.BigInteger;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.Args;
+
+/**
+ * CRL together with its encoded form and the ETag, as cached by {@link X509Ca}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class EncodedCrl {
+
+  private final X509CRLHolder crl;
+
+  private final byte[] encoded;
+
+  private final BigInteger crlNumber;
+
+  private final String etag;
+
+  private final long loadTime;
+
+  public EncodedCrl(X509CRLHolder crl, byte[] encoded) {
+    this.crl = Args.notNull(crl, "crl");
+    this.encoded = Args.notNull(encoded, "encoded");
+
+    Extension ext = crl.getExtension(Extension.cRLNumber);
+    this.crlNumber = (ext == null) ? null
+        : ASN1Integer.getInstance(ext.getParsedValue()).getPositiveValue();
+    // same as for the OCSP responses: hex of the SHA1 hash of the encoded CRL
+    this.etag = "\"" + HashAlgo.SHA1.hexHash(encoded) + "\"";
+    this.loadTime = System.currentTimeMillis();
+  }
+
+  public X509CRLHolder getCrl() {
+    return crl;
+  }
+
+  /**
+   * Returns the encoded CRL. The returned array must not be modified.
+   * @return the encoded CRL.
+   */
+  public byte[] getEncoded() {
+    return encoded;
+  }
+
+  public BigInteger getCrlNumber() {
+    return crlNumber;
+  }
+
+  public Date getThisUpdate() {
+    return crl.getThisUpdate();
+  }
+
+  public Date getNextUpdate() {
+    return crl.getNextUpdate();
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  long getLoadTime() {
+    return loadTime;
+  }
+
+}
@@ -0,0 +1,364 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.Closeable;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.DSAParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.profile.KeypairGenControl;
+import org.xipki.security.EdECConstants;
+import org.xipki.security.util.KeyUtil;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+/**
+ * Pool of pre-generated key pairs, one queue per key specification (algorithm, key size,
+ * curve, domain parameters). The queues are filled in background by a fixed number of worker
+ * threads: once the depth of a queue falls below the low watermark, it is refilled up to the
+ * high watermark. If a queue is empty, the key pair is generated inline.
+ *
+ * <p>The queues of the key specifications used by the certificate profiles of a CA are filled
+ * when the CA is started (see {@link #prefill(KeypairGenControl)}), so that the first requests
+ * after the start of the CA system do not need to generate the key pairs inline. Other queues
+ * are created on the first request of their key specification.
+ *
+ * <p>Each worker uses its own {@link KeyPairGenerator}, since the ones cached in
+ * {@link KeyUtil} are shared and synchronized.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class KeypairPool implements Closeable {
+
+  private static class KeySpec {
+
+    private final String id;
+
+    // for the statistics
+    private final String name;
+
+    private final String algorithm;
+
+    private final AlgorithmParameterSpec params;
+
+    private final int keysize;
+
+    private KeySpec(String id, String name, String algorithm, AlgorithmParameterSpec params,
+        int keysize) {
+      this.id = id;
+      this.name = name;
+      this.algorithm = algorithm;
+      this.params = params;
+      this.keysize = keysize;
+    }
+
+    /**
+     * Returns the key specification of the given control.
+     * @param control
+     *          Control of the key pair generation.
+     * @return the key specification, or {@code null} if the control is not supported.
+     */
+    static KeySpec of(KeypairGenControl control) {
+      if (control instanceof KeypairGenControl.RSAKeypairGenControl) {
+        KeypairGenControl.RSAKeypairGenControl tkg =
+            (KeypairGenControl.RSAKeypairGenControl) control;
+        String id = "RSA/" + tkg.getKeysize() + "/" + tkg.getPublicExponent().toString(16);
+        return new KeySpec(id, id, "RSA",
+            new RSAKeyGenParameterSpec(tkg.getKeysize(), tkg.getPublicExponent()), 0);
+      } else if (control instanceof KeypairGenControl.ECKeypairGenControl) {
+        String curveId = ((KeypairGenControl.ECKeypairGenControl) control).getCurveOid().getId();
+        return new KeySpec("EC/" + curveId, "EC/" + curveId, "EC",
+            new ECGenParameterSpec(curveId), 0);
+      } else if (control instanceof KeypairGenControl.DSAKeypairGenControl) {
+        DSAParameterSpec spec =
+            ((KeypairGenControl.DSAKeypairGenControl) control).getParameterSpec();
+        return new KeySpec("DSA/" + spec.getP().toString(16) + "/" + spec.getQ().toString(16)
+            + "/" + spec.getG().toString(16),
+            "DSA/" + spec.getP().bitLength() + "/" + spec.getQ().bitLength(), "DSA", spec, 0);
+      } else if (control instanceof KeypairGenControl.EDDSAKeypairGenControl) {
+        ASN1ObjectIdentifier curveId = ((KeypairGenControl.EDDSAKeypairGenControl) control)
+            .getKeyAlgorithm().getAlgorithm();
+        String algorithm = EdECConstants.getName(curveId);
+        if (algorithm == null) {
+          return null;
+        }
+        return new KeySpec(algorithm, algorithm, algorithm, null,
+            EdECConstants.getKeyBitSize(curveId));
+      } else {
+        return null;
+      }
+    } // method of
+
+  } // class KeySpec
+
+  private static class Pool {
+
+    private final KeySpec spec;
+
+    private final ConcurrentLinkedQueue<KeyPair> keypairs = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+
+    private final AtomicLong generated = new AtomicLong();
+
+    private final AtomicLong generationNanos = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    Pool(KeySpec spec) {
+      this.spec = spec;
+    }
+
+  } // class Pool
+
+  private class Refiller implements Runnable {
+
+    private final Pool pool;
+
+    Refiller(Pool pool) {
+      this.pool = pool;
+    }
+
+    @Override
+    public void run() {
+      try {
+        KeyPairGenerator kpGen = KeyPairGenerator.getInstance(pool.spec.algorithm, "BC");
+        if (pool.spec.params != null) {
+          kpGen.initialize(pool.spec.params, random);
+        } else {
+          kpGen.initialize(pool.spec.keysize, random);
+        }
+
+        while (!closed && pool.depth.get() < highWatermark) {
+          long start = System.nanoTime();
+          KeyPair keypair = kpGen.generateKeyPair();
+          pool.generationNanos.addAndGet(System.nanoTime() - start);
+          pool.generated.incrementAndGet();
+
+          pool.keypairs.add(keypair);
+          pool.depth.incrementAndGet();
+        }
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "could not refill keypair pool " + pool.spec.name);
+      } finally {
+        pool.activeWorkers.decrementAndGet();
+      }
+    } // method run
+
+  } // class Refiller
+
+  private static final Logger LOG = LoggerFactory.getLogger(KeypairPool.class);
+
+  private final ConcurrentHashMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+  private final ExecutorService executor;
+
+  private final int threads;
+
+  private final int lowWatermark;
+
+  private final int highWatermark;
+
+  private final SecureRandom random = new SecureRandom();
+
+  private volatile boolean closed;
+
+  KeypairPool(int threads, int lowWatermark, int highWatermark) {
+    this.threads = Args.positive(threads, "threads");
+    this.lowWatermark = Args.notNegative(lowWatermark, "lowWatermark");
+    this.highWatermark = Args.min(highWatermark, "highWatermark", lowWatermark + 1);
+
+    final AtomicInteger threadIndex = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "keypair-pool-" + threadIndex.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+
+    LOG.info("started keypair pool with {} threads, lowWatermark={}, highWatermark={}",
+        threads, lowWatermark, highWatermark);
+  } // constructor
+
+  /**
+   * Takes a ready key pair from the pool. If the pool is empty, the key pair will be generated
+   * inline.
+   * @param control
+   *          Control of the key pair generation.
+   * @param inlineRandom
+   *          Random to generate the key pair inline.
+   * @return the key pair.
+   * @throws NoSuchAlgorithmException
+   *           if the algorithm is not supported.
+   * @throws NoSuchProviderException
+   *           if the provider BC is not available.
+   * @throws InvalidAlgorithmParameterException
+   *           if the parameters are invalid.
+   */
+  KeyPair getKeypair(KeypairGenControl control, SecureRandom inlineRandom)
+      throws NoSuchAlgorithmException, NoSuchProviderException,
+        InvalidAlgorithmParameterException {
+    KeySpec spec = closed ? null : KeySpec.of(control);
+    if (spec == null) {
+      return generateKeypair(control, inlineRandom);
+    }
+
+    Pool pool = getPool(spec);
+    KeyPair keypair = pool.keypairs.poll();
+    int depth = (keypair == null) ? pool.depth.get() : pool.depth.decrementAndGet();
+    if (depth < lowWatermark) {
+      refill(pool);
+    }
+
+    if (keypair != null) {
+      pool.hits.incrementAndGet();
+      return keypair;
+    } else {
+      pool.misses.incrementAndGet();
+      return generateKeypair(control, inlineRandom);
+    }
+  } // method getKeypair
+
+  /**
+   * Creates the queue for the key specification of the given control and fills it in
+   * background up to the high watermark.
+   * @param control
+   *          Control of the key pair generation.
+   */
+  void prefill(KeypairGenControl control) {
+    KeySpec spec = closed ? null : KeySpec.of(control);
+    if (spec == null) {
+      return;
+    }
+
+    Pool pool = getPool(spec);
+    if (pool.depth.get() < highWatermark) {
+      refill(pool);
+    }
+  } // method prefill
+
+  private Pool getPool(KeySpec spec) {
+    Pool pool = pools.get(spec.id);
+    if (pool == null) {
+      Pool newPool = new Pool(spec);
+      pool = pools.putIfAbsent(spec.id, newPool);
+      if (pool == null) {
+        pool = newPool;
+      }
+    }
+    return pool;
+  } // method getPool
+
+  private void refill(Pool pool) {
+    // only one refill round per pool at any time
+    if (closed || !pool.activeWorkers.compareAndSet(0, threads)) {
+      return;
+    }
+
+    for (int i = 0; i < threads; i++) {
+      try {
+        executor.execute(new Refiller(pool));
+      } catch (RuntimeException ex) {
+        // rejected, e.g. because the pool has been closed
+        pool.activeWorkers.decrementAndGet();
+      }
+    }
+  } // method refill
+
+  /**
+   * Returns the statistics of all pools: the depth, the hits and misses, and the refill rate
+   * (key pairs per second per worker thread).
+   * @return the statistics.
+   */
+  Map<String, Object> getStatistics() {
+    Map<String, Object> statistics = new LinkedHashMap<>();
+    for (Pool pool : pools.values()) {
+      Map<String, Object> poolStats = new LinkedHashMap<>();
+      poolStats.put("depth", pool.depth.get());
+      poolStats.put("hits", pool.hits.get());
+      poolStats.put("misses", pool.misses.get());
+      poolStats.put("generated", pool.generated.get());
+
+      long nanos = pool.generationNanos.get();
+      poolStats.put("refillRate",
+          (nanos == 0) ? 0 : pool.generated.get() * TimeUnit.SECONDS.toNanos(1) / nanos);
+      statistics.put(pool.spec.name, poolStats);
+    }
+    return statistics;
+  } // method getStatistics
+
+  @Override
+  public void close() {
+    closed = true;
+    executor.shutdownNow();
+    pools.clear();
+  }
+
+  static KeyPair generateKeypair(KeypairGenControl control, SecureRandom random)
+      throws NoSuchAlgorithmException, NoSuchProviderException,
+        InvalidAlgorithmParameterException {
+    if (control instanceof KeypairGenControl.RSAKeypairGenControl) {
+      KeypairGenControl.RSAKeypairGenControl tkg =
+          (KeypairGenControl.RSAKeypairGenControl) control;
+      return KeyUtil.generateRSAKeypair(tkg.getKeysize(), tkg.getPublicExponent(), random);
+    } else if (control instanceof KeypairGenControl.ECKeypairGenControl) {
+      return KeyUtil.generateECKeypair(
+          ((KeypairGenControl.ECKeypairGenControl) control).getCurveOid(), random);
+    } else if (control instanceof KeypairGenControl.DSAKeypairGenControl) {
+      return KeyUtil.generateDSAKeypair(
+          ((KeypairGenControl.DSAKeypairGenControl) control).getParameterSpec(), random);
+    } else if (control instanceof KeypairGenControl.EDDSAKeypairGenControl) {
+      return KeyUtil.generateEdECKeypair(
+          ((KeypairGenControl.EDDSAKeypairGenControl) control).getKeyAlgorithm().getAlgorithm(),
+          random);
+    } else {
+      throw new NoSuchAlgorithmException("unknown KeyPairGenControl " + control);
+    }
+  } // method generateKeypair
+
+}
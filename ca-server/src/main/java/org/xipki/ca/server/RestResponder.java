@@ -24,6 +24,10 @@ import static org.xipki.audit.AuditStatus.FAILED;
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.math.BigInteger;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -168,6 +172,8 @@ public class RestResponder {
 
   private static final int OK = 200;
 
+  private static final int NOT_MODIFIED = 304;
+
   private static final int BAD_REQUEST = 400;
 
   private static final int UNAUTHORIZED = 401;
@@ -182,6 +188,16 @@ public class RestResponder {
 
   private static final int SERVICE_UNAVAILABLE = 503;
 
+  private static final String HEADER_ETAG = "ETag";
+
+  private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+  private static final String HEADER_EXPIRES = "Expires";
+
+  private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+  private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
   private static final Logger LOG = LoggerFactory.getLogger(RestResponder.class);
 
   private final CaManagerImpl responderManager;
@@ -527,15 +543,27 @@ public class RestResponder {
           }
         }
 
-        X509CRLHolder crl = ca.getCrl(crlNumber);
+        EncodedCrl crl = ca.getEncodedCrl(crlNumber);
         if (crl == null) {
           String message = "could not get CRL";
           LOG.warn(message);
           throw new HttpRespAuditException(INTERNAL_SERVER_ERROR, message, INFO, FAILED);
         }
 
-        respCt = RestAPIConstants.CT_pkix_crl;
-        respBytes = crl.getEncoded();
+        Map<String, String> headers = new HashMap<>();
+        headers.put(RestAPIConstants.HEADER_PKISTATUS, RestAPIConstants.PKISTATUS_accepted);
+        headers.put(HEADER_ETAG, crl.getEtag());
+        headers.put(HEADER_LAST_MODIFIED, toHttpDate(crl.getThisUpdate()));
+        if (crl.getNextUpdate() != null) {
+          headers.put(HEADER_EXPIRES, toHttpDate(crl.getNextUpdate()));
+        }
+
+        if (isNotModified(httpRetriever, crl)) {
+          return new RestResponse(NOT_MODIFIED, null, headers, null);
+        }
+
+        // the cached encoded CRL is returned without copying it
+        return new RestResponse(OK, RestAPIConstants.CT_pkix_crl, headers, crl.getEncoded());
       } else if (RestAPIConstants.CMD_new_crl.equalsIgnoreCase(command)) {
         try {
           requestor.assertPermitted(PermissionConstants.GEN_CRL);
@@ -670,6 +698,48 @@ public class RestResponder {
     }
   } // method service
 
+  /**
+   * Checks the conditional headers as specified in RFC 7232. If-Modified-Since is
+   * ignored if If-None-Match is present.
+   */
+  private static boolean isNotModified(HttpRequestMetadataRetriever httpRetriever,
+      EncodedCrl crl) {
+    String ifNoneMatch = httpRetriever.getHeader(HEADER_IF_NONE_MATCH);
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+
+        if ("*".equals(tag) || crl.getEtag().equals(tag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    String ifModifiedSince = httpRetriever.getHeader(HEADER_IF_MODIFIED_SINCE);
+    if (ifModifiedSince == null) {
+      return false;
+    }
+
+    try {
+      long since = ZonedDateTime.parse(ifModifiedSince.trim(),
+          DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+      // HTTP dates have the precision of seconds
+      return crl.getThisUpdate().getTime() / 1000 <= since;
+    } catch (DateTimeParseException ex) {
+      LOG.debug("ignored invalid header {}: {}", HEADER_IF_MODIFIED_SINCE, ifModifiedSince);
+      return false;
+    }
+  } // method isNotModified
+
+  private static String toHttpDate(Date date) {
+    return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+        ZonedDateTime.ofInstant(date.toInstant(), ZoneOffset.UTC));
+  }
+
   private static BigInteger toBigInt(String str) {
     String tmpStr = str.trim();
     if (tmpStr.startsWith("0x") || tmpStr.startsWith("0X")) {
@@ -0,0 +1,223 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.OperationException;
+import org.xipki.util.Args;
+
+/**
+ * In-memory journal of the revocation changes since the last full CRL, sorted by the serial
+ * number. It mirrors the table DELTACRL_CACHE of a CA, so that the delta CRLs can be
+ * generated without reading the certificates from the database.
+ *
+ * <p>The journal is fed by the revocation operations of this instance. Since other
+ * instances may write to DELTACRL_CACHE as well, the rows added since the last load are read
+ * before a delta CRL is generated. Because the IDs of rows written concurrently by other
+ * instances may be committed out of order, the rows of the last {@link #OVERLAP_MS}
+ * milliseconds are read again. If rows have been removed by another instance after a full
+ * CRL, the journal is reloaded.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class RevocationJournal {
+
+  private static class JournalEntry {
+
+    private final CertRevInfoWithSerial revInfo;
+
+    private final boolean ee;
+
+    JournalEntry(CertRevInfoWithSerial revInfo, boolean ee) {
+      this.revInfo = revInfo;
+      this.ee = ee;
+    }
+
+  } // class JournalEntry
+
+  private static final Logger LOG = LoggerFactory.getLogger(RevocationJournal.class);
+
+  private static final int PAGE_SIZE = 1000;
+
+  private static final long OVERLAP_MS = 60000;
+
+  // the ids generated by UniqueIdGenerator contain the time in ms from the bit 17 on.
+  private static final long OVERLAP_ID = OVERLAP_MS << 17;
+
+  private final CertStore certstore;
+
+  private final NameId ca;
+
+  private final int pageSize;
+
+  private final TreeMap<BigInteger, JournalEntry> entries = new TreeMap<>();
+
+  // ID of the first loaded row of DELTACRL_CACHE, 0 if no row has been loaded.
+  private long firstId;
+
+  // ID of the last loaded row of DELTACRL_CACHE, 0 if no row has been loaded.
+  private long lastId;
+
+  private boolean loaded;
+
+  RevocationJournal(CertStore certstore, NameId ca) {
+    this(Args.notNull(certstore, "certstore"), ca, PAGE_SIZE);
+  }
+
+  RevocationJournal(CertStore certstore, NameId ca, int pageSize) {
+    this.certstore = certstore;
+    this.ca = Args.notNull(ca, "ca");
+    this.pageSize = Args.positive(pageSize, "pageSize");
+  }
+
+  /**
+   * Records a change of the revocation status.
+   * @param revInfo
+   *          Revocation information. The reason REMOVE_FROM_CRL indicates that the
+   *          certificate has been unrevoked.
+   * @param ee
+   *          Whether the certificate is an end-entity certificate.
+   */
+  synchronized void add(CertRevInfoWithSerial revInfo, boolean ee) {
+    entries.put(revInfo.getSerial(), new JournalEntry(revInfo, ee));
+  }
+
+  /**
+   * Reloads the journal from the table DELTACRL_CACHE.
+   * @throws OperationException
+   *           if database error occurs.
+   */
+  synchronized void reload() throws OperationException {
+    long start = System.currentTimeMillis();
+    loaded = false;
+    entries.clear();
+    firstId = 0;
+    lastId = 0;
+
+    load(1);
+    loaded = true;
+
+    LOG.info("loaded revocation journal of CA {} with {} entries in {} ms", ca.getName(),
+        entries.size(), System.currentTimeMillis() - start);
+  } // method reload
+
+  /**
+   * Reads the changes written to the table DELTACRL_CACHE since the last load. The journal is
+   * reloaded if it has not been loaded yet, or if rows have been removed from the table.
+   * @throws OperationException
+   *           if database error occurs.
+   */
+  synchronized void refresh() throws OperationException {
+    if (!loaded) {
+      reload();
+      return;
+    }
+
+    if (firstId != 0) {
+      long dbFirstId = getMinId();
+      if (dbFirstId != firstId) {
+        LOG.info("rows of DELTACRL_CACHE of CA {} have been removed, reload the journal",
+            ca.getName());
+        reload();
+        return;
+      }
+    }
+
+    load(Math.max(1, lastId - OVERLAP_ID));
+  } // method refresh
+
+  /**
+   * Returns the entries sorted by serial number.
+   * @param onlyCaCerts
+   *          Whether only CA certificates are returned.
+   * @param onlyUserCerts
+   *          Whether only end-entity certificates are returned.
+   * @return the entries.
+   */
+  synchronized List<CertRevInfoWithSerial> getEntries(boolean onlyCaCerts,
+      boolean onlyUserCerts) {
+    List<CertRevInfoWithSerial> ret = new ArrayList<>(entries.size());
+    for (JournalEntry entry : entries.values()) {
+      if ((onlyCaCerts && entry.ee) || (onlyUserCerts && !entry.ee)) {
+        continue;
+      }
+      ret.add(entry.revInfo);
+    }
+    return ret;
+  } // method getEntries
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Loads the rows with ID &ge; {@code startId}. The pages are read by the ID of
+   * DELTACRL_CACHE until an empty page is read, independent of the type of the certificates.
+   */
+  private void load(long startId) throws OperationException {
+    long nextId = startId;
+    while (true) {
+      List<CertRevInfoWithSerial> caEntries = new ArrayList<>();
+      List<CertRevInfoWithSerial> eeEntries = new ArrayList<>();
+      long pageLastId = loadPage(nextId, pageSize, caEntries, eeEntries);
+      if (pageLastId == 0) {
+        break;
+      }
+
+      for (CertRevInfoWithSerial revInfo : caEntries) {
+        entries.put(revInfo.getSerial(), new JournalEntry(revInfo, false));
+      }
+
+      for (CertRevInfoWithSerial revInfo : eeEntries) {
+        entries.put(revInfo.getSerial(), new JournalEntry(revInfo, true));
+      }
+
+      if (firstId == 0) {
+        firstId = getMinId();
+      }
+      lastId = Math.max(lastId, pageLastId);
+      nextId = pageLastId + 1;
+    }
+  } // method load
+
+  /**
+   * Reads one page of DELTACRL_CACHE, see
+   * {@link CertStore#getCertsForDeltaCrl(NameId, long, int, List, List)}.
+   */
+  long loadPage(long startId, int numEntries, List<CertRevInfoWithSerial> caEntries,
+      List<CertRevInfoWithSerial> eeEntries) throws OperationException {
+    return certstore.getCertsForDeltaCrl(ca, startId, numEntries, caEntries, eeEntries);
+  }
+
+  /**
+   * Returns the smallest ID of the rows of DELTACRL_CACHE of the CA.
+   */
+  long getMinId() throws OperationException {
+    return certstore.getMinIdOfDeltaCrlCache(ca);
+  }
+
+}
@@ -0,0 +1,500 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.operator.ContentSigner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.ConcurrentBagEntrySigner;
+import org.xipki.security.ConcurrentContentSigner;
+import org.xipki.security.NoIdleSignerException;
+import org.xipki.util.Args;
+import org.xipki.util.IoUtil;
+
+/**
+ * Builds a CRL without keeping the revoked certificates in memory.
+ *
+ * <p>The entries are collected in sorted runs of at most {@link #MAX_ENTRIES_IN_MEMORY}
+ * entries (by default), which are spilled to temporary files in the configured directory.
+ * While building the CRL, the runs are merged by serial number, and the DER-encoded
+ * revokedCertificates are written to a temporary file, which is then streamed to the signer
+ * and to the encoded CRL.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class StreamingCrlBuilder implements Closeable {
+
+  private static class RunReader implements Comparable<RunReader> {
+
+    private final DataInputStream in;
+
+    private int remaining;
+
+    private CertRevInfoWithSerial current;
+
+    RunReader(File file, int numEntries) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      this.remaining = numEntries;
+    }
+
+    boolean next() throws IOException {
+      if (remaining == 0) {
+        current = null;
+        return false;
+      }
+
+      remaining--;
+      current = readEntry(in);
+      return true;
+    }
+
+    void close() {
+      IoUtil.closeQuietly(in);
+    }
+
+    @Override
+    public int compareTo(RunReader other) {
+      return current.compareTo(other.current);
+    }
+
+  } // class RunReader
+
+  /**
+   * Encoded parts of the TBSCertList, with the entries kept in the file entriesFile.
+   */
+  private static class TbsCertList {
+
+    private final AlgorithmIdentifier sigAlgId;
+
+    private final byte[] header;
+
+    private final byte[] head;
+
+    private final byte[] tail;
+
+    private final long contentLen;
+
+    TbsCertList(AlgorithmIdentifier sigAlgId, byte[] head, long entriesLen, byte[] tail) {
+      this.sigAlgId = sigAlgId;
+      this.head = head;
+      this.tail = tail;
+      this.contentLen = head.length + entriesLen + tail.length;
+      this.header = header(0x30, contentLen);
+    }
+
+  } // class TbsCertList
+
+  private static final Logger LOG = LoggerFactory.getLogger(StreamingCrlBuilder.class);
+
+  private static final int MAX_ENTRIES_IN_MEMORY = 100000;
+
+  // DER encoded INTEGER 1 (v2)
+  private static final byte[] VERSION_V2 = new byte[]{0x02, 0x01, 0x01};
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final X500Name issuer;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  private final Extension certificateIssuerExtension;
+
+  private final File tmpDir;
+
+  private final int maxEntriesInMemory;
+
+  private final List<CertRevInfoWithSerial> entries = new ArrayList<>();
+
+  private final List<File> runFiles = new LinkedList<>();
+
+  private final List<Integer> runSizes = new LinkedList<>();
+
+  private File entriesFile;
+
+  private int numEntries;
+
+  /**
+   * Constructor.
+   * @param issuer
+   *          Issuer of the CRL.
+   * @param thisUpdate
+   *          thisUpdate of the CRL.
+   * @param nextUpdate
+   *          nextUpdate of the CRL. May be {@code null}.
+   * @param certificateIssuer
+   *          Issuer of the revoked certificates if the CRL is indirect, {@code null} otherwise.
+   *          It will be added as extension certificateIssuer to the first entry.
+   * @param tmpDir
+   *          Directory of the temporary files. If {@code null}, the default temporary directory
+   *          (java.io.tmpdir) is used.
+   */
+  StreamingCrlBuilder(X500Name issuer, Date thisUpdate, Date nextUpdate,
+      X500Name certificateIssuer, File tmpDir) {
+    this(issuer, thisUpdate, nextUpdate, certificateIssuer, tmpDir, MAX_ENTRIES_IN_MEMORY);
+  }
+
+  StreamingCrlBuilder(X500Name issuer, Date thisUpdate, Date nextUpdate,
+      X500Name certificateIssuer, File tmpDir, int maxEntriesInMemory) {
+    this.issuer = Args.notNull(issuer, "issuer");
+    this.thisUpdate = Args.notNull(thisUpdate, "thisUpdate");
+    this.nextUpdate = nextUpdate;
+    this.certificateIssuerExtension = (certificateIssuer == null) ? null
+        : createCertificateIssuerExtension(certificateIssuer);
+    this.tmpDir = tmpDir;
+    this.maxEntriesInMemory = Args.positive(maxEntriesInMemory, "maxEntriesInMemory");
+  }
+
+  void addEntry(CertRevInfoWithSerial entry) throws IOException {
+    entries.add(Args.notNull(entry, "entry"));
+    numEntries++;
+    if (entries.size() >= maxEntriesInMemory) {
+      spill();
+    }
+  }
+
+  int getNumEntries() {
+    return numEntries;
+  }
+
+  /**
+   * Builds and signs the CRL.
+   * @param extensions
+   *          CRL extensions. May be {@code null}.
+   * @param signer
+   *          Signer to sign the CRL.
+   * @return the signed CRL.
+   * @throws IOException
+   *           if error occurs while encoding the CRL.
+   */
+  X509CRLHolder build(Extensions extensions, ContentSigner signer) throws IOException {
+    TbsCertList tbs = buildTbs(extensions, signer.getAlgorithmIdentifier());
+    return assemble(tbs, sign(tbs, signer));
+  } // method build
+
+  /**
+   * Builds and signs the CRL. The signer is borrowed only to compute the signature, after the
+   * revoked certificates have been merged and encoded.
+   * @param extensions
+   *          CRL extensions. May be {@code null}.
+   * @param signer
+   *          Signer to sign the CRL.
+   * @return the signed CRL.
+   * @throws IOException
+   *           if error occurs while encoding the CRL.
+   * @throws NoIdleSignerException
+   *           if no signer is available.
+   */
+  X509CRLHolder build(Extensions extensions, ConcurrentContentSigner signer)
+      throws IOException, NoIdleSignerException {
+    TbsCertList tbs = buildTbs(extensions, signer.getAlgorithmIdentifier());
+
+    byte[] signature;
+    ConcurrentBagEntrySigner signer0 = signer.borrowSigner();
+    try {
+      signature = sign(tbs, signer0.value());
+    } finally {
+      signer.requiteSigner(signer0);
+    }
+
+    return assemble(tbs, signature);
+  } // method build
+
+  private TbsCertList buildTbs(Extensions extensions, AlgorithmIdentifier sigAlgId)
+      throws IOException {
+    long entriesLen = writeEntries();
+
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    bout.write(VERSION_V2);
+    bout.write(sigAlgId.getEncoded());
+    bout.write(issuer.getEncoded());
+    bout.write(new Time(thisUpdate).getEncoded());
+    if (nextUpdate != null) {
+      bout.write(new Time(nextUpdate).getEncoded());
+    }
+    // revokedCertificates is absent if there is no entry
+    if (entriesLen > 0) {
+      bout.write(header(0x30, entriesLen));
+    }
+    byte[] head = bout.toByteArray();
+
+    byte[] tail = (extensions == null) ? EMPTY
+        : new DERTaggedObject(true, 0, extensions).getEncoded();
+
+    return new TbsCertList(sigAlgId, head, entriesLen, tail);
+  } // method buildTbs
+
+  private byte[] sign(TbsCertList tbs, ContentSigner signer) throws IOException {
+    OutputStream sigOut = signer.getOutputStream();
+    writeTbs(sigOut, tbs.header, tbs.head, tbs.tail);
+    sigOut.close();
+    return signer.getSignature();
+  } // method sign
+
+  private X509CRLHolder assemble(TbsCertList tbs, byte[] signature) throws IOException {
+    byte[] encodedSigAlgId = tbs.sigAlgId.getEncoded();
+    byte[] encodedSignature = new DERBitString(signature).getEncoded();
+
+    long crlContentLen = tbs.header.length + tbs.contentLen
+        + encodedSigAlgId.length + encodedSignature.length;
+    byte[] crlHeader = header(0x30, crlContentLen);
+    long crlLen = crlHeader.length + crlContentLen;
+    if (crlLen > Integer.MAX_VALUE - 8) {
+      throw new IOException("CRL too large: " + crlLen + " bytes");
+    }
+
+    ByteArrayOutputStream crlOut = new ByteArrayOutputStream((int) crlLen);
+    crlOut.write(crlHeader);
+    writeTbs(crlOut, tbs.header, tbs.head, tbs.tail);
+    crlOut.write(encodedSigAlgId);
+    crlOut.write(encodedSignature);
+
+    LOG.debug("built CRL with {} entries and {} bytes", numEntries, crlLen);
+    return new X509CRLHolder(crlOut.toByteArray());
+  } // method assemble
+
+  @Override
+  public void close() {
+    entries.clear();
+    for (File file : runFiles) {
+      deleteFile(file);
+    }
+    runFiles.clear();
+    runSizes.clear();
+
+    if (entriesFile != null) {
+      deleteFile(entriesFile);
+      entriesFile = null;
+    }
+  } // method close
+
+  private void spill() throws IOException {
+    if (entries.isEmpty()) {
+      return;
+    }
+
+    Collections.sort(entries);
+    File file = File.createTempFile("crl-run-", ".tmp", tmpDir);
+    runFiles.add(file);
+    runSizes.add(entries.size());
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)))) {
+      for (CertRevInfoWithSerial entry : entries) {
+        writeEntry(out, entry);
+      }
+    }
+
+    LOG.debug("spilled {} CRL entries to {}", entries.size(), file);
+    entries.clear();
+  } // method spill
+
+  /**
+   * Writes the DER-encoded entries sorted by serial number to the file entriesFile.
+   * @return the total length of the encoded entries.
+   */
+  private long writeEntries() throws IOException {
+    entriesFile = File.createTempFile("crl-entries-", ".tmp", tmpDir);
+
+    long len = 0;
+    boolean first = true;
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(entriesFile))) {
+      if (runFiles.isEmpty()) {
+        Collections.sort(entries);
+        for (CertRevInfoWithSerial entry : entries) {
+          len += writeCrlEntry(out, entry, first);
+          first = false;
+        }
+        entries.clear();
+        return len;
+      }
+
+      spill();
+
+      PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles.size());
+      List<RunReader> readers = new ArrayList<>(runFiles.size());
+      try {
+        for (int i = 0; i < runFiles.size(); i++) {
+          RunReader reader = new RunReader(runFiles.get(i), runSizes.get(i));
+          readers.add(reader);
+          if (reader.next()) {
+            queue.add(reader);
+          }
+        }
+
+        while (!queue.isEmpty()) {
+          RunReader reader = queue.poll();
+          len += writeCrlEntry(out, reader.current, first);
+          first = false;
+          if (reader.next()) {
+            queue.add(reader);
+          }
+        }
+      } finally {
+        for (RunReader reader : readers) {
+          reader.close();
+        }
+      }
+    }
+
+    return len;
+  } // method writeEntries
+
+  private void writeTbs(OutputStream out, byte[] tbsHeader, byte[] head, byte[] tail)
+      throws IOException {
+    out.write(tbsHeader);
+    out.write(head);
+
+    try (InputStream in = new FileInputStream(entriesFile)) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+
+    out.write(tail);
+  } // method writeTbs
+
+  private int writeCrlEntry(OutputStream out, CertRevInfoWithSerial entry, boolean first)
+      throws IOException {
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    vec.add(new ASN1Integer(entry.getSerial()));
+    vec.add(new Time(entry.getRevocationTime()));
+
+    List<Extension> extensions = new ArrayList<>(3);
+    int reasonCode = entry.getReason().getCode();
+    if (reasonCode != 0) {
+      extensions.add(new Extension(Extension.reasonCode, false,
+          CRLReason.lookup(reasonCode).getEncoded()));
+    }
+
+    if (entry.getInvalidityTime() != null) {
+      extensions.add(new Extension(Extension.invalidityDate, false,
+          new ASN1GeneralizedTime(entry.getInvalidityTime()).getEncoded()));
+    }
+
+    if (first && certificateIssuerExtension != null) {
+      extensions.add(certificateIssuerExtension);
+    }
+
+    if (!extensions.isEmpty()) {
+      vec.add(new Extensions(extensions.toArray(new Extension[0])));
+    }
+
+    byte[] encoded = new DERSequence(vec).getEncoded();
+    out.write(encoded);
+    return encoded.length;
+  } // method writeCrlEntry
+
+  private static void writeEntry(DataOutputStream out, CertRevInfoWithSerial entry)
+      throws IOException {
+    byte[] serial = entry.getSerial().toByteArray();
+    out.writeShort(serial.length);
+    out.write(serial);
+    out.writeByte(entry.getReason().getCode());
+    out.writeLong(entry.getRevocationTime().getTime());
+    Date invalidityTime = entry.getInvalidityTime();
+    out.writeLong(invalidityTime == null ? 0 : invalidityTime.getTime());
+  } // method writeEntry
+
+  private static CertRevInfoWithSerial readEntry(DataInputStream in) throws IOException {
+    byte[] serial = new byte[in.readUnsignedShort()];
+    in.readFully(serial);
+    int reasonCode = in.readUnsignedByte();
+    Date revocationTime = new Date(in.readLong());
+    long invalidityTime = in.readLong();
+    // the database id is not required to build the CRL
+    return new CertRevInfoWithSerial(0, new BigInteger(serial), reasonCode, revocationTime,
+        invalidityTime == 0 ? null : new Date(invalidityTime));
+  } // method readEntry
+
+  private static byte[] header(int tag, long len) {
+    if (len < 0x80) {
+      return new byte[]{(byte) tag, (byte) len};
+    }
+
+    int numLenBytes = 0;
+    for (long v = len; v > 0; v >>>= 8) {
+      numLenBytes++;
+    }
+
+    byte[] header = new byte[2 + numLenBytes];
+    header[0] = (byte) tag;
+    header[1] = (byte) (0x80 | numLenBytes);
+    for (int i = 0; i < numLenBytes; i++) {
+      header[1 + numLenBytes - i] = (byte) (len >>> (8 * i));
+    }
+    return header;
+  } // method header
+
+  private static Extension createCertificateIssuerExtension(X500Name certificateIssuer) {
+    try {
+      GeneralNames generalNames = new GeneralNames(new GeneralName(certificateIssuer));
+      return new Extension(Extension.certificateIssuer, true, generalNames.getEncoded());
+    } catch (IOException ex) {
+      throw new IllegalArgumentException("error encoding certificateIssuer: "
+          + ex.getMessage(), ex);
+    }
+  }
+
+  private static void deleteFile(File file) {
+    if (!file.delete()) {
+      LOG.warn("could not delete temporary file {}", file);
+    }
+  }
+
+}
@@ -17,9 +17,11 @@
 
 package org.xipki.ca.server;
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.IntBinaryOperator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xipki.util.Args;
 
 /**
@@ -29,10 +31,16 @@ import org.xipki.util.Args;
  * <ol>
  *  <li>highest bit is set to 0 to assure positive long.
  *  <li>epoch in ms: 46 bits for 1312 years after the epoch</li>
- *  <li>offset: 10 bits
+ *  <li>sequence: 10 bits
  *  <li>shard_id: 7 bits
  * </ol>
  *
+ * <p>The time part is a monotonic logical clock: it follows the system clock, but never goes
+ * back. The sequence is reset for each new millisecond. If the 1024 ids of a millisecond are
+ * exhausted, the ids are taken from the next logical milliseconds. If the system clock goes
+ * back, the maximal time seen so far is used until the system clock has caught up. If the
+ * logical clock is {@link #MAX_BORROW_MS} ahead, the generator waits for the system clock.
+ *
  * <p>Idea is borrowed from http://instagram-engineering.tumblr.com/post/10853187575/sharding-ids-at-instagram
  * @author Lijun Liao
  * @since 2.0.0
@@ -41,42 +49,157 @@ import org.xipki.util.Args;
 
 class UniqueIdGenerator {
 
-  private static class OffsetIncrement implements IntBinaryOperator {
+  private static final Logger LOG = LoggerFactory.getLogger(UniqueIdGenerator.class);
 
-    @Override
-    public int applyAsInt(int left, int right) {
-      return (left >= right) ? 0 : left + 1;
-    }
+  // maximal 10 bits
+  private static final int MAX_SEQUENCE = 0x3FF;
 
-  }
+  private static final int SEQUENCE_BITS = 10;
 
-  // maximal 10 bits
-  private static final int MAX_OFFSET = 0x3FF;
+  private static final int SHARD_BITS = 7;
+
+  // maximal number of milliseconds the logical clock may run ahead of the system clock
+  private static final long MAX_BORROW_MS = 1000;
+
+  // clock regressions below this value (e.g. due to NTP adjustment) are not reported
+  private static final long CLOCK_SKEW_TOLERANCE_MS = 10;
 
   private final long epoch; // in milliseconds
 
   private final int shardId; // 7 bits
 
-  private final AtomicInteger offset = new AtomicInteger(0);
+  private final LongSupplier clock;
+
+  // logical time (ms since epoch) << 10 | sequence of the last id
+  private final AtomicLong state = new AtomicLong(0);
+
+  // maximal time (ms since epoch) of the system clock seen so far
+  private final AtomicLong maxClockTime = new AtomicLong(0);
+
+  private final AtomicLong clockRegressions = new AtomicLong(0);
+
+  private volatile boolean clockRegression;
 
-  private final IntBinaryOperator accumulatorFunction;
+  private final AtomicLong borrowedIds = new AtomicLong(0);
 
   public UniqueIdGenerator(long epoch, int shardId) {
+    this(epoch, shardId, new LongSupplier() {
+      @Override
+      public long getAsLong() {
+        return System.currentTimeMillis();
+      }
+    });
+  } // constructor
+
+  UniqueIdGenerator(long epoch, int shardId, LongSupplier clock) {
     this.epoch = Args.notNegative(epoch, "epoch");
     this.shardId = Args.range(shardId, "shardId", 0, 127);
-    this.accumulatorFunction = new OffsetIncrement();
+    this.clock = Args.notNull(clock, "clock");
   } // constructor
 
   public long nextId() {
-    long now = System.currentTimeMillis();
-    long ret = now - epoch;
-    ret <<= 10;
+    // an interrupt while waiting for the clock is restored once the id is generated,
+    // otherwise every further wait would return immediately.
+    boolean interrupted = false;
+    try {
+      while (true) {
+        long now = currentTime();
+        long last = state.get();
+        long lastTime = last >>> SEQUENCE_BITS;
+
+        long time;
+        long sequence;
+        if (now > lastTime) {
+          time = now;
+          sequence = 0;
+        } else if (lastTime - now >= MAX_BORROW_MS) {
+          // too many ids have been borrowed from the future, wait for the system clock
+          if (waitForClock()) {
+            interrupted = true;
+          }
+          continue;
+        } else {
+          int lastSequence = (int) (last & MAX_SEQUENCE);
+          if (lastSequence < MAX_SEQUENCE) {
+            time = lastTime;
+            sequence = lastSequence + 1;
+          } else {
+            // ids of the current millisecond are exhausted, borrow from the next one
+            time = lastTime + 1;
+            sequence = 0;
+          }
+        }
+
+        long next = (time << SEQUENCE_BITS) | sequence;
+        if (state.compareAndSet(last, next)) {
+          if (time > now) {
+            borrowedIds.incrementAndGet();
+          }
+          return (next << SHARD_BITS) | shardId;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  } // method nextId
 
-    ret += offset.getAndAccumulate(MAX_OFFSET, accumulatorFunction);
-    ret <<= 7;
+  /**
+   * Returns the number of detected system clock regressions.
+   * @return number of detected system clock regressions.
+   */
+  public long getClockRegressions() {
+    return clockRegressions.get();
+  }
 
-    ret += shardId;
-    return ret;
-  } // method nextId
+  /**
+   * Returns the number of ids whose time is after the system clock.
+   * @return number of borrowed ids.
+   */
+  public long getBorrowedIds() {
+    return borrowedIds.get();
+  }
+
+  /**
+   * Returns the time since the epoch in ms, which never goes back. If the system clock goes
+   * back, the maximal time seen so far is used until the system clock has caught up.
+   */
+  private long currentTime() {
+    long now = clock.getAsLong() - epoch;
+    while (true) {
+      long max = maxClockTime.get();
+      if (now >= max) {
+        if (maxClockTime.compareAndSet(max, now)) {
+          if (clockRegression) {
+            clockRegression = false;
+            LOG.info("system clock has caught up with the id generator");
+          }
+          return now;
+        }
+      } else {
+        if (!clockRegression && max - now > CLOCK_SKEW_TOLERANCE_MS) {
+          clockRegression = true;
+          clockRegressions.incrementAndGet();
+          LOG.warn("system clock went back by {} ms, continue with the logical clock",
+              max - now);
+        }
+        return max;
+      }
+    }
+  } // method currentTime
+
+  /**
+   * Waits 1 ms for the system clock.
+   * @return whether the thread has been interrupted. The interrupt flag is cleared.
+   */
+  private static boolean waitForClock() {
+    try {
+      Thread.sleep(1);
+      return false;
+    } catch (InterruptedException ex) {
+      return true;
+    }
+  }
 
 }
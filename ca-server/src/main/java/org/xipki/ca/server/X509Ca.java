@@ -30,6 +30,7 @@ import static org.xipki.ca.api.OperationException.ErrorCode.UNKNOWN_CERT_PROFILE
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -37,6 +38,7 @@ import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
+import java.security.SignatureException;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
 import java.security.interfaces.DSAPrivateKey;
@@ -48,24 +50,33 @@ import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERBitString;
 import org.bouncycastle.asn1.DERNull;
 import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERPrintableString;
@@ -80,27 +91,27 @@ import org.bouncycastle.asn1.pkcs.RSAPrivateKey;
 import org.bouncycastle.asn1.pkcs.RSAPublicKey;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
 import org.bouncycastle.asn1.x509.CRLDistPoint;
-import org.bouncycastle.asn1.x509.CRLReason;
 import org.bouncycastle.asn1.x509.Certificate;
 import org.bouncycastle.asn1.x509.CertificateList;
 import org.bouncycastle.asn1.x509.DistributionPointName;
 import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.Extensions;
-import org.bouncycastle.asn1.x509.GeneralName;
-import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
 import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
 import org.bouncycastle.asn1.x509.ReasonFlags;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.asn1.x509.TBSCertificate;
 import org.bouncycastle.asn1.x509.Time;
 import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
 import org.bouncycastle.cert.CertIOException;
 import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.X509v2CRLBuilder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.crypto.RuntimeCryptoException;
+import org.bouncycastle.operator.ContentSigner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.audit.AuditEvent;
@@ -337,6 +348,10 @@ public class X509Ca implements Closeable {
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "could not clear DeltaCRLCache of CA " + caIdent);
       }
+
+      if (shouldPublishToDeltaCrlCache()) {
+        reloadRevocationJournal();
+      }
     } // method run0
 
   } // class CrlGenerationService
@@ -373,6 +388,12 @@ public class X509Ca implements Closeable {
 
   } // class SuspendedCertsRevoker
 
+  private interface IndexedTask<T> {
+
+    T execute(int index) throws OperationException;
+
+  } // interface IndexedTask
+
   private static class OperationExceptionWithIndex extends OperationException {
 
     private static final long serialVersionUID = 1L;
@@ -390,6 +411,144 @@ public class X509Ca implements Closeable {
 
   }
 
+  /**
+   * Certificate to be generated, with the TBSCertificate and its signature.
+   */
+  private static class PreparedCert {
+
+    private final GrantedCertTemplate gct;
+
+    private final AuditEvent event;
+
+    private String subjectText;
+
+    private boolean keyInProcess;
+
+    private boolean subjectInProcess;
+
+    private TBSCertificate tbsCert;
+
+    private byte[] signature;
+
+    PreparedCert(GrantedCertTemplate gct, AuditEvent event) {
+      this.gct = gct;
+      this.event = event;
+      this.subjectText = gct.grantedSubjectText;
+    }
+
+  } // class PreparedCert
+
+  /**
+   * {@link ContentSigner} which computes no signature, used to get the TBSCertificate from the
+   * {@link X509v3CertificateBuilder}.
+   */
+  private static class TbsOnlyContentSigner implements ContentSigner {
+
+    private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    };
+
+    private final AlgorithmIdentifier algId;
+
+    TbsOnlyContentSigner(AlgorithmIdentifier algId) {
+      this.algId = algId;
+    }
+
+    @Override
+    public AlgorithmIdentifier getAlgorithmIdentifier() {
+      return algId;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return NULL_OUTPUT_STREAM;
+    }
+
+    @Override
+    public byte[] getSignature() {
+      return new byte[0];
+    }
+
+  } // class TbsOnlyContentSigner
+
+  /**
+   * Progress of publishing the certificates in the publish queue of a publisher.
+   */
+  private static class PublishQueueStatus {
+
+    private final String publisher;
+
+    // number of certificates published from the queue since the start
+    private final AtomicLong published = new AtomicLong();
+
+    // number of certificates published in the current or last drain
+    private final AtomicLong drainPublished = new AtomicLong();
+
+    // number of queue entries at the start of the current or last drain
+    private volatile long drainQueueSize;
+
+    private volatile long drainStart;
+
+    private volatile long drainEnd;
+
+    private volatile boolean drainSuccessful = true;
+
+    PublishQueueStatus(String publisher) {
+      this.publisher = publisher;
+    }
+
+    void startDrain(long queueSize) {
+      drainQueueSize = queueSize;
+      drainPublished.set(0);
+      drainEnd = 0;
+      drainStart = System.currentTimeMillis();
+    }
+
+    void endDrain(boolean successful) {
+      drainSuccessful = successful;
+      drainEnd = System.currentTimeMillis();
+    }
+
+    void emptyQueue() {
+      drainQueueSize = drainPublished.get();
+    }
+
+    void addPublished(int count) {
+      published.addAndGet(count);
+      drainPublished.addAndGet(count);
+    }
+
+    /**
+     * Returns the statistics: number of published certificates, number of certificates still
+     * in the queue (lag), and the publishing rate (certificates per second) of the current or
+     * last drain.
+     * @return the statistics.
+     */
+    Map<String, Object> getStatistics() {
+      final long start = drainStart;
+      final long end = drainEnd;
+      final long drained = drainPublished.get();
+      final long duration = ((end == 0) ? System.currentTimeMillis() : end) - start;
+
+      Map<String, Object> statistics = new LinkedHashMap<>();
+      statistics.put("name", publisher);
+      statistics.put("published", published.get());
+      statistics.put("lag", Math.max(0, drainQueueSize - drained));
+      statistics.put("draining", start != 0 && end == 0);
+      statistics.put("rate", (start == 0 || duration <= 0) ? 0 : drained * 1000 / duration);
+      statistics.put("lastDrain", end);
+      statistics.put("lastDrainSuccessful", drainSuccessful);
+      return statistics;
+    } // method getStatistics
+
+  } // class PublishQueueStatus
+
   private static final TimeZone TIMEZONE_UTC = TimeZone.getTimeZone("UTC");
 
   private static final long MS_PER_SECOND = 1000L;
@@ -408,6 +567,9 @@ public class X509Ca implements Closeable {
 
   private static final long MAX_CERT_TIME_MS = 253402300799982L; //9999-12-31-23-59-59
 
+  // maximal time to use the cached current CRL if not in master mode
+  private static final long CRL_CACHE_VALIDITY_MS = 60L * MS_PER_SECOND;
+
   private static final Logger LOG = LoggerFactory.getLogger(X509Ca.class);
 
   private final CaInfo caInfo;
@@ -433,6 +595,10 @@ public class X509Ca implements Closeable {
 
   private AtomicBoolean crlGenInProcess = new AtomicBoolean(false);
 
+  private volatile EncodedCrl currentCrl;
+
+  private final RevocationJournal revocationJournal;
+
   private ScheduledFuture<?> crlGenerationService;
 
   private ScheduledFuture<?> expiredCertsRemover;
@@ -443,6 +609,9 @@ public class X509Ca implements Closeable {
 
   private final ConcurrentSkipListSet<Long> subjectCertsInProcess = new ConcurrentSkipListSet<>();
 
+  private final ConcurrentHashMap<String, PublishQueueStatus> publishQueueStatuses =
+      new ConcurrentHashMap<>();
+
   public X509Ca(CaManagerImpl caManager, CaInfo caInfo, CertStore certstore,
       CtLogClient ctlogClient)
       throws OperationException {
@@ -454,6 +623,7 @@ public class X509Ca implements Closeable {
     this.caIdent = caInfo.getIdent();
     this.caCert = caInfo.getCert();
     this.certstore = Args.notNull(certstore, "certstore");
+    this.revocationJournal = new RevocationJournal(certstore, caIdent);
 
     SubjectPublicKeyInfo caSpki = this.caCert.getSubjectPublicKeyInfo();
     ASN1ObjectIdentifier caSpkiAlgId = caSpki.getAlgorithm().getAlgorithm();
@@ -521,6 +691,12 @@ public class X509Ca implements Closeable {
       publisher.caAdded(caCert);
     }
 
+    if (shouldPublishToDeltaCrlCache()) {
+      reloadRevocationJournal();
+    }
+
+    prefillKeypairPool();
+
     Random random = new Random();
     ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
     // CRL generation services
@@ -614,33 +790,8 @@ public class X509Ca implements Closeable {
   }
 
   public X509CRLHolder getCrl(BigInteger crlNumber) throws OperationException {
-    LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
-    boolean successful = false;
-
-    try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
-      if (encodedCrl == null) {
-        return null;
-      }
-
-      try {
-        X509CRLHolder crl = X509Util.parseCrl(encodedCrl);
-        successful = true;
-        if (LOG.isInfoEnabled()) {
-          String timeStr = new Time(crl.getThisUpdate()).getTime();
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(), timeStr);
-        }
-        return crl;
-      } catch (CRLException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
-      } catch (RuntimeException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
-      }
-    } finally {
-      if (!successful) {
-        LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
-      }
-    }
+    EncodedCrl crl = getEncodedCrl(crlNumber);
+    return (crl == null) ? null : crl.getCrl();
   } // method getCrl
 
   public CertificateList getBcCurrentCrl() throws OperationException {
@@ -648,6 +799,32 @@ public class X509Ca implements Closeable {
   }
 
   public CertificateList getBcCrl(BigInteger crlNumber) throws OperationException {
+    EncodedCrl crl = getEncodedCrl(crlNumber);
+    return (crl == null) ? null : crl.getCrl().toASN1Structure();
+  } // method getBcCrl
+
+  /**
+   * Returns the CRL with given CRL number. The current CRL is served from memory, and
+   * refreshed if a new CRL is generated by this CA. If not in master mode, the CRLs are
+   * generated by another instance, and the cached CRL is reloaded after
+   * {@link #CRL_CACHE_VALIDITY_MS}.
+   *
+   * @param crlNumber
+   *          CRL number. {@code null} for the current CRL.
+   * @return the CRL, or {@code null} if not available.
+   * @throws OperationException
+   *           if error occurs while loading the CRL.
+   */
+  public EncodedCrl getEncodedCrl(BigInteger crlNumber) throws OperationException {
+    EncodedCrl cached = currentCrl;
+    if (cached != null && (crlNumber == null || crlNumber.equals(cached.getCrlNumber()))
+        && (masterMode
+            || System.currentTimeMillis() - cached.getLoadTime() < CRL_CACHE_VALIDITY_MS)) {
+      LOG.debug("served cached CRL: ca={}, crlNumber={}", caIdent.getName(),
+          cached.getCrlNumber());
+      return cached;
+    }
+
     LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
     boolean successful = false;
 
@@ -658,13 +835,19 @@ public class X509Ca implements Closeable {
       }
 
       try {
-        CertificateList crl = CertificateList.getInstance(encodedCrl);
+        EncodedCrl crl = new EncodedCrl(X509Util.parseCrl(encodedCrl), encodedCrl);
+        if (crlNumber == null) {
+          updateCurrentCrl(crl);
+        }
+
         successful = true;
         if (LOG.isInfoEnabled()) {
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(),
-              crl.getThisUpdate().getTime());
+          String timeStr = new Time(crl.getThisUpdate()).getTime();
+          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(), timeStr);
         }
         return crl;
+      } catch (CRLException ex) {
+        throw new OperationException(SYSTEM_FAILURE, ex);
       } catch (RuntimeException ex) {
         throw new OperationException(SYSTEM_FAILURE, ex);
       }
@@ -673,7 +856,14 @@ public class X509Ca implements Closeable {
         LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
       }
     }
-  } // method getCrl
+  } // method getEncodedCrl
+
+  private synchronized void updateCurrentCrl(EncodedCrl crl) {
+    EncodedCrl cached = currentCrl;
+    if (cached == null || !crl.getThisUpdate().before(cached.getThisUpdate())) {
+      currentCrl = crl;
+    }
+  } // method updateCurrentCrl
 
   private void cleanupCrlsWithoutException(String msgId) throws OperationException {
     try {
@@ -741,6 +931,10 @@ public class X509Ca implements Closeable {
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "could not clear DeltaCRLCache of CA " + caIdent);
       }
+
+      if (shouldPublishToDeltaCrlCache()) {
+        reloadRevocationJournal();
+      }
       return crl;
     } finally {
       crlGenInProcess.set(false);
@@ -791,11 +985,6 @@ public class X509Ca implements Closeable {
       boolean indirectCrl = (crlSigner != null);
       X500Name crlIssuer = indirectCrl ? crlSigner.getSubject() : pci.getSubject();
 
-      X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(crlIssuer, thisUpdate);
-      if (nextUpdate != null) {
-        crlBuilder.setNextUpdate(nextUpdate);
-      }
-
       final int numEntries = 100;
 
       Date notExpireAt;
@@ -806,164 +995,110 @@ public class X509Ca implements Closeable {
         notExpireAt = new Date(thisUpdate.getTime() - 600L * MS_PER_SECOND);
       }
 
-      long startId = 1;
-
-      // we have to cache the serial entries to sort them
-      List<CertRevInfoWithSerial> allRevInfos = new LinkedList<>();
-
-      List<CertRevInfoWithSerial> revInfos;
+      X509CRLHolder crl;
+      BigInteger crlNumber;
 
-      do {
-        if (deltaCrl) {
-          revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
-        } else {
-          revInfos = certstore.getRevokedCerts(caIdent, notExpireAt, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
-        }
-        allRevInfos.addAll(revInfos);
+      // the entries are sorted by the crlBuilder, with spilling to temporary files
+      StreamingCrlBuilder crlBuilder = new StreamingCrlBuilder(crlIssuer, thisUpdate,
+          nextUpdate, indirectCrl ? pci.getSubject() : null, caManager.getCrlTmpDir());
+      try {
+        CrlControl crlControl = caInfo.getCrlControl();
 
-        long maxId = 1;
-        for (CertRevInfoWithSerial revInfo : revInfos) {
-          if (revInfo.getId() > maxId) {
-            maxId = revInfo.getId();
+        List<CertRevInfoWithSerial> journalEntries = deltaCrl
+            ? getRevocationJournalEntries(control) : null;
+        if (journalEntries != null) {
+          for (CertRevInfoWithSerial revInfo : journalEntries) {
+            crlBuilder.addEntry(toCrlEntry(crlControl, revInfo));
           }
-        } // end for
-        startId = maxId + 1;
-      } while (revInfos.size() >= numEntries); // end do
-
-      if (revInfos != null) { // free the memory
-        revInfos.clear();
-      }
-
-      // sort the list by SerialNumber ASC
-      Collections.sort(allRevInfos);
+        } else {
+          long startId = 1;
+          List<CertRevInfoWithSerial> revInfos;
+
+          do {
+            if (deltaCrl) {
+              revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
+                  control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
+            } else {
+              revInfos = certstore.getRevokedCerts(caIdent, notExpireAt, startId, numEntries,
+                  control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
+            }
 
-      boolean isFirstCrlEntry = true;
-      CrlControl crlControl = caInfo.getCrlControl();
+            long maxId = 1;
+            for (CertRevInfoWithSerial revInfo : revInfos) {
+              if (revInfo.getId() > maxId) {
+                maxId = revInfo.getId();
+              }
 
-      for (CertRevInfoWithSerial revInfo : allRevInfos) {
-        CrlReason reason = revInfo.getReason();
-        if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
-          reason = CrlReason.UNSPECIFIED;
+              crlBuilder.addEntry(toCrlEntry(crlControl, revInfo));
+            } // end for
+            startId = maxId + 1;
+          } while (revInfos.size() >= numEntries); // end do
         }
 
-        Date revocationTime = revInfo.getRevocationTime();
-        Date invalidityTime = revInfo.getInvalidityTime();
+        crlNumber = caInfo.nextCrlNumber();
+        event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
 
-        switch (crlControl.getInvalidityDateMode()) {
-          case forbidden:
-            invalidityTime = null;
-            break;
-          case optional:
-            break;
-          case required:
-            if (invalidityTime == null) {
-              invalidityTime = revocationTime;
-            }
-            break;
-          default:
-            throw new IllegalStateException(
-                "unknown TripleState " + crlControl.getInvalidityDateMode());
+        boolean onlyUserCerts = crlControl.isOnlyContainsUserCerts();
+        boolean onlyCaCerts = crlControl.isOnlyContainsCaCerts();
+        if (onlyUserCerts && onlyCaCerts) {
+          throw new IllegalStateException(
+              "should not reach here, onlyUserCerts and onlyCACerts are both true");
         }
 
-        BigInteger serial = revInfo.getSerial();
-        LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
-
-        if (!indirectCrl || !isFirstCrlEntry) {
-          if (invalidityTime != null) {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode(),
-                invalidityTime);
-          } else {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode());
+        ExtensionsGenerator extnGen = new ExtensionsGenerator();
+        try {
+          // AuthorityKeyIdentifier
+          byte[] akiValues = indirectCrl
+              ? crlSigner.getSigner().getCertificate().getSubjectKeyId()
+              : pci.getSubjectKeyIdentifer();
+          AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
+          extnGen.addExtension(Extension.authorityKeyIdentifier, false, aki);
+
+          // add extension CRL Number
+          extnGen.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+
+          // IssuingDistributionPoint
+          if (onlyUserCerts || onlyCaCerts || indirectCrl) {
+            IssuingDistributionPoint idp = new IssuingDistributionPoint(
+                (DistributionPointName) null, // distributionPoint,
+                onlyUserCerts, // onlyContainsUserCerts,
+                onlyCaCerts, // onlyContainsCACerts,
+                (ReasonFlags) null, // onlySomeReasons,
+                indirectCrl, // indirectCRL,
+                false); // onlyContainsAttributeCerts
+
+            extnGen.addExtension(Extension.issuingDistributionPoint, true, idp);
           }
-          continue;
-        }
 
-        List<Extension> extensions = new ArrayList<>(3);
-        if (reason != CrlReason.UNSPECIFIED) {
-          Extension ext = createReasonExtension(reason.getCode());
-          extensions.add(ext);
-        }
-        if (invalidityTime != null) {
-          Extension ext = createInvalidityDateExtension(invalidityTime);
-          extensions.add(ext);
+          // freshestCRL
+          List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
+          if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNotEmpty(deltaCrlUris)) {
+            CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris,
+                pci.getSubject(), crlIssuer);
+            extnGen.addExtension(Extension.freshestCRL, false, cdp);
+          }
+        } catch (IOException ex) {
+          LogUtil.error(LOG, ex, "crlBuilder.addExtension");
+          throw new OperationException(INVALID_EXTENSION, ex);
         }
 
-        Extension ext = createCertificateIssuerExtension(pci.getSubject());
-        extensions.add(ext);
-
-        crlBuilder.addCRLEntry(serial, revocationTime,
-            new Extensions(extensions.toArray(new Extension[0])));
-        isFirstCrlEntry = false;
-      }
-
-      allRevInfos.clear(); // free the memory
-
-      BigInteger crlNumber = caInfo.nextCrlNumber();
-      event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
+        addXipkiCertset(extnGen, deltaCrl, control, notExpireAt, onlyCaCerts, onlyUserCerts);
 
-      boolean onlyUserCerts = crlControl.isOnlyContainsUserCerts();
-      boolean onlyCaCerts = crlControl.isOnlyContainsCaCerts();
-      if (onlyUserCerts && onlyCaCerts) {
-        throw new IllegalStateException(
-            "should not reach here, onlyUserCerts and onlyCACerts are both true");
-      }
+        @SuppressWarnings("resource")
+        ConcurrentContentSigner concurrentSigner = (crlSigner == null)
+            ? caInfo.getSigner(null) : crlSigner.getSigner();
 
-      try {
-        // AuthorityKeyIdentifier
-        byte[] akiValues = indirectCrl
-            ? crlSigner.getSigner().getCertificate().getSubjectKeyId()
-            : pci.getSubjectKeyIdentifer();
-        AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
-        crlBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
-
-        // add extension CRL Number
-        crlBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
-
-        // IssuingDistributionPoint
-        if (onlyUserCerts || onlyCaCerts || indirectCrl) {
-          IssuingDistributionPoint idp = new IssuingDistributionPoint(
-              (DistributionPointName) null, // distributionPoint,
-              onlyUserCerts, // onlyContainsUserCerts,
-              onlyCaCerts, // onlyContainsCACerts,
-              (ReasonFlags) null, // onlySomeReasons,
-              indirectCrl, // indirectCRL,
-              false); // onlyContainsAttributeCerts
-
-          crlBuilder.addExtension(Extension.issuingDistributionPoint, true, idp);
-        }
-
-        // freshestCRL
-        List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
-        if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNotEmpty(deltaCrlUris)) {
-          CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris, pci.getSubject(),
-              crlIssuer);
-          crlBuilder.addExtension(Extension.freshestCRL, false, cdp);
+        try {
+          crl = crlBuilder.build(extnGen.generate(), concurrentSigner);
+        } catch (NoIdleSignerException ex) {
+          throw new OperationException(SYSTEM_FAILURE,
+              "NoIdleSignerException: " + ex.getMessage());
         }
-      } catch (CertIOException ex) {
-        LogUtil.error(LOG, ex, "crlBuilder.addExtension");
-        throw new OperationException(INVALID_EXTENSION, ex);
-      }
-
-      addXipkiCertset(crlBuilder, deltaCrl, control, notExpireAt, onlyCaCerts, onlyUserCerts);
-
-      @SuppressWarnings("resource")
-      ConcurrentContentSigner concurrentSigner = (crlSigner == null)
-          ? caInfo.getSigner(null) : crlSigner.getSigner();
-
-      ConcurrentBagEntrySigner signer0;
-      try {
-        signer0 = concurrentSigner.borrowSigner();
-      } catch (NoIdleSignerException ex) {
-        throw new OperationException(SYSTEM_FAILURE, "NoIdleSignerException: " + ex.getMessage());
-      }
-
-      X509CRLHolder crl;
-      try {
-        crl = crlBuilder.build(signer0.value());
+      } catch (IOException ex) {
+        LogUtil.error(LOG, ex, "could not build CRL");
+        throw new OperationException(CRL_FAILURE, ex);
       } finally {
-        concurrentSigner.requiteSigner(signer0);
+        crlBuilder.close();
       }
 
       caInfo.getCaEntry().setNextCrlNumber(crlNumber.longValue() + 1);
@@ -986,6 +1121,69 @@ public class X509Ca implements Closeable {
     }
   } // method generateCrl
 
+  /**
+   * Returns the entries of the delta CRL from the revocation journal.
+   * @return the sorted entries, or {@code null} if the journal cannot be used.
+   */
+  private List<CertRevInfoWithSerial> getRevocationJournalEntries(CrlControl control) {
+    try {
+      revocationJournal.refresh();
+      return revocationJournal.getEntries(control.isOnlyContainsCaCerts(),
+          control.isOnlyContainsUserCerts());
+    } catch (OperationException ex) {
+      LogUtil.warn(LOG, ex, "could not use the revocation journal of CA " + caIdent.getName());
+      return null;
+    }
+  } // method getRevocationJournalEntries
+
+  private void reloadRevocationJournal() {
+    try {
+      revocationJournal.reload();
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not load revocation journal of CA " + caIdent.getName());
+    }
+  } // method reloadRevocationJournal
+
+  private void addToRevocationJournal(X509Cert cert, CertRevocationInfo revInfo) {
+    if (!masterMode || !shouldPublishToDeltaCrlCache()) {
+      return;
+    }
+
+    revocationJournal.add(new CertRevInfoWithSerial(0, cert.getSerialNumber(),
+        revInfo.getReason(), revInfo.getRevocationTime(), revInfo.getInvalidityTime()),
+        cert.getBasicConstraints() == -1);
+  } // method addToRevocationJournal
+
+  private CertRevInfoWithSerial toCrlEntry(CrlControl crlControl, CertRevInfoWithSerial revInfo) {
+    CrlReason reason = revInfo.getReason();
+    if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
+      reason = CrlReason.UNSPECIFIED;
+    }
+
+    Date revocationTime = revInfo.getRevocationTime();
+    Date invalidityTime = revInfo.getInvalidityTime();
+
+    switch (crlControl.getInvalidityDateMode()) {
+      case forbidden:
+        invalidityTime = null;
+        break;
+      case optional:
+        break;
+      case required:
+        if (invalidityTime == null) {
+          invalidityTime = revocationTime;
+        }
+        break;
+      default:
+        throw new IllegalStateException(
+            "unknown TripleState " + crlControl.getInvalidityDateMode());
+    }
+
+    LOG.debug("added cert ca={} serial={} to CRL", caIdent, revInfo.getSerial());
+    return new CertRevInfoWithSerial(revInfo.getId(), revInfo.getSerial(), reason,
+        revocationTime, invalidityTime);
+  } // method toCrlEntry
+
   /**
    * Add XiPKI extension CrlCertSet.
    *
@@ -999,7 +1197,7 @@ public class X509Ca implements Closeable {
    * }
    * </pre>
    */
-  private void addXipkiCertset(X509v2CRLBuilder crlBuilder, boolean deltaCrl, CrlControl control,
+  private void addXipkiCertset(ExtensionsGenerator extnGen, boolean deltaCrl, CrlControl control,
       Date notExpireAt, boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
     if (deltaCrl || !control.isXipkiCertsetIncluded()) {
       return;
@@ -1053,10 +1251,10 @@ public class X509Ca implements Closeable {
     // end do
 
     try {
-      crlBuilder.addExtension(ObjectIdentifiers.Xipki.id_xipki_ext_crlCertset,
+      extnGen.addExtension(ObjectIdentifiers.Xipki.id_xipki_ext_crlCertset,
           false, new DERSet(vector));
-    } catch (CertIOException ex) {
-      throw new OperationException(INVALID_EXTENSION, "CertIOException: " + ex.getMessage());
+    } catch (IOException ex) {
+      throw new OperationException(INVALID_EXTENSION, "IOException: " + ex.getMessage());
     }
   }
 
@@ -1090,25 +1288,39 @@ public class X509Ca implements Closeable {
       return 0;
     }
 
-    if (!certstore.addCert(certInfo)) {
+    // the asynchronous publishers are queued in the same transaction as the certificate
+    List<IdentifiedCertPublisher> publishers = publishers();
+    List<NameId> publishQueue = null;
+    for (IdentifiedCertPublisher publisher : publishers) {
+      if (publisher.isAsyn()) {
+        if (publishQueue == null) {
+          publishQueue = new ArrayList<>(publishers.size());
+        }
+        publishQueue.add(publisher.getIdent());
+      }
+    }
+
+    if (!certstore.addCert(certInfo, publishQueue)) {
       return 1;
     }
 
-    for (IdentifiedCertPublisher publisher : publishers()) {
-      if (!publisher.isAsyn()) {
-        boolean successful;
-        try {
-          successful = publisher.certificateAdded(certInfo);
-        } catch (RuntimeException ex) {
-          successful = false;
-          LogUtil.warn(LOG, ex, "could not publish certificate to the publisher "
-              + publisher.getIdent());
-        }
+    for (IdentifiedCertPublisher publisher : publishers) {
+      if (publisher.isAsyn()) {
+        continue;
+      }
 
-        if (successful) {
-          continue;
-        }
-      } // end if
+      boolean successful;
+      try {
+        successful = publisher.certificateAdded(certInfo);
+      } catch (RuntimeException ex) {
+        successful = false;
+        LogUtil.warn(LOG, ex, "could not publish certificate to the publisher "
+            + publisher.getIdent());
+      }
+
+      if (successful) {
+        continue;
+      }
 
       Long certId = certInfo.getCert().getCertId();
       try {
@@ -1235,49 +1447,153 @@ public class X509Ca implements Closeable {
     return allSuccessful;
   }
 
-  private boolean publishCertsInQueue(IdentifiedCertPublisher publisher) {
+  /**
+   * Publishes the certificates in the publish queue of the publisher. The queue is read page by
+   * page ordered by the certificate id. Each page is split into batches which are published in
+   * parallel if the CA manager provides an executor for the publish queue. Once a batch fails,
+   * no further page is read, and the entries of the failed batches remain in the queue.
+   */
+  private boolean publishCertsInQueue(final IdentifiedCertPublisher publisher) {
     Args.notNull(publisher, "publisher");
-    final int numEntries = 500;
+    final NameId pubIdent = publisher.getIdent();
+
+    PublishQueueStatus status = publishQueueStatuses.get(pubIdent.getName());
+    if (status == null) {
+      publishQueueStatuses.putIfAbsent(pubIdent.getName(),
+          new PublishQueueStatus(pubIdent.getName()));
+      status = publishQueueStatuses.get(pubIdent.getName());
+    }
+
+    final int batchSize = caManager.getPublishQueueBatchSize();
+    ExecutorService executor = caManager.getPublishQueueExecutor();
+    final int numBatches = (executor == null) ? 1 : caManager.getPublishQueueThreads();
+    final int pageSize = batchSize * numBatches;
+
+    List<Long> certIds;
+    try {
+      certIds = certstore.getPublishQueueEntries(caIdent, pubIdent, 0, pageSize);
+    } catch (OperationException ex) {
+      LogUtil.error(LOG, ex);
+      return false;
+    }
+
+    if (CollectionUtil.isEmpty(certIds)) {
+      status.emptyQueue();
+      return true;
+    }
 
+    // the queue is counted only if it does not fit into one page
+    long queueSize = certIds.size();
+    if (queueSize == pageSize) {
+      try {
+        queueSize = certstore.getCountOfPublishQueueEntries(caIdent, pubIdent);
+      } catch (OperationException ex) {
+        LogUtil.warn(LOG, ex, "could not count the publish queue of publisher "
+            + pubIdent.getName());
+      }
+    }
+
+    LOG.info("publishing {} certificates in the queue of publisher {}", queueSize,
+        pubIdent.getName());
+    status.startDrain(queueSize);
+
+    boolean successful = true;
+    boolean interrupted = false;
     while (true) {
-      List<Long> certIds;
+      final long lastCertId = certIds.get(certIds.size() - 1);
+
+      final PublishQueueStatus fstatus = status;
+      List<FutureTask<Boolean>> futures = new ArrayList<>(numBatches);
+      for (int from = 0; from < certIds.size(); from += batchSize) {
+        final List<Long> batch =
+            certIds.subList(from, Math.min(from + batchSize, certIds.size()));
+        FutureTask<Boolean> future = new FutureTask<>(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            return publishCertsInQueue(publisher, batch, fstatus);
+          }
+        });
+
+        futures.add(future);
+        if (executor == null) {
+          future.run();
+        } else {
+          try {
+            executor.execute(future);
+          } catch (RejectedExecutionException ex) {
+            // executor has been shutdown
+            future.run();
+          }
+        }
+      }
+
+      for (FutureTask<Boolean> future : futures) {
+        while (true) {
+          try {
+            successful &= future.get();
+            break;
+          } catch (InterruptedException ex) {
+            interrupted = true;
+          } catch (ExecutionException ex) {
+            LogUtil.error(LOG, ex.getCause(), "could not publish certificates in the queue");
+            successful = false;
+            break;
+          }
+        }
+      }
+
+      if (!successful) {
+        break;
+      }
+
       try {
-        certIds = certstore.getPublishQueueEntries(caIdent, publisher.getIdent(), numEntries);
+        certIds = certstore.getPublishQueueEntries(caIdent, pubIdent, lastCertId, pageSize);
       } catch (OperationException ex) {
         LogUtil.error(LOG, ex);
-        return false;
+        successful = false;
+        break;
       }
 
       if (CollectionUtil.isEmpty(certIds)) {
         break;
       }
+    } // end while
 
-      for (Long certId : certIds) {
-        CertificateInfo certInfo;
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
 
-        try {
-          certInfo = certstore.getCertForId(caIdent, caCert, certId, caIdNameMap);
-        } catch (OperationException | CertificateException ex) {
-          LogUtil.error(LOG, ex);
-          return false;
-        }
+    status.endDrain(successful);
+    LOG.info("published {} certificates in the queue of publisher {}{}",
+        status.drainPublished.get(), pubIdent.getName(), successful ? "" : ", stopped by error");
+    return successful;
+  } // method publishCertsInQueue
 
-        boolean successful = publisher.certificateAdded(certInfo);
-        if (!successful) {
-          LOG.error("republishing certificate id={} failed", certId);
-          return false;
-        }
+  private boolean publishCertsInQueue(IdentifiedCertPublisher publisher, List<Long> certIds,
+      PublishQueueStatus status) {
+    List<CertificateInfo> certInfos;
+    try {
+      certInfos = certstore.getCertsForIds(caIdent, caCert, certIds, caIdNameMap);
+    } catch (OperationException | CertificateException ex) {
+      LogUtil.error(LOG, ex);
+      return false;
+    }
 
-        try {
-          certstore.removeFromPublishQueue(publisher.getIdent(), certId);
-        } catch (OperationException ex) {
-          LogUtil.warn(LOG, ex, "could not remove republished cert id=" + certId
-              + " and publisher=" + publisher.getIdent().getName());
-          continue;
-        }
-      } // end for
-    } // end while
+    if (!publisher.certificatesAdded(certInfos)) {
+      LOG.error("republishing certificates id={}..{} failed", certIds.get(0),
+          certIds.get(certIds.size() - 1));
+      return false;
+    }
+
+    // certificates not in the database anymore are also removed from the queue
+    try {
+      certstore.removeFromPublishQueue(publisher.getIdent(), certIds);
+    } catch (OperationException ex) {
+      LogUtil.warn(LOG, ex, "could not remove republished certs id=" + certIds.get(0) + ".."
+          + certIds.get(certIds.size() - 1) + " and publisher=" + publisher.getIdent().getName());
+    }
 
+    status.addPublished(certInfos.size());
     return true;
   } // method publishCertsInQueue
 
@@ -1291,6 +1607,12 @@ public class X509Ca implements Closeable {
       return false;
     }
 
+    try {
+      updateCurrentCrl(new EncodedCrl(crl, crl.getEncoded()));
+    } catch (IOException ex) {
+      LogUtil.warn(LOG, ex, "could not cache CRL of CA " + caIdent.getName());
+    }
+
     for (IdentifiedCertPublisher publisher : publishers()) {
       try {
         publisher.crlAdded(caCert, crl);
@@ -1441,6 +1763,7 @@ public class X509Ca implements Closeable {
     if (revokedCert == null) {
       return null;
     }
+    addToRevocationJournal(revokedCert.getCert().getCert(), revokedCert.getRevInfo());
 
     for (IdentifiedCertPublisher publisher : publishers()) {
       if (!publisher.isAsyn()) {
@@ -1507,6 +1830,7 @@ public class X509Ca implements Closeable {
     if (revokedCert == null) {
       return null;
     }
+    addToRevocationJournal(revokedCert.getCert().getCert(), revokedCert.getRevInfo());
 
     for (IdentifiedCertPublisher publisher : publishers()) {
       if (!publisher.isAsyn()) {
@@ -1554,6 +1878,8 @@ public class X509Ca implements Closeable {
     if (unrevokedCert == null) {
       return null;
     }
+    addToRevocationJournal(unrevokedCert.getCert(),
+        new CertRevocationInfo(CrlReason.REMOVE_FROM_CRL, new Date(), null));
 
     for (IdentifiedCertPublisher publisher : publishers()) {
       if (!publisher.isAsyn()) {
@@ -1683,59 +2009,90 @@ public class X509Ca implements Closeable {
     return generateCerts(certTemplates, requestor, false, reqType, transactionId, msgId);
   }
 
-  private List<CertificateInfo> generateCerts(List<CertTemplateData> certTemplates,
-      RequestorInfo requestor, boolean update, RequestType reqType, byte[] transactionId,
-      String msgId) throws OperationExceptionWithIndex {
+  private List<CertificateInfo> generateCerts(final List<CertTemplateData> certTemplates,
+      final RequestorInfo requestor, final boolean update, final RequestType reqType,
+      final byte[] transactionId, final String msgId) throws OperationExceptionWithIndex {
     Args.notEmpty(certTemplates, "certTemplates");
     final int n = certTemplates.size();
-    List<GrantedCertTemplate> gcts = new ArrayList<>(n);
+    final List<GrantedCertTemplate> gcts = new ArrayList<>(n);
 
-    for (int i = 0; i < n; i++) {
-      CertTemplateData certTemplate = certTemplates.get(i);
-      try {
-        GrantedCertTemplate gct = createGrantedCertTemplate(certTemplate, requestor, update);
-        gcts.add(gct);
-      } catch (OperationException ex) {
-        LOG.error("     FAILED createGrantedCertTemplate: CA={}, profile={}, subject='{}'",
-            caIdent.getName(), certTemplate.getCertprofileName(), certTemplate.getSubject());
-        throw new OperationExceptionWithIndex(i, ex);
+    OperationExceptionWithIndex exception = execute(n, new IndexedTask<GrantedCertTemplate>() {
+      @Override
+      public GrantedCertTemplate execute(int index) throws OperationException {
+        CertTemplateData certTemplate = certTemplates.get(index);
+        try {
+          return createGrantedCertTemplate(certTemplate, requestor, update);
+        } catch (OperationException ex) {
+          LOG.error("     FAILED createGrantedCertTemplate: CA={}, profile={}, subject='{}'",
+              caIdent.getName(), certTemplate.getCertprofileName(), certTemplate.getSubject());
+          throw ex;
+        }
       }
-    }
+    }, gcts);
 
-    List<CertificateInfo> certInfos = new ArrayList<>(n);
-    OperationExceptionWithIndex exception = null;
+    if (exception != null) {
+      throw exception;
+    }
 
-    for (int i = 0; i < n; i++) {
-      if (exception != null) {
-        break;
-      }
-      GrantedCertTemplate gct = gcts.get(i);
-      final NameId certprofilIdent = gct.certprofile.getIdent();
-      final String subjectText = gct.grantedSubjectText;
+    final List<PreparedCert> preparedCerts = new ArrayList<>(n);
+    for (GrantedCertTemplate gct : gcts) {
+      PreparedCert pc = new PreparedCert(gct, newPerfAuditEvent(CaAuditConstants.TYPE_gen_cert,
+          msgId));
       LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'",
-          caIdent.getName(), certprofilIdent.getName(), subjectText);
+          caIdent.getName(), gct.certprofile.getIdent().getName(), pc.subjectText);
+      preparedCerts.add(pc);
+    }
 
-      boolean successful = false;
-      try {
-        CertificateInfo certInfo = generateCert(gct, requestor, reqType, transactionId, msgId);
-        successful = true;
-        certInfos.add(certInfo);
+    // build the TBSCertificates, sign them in batches, and then save the certificates
+    final List<CertificateInfo> certInfos = new ArrayList<>(n);
+    try {
+      exception = execute(n, new IndexedTask<PreparedCert>() {
+        @Override
+        public PreparedCert execute(int index) throws OperationException {
+          PreparedCert pc = preparedCerts.get(index);
+          prepareCert(pc);
+          return pc;
+        }
+      }, new ArrayList<PreparedCert>(n));
 
-        if (LOG.isInfoEnabled()) {
-          String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
-          CertWithDbId cert = certInfo.getCert();
-          LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
-              prefix, caIdent.getName(), certprofilIdent.getName(),
-              cert.getCert().getSubjectRfc4519Text(), cert.getCert().getSerialNumberHex());
+      if (exception == null) {
+        exception = signCerts(preparedCerts);
+      }
+
+      if (exception == null) {
+        exception = execute(n, new IndexedTask<CertificateInfo>() {
+          @Override
+          public CertificateInfo execute(int index) throws OperationException {
+            return finishCert(preparedCerts.get(index), requestor, reqType, transactionId);
+          }
+        }, certInfos);
+      }
+    } finally {
+      for (int i = 0; i < n; i++) {
+        PreparedCert pc = preparedCerts.get(i);
+        if (pc.keyInProcess) {
+          publicKeyCertsInProcess.remove(pc.gct.fpPublicKey);
         }
-      } catch (OperationException ex) {
-        exception = new OperationExceptionWithIndex(i, ex);
-      } catch (Throwable th) {
-        exception = new OperationExceptionWithIndex(i, new OperationException(SYSTEM_FAILURE, th));
-      } finally {
-        if (!successful) {
+        if (pc.subjectInProcess) {
+          subjectCertsInProcess.remove(pc.gct.fpSubject);
+        }
+
+        CertificateInfo ret = (i < certInfos.size()) ? certInfos.get(i) : null;
+        boolean successful = (ret != null);
+        finish(pc.event, successful);
+
+        final String profileName = pc.gct.certprofile.getIdent().getName();
+        if (successful) {
+          if (LOG.isInfoEnabled()) {
+            String prefix = ret.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
+            CertWithDbId cert = ret.getCert();
+            LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
+                prefix, caIdent.getName(), profileName, cert.getCert().getSubjectRfc4519Text(),
+                cert.getCert().getSerialNumberHex());
+          }
+        } else {
           LOG.error("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
-              caIdent.getName(), certprofilIdent.getName(), subjectText);
+              caIdent.getName(), profileName, pc.subjectText);
         }
       }
     }
@@ -1745,6 +2102,10 @@ public class X509Ca implements Closeable {
           + " certificates", exception.getIndex());
       // delete generated certificates
       for (CertificateInfo m : certInfos) {
+        if (m == null) {
+          continue;
+        }
+
         BigInteger serial = m.getCert().getCert().getSerialNumber();
         try {
           removeCert(serial, msgId);
@@ -1758,7 +2119,97 @@ public class X509Ca implements Closeable {
     }
 
     return certInfos;
-  }
+  } // method generateCerts
+
+  /**
+   * Executes the task for the indexes 0 to n-1. If more than one task is to be executed and the
+   * CA manager provides an executor for the certificate generation, the tasks are executed in
+   * parallel, otherwise sequentially.
+   *
+   * @param n
+   *          Number of tasks.
+   * @param task
+   *          The task.
+   * @param results
+   *          List to which the results are added in the order of the indexes. In case of
+   *          failure, it contains {@code null} for the failed and the skipped tasks.
+   * @return the exception of the failed task with the lowest index, or {@code null} if all
+   *         tasks were executed successfully.
+   */
+  private <T> OperationExceptionWithIndex execute(int n, final IndexedTask<T> task,
+      List<T> results) {
+    ExecutorService executor = (n > 1) ? caManager.getCertGenerationExecutor() : null;
+    if (executor == null) {
+      for (int i = 0; i < n; i++) {
+        try {
+          results.add(task.execute(i));
+        } catch (OperationException ex) {
+          return new OperationExceptionWithIndex(i, ex);
+        } catch (Throwable th) {
+          return new OperationExceptionWithIndex(i, new OperationException(SYSTEM_FAILURE, th));
+        }
+      }
+      return null;
+    }
+
+    // once a task fails, the tasks not started yet will be skipped.
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    List<FutureTask<T>> futures = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      final int index = i;
+      FutureTask<T> future = new FutureTask<>(new Callable<T>() {
+        @Override
+        public T call() throws Exception {
+          if (failed.get()) {
+            return null;
+          }
+
+          try {
+            return task.execute(index);
+          } catch (Throwable th) {
+            failed.set(true);
+            throw th;
+          }
+        }
+      });
+
+      futures.add(future);
+      try {
+        executor.execute(future);
+      } catch (RejectedExecutionException ex) {
+        // executor has been shutdown
+        future.run();
+      }
+    }
+
+    // wait for all tasks, even after a failure, so that all generated certificates are known.
+    OperationExceptionWithIndex exception = null;
+    boolean interrupted = false;
+    for (int i = 0; i < n; i++) {
+      T result = null;
+      while (true) {
+        try {
+          result = futures.get(i).get();
+          break;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          if (exception == null) {
+            Throwable cause = ex.getCause();
+            exception = new OperationExceptionWithIndex(i, (cause instanceof OperationException)
+                ? (OperationException) cause : new OperationException(SYSTEM_FAILURE, cause));
+          }
+          break;
+        }
+      }
+      results.add(result);
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return exception;
+  } // method execute
 
   public CertificateInfo generateCert(CertTemplateData certTemplate, RequestorInfo requestor,
       RequestType reqType, byte[] transactionId, String msgId) throws OperationException {
@@ -1767,23 +2218,13 @@ public class X509Ca implements Closeable {
         reqType, transactionId, msgId).get(0);
   }
 
-  private CertificateInfo generateCert(GrantedCertTemplate gct, RequestorInfo requestor,
-      RequestType reqType, byte[] transactionId, String msgId) throws OperationException {
-    AuditEvent event = newPerfAuditEvent(CaAuditConstants.TYPE_gen_cert, msgId);
-
-    boolean successful = false;
-    try {
-      CertificateInfo ret = generateCert0(gct, requestor, reqType, transactionId, event);
-      successful = (ret != null);
-      return ret;
-    } finally {
-      finish(event, successful);
-    }
-  }
-
-  private CertificateInfo generateCert0(GrantedCertTemplate gct, RequestorInfo requestor,
-      RequestType reqType, byte[] transactionId, AuditEvent event) throws OperationException {
-    Args.notNull(gct, "gct");
+  /**
+   * Builds the TBSCertificate of the certificate to be generated. The signature is not computed
+   * here, so that the certificates of one request can be signed in one batch.
+   */
+  private void prepareCert(PreparedCert pc) throws OperationException {
+    GrantedCertTemplate gct = pc.gct;
+    AuditEvent event = pc.event;
 
     event.addEventData(CaAuditConstants.NAME_req_subject,
         X509Util.getRfc4519Name(gct.requestedSubject));
@@ -1794,28 +2235,26 @@ public class X509Ca implements Closeable {
         DateUtil.toUtcTimeyyyyMMddhhmmss(gct.grantedNotAfter));
 
     adaptGrantedSubejct(gct);
+    pc.subjectText = gct.grantedSubjectText;
 
     IdentifiedCertprofile certprofile = gct.certprofile;
 
-    boolean duplicatedKeyNotAllowed = !caInfo.isDuplicateKeyPermitted();
-    boolean duplicatedSubjectNotAllowed = !caInfo.isDuplicateSubjectPermitted();
-    if (duplicatedKeyNotAllowed) {
+    if (!caInfo.isDuplicateKeyPermitted()) {
       if (!publicKeyCertsInProcess.add(gct.fpPublicKey)) {
         // in process already exists a request with given public key.
         throw new OperationException(ALREADY_ISSUED,
             "certificate with the given public key already in process");
       }
+      pc.keyInProcess = true;
     }
 
-    if (duplicatedSubjectNotAllowed) {
+    if (!caInfo.isDuplicateSubjectPermitted()) {
       if (!subjectCertsInProcess.add(gct.fpSubject)) {
         // in process already exists a request with given subject.
-        if (duplicatedKeyNotAllowed) { // remove the added entry from publicKeyCertsInProcess
-          publicKeyCertsInProcess.remove(gct.fpPublicKey);
-        }
         throw new OperationException(ALREADY_ISSUED,
             "certificate with the given subject " + gct.grantedSubjectText + " already in process");
       }
+      pc.subjectInProcess = true;
     }
 
     ExtensionControl extnSctCtrl = certprofile.getExtensionControls().get(Extn.id_SCTs);
@@ -1834,58 +2273,24 @@ public class X509Ca implements Closeable {
           caInfo.getPublicCaInfo().getSubject(), caInfo.nextSerial(), gct.grantedNotBefore,
           gct.grantedNotAfter, gct.grantedSubject, gct.grantedPublicKey);
 
-      CertificateInfo ret;
-
-      try {
-        SignerEntryWrapper crlSigner = getCrlSigner();
-        X509Cert crlSignerCert = (crlSigner == null)
-            ? null : crlSigner.getSigner().getCertificate();
-
-        ExtensionValues extensionTuples = certprofile.getExtensions(gct.requestedSubject,
-            gct.grantedSubject, gct.extensions, gct.grantedPublicKey, caInfo.getPublicCaInfo(),
-            crlSignerCert, gct.grantedNotBefore, gct.grantedNotAfter);
-        if (extensionTuples != null) {
-          for (ASN1ObjectIdentifier extensionType : extensionTuples.getExtensionTypes()) {
-            ExtensionValue extValue = extensionTuples.getExtensionValue(extensionType);
-            certBuilder.addExtension(extensionType, extValue.isCritical(), extValue.getValue());
-          }
+      SignerEntryWrapper crlSigner = getCrlSigner();
+      X509Cert crlSignerCert = (crlSigner == null)
+          ? null : crlSigner.getSigner().getCertificate();
+
+      ExtensionValues extensionTuples = certprofile.getExtensions(gct.requestedSubject,
+          gct.grantedSubject, gct.extensions, gct.grantedPublicKey, caInfo.getPublicCaInfo(),
+          crlSignerCert, gct.grantedNotBefore, gct.grantedNotAfter);
+      if (extensionTuples != null) {
+        for (ASN1ObjectIdentifier extensionType : extensionTuples.getExtensionTypes()) {
+          ExtensionValue extValue = extensionTuples.getExtensionValue(extensionType);
+          certBuilder.addExtension(extensionType, extValue.isCritical(), extValue.getValue());
         }
+      }
 
-        boolean addCtlog = ctlogEnabled && extnSctCtrl != null;
-
-        if (addCtlog) {
-          certBuilder.addExtension(Extn.id_precertificate, true, DERNull.INSTANCE);
-
-          ConcurrentBagEntrySigner signer0;
-          try {
-            signer0 = gct.signer.borrowSigner();
-          } catch (NoIdleSignerException ex) {
-            throw new OperationException(SYSTEM_FAILURE, ex);
-          }
-
-          X509CertificateHolder precert;
-          try {
-            precert = certBuilder.build(signer0.value());
-          } finally {
-            // returns the signer after the signing so that it can be used by others
-            gct.signer.requiteSigner(signer0);
-          }
-
-          SignedCertificateTimestampList scts = getCtlogScts(precert);
+      boolean addCtlog = ctlogEnabled && extnSctCtrl != null;
 
-          // remove the precertificate extension
-          certBuilder.removeExtension(Extn.id_precertificate);
-
-          // add the SCTs extension
-          DEROctetString extnValue;
-          try {
-            extnValue = new DEROctetString(new DEROctetString(scts.getEncoded()).getEncoded());
-          } catch (IOException ex) {
-            throw new CertIOException("could not encode SCT extension", ex);
-          }
-          certBuilder.addExtension(
-              new Extension(Extn.id_SCTs, extnSctCtrl.isCritical(), extnValue));
-        }
+      if (addCtlog) {
+        certBuilder.addExtension(Extn.id_precertificate, true, DERNull.INSTANCE);
 
         ConcurrentBagEntrySigner signer0;
         try {
@@ -1894,61 +2299,141 @@ public class X509Ca implements Closeable {
           throw new OperationException(SYSTEM_FAILURE, ex);
         }
 
-        X509CertificateHolder bcCert;
+        X509CertificateHolder precert;
         try {
-          bcCert = certBuilder.build(signer0.value());
+          precert = certBuilder.build(signer0.value());
         } finally {
+          // returns the signer after the signing so that it can be used by others
           gct.signer.requiteSigner(signer0);
         }
 
-        byte[] encodedCert = bcCert.getEncoded();
-        int maxCertSize = gct.certprofile.getMaxCertSize();
-        if (maxCertSize > 0) {
-          int certSize = encodedCert.length;
-          if (certSize > maxCertSize) {
-            throw new OperationException(NOT_PERMITTED,
-              String.format("certificate exceeds the maximal allowed size: %d > %d",
-                certSize, maxCertSize));
-          }
+        SignedCertificateTimestampList scts = getCtlogScts(precert);
+
+        // remove the precertificate extension
+        certBuilder.removeExtension(Extn.id_precertificate);
+
+        // add the SCTs extension
+        DEROctetString extnValue;
+        try {
+          extnValue = new DEROctetString(new DEROctetString(scts.getEncoded()).getEncoded());
+        } catch (IOException ex) {
+          throw new CertIOException("could not encode SCT extension", ex);
         }
+        certBuilder.addExtension(
+            new Extension(Extn.id_SCTs, extnSctCtrl.isCritical(), extnValue));
+      }
 
-        X509Cert cert = new X509Cert(bcCert, encodedCert);
-        CertWithDbId certWithMeta = new CertWithDbId(cert);
-        ret = new CertificateInfo(certWithMeta, gct.privateKey, caIdent, caCert,
-            gct.grantedPublicKeyData, gct.certprofile.getIdent(), requestor.getIdent());
-        if (requestor instanceof RequestorInfo.ByUserRequestorInfo) {
-          ret.setUser((((RequestorInfo.ByUserRequestorInfo) requestor).getUserId()));
+      // build the certificate with an empty signature to get the TBSCertificate.
+      pc.tbsCert = certBuilder.build(new TbsOnlyContentSigner(
+          gct.signer.getAlgorithmIdentifier())).toASN1Structure().getTBSCertificate();
+    } catch (BadCertTemplateException ex) {
+      throw new OperationException(BAD_CERT_TEMPLATE, ex);
+    } catch (OperationException ex) {
+      throw ex;
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not generate certificate");
+      throw new OperationException(SYSTEM_FAILURE, th);
+    }
+  } // method prepareCert
+
+  /**
+   * Signs the TBSCertificates. The TBSCertificates to be signed by the same signer are signed in
+   * one batch, so that the signature operations are distributed over the signers.
+   *
+   * @return the exception with the lowest index, or {@code null} if all TBSCertificates have
+   *         been signed successfully.
+   */
+  private OperationExceptionWithIndex signCerts(List<PreparedCert> preparedCerts) {
+    Map<ConcurrentContentSigner, List<Integer>> indexesBySigner = new LinkedHashMap<>();
+    for (int i = 0; i < preparedCerts.size(); i++) {
+      ConcurrentContentSigner signer = preparedCerts.get(i).gct.signer;
+      List<Integer> indexes = indexesBySigner.get(signer);
+      if (indexes == null) {
+        indexes = new ArrayList<>(1);
+        indexesBySigner.put(signer, indexes);
+      }
+      indexes.add(i);
+    }
+
+    OperationExceptionWithIndex exception = null;
+    for (Map.Entry<ConcurrentContentSigner, List<Integer>> entry : indexesBySigner.entrySet()) {
+      ConcurrentContentSigner signer = entry.getKey();
+      List<Integer> indexes = entry.getValue();
+      int firstIndex = indexes.get(0);
+
+      try {
+        byte[][] tbsCerts = new byte[indexes.size()][];
+        for (int i = 0; i < tbsCerts.length; i++) {
+          tbsCerts[i] = preparedCerts.get(indexes.get(i)).tbsCert.getEncoded(ASN1Encoding.DER);
         }
-        ret.setReqType(reqType);
-        ret.setTransactionId(transactionId);
-        ret.setRequestedSubject(gct.requestedSubject);
 
-        if (publishCert0(ret) == 1) {
-          throw new OperationException(SYSTEM_FAILURE, "could not save certificate");
+        byte[][] signatures = (tbsCerts.length == 1)
+            ? new byte[][] {signer.sign(tbsCerts[0])} : signer.sign(tbsCerts);
+
+        for (int i = 0; i < signatures.length; i++) {
+          preparedCerts.get(indexes.get(i)).signature = signatures[i];
+        }
+      } catch (NoIdleSignerException | SignatureException | IOException ex) {
+        LogUtil.error(LOG, ex, "could not sign certificate");
+        if (exception == null || firstIndex < exception.getIndex()) {
+          exception = new OperationExceptionWithIndex(firstIndex,
+              new OperationException(SYSTEM_FAILURE, ex));
         }
-      } catch (BadCertTemplateException ex) {
-        throw new OperationException(BAD_CERT_TEMPLATE, ex);
-      } catch (OperationException ex) {
-        throw ex;
-      } catch (Throwable th) {
-        LogUtil.error(LOG, th, "could not generate certificate");
-        throw new OperationException(SYSTEM_FAILURE, th);
       }
+    }
+
+    return exception;
+  } // method signCerts
 
-      if (gct.warning != null) {
-        ret.setWarningMessage(gct.warning);
+  private CertificateInfo finishCert(PreparedCert pc, RequestorInfo requestor,
+      RequestType reqType, byte[] transactionId) throws OperationException {
+    GrantedCertTemplate gct = pc.gct;
+    TBSCertificate tbsCert = pc.tbsCert;
+
+    CertificateInfo ret;
+    try {
+      X509CertificateHolder bcCert = new X509CertificateHolder(Certificate.getInstance(
+          new DERSequence(new ASN1Encodable[] {tbsCert, tbsCert.getSignature(),
+            new DERBitString(pc.signature)})));
+
+      byte[] encodedCert = bcCert.getEncoded();
+      int maxCertSize = gct.certprofile.getMaxCertSize();
+      if (maxCertSize > 0) {
+        int certSize = encodedCert.length;
+        if (certSize > maxCertSize) {
+          throw new OperationException(NOT_PERMITTED,
+            String.format("certificate exceeds the maximal allowed size: %d > %d",
+              certSize, maxCertSize));
+        }
       }
 
-      return ret;
-    } finally {
-      if (duplicatedKeyNotAllowed) {
-        publicKeyCertsInProcess.remove(gct.fpPublicKey);
+      X509Cert cert = new X509Cert(bcCert, encodedCert);
+      CertWithDbId certWithMeta = new CertWithDbId(cert);
+      ret = new CertificateInfo(certWithMeta, gct.privateKey, caIdent, caCert,
+          gct.grantedPublicKeyData, gct.certprofile.getIdent(), requestor.getIdent());
+      if (requestor instanceof RequestorInfo.ByUserRequestorInfo) {
+        ret.setUser((((RequestorInfo.ByUserRequestorInfo) requestor).getUserId()));
       }
-      if (duplicatedSubjectNotAllowed) {
-        subjectCertsInProcess.remove(gct.fpSubject);
+      ret.setReqType(reqType);
+      ret.setTransactionId(transactionId);
+      ret.setRequestedSubject(gct.requestedSubject);
+
+      if (publishCert0(ret) == 1) {
+        throw new OperationException(SYSTEM_FAILURE, "could not save certificate");
       }
+    } catch (OperationException ex) {
+      throw ex;
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not generate certificate");
+      throw new OperationException(SYSTEM_FAILURE, th);
+    }
+
+    if (gct.warning != null) {
+      ret.setWarningMessage(gct.warning);
     }
-  } // method generateCertificate0
+
+    return ret;
+  } // method finishCert
 
   private void adaptGrantedSubejct(GrantedCertTemplate gct) throws OperationException {
     if (caInfo.isDuplicateSubjectPermitted()) {
@@ -2124,9 +2609,7 @@ public class X509Ca implements Closeable {
             throw new OperationException(BAD_CERT_TEMPLATE, "keysize too large");
           }
 
-          BigInteger publicExponent = tkg.getPublicExponent();
-
-          KeyPair kp = KeyUtil.generateRSAKeypair(keysize, publicExponent, random);
+          KeyPair kp = generateKeypair(tkg);
           java.security.interfaces.RSAPublicKey rsaPubKey =
               (java.security.interfaces.RSAPublicKey) kp.getPublic();
 
@@ -2158,8 +2641,7 @@ public class X509Ca implements Closeable {
                  priv.getCrtCoefficient()));
         } else if (kg instanceof KeypairGenControl.ECKeypairGenControl) {
           KeypairGenControl.ECKeypairGenControl tkg = (KeypairGenControl.ECKeypairGenControl) kg;
-          ASN1ObjectIdentifier curveOid = tkg.getCurveOid();
-          KeyPair kp = KeyUtil.generateECKeypair(curveOid, random);
+          KeyPair kp = generateKeypair(tkg);
           ECPublicKey pub = (ECPublicKey) kp.getPublic();
           int orderBitLength = pub.getParams().getOrder().bitLength();
 
@@ -2186,7 +2668,7 @@ public class X509Ca implements Closeable {
               new org.bouncycastle.asn1.sec.ECPrivateKey(orderBitLength, priv.getS()));
         } else if (kg instanceof KeypairGenControl.DSAKeypairGenControl) {
           KeypairGenControl.DSAKeypairGenControl tkg = (KeypairGenControl.DSAKeypairGenControl) kg;
-          KeyPair kp = KeyUtil.generateDSAKeypair(tkg.getParameterSpec(), random);
+          KeyPair kp = generateKeypair(tkg);
 
           grantedPublicKeyInfo = new SubjectPublicKeyInfo(tkg.getKeyAlgorithm(),
               new ASN1Integer(((DSAPublicKey) kp.getPublic()).getY()));
@@ -2198,7 +2680,7 @@ public class X509Ca implements Closeable {
         } else if (kg instanceof KeypairGenControl.EDDSAKeypairGenControl) {
           KeypairGenControl.EDDSAKeypairGenControl tkg =
               (KeypairGenControl.EDDSAKeypairGenControl) kg;
-          KeyPair kp = KeyUtil.generateEdECKeypair(tkg.getKeyAlgorithm().getAlgorithm(), random);
+          KeyPair kp = generateKeypair(tkg);
           grantedPublicKeyInfo = KeyUtil.createSubjectPublicKeyInfo(kp.getPublic());
           // make sure that the algorithm match
           if (!grantedPublicKeyInfo.getAlgorithm().equals(tkg.getKeyAlgorithm())) {
@@ -2608,14 +3090,55 @@ public class X509Ca implements Closeable {
       HealthCheckResult publisherHealth = new HealthCheckResult();
       publisherHealth.setName("Publisher");
       publisherHealth.setHealthy(publisher.isHealthy());
+      PublishQueueStatus queueStatus = publishQueueStatuses.get(publisher.getIdent().getName());
+      if (queueStatus != null) {
+        publisherHealth.setStatuses(queueStatus.getStatistics());
+      }
       result.addChildCheck(publisherHealth);
     }
 
+    KeypairPool keypairPool = caManager.getKeypairPool();
+    if (keypairPool != null) {
+      HealthCheckResult keypairPoolHealth = new HealthCheckResult();
+      keypairPoolHealth.setName("KeypairPool");
+      keypairPoolHealth.setHealthy(true);
+      keypairPoolHealth.setStatuses(keypairPool.getStatistics());
+      result.addChildCheck(keypairPoolHealth);
+    }
+
     result.setHealthy(healthy);
 
     return result;
   } // method healthCheck
 
+  private void prefillKeypairPool() {
+    KeypairPool keypairPool = caManager.getKeypairPool();
+    Set<String> profileNames = caManager.getCertprofilesForCa(caIdent.getName());
+    if (keypairPool == null || profileNames == null) {
+      return;
+    }
+
+    for (String profileName : profileNames) {
+      IdentifiedCertprofile certprofile = caManager.getIdentifiedCertprofile(profileName);
+      KeypairGenControl kg = (certprofile == null) ? null : certprofile.getKeypairGenControl();
+      if (kg instanceof KeypairGenControl.InheritCAKeypairGenControl) {
+        kg = keypairGenControlByImplictCA;
+      }
+
+      if (kg != null) {
+        keypairPool.prefill(kg);
+      }
+    }
+  } // method prefillKeypairPool
+
+  private KeyPair generateKeypair(KeypairGenControl control)
+      throws NoSuchAlgorithmException, NoSuchProviderException,
+        InvalidAlgorithmParameterException {
+    KeypairPool keypairPool = caManager.getKeypairPool();
+    return (keypairPool == null) ? KeypairPool.generateKeypair(control, random)
+        : keypairPool.getKeypair(control, random);
+  } // method generateKeypair
+
   private AuditService auditService() {
     return Audits.getAuditService();
   }
@@ -2681,33 +3204,6 @@ public class X509Ca implements Closeable {
     }
   }
 
-  private static Extension createReasonExtension(int reasonCode) {
-    CRLReason crlReason = CRLReason.lookup(reasonCode);
-    try {
-      return new Extension(Extension.reasonCode, false, crlReason.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
-  private static Extension createInvalidityDateExtension(Date invalidityDate) {
-    try {
-      ASN1GeneralizedTime asnTime = new ASN1GeneralizedTime(invalidityDate);
-      return new Extension(Extension.invalidityDate, false, asnTime.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
-  private static Extension createCertificateIssuerExtension(X500Name certificateIssuer) {
-    try {
-      GeneralNames generalNames = new GeneralNames(new GeneralName(certificateIssuer));
-      return new Extension(Extension.certificateIssuer, true, generalNames.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
   // remove the RDNs with empty content
   private static X500Name removeEmptyRdns(X500Name name) {
     RDN[] rdns = name.getRDNs();
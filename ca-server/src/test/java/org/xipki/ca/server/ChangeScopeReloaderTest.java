@@ -0,0 +1,143 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.ca.api.mgmt.CaMgmtException;
+
+/**
+ * ChangeScopeReloader test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class ChangeScopeReloaderTest {
+
+  private enum Scope {
+    SIGNER,
+    CERTPROFILE,
+    CA
+  }
+
+  private static class MemoryScopeReloader extends ChangeScopeReloader<Scope> {
+
+    private final Map<Scope, Long> eventTimes = new EnumMap<>(Scope.class);
+
+    private final Set<Scope> failingScopes = EnumSet.noneOf(Scope.class);
+
+    private final List<Scope> reloadedScopes = new ArrayList<>();
+
+    @Override
+    protected Long getEventTime(Scope scope) {
+      return eventTimes.get(scope);
+    }
+
+    @Override
+    protected void reload(Scope scope) throws CaMgmtException {
+      reloadedScopes.add(scope);
+      if (failingScopes.contains(scope)) {
+        throw new CaMgmtException("could not reload " + scope);
+      }
+    }
+
+    List<Scope> reloadChanged(long startTime) {
+      reloadedScopes.clear();
+      reloadChangedScopes(Scope.values(), startTime);
+      return new ArrayList<>(reloadedScopes);
+    }
+
+  } // class MemoryScopeReloader
+
+  @Test
+  public void testReloadOnlyChangedScopes() throws Exception {
+    MemoryScopeReloader reloader = new MemoryScopeReloader();
+    reloader.eventTimes.put(Scope.SIGNER, 90L);
+    reloader.eventTimes.put(Scope.CA, 110L);
+
+    // events older than the start of the CA system are ignored
+    Assert.assertEquals(listOf(Scope.CA), reloader.reloadChanged(100));
+    // an applied event is not applied again
+    Assert.assertEquals(listOf(), reloader.reloadChanged(100));
+
+    reloader.eventTimes.put(Scope.SIGNER, 120L);
+    reloader.eventTimes.put(Scope.CA, 120L);
+    Assert.assertEquals(listOf(Scope.SIGNER, Scope.CA), reloader.reloadChanged(100));
+    Assert.assertEquals(listOf(), reloader.reloadChanged(100));
+  }
+
+  @Test
+  public void testRetryFailedScope() throws Exception {
+    MemoryScopeReloader reloader = new MemoryScopeReloader();
+    reloader.eventTimes.put(Scope.SIGNER, 110L);
+    reloader.eventTimes.put(Scope.CERTPROFILE, 110L);
+    reloader.eventTimes.put(Scope.CA, 110L);
+    reloader.failingScopes.add(Scope.CERTPROFILE);
+
+    // the failure of one scope does not prevent the others from being reloaded
+    Assert.assertFalse(reloader.reloadChangedScopes(Scope.values(), 100));
+    Assert.assertEquals(listOf(Scope.SIGNER, Scope.CERTPROFILE, Scope.CA),
+        reloader.reloadedScopes);
+
+    // the failed scope is retried until it succeeds
+    Assert.assertEquals(listOf(Scope.CERTPROFILE), reloader.reloadChanged(100));
+    Assert.assertEquals(listOf(Scope.CERTPROFILE), reloader.reloadChanged(100));
+
+    reloader.failingScopes.clear();
+    Assert.assertEquals(listOf(Scope.CERTPROFILE), reloader.reloadChanged(100));
+    Assert.assertEquals(listOf(), reloader.reloadChanged(100));
+  }
+
+  @Test
+  public void testRetryAfterRuntimeException() throws Exception {
+    MemoryScopeReloader reloader = new MemoryScopeReloader() {
+      private boolean failed;
+
+      @Override
+      protected void reload(Scope scope) throws CaMgmtException {
+        super.reload(scope);
+        if (!failed) {
+          failed = true;
+          throw new IllegalStateException("unexpected");
+        }
+      }
+    };
+    reloader.eventTimes.put(Scope.CA, 110L);
+
+    Assert.assertEquals(listOf(Scope.CA), reloader.reloadChanged(100));
+    Assert.assertEquals(listOf(Scope.CA), reloader.reloadChanged(100));
+    Assert.assertEquals(listOf(), reloader.reloadChanged(100));
+  }
+
+  private static List<Scope> listOf(Scope... scopes) {
+    List<Scope> list = new ArrayList<>(scopes.length);
+    for (Scope scope : scopes) {
+      list.add(scope);
+    }
+    return list;
+  }
+
+}
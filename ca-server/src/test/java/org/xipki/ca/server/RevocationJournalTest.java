@@ -0,0 +1,184 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.ca.api.NameId;
+import org.xipki.security.CrlReason;
+
+/**
+ * RevocationJournal test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class RevocationJournalTest {
+
+  /**
+   * Journal reading from an in-memory DELTACRL_CACHE.
+   */
+  private static class MemoryRevocationJournal extends RevocationJournal {
+
+    // ID to EE flag and serial
+    private final TreeMap<Long, Object[]> rows = new TreeMap<>();
+
+    private int numPageReads;
+
+    MemoryRevocationJournal(int pageSize) {
+      super(null, new NameId(1, "ca1"), pageSize);
+    }
+
+    void addRow(long id, boolean ee, long serial) {
+      rows.put(id, new Object[]{ee, BigInteger.valueOf(serial)});
+    }
+
+    @Override
+    long loadPage(long startId, int numEntries, List<CertRevInfoWithSerial> caEntries,
+        List<CertRevInfoWithSerial> eeEntries) {
+      numPageReads++;
+      long lastId = 0;
+      int num = 0;
+      for (Entry<Long, Object[]> row : rows.tailMap(startId).entrySet()) {
+        if (num++ == numEntries) {
+          break;
+        }
+
+        lastId = row.getKey();
+        CertRevInfoWithSerial revInfo = new CertRevInfoWithSerial(lastId,
+            (BigInteger) row.getValue()[1], CrlReason.KEY_COMPROMISE, new Date(), null);
+        if ((Boolean) row.getValue()[0]) {
+          eeEntries.add(revInfo);
+        } else {
+          caEntries.add(revInfo);
+        }
+      }
+      return lastId;
+    }
+
+    @Override
+    long getMinId() {
+      return rows.isEmpty() ? 0 : rows.firstKey();
+    }
+
+  } // class MemoryRevocationJournal
+
+  @Test
+  public void testMixedRowsAcrossPages() throws Exception {
+    MemoryRevocationJournal journal = new MemoryRevocationJournal(2);
+    // the first page contains only EE rows, the second one only CA rows.
+    journal.addRow(1, true, 1);
+    journal.addRow(2, true, 2);
+    journal.addRow(3, false, 3);
+    journal.addRow(4, false, 4);
+    journal.addRow(5, true, 5);
+
+    journal.reload();
+    Assert.assertEquals(5, journal.size());
+    Assert.assertEquals(2, journal.getEntries(true, false).size());
+    Assert.assertEquals(3, journal.getEntries(false, true).size());
+    Assert.assertEquals(5, journal.getEntries(false, false).size());
+  }
+
+  @Test
+  public void testShortPage() throws Exception {
+    MemoryRevocationJournal journal = new MemoryRevocationJournal(3);
+    // one CA row in the first page, the EE rows follow in the next pages.
+    journal.addRow(10, false, 1);
+    journal.addRow(11, true, 2);
+    journal.addRow(12, true, 3);
+    journal.addRow(13, true, 4);
+    journal.addRow(14, true, 5);
+
+    journal.reload();
+    Assert.assertEquals(1, journal.getEntries(true, false).size());
+    Assert.assertEquals(4, journal.getEntries(false, true).size());
+  }
+
+  @Test
+  public void testRefresh() throws Exception {
+    MemoryRevocationJournal journal = new MemoryRevocationJournal(2);
+    journal.refresh();
+    Assert.assertEquals(0, journal.size());
+
+    journal.addRow(1L << 17, true, 1);
+    journal.addRow(2L << 17, false, 2);
+    journal.refresh();
+    Assert.assertEquals(2, journal.size());
+
+    // rows added by another instance
+    journal.addRow(3L << 17, true, 3);
+    journal.addRow(4L << 17, true, 4);
+    journal.addRow(5L << 17, true, 5);
+    journal.refresh();
+    Assert.assertEquals(5, journal.size());
+
+    // row committed late by another instance with a smaller ID
+    journal.addRow((4L << 17) + 1, true, 6);
+    journal.refresh();
+    Assert.assertEquals(6, journal.size());
+  }
+
+  @Test
+  public void testRefreshAfterRemoval() throws Exception {
+    MemoryRevocationJournal journal = new MemoryRevocationJournal(2);
+    journal.addRow(1, true, 1);
+    journal.addRow(2, true, 2);
+    journal.addRow(3, true, 3);
+    journal.reload();
+    Assert.assertEquals(3, journal.size());
+
+    // full CRL generated by another instance
+    journal.rows.clear();
+    journal.addRow(4, true, 4);
+    journal.refresh();
+
+    List<CertRevInfoWithSerial> entries = journal.getEntries(false, false);
+    Assert.assertEquals(1, entries.size());
+    Assert.assertEquals(BigInteger.valueOf(4), entries.get(0).getSerial());
+  }
+
+  @Test
+  public void testRefreshReadsOnlyNewRows() throws Exception {
+    MemoryRevocationJournal journal = new MemoryRevocationJournal(10);
+    long oldId = 1L << 40;
+    for (int i = 0; i < 100; i++) {
+      journal.addRow(oldId + i, true, i);
+    }
+
+    long newId = oldId + (3600000L << 17);
+    journal.addRow(newId, true, 100);
+    journal.reload();
+    Assert.assertEquals(101, journal.size());
+
+    journal.numPageReads = 0;
+    journal.addRow(newId + 1, false, 101);
+    journal.refresh();
+    Assert.assertEquals(102, journal.size());
+    // one page with the new rows and one empty page
+    Assert.assertEquals(2, journal.numPageReads);
+  }
+
+}
@@ -0,0 +1,305 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.CertificateList;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.TBSCertList;
+import org.bouncycastle.asn1.x509.TBSCertList.CRLEntry;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.asn1.x509.V2TBSCertListGenerator;
+import org.bouncycastle.operator.ContentSigner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+/**
+ * Test for {@link StreamingCrlBuilder}. The streamed CRLs are compared with the CRLs built by
+ * BouncyCastle.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class StreamingCrlBuilderTest {
+
+  private static final X500Name ISSUER = new X500Name("CN=Test CA,O=xipki,C=DE");
+
+  private static final X500Name CERT_ISSUER = new X500Name("CN=Other CA,O=xipki,C=DE");
+
+  private static final AlgorithmIdentifier SIG_ALG_ID =
+      new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE);
+
+  private static final Date THIS_UPDATE = new Date(1600000000000L);
+
+  private static final Date NEXT_UPDATE = new Date(1600086400000L);
+
+  private static KeyPair keypair;
+
+  private File tmpDir;
+
+  @BeforeClass
+  public static void generateKeypair() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(1024);
+    keypair = kpGen.generateKeyPair();
+  }
+
+  @Before
+  public void createTmpDir() throws Exception {
+    tmpDir = Files.createTempDirectory("crl-test-").toFile();
+  }
+
+  @After
+  public void deleteTmpDir() {
+    File[] files = tmpDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    tmpDir.delete();
+  }
+
+  @Test
+  public void testEmptyCrl() throws Exception {
+    compare(Collections.<CertRevInfoWithSerial>emptyList(), null, null, 100);
+  }
+
+  @Test
+  public void testDirectCrl() throws Exception {
+    compare(createEntries(50, 8), NEXT_UPDATE, null, 100);
+  }
+
+  @Test
+  public void testIndirectCrl() throws Exception {
+    compare(createEntries(50, 8), NEXT_UPDATE, CERT_ISSUER, 100);
+  }
+
+  @Test
+  public void testSpilledRuns() throws Exception {
+    // 7 runs of at most 3 entries
+    List<CertRevInfoWithSerial> entries = createEntries(20, 8);
+    Collections.shuffle(entries, new Random(1));
+    compare(entries, NEXT_UPDATE, CERT_ISSUER, 3);
+  }
+
+  /**
+   * Tests the length prefixes of the revokedCertificates around 127/128 and 255/256 bytes.
+   */
+  @Test
+  public void testLengthEdges() throws Exception {
+    Set<Integer> entriesLengths = new HashSet<>();
+    for (int n = 1; n <= 12; n++) {
+      for (int serialLen = 1; serialLen <= 30; serialLen++) {
+        List<CertRevInfoWithSerial> entries = new ArrayList<>(n);
+        for (int i = 0; i < n - 1; i++) {
+          entries.add(new CertRevInfoWithSerial(0, serial(8, i), 0,
+              new Date(THIS_UPDATE.getTime() - 1000), null));
+        }
+        entries.add(new CertRevInfoWithSerial(0, serial(serialLen, n), 0,
+            new Date(THIS_UPDATE.getTime() - 1000), null));
+
+        CertificateList crl = compare(entries, null, null, 100);
+
+        int len = 0;
+        for (CRLEntry entry : crl.getRevokedCertificates()) {
+          len += entry.getEncoded().length;
+        }
+        entriesLengths.add(len);
+      }
+    }
+
+    for (int len : new int[] {127, 128, 255, 256}) {
+      Assert.assertTrue("no revokedCertificates with length " + len,
+          entriesLengths.contains(len));
+    }
+  } // method testLengthEdges
+
+  @Test
+  public void testTmpDir() throws Exception {
+    StreamingCrlBuilder builder = new StreamingCrlBuilder(ISSUER, THIS_UPDATE, NEXT_UPDATE,
+        null, tmpDir, 3);
+    try {
+      for (CertRevInfoWithSerial entry : createEntries(10, 8)) {
+        builder.addEntry(entry);
+      }
+      builder.build(null, new RsaSigner());
+      Assert.assertTrue("no temporary files in " + tmpDir, tmpDir.list().length > 0);
+    } finally {
+      builder.close();
+    }
+    Assert.assertEquals(0, tmpDir.list().length);
+  } // method testTmpDir
+
+  private CertificateList compare(List<CertRevInfoWithSerial> entries, Date nextUpdate,
+      X500Name certIssuer, int maxEntriesInMemory) throws Exception {
+    Extensions crlExtensions = new Extensions(new Extension(Extension.cRLNumber, false,
+        new ASN1Integer(entries.size() + 1).getEncoded()));
+
+    // streamed CRL
+    StreamingCrlBuilder builder = new StreamingCrlBuilder(ISSUER, THIS_UPDATE, nextUpdate,
+        certIssuer, tmpDir, maxEntriesInMemory);
+    byte[] encoded;
+    try {
+      for (CertRevInfoWithSerial entry : entries) {
+        builder.addEntry(entry);
+      }
+      encoded = builder.build(crlExtensions, new RsaSigner()).getEncoded();
+    } finally {
+      builder.close();
+    }
+
+    // CRL built by BouncyCastle
+    List<CertRevInfoWithSerial> sortedEntries = new ArrayList<>(entries);
+    Collections.sort(sortedEntries);
+
+    V2TBSCertListGenerator gen = new V2TBSCertListGenerator();
+    gen.setSignature(SIG_ALG_ID);
+    gen.setIssuer(ISSUER);
+    gen.setThisUpdate(new Time(THIS_UPDATE));
+    if (nextUpdate != null) {
+      gen.setNextUpdate(new Time(nextUpdate));
+    }
+
+    boolean first = true;
+    for (CertRevInfoWithSerial entry : sortedEntries) {
+      List<Extension> extns = new ArrayList<>(3);
+      int reasonCode = entry.getReason().getCode();
+      if (reasonCode != 0) {
+        extns.add(new Extension(Extension.reasonCode, false,
+            CRLReason.lookup(reasonCode).getEncoded()));
+      }
+      if (entry.getInvalidityTime() != null) {
+        extns.add(new Extension(Extension.invalidityDate, false,
+            new ASN1GeneralizedTime(entry.getInvalidityTime()).getEncoded()));
+      }
+      if (first && certIssuer != null) {
+        extns.add(new Extension(Extension.certificateIssuer, true,
+            new GeneralNames(new GeneralName(certIssuer)).getEncoded()));
+      }
+      first = false;
+
+      gen.addCRLEntry(new ASN1Integer(entry.getSerial()), new Time(entry.getRevocationTime()),
+          extns.isEmpty() ? null : new Extensions(extns.toArray(new Extension[0])));
+    }
+    gen.setExtensions(crlExtensions);
+    TBSCertList expectedTbs = gen.generateTBSCertList();
+
+    // the streamed CRL is DER-encoded and contains the same TBSCertList
+    CertificateList crl = CertificateList.getInstance(encoded);
+    Assert.assertTrue("streamed CRL is not DER encoded",
+        Arrays.equals(encoded, crl.getEncoded(ASN1Encoding.DER)));
+    Assert.assertTrue("different TBSCertList", Arrays.equals(
+        expectedTbs.getEncoded(ASN1Encoding.DER), crl.getTBSCertList().getEncoded()));
+
+    // the signature is valid
+    X509CRL jceCrl = (X509CRL) CertificateFactory.getInstance("X.509")
+        .generateCRL(new ByteArrayInputStream(encoded));
+    jceCrl.verify(keypair.getPublic());
+    int numEntries = (jceCrl.getRevokedCertificates() == null)
+        ? 0 : jceCrl.getRevokedCertificates().size();
+    Assert.assertEquals(entries.size(), numEntries);
+    return crl;
+  } // method compare
+
+  private static List<CertRevInfoWithSerial> createEntries(int n, int serialLen) {
+    List<CertRevInfoWithSerial> entries = new ArrayList<>(n);
+    int[] reasons = {0, 1, 3, 4, 5};
+    for (int i = 0; i < n; i++) {
+      Date revocationTime = new Date(THIS_UPDATE.getTime() - (i + 1) * 60000L);
+      Date invalidityTime = (i % 3 == 0) ? null : new Date(revocationTime.getTime() - 60000L);
+      entries.add(new CertRevInfoWithSerial(i, serial(serialLen, i), reasons[i % reasons.length],
+          revocationTime, invalidityTime));
+    }
+    return entries;
+  } // method createEntries
+
+  /**
+   * Returns a positive serial number whose DER encoding has {@code len} bytes.
+   */
+  private static BigInteger serial(int len, int index) {
+    if (len == 1) {
+      return BigInteger.valueOf(index % 0x40 + 1);
+    }
+    return BigInteger.ONE.shiftLeft(8 * len - 2).add(BigInteger.valueOf(index));
+  }
+
+  private static class RsaSigner implements ContentSigner {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Override
+    public AlgorithmIdentifier getAlgorithmIdentifier() {
+      return SIG_ALG_ID;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return out;
+    }
+
+    @Override
+    public byte[] getSignature() {
+      try {
+        Signature sig = Signature.getInstance("SHA256withRSA");
+        sig.initSign(keypair.getPrivate());
+        sig.update(out.toByteArray());
+        return sig.sign();
+      } catch (Exception ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+
+  } // class RsaSigner
+
+}
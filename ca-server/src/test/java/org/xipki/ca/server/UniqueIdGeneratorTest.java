@@ -0,0 +1,181 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * UniqueIdGenerator test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class UniqueIdGeneratorTest {
+
+  private static class ManualClock implements LongSupplier {
+
+    private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+
+    private final AtomicLong reads = new AtomicLong();
+
+    @Override
+    public long getAsLong() {
+      reads.incrementAndGet();
+      return time.get();
+    }
+
+    void add(long ms) {
+      time.addAndGet(ms);
+    }
+
+  } // class ManualClock
+
+  private static final long EPOCH = 1577836800000L; // 2020-01-01
+
+  @Test
+  public void testUniquenessMultiThreaded() throws InterruptedException {
+    final UniqueIdGenerator generator = new UniqueIdGenerator(EPOCH, 5);
+    final int numThreads = 8;
+    final int numIdsPerThread = 200000;
+    final long[][] ids = new long[numThreads][numIdsPerThread];
+
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      final long[] threadIds = ids[i];
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < threadIds.length; j++) {
+            threadIds[j] = generator.nextId();
+          }
+        }
+      };
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long[] allIds = new long[numThreads * numIdsPerThread];
+    for (int i = 0; i < numThreads; i++) {
+      // ids generated by one thread are increasing
+      assertIncreasing(ids[i]);
+      System.arraycopy(ids[i], 0, allIds, i * numIdsPerThread, numIdsPerThread);
+    }
+
+    Arrays.sort(allIds);
+    assertIncreasing(allIds);
+    for (long id : allIds) {
+      Assert.assertEquals("shardId", 5, id & 0x7F);
+    }
+  } // method testUniquenessMultiThreaded
+
+  @Test
+  public void testExhaustedSequence() {
+    ManualClock clock = new ManualClock();
+    UniqueIdGenerator generator = new UniqueIdGenerator(EPOCH, 0, clock);
+
+    // the clock does not move, 3 milliseconds will be borrowed
+    long[] ids = new long[4 * 1024];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = generator.nextId();
+    }
+
+    assertIncreasing(ids);
+    Assert.assertEquals("borrowed ids", 3 * 1024, generator.getBorrowedIds());
+  } // method testExhaustedSequence
+
+  @Test
+  public void testClockRegression() {
+    ManualClock clock = new ManualClock();
+    UniqueIdGenerator generator = new UniqueIdGenerator(EPOCH, 0, clock);
+
+    long[] ids = new long[3000];
+    for (int i = 0; i < 1000; i++) {
+      ids[i] = generator.nextId();
+      clock.add(1);
+    }
+
+    // the system clock goes back by 10 seconds
+    clock.add(-10000);
+    for (int i = 1000; i < 2000; i++) {
+      ids[i] = generator.nextId();
+      clock.add(1);
+    }
+
+    // the system clock catches up
+    clock.add(10000);
+    for (int i = 2000; i < ids.length; i++) {
+      ids[i] = generator.nextId();
+    }
+
+    assertIncreasing(ids);
+    Assert.assertEquals("clock regressions", 1, generator.getClockRegressions());
+  } // method testClockRegression
+
+  @Test
+  public void testInterruptedWhileWaitingForClock() throws InterruptedException {
+    final ManualClock clock = new ManualClock();
+    UniqueIdGenerator generator = new UniqueIdGenerator(EPOCH, 0, clock);
+
+    // the clock does not move, borrow ids until the logical clock is 1000 ms ahead
+    for (int i = 0; i < 1000 * 1024 + 1; i++) {
+      generator.nextId();
+    }
+
+    Thread ticker = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        clock.add(10);
+      }
+    };
+    ticker.start();
+
+    // the generator waits for the clock without spinning, and keeps the interrupt
+    Thread.currentThread().interrupt();
+    long reads = clock.reads.get();
+    generator.nextId();
+    reads = clock.reads.get() - reads;
+    Assert.assertTrue("interrupt flag has been lost", Thread.interrupted());
+    Assert.assertTrue("too many clock reads: " + reads, reads < 1000);
+    ticker.join();
+  } // method testInterruptedWhileWaitingForClock
+
+  private static void assertIncreasing(long[] ids) {
+    for (int i = 1; i < ids.length; i++) {
+      if (ids[i] <= ids[i - 1]) {
+        Assert.fail("id " + ids[i] + " at index " + i + " is not greater than " + ids[i - 1]);
+      }
+    }
+  }
+
+}
@@ -114,7 +114,8 @@ public class CaServletFilter implements Filter {
       auditConf = DFLT_SYSLOG_AUDIT_CFG;
     }
 
-    Audits.init(auditType, auditConf);
+    Audits.init(auditType, auditConf, audit.isAsync(), audit.getAsyncBufferSize(),
+        audit.getAsyncBatchSize());
 
     securities = new Securities();
     try {
@@ -197,6 +198,8 @@ public class CaServletFilter implements Filter {
     if (caManager != null) {
       caManager.close();
     }
+
+    Audits.close();
   } // method destroy
 
   @Override
@@ -114,7 +114,10 @@ public class HttpRestServlet extends HttpServlet {
       }
 
       if (respBody == null) {
-        resp.setContentLength(0);
+        // a 304 (Not Modified) response must not contain any body
+        if (response.getStatusCode() != HttpServletResponse.SC_NOT_MODIFIED) {
+          resp.setContentLength(0);
+        }
       } else {
         resp.setContentLength(respBody.length);
         resp.getOutputStream().write(respBody);
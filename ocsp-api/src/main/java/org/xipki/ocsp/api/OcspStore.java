@@ -19,8 +19,11 @@ package org.xipki.ocsp.api;
 
 import java.io.Closeable;
 import java.math.BigInteger;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.ocsp.api.CertStatusInfo.UnknownCertBehaviour;
@@ -57,9 +60,46 @@ public abstract class OcspStore implements Closeable {
 
   protected Validity updateInterval;
 
+  private final AtomicLong issuersVersion = new AtomicLong();
+
   public OcspStore() {
   }
 
+  /**
+   * Returns the version of the issuers known by this store. If the store supports the
+   * notification of issuer changes, callers may cache the result of
+   * {@link #knowsIssuer(RequestIssuer)} as long as the version does not change.
+   *
+   * @return the version of the issuers.
+   * @since 5.3.8
+   */
+  public long getIssuersVersion() {
+    return issuersVersion.get();
+  }
+
+  /**
+   * Whether this store calls {@link #issuersChanged()} every time the known issuers are changed
+   * after the initialization. Only then callers may cache the result of
+   * {@link #knowsIssuer(RequestIssuer)}.
+   *
+   * @return whether the changes of the issuers are reported. The default implementation returns
+   *         {@code false}.
+   * @since 5.3.8
+   */
+  public boolean supportsIssuerChangeNotification() {
+    return false;
+  }
+
+  /**
+   * Must be called by the sub classes which support the notification of issuer changes every
+   * time the known issuers are changed after the initialization.
+   *
+   * @since 5.3.8
+   */
+  protected void issuersChanged() {
+    issuersVersion.incrementAndGet();
+  }
+
   /**
    * Whether the store knows the reqIssuer.
    * @param reqIssuer
@@ -77,6 +117,38 @@ public abstract class OcspStore implements Closeable {
    */
   public abstract X509Cert getIssuerCert(RequestIssuer reqIssuer);
 
+  /**
+   * Returns the certificates of all issuers known by this store.
+   *
+   * @return the certificates of all known issuers. The default implementation returns an
+   *         empty list.
+   */
+  public List<X509Cert> getIssuerCerts() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Returns the serial numbers of the certificates issued by the given issuer. This is used
+   * to pre-compute the OCSP responses. The serial numbers are returned in a store-specific
+   * but stable order.
+   *
+   * @param issuerCert
+   *          Certificate of the issuer.
+   * @param lastSerialNumber
+   *          The last serial number returned by the previous call, exclusive. {@code null}
+   *          to start from the beginning.
+   * @param numEntries
+   *          Maximal number of serial numbers to be returned.
+   * @return the serial numbers, or {@code null} if this store does not support listing
+   *         the serial numbers. The default implementation returns {@code null}.
+   * @throws OcspStoreException
+   *           If OCSP store failed to retrieve the serial numbers.
+   */
+  public List<BigInteger> getSerialNumbers(X509Cert issuerCert, BigInteger lastSerialNumber,
+      int numEntries) throws OcspStoreException {
+    return null;
+  }
+
   /**
    * Ignores expired CRLs. Only applied to CRL-based datasource.
    *
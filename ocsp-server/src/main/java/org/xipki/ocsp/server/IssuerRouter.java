@@ -0,0 +1,140 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.util.Args;
+
+/**
+ * Finds the stores which know the issuer of a request.
+ *
+ * <p>Only the answers of the stores which report the changes of their issuers (see
+ * {@link OcspStore#supportsIssuerChangeNotification()}) are cached, until the issuers of any of
+ * these stores change. The other stores are asked for every request. Unknown issuers are not
+ * cached.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class IssuerRouter {
+
+  /**
+   * Notifying stores which know the request issuers, valid for the given version of the
+   * issuers.
+   */
+  private static class IssuerRoutes {
+
+    private final long version;
+
+    private final ConcurrentHashMap<RequestIssuer, List<OcspStore>> routes =
+        new ConcurrentHashMap<>();
+
+    IssuerRoutes(long version) {
+      this.version = version;
+    }
+
+  } // class IssuerRoutes
+
+  private final List<OcspStore> stores;
+
+  private final List<OcspStore> notifyingStores;
+
+  private volatile IssuerRoutes issuerRoutes = new IssuerRoutes(-1);
+
+  IssuerRouter(List<OcspStore> stores) {
+    this.stores = Args.notNull(stores, "stores");
+    this.notifyingStores = new ArrayList<>(stores.size());
+    for (OcspStore store : stores) {
+      if (store.supportsIssuerChangeNotification()) {
+        notifyingStores.add(store);
+      }
+    }
+  } // constructor
+
+  /**
+   * Returns the stores which know the issuer, in the configured order.
+   *
+   * @param reqIssuer
+   *          Requested issuer
+   * @return the stores which know the issuer, may be empty.
+   */
+  List<OcspStore> getStoresForIssuer(RequestIssuer reqIssuer) {
+    List<OcspStore> cachedStores = notifyingStores.isEmpty() ? Collections.<OcspStore>emptyList()
+        : getNotifyingStoresForIssuer(reqIssuer);
+
+    if (notifyingStores.size() == stores.size()) {
+      return cachedStores;
+    }
+
+    List<OcspStore> matchedStores = new ArrayList<>(1);
+    for (OcspStore store : stores) {
+      boolean known = store.supportsIssuerChangeNotification() ? cachedStores.contains(store)
+          : store.knowsIssuer(reqIssuer);
+      if (known) {
+        matchedStores.add(store);
+      }
+    }
+    return matchedStores;
+  } // method getStoresForIssuer
+
+  private List<OcspStore> getNotifyingStoresForIssuer(RequestIssuer reqIssuer) {
+    // the versions only increase, so the sum changes once any of them changes
+    long version = 0;
+    for (OcspStore store : notifyingStores) {
+      version += store.getIssuersVersion();
+    }
+
+    IssuerRoutes routes = issuerRoutes;
+    if (routes.version != version) {
+      routes = new IssuerRoutes(version);
+      issuerRoutes = routes;
+    }
+
+    List<OcspStore> matchedStores = routes.routes.get(reqIssuer);
+    if (matchedStores != null) {
+      return matchedStores;
+    }
+
+    matchedStores = new ArrayList<>(1);
+    for (OcspStore store : notifyingStores) {
+      if (store.knowsIssuer(reqIssuer)) {
+        matchedStores.add(store);
+      }
+    }
+
+    if (matchedStores.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    matchedStores = Collections.unmodifiableList(matchedStores);
+    // do not keep the whole request
+    int from = reqIssuer.getFrom();
+    routes.routes.put(new RequestIssuer(Arrays.copyOfRange(reqIssuer.getData(), from,
+        from + reqIssuer.getLength())), matchedStores);
+    return matchedStores;
+  } // method getNotifyingStoresForIssuer
+
+}
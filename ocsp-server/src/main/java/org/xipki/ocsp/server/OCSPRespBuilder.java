@@ -86,15 +86,26 @@ public class OCSPRespBuilder {
     this.responseExtensions = responseExtensions;
   }
 
-  // CHECKSTYLE:SKIP
-  public byte[] buildOCSPResponse(ConcurrentContentSigner signer,
-      TaggedCertSequence taggedCertSequence, Date producedAt)
-      throws OCSPException, NoIdleSignerException {
+  /**
+   * Builds the DER-encoded ResponseData, which is to be signed.
+   *
+   * @param producedAt producedAt of the response.
+   * @return the DER-encoded ResponseData.
+   */
+  public byte[] buildTbs(Date producedAt) {
     ResponseData responseData = new ResponseData(0,
         responderId, producedAt, list, responseExtensions);
 
     byte[] tbs = new byte[responseData.getEncodedLength()];
     responseData.write(tbs, 0);
+    return tbs;
+  } // method buildTbs
+
+  // CHECKSTYLE:SKIP
+  public byte[] buildOCSPResponse(ConcurrentContentSigner signer,
+      TaggedCertSequence taggedCertSequence, Date producedAt)
+      throws OCSPException, NoIdleSignerException {
+    byte[] tbs = buildTbs(producedAt);
 
     ConcurrentBagEntrySigner signer0 = signer.borrowSigner();
 
@@ -117,6 +128,21 @@ public class OCSPRespBuilder {
       signer.requiteSigner(signer0);
     }
 
+    return buildOCSPResponse(tbs, sigAlgId, signature, taggedCertSequence);
+  } // method buildOCSPResponse
+
+  /**
+   * Assembles the OCSP response from the signed ResponseData.
+   *
+   * @param tbs DER-encoded ResponseData, as returned by {@link #buildTbs(Date)}.
+   * @param sigAlgId DER-encoded signature algorithm identifier.
+   * @param signature signature over {@code tbs}.
+   * @param taggedCertSequence certificates to be embedded. May be {@code null}.
+   * @return the DER-encoded OCSP response.
+   */
+  // CHECKSTYLE:SKIP
+  public static byte[] buildOCSPResponse(byte[] tbs, byte[] sigAlgId, byte[] signature,
+      TaggedCertSequence taggedCertSequence) {
     // ----- Get the length -----
     // BasicOCSPResponse.signature
     int signatureBodyLen = signature.length + 1;
@@ -409,8 +409,44 @@ public class OcspServerConf extends ValidatableConf {
 
     private DataSourceConf datasource;
 
+    /**
+     * Directory of the memory-mapped file to save the responses. Exactly one of
+     * datasource and dir must be set.
+     */
+    private String dir;
+
+    /**
+     * Size of the memory-mapped file in bytes, default to 1 GiB.
+     */
+    private Integer segmentSize;
+
     private String validity;
 
+    /**
+     * Maximal size of the in-memory cache tier in bytes. The in-memory cache tier
+     * is deactivated if not set or not positive.
+     */
+    private Long memoryCacheSize;
+
+    /**
+     * Maximal number of responses waiting to be written to the database. If set and
+     * positive, the responses are written asynchronously in batches, and responses are
+     * dropped if the queue is full.
+     */
+    private Integer writeQueueSize;
+
+    /**
+     * Interval in milliseconds to write the waiting responses to the database,
+     * default to 1000.
+     */
+    private Integer writeInterval;
+
+    /**
+     * Interval to pre-compute the responses of all certificates in the stores, e.g. 1h.
+     * Only applied to the master. The pre-computation is deactivated if not set.
+     */
+    private String presignInterval;
+
     public DataSourceConf getDatasource() {
       return datasource;
     }
@@ -419,6 +455,22 @@ public class OcspServerConf extends ValidatableConf {
       this.datasource = datasource;
     }
 
+    public String getDir() {
+      return dir;
+    }
+
+    public void setDir(String dir) {
+      this.dir = dir;
+    }
+
+    public Integer getSegmentSize() {
+      return segmentSize;
+    }
+
+    public void setSegmentSize(Integer segmentSize) {
+      this.segmentSize = segmentSize;
+    }
+
     public String getValidity() {
       return validity;
     }
@@ -431,9 +483,45 @@ public class OcspServerConf extends ValidatableConf {
       return validity == null ? new Validity(1, Unit.DAY) : Validity.getInstance(validity);
     }
 
+    public Long getMemoryCacheSize() {
+      return memoryCacheSize;
+    }
+
+    public void setMemoryCacheSize(Long memoryCacheSize) {
+      this.memoryCacheSize = memoryCacheSize;
+    }
+
+    public Integer getWriteQueueSize() {
+      return writeQueueSize;
+    }
+
+    public void setWriteQueueSize(Integer writeQueueSize) {
+      this.writeQueueSize = writeQueueSize;
+    }
+
+    public Integer getWriteInterval() {
+      return writeInterval;
+    }
+
+    public void setWriteInterval(Integer writeInterval) {
+      this.writeInterval = writeInterval;
+    }
+
+    public String getPresignInterval() {
+      return presignInterval;
+    }
+
+    public void setPresignInterval(String presignInterval) {
+      this.presignInterval = presignInterval;
+    }
+
     @Override
     public void validate() throws InvalidConfException {
-      notNull(datasource, "datasource");
+      if (dir == null) {
+        notNull(datasource, "datasource");
+      } else if (datasource != null) {
+        throw new InvalidConfException("datasource and dir may not be both set");
+      }
     }
 
   } // class ResponseCache
@@ -799,6 +887,11 @@ public class OcspServerConf extends ValidatableConf {
 
   private boolean master = true;
 
+  /**
+   * Whether concurrent identical requests share one response, default to false.
+   */
+  private boolean requestCoalescing = false;
+
   private UnknownIssuerBehaviour unknownIssuerBehaviour = UnknownIssuerBehaviour.unknown;
 
   public static OcspServerConf readConfFromFile(String fileName)
@@ -816,6 +909,14 @@ public class OcspServerConf extends ValidatableConf {
     return responseCache;
   }
 
+  public boolean isRequestCoalescing() {
+    return requestCoalescing;
+  }
+
+  public void setRequestCoalescing(boolean requestCoalescing) {
+    this.requestCoalescing = requestCoalescing;
+  }
+
   public void setResponseCache(ResponseCache responseCache) {
     this.responseCache = responseCache;
   }
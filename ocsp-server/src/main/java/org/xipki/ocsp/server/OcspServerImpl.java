@@ -27,6 +27,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.SignatureException;
 import java.security.cert.CertPathBuilderException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateParsingException;
@@ -40,7 +41,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
@@ -156,6 +163,83 @@ public class OcspServerImpl implements OcspServer {
     }
   } // class OcspRespControl
 
+  private static class InflightRequest {
+
+    private final Responder responder;
+
+    private final byte[] request;
+
+    private final boolean viaGet;
+
+    private final int hashCode;
+
+    InflightRequest(Responder responder, byte[] request, boolean viaGet) {
+      this.responder = responder;
+      this.request = request;
+      this.viaGet = viaGet;
+      this.hashCode = 31 * System.identityHashCode(responder) + Arrays.hashCode(request);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof InflightRequest)) {
+        return false;
+      }
+
+      InflightRequest other = (InflightRequest) obj;
+      return responder == other.responder && viaGet == other.viaGet
+          && Arrays.equals(request, other.request);
+    }
+
+  } // class InflightRequest
+
+  /**
+   * OCSP response whose ResponseData has been built but not signed yet.
+   */
+  static class ResponseToSign {
+
+    private final ConcurrentContentSigner signer;
+
+    private final byte[] tbs;
+
+    private final TaggedCertSequence certsInResp;
+
+    private final boolean viaGet;
+
+    private final OcspRespControl repControl;
+
+    private Integer cacheDbIssuerId;
+
+    private BigInteger cacheDbSerialNumber;
+
+    private AlgorithmCode cacheDbSigAlgCode;
+
+    private ResponseToSign(ConcurrentContentSigner signer, byte[] tbs,
+        TaggedCertSequence certsInResp, boolean viaGet, OcspRespControl repControl) {
+      this.signer = signer;
+      this.tbs = tbs;
+      this.certsInResp = certsInResp;
+      this.viaGet = viaGet;
+      this.repControl = repControl;
+    }
+
+    ConcurrentContentSigner getSigner() {
+      return signer;
+    }
+
+    byte[] getTbs() {
+      return tbs;
+    }
+
+  } // class ResponseToSign
+
   public static final long DFLT_CACHE_MAX_AGE = 60; // 1 minute
 
   private static final String STORE_TYPE_XIPKI_DB = "xipki-db";
@@ -195,6 +279,8 @@ public class OcspServerImpl implements OcspServer {
 
   private ResponseCacher responseCacher;
 
+  private ScheduledThreadPoolExecutor presignExecutor;
+
   private Map<String, ResponderImpl> responders = new HashMap<>();
 
   private Map<String, ResponseSigner> signers = new HashMap<>();
@@ -211,6 +297,13 @@ public class OcspServerImpl implements OcspServer {
 
   private AtomicBoolean initialized = new AtomicBoolean(false);
 
+  private boolean requestCoalescing;
+
+  private final ConcurrentHashMap<InflightRequest, CompletableFuture<OcspRespWithCacheInfo>>
+      inflightRequests = new ConcurrentHashMap<>();
+
+  private final AtomicLong coalescedRequests = new AtomicLong();
+
   static {
     unsuccesfulOCSPRespMap = new HashMap<>(10);
     for (OcspResponseStatus status : OcspResponseStatus.values()) {
@@ -315,6 +408,10 @@ public class OcspServerImpl implements OcspServer {
     initialized.set(false);
 
     // reset
+    if (presignExecutor != null) {
+      presignExecutor.shutdownNow();
+      presignExecutor = null;
+    }
     responseCacher = null;
     responders.clear();
     signers.clear();
@@ -448,6 +545,7 @@ public class OcspServerImpl implements OcspServer {
     }
 
     this.master = conf.isMaster();
+    this.requestCoalescing = conf.isRequestCoalescing();
     this.unknownIssuerBehaviour = conf.getUnknownIssuerBehaviour();
     if (this.unknownIssuerBehaviour == null) {
       this.unknownIssuerBehaviour = UnknownIssuerBehaviour.unknown;
@@ -456,19 +554,40 @@ public class OcspServerImpl implements OcspServer {
     // Response Cache
     OcspServerConf.ResponseCache cacheType = conf.getResponseCache();
     if (cacheType != null) {
-      DataSourceConf cacheSourceConf = cacheType.getDatasource();
-      DataSourceWrapper datasource;
-      InputStream dsStream = null;
-      try {
-        dsStream = getInputStream(cacheSourceConf.getConf());
-        datasource = datasourceFactory.createDataSource(cacheSourceConf.getName(),
-                dsStream, securityFactory.getPasswordResolver());
-      } catch (IOException ex) {
-        throw new InvalidConfException(ex.getMessage(), ex);
-      } finally {
-        closeStream(dsStream);
+      Long memoryCacheSize = cacheType.getMemoryCacheSize();
+      long memCacheSize = memoryCacheSize == null ? 0 : memoryCacheSize;
+
+      if (cacheType.getDir() != null) {
+        Integer segmentSize = cacheType.getSegmentSize();
+        try {
+          responseCacher = new ResponseCacher(new File(IoUtil.expandFilepath(cacheType.getDir())),
+              segmentSize == null ? 1024 * 1024 * 1024 : segmentSize, master,
+              cacheType.validity(), memCacheSize);
+        } catch (IOException ex) {
+          throw new InvalidConfException(ex.getMessage(), ex);
+        }
+      } else {
+        DataSourceConf cacheSourceConf = cacheType.getDatasource();
+        DataSourceWrapper datasource;
+        InputStream dsStream = null;
+        try {
+          dsStream = getInputStream(cacheSourceConf.getConf());
+          datasource = datasourceFactory.createDataSource(cacheSourceConf.getName(),
+                  dsStream, securityFactory.getPasswordResolver());
+        } catch (IOException ex) {
+          throw new InvalidConfException(ex.getMessage(), ex);
+        } finally {
+          closeStream(dsStream);
+        }
+        responseCacher = new ResponseCacher(datasource, master, cacheType.validity(),
+            memCacheSize);
+        Integer writeQueueSize = cacheType.getWriteQueueSize();
+        if (writeQueueSize != null && writeQueueSize > 0) {
+          Integer writeInterval = cacheType.getWriteInterval();
+          responseCacher.setWriteBehind(writeQueueSize,
+              writeInterval == null ? 1000 : writeInterval);
+        }
       }
-      responseCacher = new ResponseCacher(datasource, master, cacheType.validity());
       responseCacher.init();
     }
 
@@ -597,11 +716,30 @@ public class OcspServerImpl implements OcspServer {
       list2.add(m.str);
     }
     this.servletPaths = list2;
+
+    // pre-computation of the responses
+    String presignInterval = (cacheType == null) ? null : cacheType.getPresignInterval();
+    if (presignInterval != null) {
+      if (!master) {
+        LOG.info("pre-computation of OCSP responses is only applied to the master, ignore it");
+      } else {
+        long intervalMinutes = Validity.getInstance(presignInterval).approxMinutes();
+        presignExecutor = new ScheduledThreadPoolExecutor(1);
+        presignExecutor.scheduleWithFixedDelay(
+            new ResponsePresigner(this, new ArrayList<>(responders.values())),
+            1, intervalMinutes, TimeUnit.MINUTES);
+      }
+    }
   } // method init0
 
   @Override
   public void close() {
     LOG.info("stopped OCSP Responder");
+    if (presignExecutor != null) {
+      presignExecutor.shutdownNow();
+      presignExecutor = null;
+    }
+
     if (responseCacher != null) {
       responseCacher.close();
     }
@@ -617,6 +755,71 @@ public class OcspServerImpl implements OcspServer {
 
   @Override
   public OcspRespWithCacheInfo answer(Responder responder2, byte[] request, boolean viaGet) {
+    if (!requestCoalescing) {
+      return answer0(responder2, request, viaGet);
+    }
+
+    // Identical requests get identical responses. Requests with nonce differ from each other
+    // and are therefore never coalesced.
+    InflightRequest key = new InflightRequest(responder2, request, viaGet);
+    CompletableFuture<OcspRespWithCacheInfo> flight = new CompletableFuture<>();
+    CompletableFuture<OcspRespWithCacheInfo> existingFlight =
+        inflightRequests.putIfAbsent(key, flight);
+    if (existingFlight != null) {
+      try {
+        OcspRespWithCacheInfo resp = existingFlight.get();
+        coalescedRequests.incrementAndGet();
+        return resp;
+      } catch (InterruptedException ex) {
+        // keep the interrupted status for the caller
+        Thread.currentThread().interrupt();
+        LOG.debug("interrupted while waiting for coalesced request, process it separately");
+        return answer0(responder2, request, viaGet);
+      } catch (ExecutionException ex) {
+        LOG.debug("coalesced request failed, process it separately: {}", ex.getMessage());
+        return answer0(responder2, request, viaGet);
+      }
+    }
+
+    try {
+      OcspRespWithCacheInfo resp = answer0(responder2, request, viaGet);
+      flight.complete(resp);
+      return resp;
+    } catch (RuntimeException | Error ex) {
+      flight.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      inflightRequests.remove(key, flight);
+    }
+  } // method answer
+
+  private OcspRespWithCacheInfo answer0(Responder responder2, byte[] request, boolean viaGet) {
+    Object respOrToSign = prepare(responder2, request, viaGet);
+    if (respOrToSign instanceof OcspRespWithCacheInfo) {
+      return (OcspRespWithCacheInfo) respOrToSign;
+    }
+
+    ResponseToSign toSign = (ResponseToSign) respOrToSign;
+    byte[] signature;
+    try {
+      signature = toSign.signer.sign(toSign.tbs);
+    } catch (NoIdleSignerException ex) {
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+    } catch (SignatureException ex) {
+      LogUtil.error(LOG, ex, "answer() sign");
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+    }
+
+    return finish(toSign, signature);
+  } // method answer0
+
+  /**
+   * Processes the request up to the signature.
+   *
+   * @return either the final {@link OcspRespWithCacheInfo}, e.g. an unsuccessful or a cached
+   *         response, or the {@link ResponseToSign}.
+   */
+  Object prepare(Responder responder2, byte[] request, boolean viaGet) {
     ResponderImpl responder = (ResponderImpl) responder2;
     RequestOption reqOpt = responder.getRequestOption();
 
@@ -797,7 +1000,7 @@ public class OcspServerImpl implements OcspServer {
         } else if (master) {
           // store the issuer certificate in cache database.
           X509Cert issuerCert = null;
-          for (OcspStore store : responder.getStores()) {
+          for (OcspStore store : responder.getStoresForIssuer(certId.getIssuer())) {
             issuerCert = store.getIssuerCert(certId.getIssuer());
             if (issuerCert != null) {
               break;
@@ -852,26 +1055,40 @@ public class OcspServerImpl implements OcspServer {
         certsInResp = signer.getSequenceOfCertChain();
       }
 
-      byte[] encodeOcspResponse;
-      try {
-        encodeOcspResponse = builder.buildOCSPResponse(concurrentSigner, certsInResp, new Date());
-      } catch (NoIdleSignerException ex) {
-        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
-      } catch (OCSPException ex) {
-        LogUtil.error(LOG, ex, "answer() basicOcspBuilder.build");
-        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
-      }
-
+      ResponseToSign toSign = new ResponseToSign(concurrentSigner,
+          builder.buildTbs(new Date()), certsInResp, viaGet, repControl);
       // cache response in database
       if (canCacheDb && repControl.canCacheInfo) {
         // Don't cache the response with status UNKNOWN, since this may result in DDoS
         // of storage
-        responseCacher.storeOcspResponse(cacheDbIssuerId.intValue(), cacheDbSerialNumber,
-            repControl.cacheThisUpdate, repControl.cacheNextUpdate, cacheDbSigAlgCode,
-            encodeOcspResponse);
+        toSign.cacheDbIssuerId = cacheDbIssuerId;
+        toSign.cacheDbSerialNumber = cacheDbSerialNumber;
+        toSign.cacheDbSigAlgCode = cacheDbSigAlgCode;
       }
+      return toSign;
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th);
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+    }
+  } // method prepare
 
-      if (viaGet && repControl.canCacheInfo) {
+  /**
+   * Assembles the OCSP response from the signature computed over {@link ResponseToSign#getTbs()}
+   * and caches it if allowed.
+   */
+  OcspRespWithCacheInfo finish(ResponseToSign toSign, byte[] signature) {
+    try {
+      byte[] encodeOcspResponse = OCSPRespBuilder.buildOCSPResponse(toSign.tbs,
+          toSign.signer.getAlgorithmIdentifier().getEncoded(), signature, toSign.certsInResp);
+
+      OcspRespControl repControl = toSign.repControl;
+      if (toSign.cacheDbIssuerId != null) {
+        responseCacher.storeOcspResponse(toSign.cacheDbIssuerId.intValue(),
+            toSign.cacheDbSerialNumber, repControl.cacheThisUpdate, repControl.cacheNextUpdate,
+            toSign.cacheDbSigAlgCode, encodeOcspResponse);
+      }
+
+      if (toSign.viaGet && repControl.canCacheInfo) {
         ResponseCacheInfo cacheInfo = new ResponseCacheInfo(repControl.cacheThisUpdate);
         if (repControl.cacheNextUpdate != Long.MAX_VALUE) {
           cacheInfo.setNextUpdate(repControl.cacheNextUpdate);
@@ -884,7 +1101,7 @@ public class OcspServerImpl implements OcspServer {
       LogUtil.error(LOG, th);
       return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
     }
-  } // method ask
+  } // method finish
 
   private OcspRespWithCacheInfo processCertReq(AtomicBoolean unknownAsRevoked,
       CertID certId, OCSPRespBuilder builder,
@@ -903,11 +1120,7 @@ public class OcspServerImpl implements OcspServer {
 
     RequestIssuer reqIssuer = certId.getIssuer();
     Date now = new Date();
-    for (OcspStore store : responder.getStores()) {
-      if (!store.knowsIssuer(reqIssuer)) {
-        continue;
-      }
-
+    for (OcspStore store : responder.getStoresForIssuer(reqIssuer)) {
       try {
         certStatusInfo = store.getCertStatus(now, certId.getIssuer(), serial,
             repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
@@ -1093,6 +1306,21 @@ public class OcspServerImpl implements OcspServer {
     signerHealth.setHealthy(signerHealthy);
     result.addChildCheck(signerHealth);
 
+    if (responseCacher != null) {
+      HealthCheckResult cacherHealth = new HealthCheckResult();
+      cacherHealth.setName("ResponseCacher");
+      cacherHealth.setHealthy(responseCacher.isOnService());
+      Map<String, Object> stats = responseCacher.getStatistics();
+      if (stats != null) {
+        cacherHealth.getStatuses().putAll(stats);
+      }
+      result.addChildCheck(cacherHealth);
+    }
+
+    if (requestCoalescing) {
+      result.getStatuses().put("coalescedRequests", coalescedRequests.get());
+    }
+
     result.setHealthy(healthy);
     return result;
   } // method healthCheck
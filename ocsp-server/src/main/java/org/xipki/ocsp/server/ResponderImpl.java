@@ -20,6 +20,7 @@ package org.xipki.ocsp.server;
 import java.util.List;
 
 import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.RequestIssuer;
 import org.xipki.ocsp.api.Responder;
 import org.xipki.ocsp.server.OcspServerConf.ResponseOption;
 import org.xipki.util.Args;
@@ -43,6 +44,8 @@ public class ResponderImpl implements Responder {
 
   private final List<OcspStore> stores;
 
+  private final IssuerRouter issuerRouter;
+
   ResponderImpl(ResponderOption responderOption, RequestOption requestOption,
       ResponseOption responseOption, ResponseSigner signer, List<OcspStore> stores) {
     this.responderOption = Args.notNull(responderOption, "responderOption");
@@ -50,6 +53,7 @@ public class ResponderImpl implements Responder {
     this.responseOption = Args.notNull(responseOption, "responseOption");
     this.signer = Args.notNull(signer, "signer");
     this.stores = Args.notEmpty(stores, "stores");
+    this.issuerRouter = new IssuerRouter(stores);
   }
 
   public ResponderOption getResponderOption() {
@@ -72,6 +76,17 @@ public class ResponderImpl implements Responder {
     return stores;
   }
 
+  /**
+   * Returns the stores which know the issuer, in the configured order.
+   *
+   * @param reqIssuer
+   *          Requested issuer
+   * @return the stores which know the issuer, may be empty.
+   */
+  public List<OcspStore> getStoresForIssuer(RequestIssuer reqIssuer) {
+    return issuerRouter.getStoresForIssuer(reqIssuer);
+  }
+
   @Override
   public int getMaxRequestSize() {
     return requestOption.getMaxRequestSize();
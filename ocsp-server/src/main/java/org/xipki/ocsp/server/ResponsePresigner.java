@@ -0,0 +1,192 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.ocsp.OCSPRequest;
+import org.bouncycastle.asn1.ocsp.Request;
+import org.bouncycastle.asn1.ocsp.TBSRequest;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.ocsp.server.OcspServerImpl.ResponseToSign;
+import org.xipki.security.ConcurrentContentSigner;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.NoIdleSignerException;
+import org.xipki.security.X509Cert;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+/**
+ * Pre-computes the OCSP responses of all certificates known by the stores, and stores them
+ * in the response cache. Requests without nonce are then answered by looking up the cache.
+ * Since cached responses are not used within 10 minutes before their nextUpdate, the
+ * responses close to nextUpdate are re-signed in the next run.
+ *
+ * <p>The responses of up to {@link #BATCH_SIZE} certificates are signed in one batch via
+ * {@link ConcurrentContentSigner#sign(byte[][])}, so that the signature operations are
+ * distributed over the signers. Stores which cannot list the serial numbers of their
+ * certificates are skipped.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class ResponsePresigner implements Runnable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponsePresigner.class);
+
+  private static final int BATCH_SIZE = 1000;
+
+  private final OcspServerImpl server;
+
+  private final Collection<ResponderImpl> responders;
+
+  private final AtomicBoolean inProcess = new AtomicBoolean(false);
+
+  ResponsePresigner(OcspServerImpl server, Collection<ResponderImpl> responders) {
+    this.server = Args.notNull(server, "server");
+    this.responders = Args.notNull(responders, "responders");
+  }
+
+  @Override
+  public void run() {
+    if (!inProcess.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      for (ResponderImpl responder : responders) {
+        RequestOption reqOpt = responder.getRequestOption();
+        if (reqOpt.isSignatureRequired()
+            || reqOpt.getNonceOccurrence() == QuadrupleState.required) {
+          // responses for such responders cannot be pre-computed
+          continue;
+        }
+
+        HashAlgo hashAlgo = reqOpt.allows(HashAlgo.SHA1) ? HashAlgo.SHA1
+            : reqOpt.getHashAlgos().iterator().next();
+
+        for (OcspStore store : responder.getStores()) {
+          for (X509Cert issuerCert : store.getIssuerCerts()) {
+            presign(responder, store, issuerCert, hashAlgo);
+          }
+        }
+      }
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not pre-compute OCSP responses");
+    } finally {
+      inProcess.set(false);
+    }
+  } // method run
+
+  private void presign(ResponderImpl responder, OcspStore store, X509Cert issuerCert,
+      HashAlgo hashAlgo) throws IOException, OcspStoreException {
+    long start = System.currentTimeMillis();
+    byte[] nameHash = hashAlgo.hash(issuerCert.getSubject().getEncoded());
+    byte[] keyHash = hashAlgo.hash(
+        issuerCert.getSubjectPublicKeyInfo().getPublicKeyData().getOctets());
+
+    int num = 0;
+    BigInteger lastSerialNumber = null;
+    while (true) {
+      List<BigInteger> serialNumbers =
+          store.getSerialNumbers(issuerCert, lastSerialNumber, BATCH_SIZE);
+      if (serialNumbers == null) {
+        LOG.warn("store {} does not support listing serial numbers, its responses cannot be "
+            + "pre-computed", store.getName());
+        return;
+      }
+
+      // the responses are signed grouped by signer
+      Map<ConcurrentContentSigner, List<ResponseToSign>> toSignBySigner = new LinkedHashMap<>();
+      for (BigInteger serialNumber : serialNumbers) {
+        CertID certId = new CertID(hashAlgo.getAlgorithmIdentifier(),
+            new DEROctetString(nameHash), new DEROctetString(keyHash),
+            new ASN1Integer(serialNumber));
+        TBSRequest tbsReq = new TBSRequest(null, new DERSequence(new Request(certId, null)),
+            (Extensions) null);
+        byte[] request = new OCSPRequest(tbsReq, null).getEncoded();
+
+        // a response is returned directly if a valid cached response exists or on error.
+        Object respOrToSign = server.prepare(responder, request, false);
+        if (respOrToSign instanceof ResponseToSign) {
+          ResponseToSign toSign = (ResponseToSign) respOrToSign;
+          List<ResponseToSign> list = toSignBySigner.get(toSign.getSigner());
+          if (list == null) {
+            list = new ArrayList<>(serialNumbers.size());
+            toSignBySigner.put(toSign.getSigner(), list);
+          }
+          list.add(toSign);
+        }
+      }
+
+      for (Entry<ConcurrentContentSigner, List<ResponseToSign>> entry
+          : toSignBySigner.entrySet()) {
+        num += signAndCache(entry.getKey(), entry.getValue());
+      }
+
+      if (serialNumbers.size() < BATCH_SIZE) {
+        break;
+      }
+      lastSerialNumber = serialNumbers.get(serialNumbers.size() - 1);
+    }
+
+    LOG.info("pre-computed {} OCSP responses for issuer '{}' of store {} in {} ms", num,
+        issuerCert.getSubjectRfc4519Text(), store.getName(), System.currentTimeMillis() - start);
+  } // method presign
+
+  private int signAndCache(ConcurrentContentSigner signer, List<ResponseToSign> toSigns) {
+    final int n = toSigns.size();
+    byte[][] tbsList = new byte[n][];
+    for (int i = 0; i < n; i++) {
+      tbsList[i] = toSigns.get(i).getTbs();
+    }
+
+    byte[][] signatures;
+    try {
+      signatures = signer.sign(tbsList);
+    } catch (NoIdleSignerException | SignatureException ex) {
+      LOG.warn("could not sign {} OCSP responses: {}", n, ex.getMessage());
+      return 0;
+    }
+
+    for (int i = 0; i < n; i++) {
+      // the response is cached by finish()
+      server.finish(toSigns.get(i), signatures[i]);
+    }
+    return n;
+  } // method signAndCache
+
+}
@@ -209,6 +209,7 @@ public class CaDbCertStatusStore extends OcspStore {
           } // end while (rs.next())
 
           this.issuerStore.setIssuers(caInfos);
+          issuersChanged();
           LOG.info("Updated issuers: {}", name);
         } finally {
           releaseDbResources(ps, rs);
@@ -511,6 +512,11 @@ public class CaDbCertStatusStore extends OcspStore {
     }
   } // method close
 
+  @Override
+  public boolean supportsIssuerChangeNotification() {
+    return true;
+  }
+
   @Override
   public boolean knowsIssuer(RequestIssuer reqIssuer) {
     return issuerStore != null && null != issuerStore.getIssuerForFp(reqIssuer);
@@ -0,0 +1,510 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.util.Args;
+import org.xipki.util.Base64;
+
+/**
+ * In-memory snapshot of the table CERT of the XiPKI OCSP database.
+ *
+ * <p>The entries are kept in parallel primitive arrays indexed by an open-addressing
+ * hash table keyed by (issuer id, serial number). The snapshot is loaded completely
+ * once, and then refreshed incrementally via the column LUPDATE. Since deleted rows
+ * cannot be detected via LUPDATE, the snapshot is rebuilt completely after the
+ * rebuild interval.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class CertStatusSnapshot {
+
+  /**
+   * Status of a certificate.
+   */
+  static class Entry {
+
+    private final int crlId;
+
+    private final long notBefore;
+
+    private final long notAfter;
+
+    private final boolean revoked;
+
+    private final int reason;
+
+    private final long revTime;
+
+    private final long invalidityTime;
+
+    private final byte[] certHash;
+
+    Entry(int crlId, long notBefore, long notAfter, boolean revoked, int reason,
+        long revTime, long invalidityTime, byte[] certHash) {
+      this.crlId = crlId;
+      this.notBefore = notBefore;
+      this.notAfter = notAfter;
+      this.revoked = revoked;
+      this.reason = reason;
+      this.revTime = revTime;
+      this.invalidityTime = invalidityTime;
+      this.certHash = certHash;
+    }
+
+    int getCrlId() {
+      return crlId;
+    }
+
+    long getNotBefore() {
+      return notBefore;
+    }
+
+    long getNotAfter() {
+      return notAfter;
+    }
+
+    boolean isRevoked() {
+      return revoked;
+    }
+
+    int getReason() {
+      return reason;
+    }
+
+    long getRevTime() {
+      return revTime;
+    }
+
+    long getInvalidityTime() {
+      return invalidityTime;
+    }
+
+    byte[] getCertHash() {
+      return certHash;
+    }
+
+  } // class Entry
+
+  /**
+   * Row of the table CERT.
+   */
+  static class Row {
+
+    private final long id;
+
+    private final int issuerId;
+
+    private final BigInteger serialNumber;
+
+    private final long lastUpdate;
+
+    private final Entry entry;
+
+    Row(long id, int issuerId, BigInteger serialNumber, long lastUpdate, Entry entry) {
+      this.id = id;
+      this.issuerId = issuerId;
+      this.serialNumber = serialNumber;
+      this.lastUpdate = lastUpdate;
+      this.entry = entry;
+    }
+
+    long getId() {
+      return id;
+    }
+
+    int getIssuerId() {
+      return issuerId;
+    }
+
+    BigInteger getSerialNumber() {
+      return serialNumber;
+    }
+
+    long getLastUpdate() {
+      return lastUpdate;
+    }
+
+    Entry getEntry() {
+      return entry;
+    }
+
+  } // class Row
+
+  /**
+   * Open-addressing hash table.
+   */
+  private static class Table {
+
+    // issuer ids are positive, slot is free if iids[slot] == 0
+    private int[] iids;
+
+    private byte[][] serials;
+
+    private int[] crlIds;
+
+    private long[] notBefores;
+
+    private long[] notAfters;
+
+    // bit 7: revoked, bit 0-6: reason
+    private byte[] revInfos;
+
+    private long[] revTimes;
+
+    private long[] invalidityTimes;
+
+    private byte[][] certHashes;
+
+    private int size;
+
+    Table(int capacity) {
+      allocate(capacity);
+    }
+
+    Entry get(int issuerId, byte[] serial) {
+      int slot = findSlot(issuerId, serial);
+      if (iids[slot] == 0) {
+        return null;
+      }
+
+      byte revInfo = revInfos[slot];
+      return new Entry(crlIds[slot], notBefores[slot], notAfters[slot], (revInfo & 0x80) != 0,
+          revInfo & 0x7F, revTimes[slot], invalidityTimes[slot], certHashes[slot]);
+    } // method get
+
+    void put(Row row) {
+      byte[] serial = row.serialNumber.toByteArray();
+      if ((size + 1) * 4 > iids.length * 3) {
+        resize(iids.length << 1);
+      }
+
+      int slot = findSlot(row.issuerId, serial);
+      if (iids[slot] == 0) {
+        size++;
+        iids[slot] = row.issuerId;
+        serials[slot] = serial;
+      }
+
+      Entry entry = row.entry;
+      crlIds[slot] = entry.crlId;
+      notBefores[slot] = entry.notBefore;
+      notAfters[slot] = entry.notAfter;
+      revInfos[slot] = entry.revoked ? (byte) (0x80 | (entry.reason & 0x7F)) : 0;
+      revTimes[slot] = entry.revoked ? entry.revTime : 0;
+      invalidityTimes[slot] = entry.revoked ? entry.invalidityTime : 0;
+      certHashes[slot] = entry.certHash;
+    } // method put
+
+    private int findSlot(int issuerId, byte[] serial) {
+      int mask = iids.length - 1;
+      int slot = hash(issuerId, serial) & mask;
+      while (iids[slot] != 0) {
+        if (iids[slot] == issuerId && Arrays.equals(serials[slot], serial)) {
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    } // method findSlot
+
+    private void resize(int capacity) {
+      int[] oldIids = iids;
+      byte[][] oldSerials = serials;
+      int[] oldCrlIds = crlIds;
+      long[] oldNotBefores = notBefores;
+      long[] oldNotAfters = notAfters;
+      byte[] oldRevInfos = revInfos;
+      long[] oldRevTimes = revTimes;
+      long[] oldInvalidityTimes = invalidityTimes;
+      byte[][] oldCertHashes = certHashes;
+
+      allocate(capacity);
+
+      for (int i = 0; i < oldIids.length; i++) {
+        if (oldIids[i] == 0) {
+          continue;
+        }
+
+        int slot = findSlot(oldIids[i], oldSerials[i]);
+        iids[slot] = oldIids[i];
+        serials[slot] = oldSerials[i];
+        crlIds[slot] = oldCrlIds[i];
+        notBefores[slot] = oldNotBefores[i];
+        notAfters[slot] = oldNotAfters[i];
+        revInfos[slot] = oldRevInfos[i];
+        revTimes[slot] = oldRevTimes[i];
+        invalidityTimes[slot] = oldInvalidityTimes[i];
+        certHashes[slot] = oldCertHashes[i];
+      }
+    } // method resize
+
+    private void allocate(int capacity) {
+      iids = new int[capacity];
+      serials = new byte[capacity][];
+      crlIds = new int[capacity];
+      notBefores = new long[capacity];
+      notAfters = new long[capacity];
+      revInfos = new byte[capacity];
+      revTimes = new long[capacity];
+      invalidityTimes = new long[capacity];
+      certHashes = new byte[capacity][];
+    } // method allocate
+
+    private static int hash(int issuerId, byte[] serial) {
+      int h = 31 * issuerId + Arrays.hashCode(serial);
+      // spread the higher bits to the lower ones
+      return h ^ (h >>> 16);
+    }
+
+  } // class Table
+
+  private static final Logger LOG = LoggerFactory.getLogger(CertStatusSnapshot.class);
+
+  private static final String COLUMNS =
+      "ID,IID,SN,CRL_ID,LUPDATE,NBEFORE,NAFTER,REV,RR,RT,RIT,HASH";
+
+  private static final int INITIAL_CAPACITY = 1 << 16;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final DataSourceWrapper datasource;
+
+  private final int pageSize;
+
+  private final long rebuildIntervalMs;
+
+  private final String sqlFullLoad;
+
+  private final String sqlIncrementalLoad;
+
+  private Table table = new Table(INITIAL_CAPACITY);
+
+  // maximal LUPDATE (in seconds) seen so far
+  private long lastUpdate;
+
+  private long lastRebuildTimeMs;
+
+  private volatile boolean ready;
+
+  /**
+   * Constructor.
+   * @param datasource
+   *          Datasource of the OCSP database.
+   * @param rebuildIntervalMs
+   *          Interval in milliseconds to rebuild the snapshot completely.
+   */
+  CertStatusSnapshot(DataSourceWrapper datasource, long rebuildIntervalMs) {
+    this.datasource = Args.notNull(datasource, "datasource");
+    this.pageSize = 1000;
+    this.rebuildIntervalMs = Args.positive(rebuildIntervalMs, "rebuildIntervalMs");
+    this.sqlFullLoad = datasource.buildSelectFirstSql(pageSize, "ID ASC",
+        COLUMNS + " FROM CERT WHERE ID>?");
+    // the rows with the same LUPDATE are paged by the ID
+    this.sqlIncrementalLoad = datasource.buildSelectFirstSql(pageSize, "LUPDATE ASC,ID ASC",
+        COLUMNS + " FROM CERT WHERE LUPDATE>? OR (LUPDATE=? AND ID>?)");
+  }
+
+  /**
+   * Constructor for snapshots whose rows are not read from a database. The methods
+   * {@link #loadRowsById(long)} and {@link #loadRowsByLastUpdate(long, long)} must be
+   * overwritten.
+   */
+  CertStatusSnapshot(int pageSize, long rebuildIntervalMs) {
+    this.datasource = null;
+    this.pageSize = Args.positive(pageSize, "pageSize");
+    this.rebuildIntervalMs = Args.notNegative(rebuildIntervalMs, "rebuildIntervalMs");
+    this.sqlFullLoad = null;
+    this.sqlIncrementalLoad = null;
+  }
+
+  boolean isReady() {
+    return ready;
+  }
+
+  int size() {
+    lock.readLock().lock();
+    try {
+      return table.size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Refreshes the snapshot. The first call and every call after the rebuild interval
+   * load the complete table CERT, all further calls load only the rows whose LUPDATE is
+   * not before the last seen one.
+   *
+   * @throws DataAccessException
+   *           if database error occurs.
+   */
+  void refresh() throws DataAccessException {
+    long start = System.currentTimeMillis();
+    if (ready && start - lastRebuildTimeMs < rebuildIntervalMs) {
+      int num = loadIncremental();
+      LOG.info("refreshed {} entries of the cert status snapshot in {} ms",
+          num, System.currentTimeMillis() - start);
+      return;
+    }
+
+    loadAll();
+    lastRebuildTimeMs = start;
+    ready = true;
+    LOG.info("loaded {} entries to the cert status snapshot in {} ms",
+        size(), System.currentTimeMillis() - start);
+  } // method refresh
+
+  Entry get(int issuerId, BigInteger serialNumber) {
+    byte[] serial = serialNumber.toByteArray();
+
+    lock.readLock().lock();
+    try {
+      return table.get(issuerId, serial);
+    } finally {
+      lock.readLock().unlock();
+    }
+  } // method get
+
+  private void loadAll() throws DataAccessException {
+    Table tmp = new Table(INITIAL_CAPACITY);
+    long maxLastUpdate = 0;
+    long maxId = 0;
+    while (true) {
+      List<Row> rows = loadRowsById(maxId);
+      for (Row row : rows) {
+        maxId = Math.max(maxId, row.id);
+        maxLastUpdate = Math.max(maxLastUpdate, row.lastUpdate);
+        tmp.put(row);
+      }
+
+      if (rows.size() < pageSize) {
+        break;
+      }
+    }
+
+    lock.writeLock().lock();
+    try {
+      this.table = tmp;
+      this.lastUpdate = maxLastUpdate;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  } // method loadAll
+
+  private int loadIncremental() throws DataAccessException {
+    // LUPDATE is in seconds, re-read the rows of the last seen second, since rows may have
+    // been updated within this second after the last refresh.
+    long lastLastUpdate = lastUpdate - 1;
+    long lastId = Long.MAX_VALUE;
+
+    int num = 0;
+    while (true) {
+      List<Row> rows = loadRowsByLastUpdate(lastLastUpdate, lastId);
+      lock.writeLock().lock();
+      try {
+        for (Row row : rows) {
+          table.put(row);
+          lastUpdate = Math.max(lastUpdate, row.lastUpdate);
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      num += rows.size();
+      if (rows.size() < pageSize) {
+        break;
+      }
+
+      Row last = rows.get(rows.size() - 1);
+      lastLastUpdate = last.lastUpdate;
+      lastId = last.id;
+    }
+    return num;
+  } // method loadIncremental
+
+  /**
+   * Loads the next page of rows, ordered by ID.
+   * @param lastId
+   *          Rows with ID greater than it will be loaded.
+   * @return the rows, at most pageSize.
+   * @throws DataAccessException
+   *           if database error occurs.
+   */
+  List<Row> loadRowsById(long lastId) throws DataAccessException {
+    return loadRows(sqlFullLoad, lastId);
+  }
+
+  /**
+   * Loads the next page of rows, ordered by (LUPDATE, ID).
+   * @param lastLastUpdate
+   *          LUPDATE of the last loaded row.
+   * @param lastId
+   *          ID of the last loaded row.
+   * @return the rows after (lastLastUpdate, lastId), at most pageSize.
+   * @throws DataAccessException
+   *           if database error occurs.
+   */
+  List<Row> loadRowsByLastUpdate(long lastLastUpdate, long lastId) throws DataAccessException {
+    return loadRows(sqlIncrementalLoad, lastLastUpdate, lastLastUpdate, lastId);
+  }
+
+  private List<Row> loadRows(String sql, long... params) throws DataAccessException {
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      for (int i = 0; i < params.length; i++) {
+        ps.setLong(i + 1, params[i]);
+      }
+
+      rs = ps.executeQuery();
+      List<Row> rows = new ArrayList<>(pageSize);
+      while (rs.next()) {
+        boolean revoked = rs.getBoolean("REV");
+        String b64CertHash = rs.getString("HASH");
+        Entry entry = new Entry(rs.getInt("CRL_ID"), rs.getLong("NBEFORE"),
+            rs.getLong("NAFTER"), revoked, revoked ? rs.getInt("RR") : 0,
+            revoked ? rs.getLong("RT") : 0, revoked ? rs.getLong("RIT") : 0,
+            (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash));
+        rows.add(new Row(rs.getLong("ID"), rs.getInt("IID"),
+            new BigInteger(rs.getString("SN"), 16), rs.getLong("LUPDATE"), entry));
+      }
+      return rows;
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method loadRows
+
+}
@@ -25,6 +25,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -62,6 +63,7 @@ import org.xipki.util.Base64;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.StringUtil;
+import org.xipki.util.Validity;
 
 import com.alibaba.fastjson.JSON;
 
@@ -103,6 +105,8 @@ public class DbCertStatusStore extends OcspStore {
 
   private String sqlCsWithCertHash;
 
+  private String sqlSerialNumbers;
+
   private IssuerFilter issuerFilter;
 
   private IssuerStore issuerStore = new IssuerStore();
@@ -111,6 +115,8 @@ public class DbCertStatusStore extends OcspStore {
 
   private boolean initialized;
 
+  private CertStatusSnapshot statusSnapshot;
+
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
   protected List<Runnable> getScheduledServices() {
@@ -147,6 +153,7 @@ public class DbCertStatusStore extends OcspStore {
       try {
         updateIssuers();
         updateCrls();
+        updateStatusSnapshot();
       } finally {
         initialized = true;
         storeUpdateInProcess.set(false);
@@ -245,6 +252,7 @@ public class DbCertStatusStore extends OcspStore {
         } // end while (rs.next())
 
         this.issuerStore.setIssuers(caInfos);
+        issuersChanged();
         LOG.info("Updated issuers of store {}", name);
       } finally {
         releaseDbResources(ps, rs);
@@ -282,6 +290,18 @@ public class DbCertStatusStore extends OcspStore {
     }
   } // method updateCrls
 
+  private void updateStatusSnapshot() {
+    if (statusSnapshot == null) {
+      return;
+    }
+
+    try {
+      statusSnapshot.refresh();
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "error while executing updateStatusSnapshot()");
+    }
+  } // method updateStatusSnapshot
+
   @Override
   protected CertStatusInfo getCertStatus0(Date time, RequestIssuer reqIssuer,
       BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
@@ -294,8 +314,6 @@ public class DbCertStatusStore extends OcspStore {
       throw new OcspStoreException("initialization of CertStore is still in process");
     }
 
-    String sql;
-
     try {
       IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
       if (issuer == null) {
@@ -314,70 +332,58 @@ public class DbCertStatusStore extends OcspStore {
         }
       }
 
-      if (includeCertHash) {
-        sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
+      CertStatusInfo certStatusInfo = null;
+
+      CertStatusSnapshot.Entry entry;
+      if (statusSnapshot != null && statusSnapshot.isReady()) {
+        entry = statusSnapshot.get(issuer.getId(), serialNumber);
       } else {
-        sql = includeRit ? sqlCs : sqlCsNoRit;
+        entry = getCertStatusEntry(issuer.getId(), serialNumber, includeCertHash, includeRit);
       }
 
-      ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
-
       boolean unknown = true;
       boolean ignore = false;
-      String b64CertHash = null;
+      byte[] certHash = null;
       boolean revoked = false;
       int reason = 0;
       long revTime = 0;
       long invalTime = 0;
       int crlId = 0;
 
-      PreparedStatement ps = datasource.prepareStatement(sql);
+      if (entry != null) {
+        unknown = false;
+        crlId = entry.getCrlId();
 
-      try {
-        ps.setInt(1, issuer.getId());
-        ps.setString(2, serialNumber.toString(16));
-        rs = ps.executeQuery();
-
-        if (rs.next()) {
-          unknown = false;
-          crlId = rs.getInt("CRL_ID");
-
-          long timeInSec = time.getTime() / 1000;
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBeforeInSec = rs.getLong("NBEFORE");
-            if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
-              ignore = true;
-            }
+        long timeInSec = time.getTime() / 1000;
+        if (!ignore && ignoreNotYetValidCert) {
+          long notBeforeInSec = entry.getNotBefore();
+          if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
+            ignore = true;
           }
+        }
 
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("NAFTER");
-            if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
-              ignore = true;
-            }
+        if (!ignore && ignoreExpiredCert) {
+          long notAfterInSec = entry.getNotAfter();
+          if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
+            ignore = true;
           }
+        }
 
-          if (!ignore) {
-            if (includeCertHash) {
-              b64CertHash = rs.getString("HASH");
-            }
+        if (!ignore) {
+          if (includeCertHash) {
+            certHash = entry.getCertHash();
+          }
 
-            revoked = rs.getBoolean("REV");
-            if (revoked) {
-              reason = rs.getInt("RR");
-              revTime = rs.getLong("RT");
-              if (includeRit) {
-                invalTime = rs.getLong("RIT");
-              }
+          revoked = entry.isRevoked();
+          if (revoked) {
+            reason = entry.getReason();
+            revTime = entry.getRevTime();
+            if (includeRit) {
+              invalTime = entry.getInvalidityTime();
             }
           }
-        } // end if (rs.next())
-      } catch (SQLException ex) {
-        throw datasource.translate(sql, ex);
-      } finally {
-        releaseDbResources(ps, rs);
-      }
+        }
+      } // end if (entry != null)
 
       if (crlId == 0) {
         crlId = issuer.getCrlId();
@@ -409,7 +415,6 @@ public class DbCertStatusStore extends OcspStore {
       } else if (ignore) {
         certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
       } else {
-        byte[] certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
         if (revoked) {
           Date invTime = (invalTime == 0 || invalTime == revTime)
               ? null : new Date(invalTime * 1000);
@@ -484,6 +489,45 @@ public class DbCertStatusStore extends OcspStore {
 
   } // method getCertStatus0
 
+  private CertStatusSnapshot.Entry getCertStatusEntry(int issuerId, BigInteger serialNumber,
+      boolean includeCertHash, boolean includeRit) throws DataAccessException {
+    String sql;
+    if (includeCertHash) {
+      sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
+    } else {
+      sql = includeRit ? sqlCs : sqlCsNoRit;
+    }
+
+    ResultSet rs = null;
+    PreparedStatement ps = datasource.prepareStatement(sql);
+
+    try {
+      ps.setInt(1, issuerId);
+      ps.setString(2, serialNumber.toString(16));
+      rs = ps.executeQuery();
+
+      if (!rs.next()) {
+        return null;
+      }
+
+      byte[] certHash = null;
+      if (includeCertHash) {
+        String b64CertHash = rs.getString("HASH");
+        certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
+      }
+
+      boolean revoked = rs.getBoolean("REV");
+      return new CertStatusSnapshot.Entry(rs.getInt("CRL_ID"), rs.getLong("NBEFORE"),
+          rs.getLong("NAFTER"), revoked, revoked ? rs.getInt("RR") : 0,
+          revoked ? rs.getLong("RT") : 0, (revoked && includeRit) ? rs.getLong("RIT") : 0,
+          certHash);
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method getCertStatusEntry
+
   /**
    * Borrow Prepared Statement.
    * @return the next idle preparedStatement, {@code null} will be returned if no
@@ -529,6 +573,15 @@ public class DbCertStatusStore extends OcspStore {
    * <li>caCerts: optional
    *   <p>
    *   CA certificate files to be included / excluded.</li>
+   * <li>statusSnapshot: optional
+   *   <p>
+   *   Whether the status of all certificates will be held in memory, default to false.
+   *   If true, the table CERT is loaded at startup and refreshed incrementally within
+   *   the updateInterval, and the status lookup does not access the database.</li>
+   * <li>statusSnapshotRebuildInterval: optional
+   *   <p>
+   *   Interval to reload the status snapshot completely, e.g. 12h, default to 1d. Deleted
+   *   certificates are removed from the snapshot only by the complete reload.</li>
    *  </ul>
    * @param datasource DataSource.
    */
@@ -536,14 +589,29 @@ public class DbCertStatusStore extends OcspStore {
   public void init(Map<String, ? extends Object> sourceConf, DataSourceWrapper datasource)
       throws OcspStoreException {
     OcspServerConf.CaCerts caCerts = null;
+    boolean useStatusSnapshot = false;
+    Validity snapshotRebuildInterval = new Validity(1, Validity.Unit.DAY);
     if (sourceConf != null) {
       Object objValue = sourceConf.get("caCerts");
       if (objValue != null) {
         caCerts = JSON.parseObject(JSON.toJSONBytes(objValue), OcspServerConf.CaCerts.class);
       }
+
+      objValue = sourceConf.get("statusSnapshot");
+      if (objValue != null) {
+        useStatusSnapshot = (objValue instanceof Boolean) ? (Boolean) objValue
+            : Boolean.parseBoolean(objValue.toString());
+      }
+
+      objValue = sourceConf.get("statusSnapshotRebuildInterval");
+      if (objValue != null) {
+        snapshotRebuildInterval = Validity.getInstance(objValue.toString());
+      }
     }
 
     this.datasource = Args.notNull(datasource, "datasource");
+    this.statusSnapshot = useStatusSnapshot ? new CertStatusSnapshot(datasource,
+        snapshotRebuildInterval.approxMinutes() * 60 * 1000) : null;
 
     sqlCs = datasource.buildSelectFirstSql(1,
         "NBEFORE,NAFTER,REV,RR,RT,RIT,CRL_ID FROM CERT WHERE IID=? AND SN=?");
@@ -555,6 +623,8 @@ public class DbCertStatusStore extends OcspStore {
     sqlCsNoRitWithCertHash = datasource.buildSelectFirstSql(1,
         "NBEFORE,NAFTER,REV,RR,RT,HASH,CRL_ID FROM CERT WHERE IID=? AND SN=?");
 
+    sqlSerialNumbers = "SN FROM CERT WHERE IID=? AND SN>?";
+
     try {
       this.certHashAlgo = getCertHashAlgo(datasource);
     } catch (DataAccessException ex) {
@@ -615,6 +685,11 @@ public class DbCertStatusStore extends OcspStore {
     }
   }
 
+  @Override
+  public boolean supportsIssuerChangeNotification() {
+    return true;
+  }
+
   @Override
   public boolean knowsIssuer(RequestIssuer reqIssuer) {
     return issuerStore != null && null != issuerStore.getIssuerForFp(reqIssuer);
@@ -629,6 +704,60 @@ public class DbCertStatusStore extends OcspStore {
     return (issuer == null) ? null : issuer.getCert();
   }
 
+  @Override
+  public List<X509Cert> getIssuerCerts() {
+    if (issuerStore == null) {
+      return Collections.emptyList();
+    }
+
+    List<IssuerEntry> issuers = issuerStore.getIssuers();
+    List<X509Cert> certs = new ArrayList<>(issuers.size());
+    for (IssuerEntry issuer : issuers) {
+      certs.add(issuer.getCert());
+    }
+    return certs;
+  } // method getIssuerCerts
+
+  @Override
+  public List<BigInteger> getSerialNumbers(X509Cert issuerCert, BigInteger lastSerialNumber,
+      int numEntries) throws OcspStoreException {
+    Integer issuerId = null;
+    for (IssuerEntry issuer : issuerStore.getIssuers()) {
+      if (issuer.getCert().equals(issuerCert)) {
+        issuerId = issuer.getId();
+        break;
+      }
+    }
+
+    if (issuerId == null) {
+      return Collections.emptyList();
+    }
+
+    // the (IID,SN) is unique and indexed, and SN is the hex string of the serial number.
+    final String sql = datasource.buildSelectFirstSql(numEntries, "SN ASC", sqlSerialNumbers);
+    ResultSet rs = null;
+    try {
+      PreparedStatement ps = preparedStatement(sql);
+      try {
+        ps.setInt(1, issuerId);
+        ps.setString(2, lastSerialNumber == null ? "" : lastSerialNumber.toString(16));
+        rs = ps.executeQuery();
+
+        List<BigInteger> serialNumbers = new ArrayList<>(numEntries);
+        while (rs.next()) {
+          serialNumbers.add(new BigInteger(rs.getString("SN"), 16));
+        }
+        return serialNumbers;
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseDbResources(ps, rs);
+      }
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  } // method getSerialNumbers
+
   protected boolean isInitialized() {
     return initialized;
   }
@@ -0,0 +1,619 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ocsp.server.store.ResponseMemoryCache.CachedResponse;
+import org.xipki.security.X509Cert;
+import org.xipki.security.util.X509Util;
+import org.xipki.util.Args;
+import org.xipki.util.IoUtil;
+import org.xipki.util.LogUtil;
+
+/**
+ * File-based backend of the {@link ResponseCacher}. The responses are appended to a
+ * memory-mapped segment file, and located via an open-addressing index keyed by the
+ * response id. Replaced and expired responses are removed by compacting the segment
+ * into a new file. The issuer certificates are saved in the sub-directory issuers.
+ *
+ * <p>Segment layout: header (magic, version, end of the last record), followed by the
+ * records (length, id, issuer id, ident, thisUpdate, nextUpdate, response).
+ *
+ * <p>The compaction copies the records into a new segment file without blocking the readers
+ * and writers, since the records written before are not modified any more. Only the records
+ * appended during the copy are copied while holding the write lock, before the new segment is
+ * swapped in. If the segment is full, the compaction is started in the background and the
+ * responses are not cached until it is finished.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class FileResponseStore implements Closeable {
+
+  /**
+   * Open-addressing index from the response id to the offset of its record.
+   */
+  private static class Index {
+
+    // slot is free if offsets[slot] == 0
+    private long[] ids = new long[1024];
+
+    private int[] offsets = new int[1024];
+
+    private int size;
+
+    // number of bytes used by replaced records
+    private long garbage;
+
+    int get(long id) {
+      return offsets[findSlot(id)];
+    }
+
+    /**
+     * Indexes the record at the given offset.
+     * @param buf
+     *          Buffer containing the records, used to get the length of the replaced record.
+     */
+    void put(long id, int offset, ByteBuffer buf) {
+      if ((size + 1) * 4 > offsets.length * 3) {
+        long[] oldIds = ids;
+        int[] oldOffsets = offsets;
+        ids = new long[oldIds.length << 1];
+        offsets = new int[oldOffsets.length << 1];
+        for (int i = 0; i < oldOffsets.length; i++) {
+          if (oldOffsets[i] != 0) {
+            int slot = findSlot(oldIds[i]);
+            ids[slot] = oldIds[i];
+            offsets[slot] = oldOffsets[i];
+          }
+        }
+      }
+
+      int slot = findSlot(id);
+      if (offsets[slot] == 0) {
+        size++;
+      } else {
+        garbage += buf.getInt(offsets[slot]);
+      }
+
+      ids[slot] = id;
+      offsets[slot] = offset;
+    } // method put
+
+    private int findSlot(long id) {
+      int mask = offsets.length - 1;
+      int slot = (int) (id ^ (id >>> 32)) & mask;
+      while (offsets[slot] != 0 && ids[slot] != id) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+  } // class Index
+
+  private static final Logger LOG = LoggerFactory.getLogger(FileResponseStore.class);
+
+  private static final int MAGIC = 0x584F4352; // XOCR
+
+  // version 1 saved the issuer id in 2 bytes
+  private static final int VERSION = 2;
+
+  private static final int HEADER_SIZE = 16;
+
+  // offset of the end position in the header
+  private static final int OFFSET_END = 8;
+
+  // length(4) + id(8) + iid(4) + identLen(2) + thisUpdate(8) + nextUpdate(8) + respLen(4)
+  private static final int RECORD_OVERHEAD = 38;
+
+  // offset of identLen in the record
+  private static final int OFFSET_IDENT_LEN = 16;
+
+  private static final String SEGMENT_FILENAME = "responses.seg";
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // only one compaction at a time
+  private final Lock compactLock = new ReentrantLock();
+
+  private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+
+  private final ExecutorService compactExecutor;
+
+  private final File dir;
+
+  private final File issuersDir;
+
+  private final int segmentSize;
+
+  private RandomAccessFile raf;
+
+  private MappedByteBuffer buffer;
+
+  // end of the last record
+  private int end;
+
+  private Index index;
+
+  /**
+   * Constructor.
+   * @param dir
+   *          Directory of the files.
+   * @param segmentSize
+   *          Size of the segment file in bytes.
+   * @throws IOException
+   *           if the segment file cannot be opened.
+   */
+  FileResponseStore(File dir, int segmentSize) throws IOException {
+    this.dir = Args.notNull(dir, "dir");
+    this.segmentSize = Args.min(segmentSize, "segmentSize", 1024 * 1024);
+    this.issuersDir = new File(dir, "issuers");
+    this.issuersDir.mkdirs();
+
+    open(new File(dir, SEGMENT_FILENAME));
+
+    this.compactExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ocsp-response-compactor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  } // constructor
+
+  List<IssuerEntry> loadIssuers() throws IOException, CertificateException {
+    List<IssuerEntry> issuers = new LinkedList<>();
+    File[] files = issuersDir.listFiles();
+    if (files == null) {
+      return issuers;
+    }
+
+    for (File file : files) {
+      String name = file.getName();
+      if (!name.endsWith(".der")) {
+        continue;
+      }
+
+      int id = Integer.parseInt(name.substring(0, name.length() - 4));
+      X509Cert cert = X509Util.parseCert(IoUtil.read(file));
+      issuers.add(new IssuerEntry(id, cert));
+    }
+    return issuers;
+  } // method loadIssuers
+
+  void saveIssuer(int id, X509Cert cert) throws IOException {
+    IoUtil.save(new File(issuersDir, id + ".der"), cert.getEncoded());
+  }
+
+  CachedResponse get(long id, int issuerId, byte[] ident) {
+    lock.readLock().lock();
+    try {
+      if (buffer == null) {
+        return null;
+      }
+
+      int offset = index.get(id);
+      if (offset == 0) {
+        return null;
+      }
+
+      ByteBuffer buf = buffer.duplicate();
+      buf.position(offset + 12);
+      int iid = buf.getInt();
+      byte[] recIdent = new byte[buf.getShort() & 0xFFFF];
+      buf.get(recIdent);
+      if (iid != issuerId || !Arrays.equals(ident, recIdent)) {
+        return null;
+      }
+
+      long thisUpdate = buf.getLong();
+      long nextUpdate = buf.getLong();
+      byte[] response = new byte[buf.getInt()];
+      buf.get(response);
+      return new CachedResponse(response, thisUpdate, nextUpdate);
+    } finally {
+      lock.readLock().unlock();
+    }
+  } // method get
+
+  void put(long id, int issuerId, byte[] ident, long thisUpdate, long nextUpdate,
+      byte[] response) {
+    int len = RECORD_OVERHEAD + ident.length + response.length;
+
+    lock.writeLock().lock();
+    try {
+      if (buffer == null) {
+        return;
+      }
+
+      if (end + len > segmentSize) {
+        if (index.garbage > 0) {
+          // remove the replaced responses in the background
+          scheduleCompaction();
+        }
+
+        // the responses are only cached, drop it if the segment is full.
+        LOG.warn("segment file is full, could not cache OCSP response iid={}", issuerId);
+        return;
+      }
+
+      writeRecord(buffer, end, len, id, issuerId, ident, thisUpdate, nextUpdate, response);
+      index.put(id, end, buffer);
+      end += len;
+      buffer.putInt(OFFSET_END, end);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  } // method put
+
+  /**
+   * Removes the expired and replaced responses by writing the remaining ones to a new
+   * segment file.
+   * @param maxThisUpdate
+   *          Responses with thisUpdate before it are removed.
+   * @param minNextUpdate
+   *          Responses with nextUpdate before it are removed.
+   * @return number of removed responses.
+   * @throws IOException
+   *           if IO error occurs.
+   */
+  int compact(long maxThisUpdate, long minNextUpdate) throws IOException {
+    compactLock.lock();
+    try {
+      return compact0(maxThisUpdate, minNextUpdate);
+    } finally {
+      compactLock.unlock();
+    }
+  } // method compact
+
+  private void scheduleCompaction() {
+    if (!compactionScheduled.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      compactExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            compact(Long.MIN_VALUE, Long.MIN_VALUE);
+          } catch (Throwable th) {
+            LogUtil.error(LOG, th, "could not compact the segment file");
+          } finally {
+            compactionScheduled.set(false);
+          }
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      // store has been closed
+      compactionScheduled.set(false);
+    }
+  } // method scheduleCompaction
+
+  private int compact0(long maxThisUpdate, long minNextUpdate) throws IOException {
+    // snapshot of the records written so far. These records will not be changed, so they can
+    // be copied without holding the lock.
+    final MappedByteBuffer oldBuffer;
+    final int oldEnd;
+    final long[] oldIds;
+    final int[] oldOffsets;
+
+    lock.readLock().lock();
+    try {
+      if (buffer == null) {
+        return 0;
+      }
+
+      oldBuffer = buffer;
+      oldEnd = end;
+      oldIds = index.ids.clone();
+      oldOffsets = index.offsets.clone();
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    File file = new File(dir, SEGMENT_FILENAME);
+    File tmpFile = new File(dir, SEGMENT_FILENAME + ".tmp");
+    tmpFile.delete();
+
+    RandomAccessFile tmpRaf = new RandomAccessFile(tmpFile, "rw");
+    MappedByteBuffer tmpBuffer = null;
+    boolean swapped = false;
+    try {
+      tmpRaf.setLength(segmentSize);
+      tmpBuffer = tmpRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      writeHeader(tmpBuffer);
+
+      Index tmpIndex = new Index();
+      int tmpEnd = HEADER_SIZE;
+      int removed = 0;
+      for (int slot = 0; slot < oldOffsets.length; slot++) {
+        int offset = oldOffsets[slot];
+        if (offset == 0) {
+          continue;
+        }
+
+        int identLen = oldBuffer.getShort(offset + OFFSET_IDENT_LEN) & 0xFFFF;
+        long thisUpdate = oldBuffer.getLong(offset + RECORD_OVERHEAD - 20 + identLen);
+        long nextUpdate = oldBuffer.getLong(offset + RECORD_OVERHEAD - 12 + identLen);
+        if (thisUpdate < maxThisUpdate || (nextUpdate != 0 && nextUpdate < minNextUpdate)) {
+          removed++;
+          continue;
+        }
+
+        tmpEnd = copyRecord(oldBuffer, offset, tmpBuffer, tmpEnd);
+        tmpIndex.put(oldIds[slot], tmpEnd - oldBuffer.getInt(offset), tmpBuffer);
+      }
+
+      lock.writeLock().lock();
+      try {
+        if (buffer != oldBuffer) {
+          // store has been closed
+          return 0;
+        }
+
+        // copy the records appended during the copy above
+        for (int slot = 0; slot < index.offsets.length; slot++) {
+          int offset = index.offsets[slot];
+          if (offset < oldEnd) {
+            continue;
+          }
+
+          int len = buffer.getInt(offset);
+          if (tmpEnd + len > segmentSize) {
+            LOG.warn("segment file is full, drop OCSP response id={}", index.ids[slot]);
+            continue;
+          }
+
+          tmpEnd = copyRecord(buffer, offset, tmpBuffer, tmpEnd);
+          tmpIndex.put(index.ids[slot], tmpEnd - len, tmpBuffer);
+        }
+
+        tmpBuffer.putInt(OFFSET_END, tmpEnd);
+        tmpBuffer.force();
+
+        raf.close();
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        raf = tmpRaf;
+        buffer = tmpBuffer;
+        end = tmpEnd;
+        index = tmpIndex;
+        swapped = true;
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      // no reader uses the old buffer any more
+      unmap(oldBuffer);
+      LOG.info("compacted segment file {}: removed {} responses, {} of {} bytes used",
+          file, removed, end, segmentSize);
+      return removed;
+    } finally {
+      if (!swapped) {
+        if (tmpBuffer != null) {
+          unmap(tmpBuffer);
+        }
+        tmpRaf.close();
+        tmpFile.delete();
+      }
+    }
+  } // method compact0
+
+  int size() {
+    lock.readLock().lock();
+    try {
+      return index.size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  long getGarbage() {
+    lock.readLock().lock();
+    try {
+      return index.garbage;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Waits until the compaction scheduled so far, if any, has finished.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   * @throws ExecutionException
+   *           if the store has been closed.
+   */
+  void awaitScheduledCompaction() throws InterruptedException, ExecutionException {
+    // the single compaction thread processes the tasks in order
+    compactExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }).get();
+  } // method awaitScheduledCompaction
+
+  @Override
+  public void close() {
+    compactExecutor.shutdown();
+    try {
+      compactExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    // wait for the running compaction
+    compactLock.lock();
+    lock.writeLock().lock();
+    try {
+      if (raf != null) {
+        buffer.force();
+        unmap(buffer);
+        buffer = null;
+        raf.close();
+        raf = null;
+      }
+    } catch (IOException ex) {
+      LogUtil.warn(LOG, ex, "could not close segment file");
+    } finally {
+      lock.writeLock().unlock();
+      compactLock.unlock();
+    }
+  } // method close
+
+  private void open(File file) throws IOException {
+    boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+    raf = new RandomAccessFile(file, "rw");
+    if (raf.length() < segmentSize) {
+      raf.setLength(segmentSize);
+    }
+
+    int mapSize = (int) Math.min(Integer.MAX_VALUE, raf.length());
+    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+
+    if (!exists || buffer.getInt(0) != MAGIC) {
+      writeHeader(buffer);
+    } else if (buffer.getInt(4) != VERSION) {
+      // the responses are only cached, start with an empty segment.
+      LOG.warn("discard the responses in file {} of version {}", file, buffer.getInt(4));
+      writeHeader(buffer);
+    }
+
+    end = buffer.getInt(OFFSET_END);
+    index = new Index();
+
+    // rebuild the index
+    int offset = HEADER_SIZE;
+    while (offset < end) {
+      int len = buffer.getInt(offset);
+      if (len < RECORD_OVERHEAD || offset + len > end) {
+        LOG.warn("corrupted record at offset {} of file {}, ignore the rest", offset, file);
+        end = offset;
+        buffer.putInt(OFFSET_END, end);
+        break;
+      }
+
+      index.put(buffer.getLong(offset + 4), offset, buffer);
+      offset += len;
+    }
+
+    LOG.info("opened segment file {} with {} responses, {} of {} bytes used",
+        file, index.size, end, segmentSize);
+  } // method open
+
+  private static void writeHeader(ByteBuffer buf) {
+    buf.putInt(0, MAGIC);
+    buf.putInt(4, VERSION);
+    buf.putInt(OFFSET_END, HEADER_SIZE);
+  }
+
+  private static void writeRecord(ByteBuffer dest, int offset, int len, long id, int issuerId,
+      byte[] ident, long thisUpdate, long nextUpdate, byte[] response) {
+    ByteBuffer buf = dest.duplicate();
+    buf.position(offset);
+    buf.putInt(len);
+    buf.putLong(id);
+    buf.putInt(issuerId);
+    buf.putShort((short) ident.length);
+    buf.put(ident);
+    buf.putLong(thisUpdate);
+    buf.putLong(nextUpdate);
+    buf.putInt(response.length);
+    buf.put(response);
+  } // method writeRecord
+
+  /**
+   * Copies the record at {@code offset} of {@code src} to {@code destOffset} of {@code dest}.
+   * @return the end of the copied record in {@code dest}.
+   */
+  private static int copyRecord(ByteBuffer src, int offset, ByteBuffer dest, int destOffset) {
+    int len = src.getInt(offset);
+    ByteBuffer record = src.duplicate();
+    record.position(offset);
+    record.limit(offset + len);
+    ByteBuffer buf = dest.duplicate();
+    buf.position(destOffset);
+    buf.put(record);
+    return destOffset + len;
+  } // method copyRecord
+
+  /**
+   * Releases the memory mapping of the buffer without waiting for the garbage collector.
+   * The buffer must not be used any more.
+   */
+  private static void unmap(MappedByteBuffer buf) {
+    try {
+      // Java 9+: sun.misc.Unsafe.invokeCleaner(ByteBuffer)
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buf);
+      return;
+    } catch (NoSuchMethodException ex) {
+      // Java 8, see below
+    } catch (Throwable th) {
+      LOG.debug("could not unmap buffer: {}", th.getMessage());
+      return;
+    }
+
+    try {
+      // Java 8: ((sun.nio.ch.DirectBuffer) buf).cleaner().clean()
+      Method cleanerMethod = buf.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buf);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (Throwable th) {
+      LOG.debug("could not unmap buffer: {}", th.getMessage());
+    }
+  } // method unmap
+
+}
@@ -0,0 +1,96 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.CompareUtil;
+
+/**
+ * Key to look up the issuer by the hash algorithm and the hash of issuer's name and key. The
+ * encoding of the hash algorithm in the request is not part of the key.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+final class IssuerHashKey {
+
+  private final HashAlgo hashAlgo;
+
+  private final byte[] data;
+
+  private final int from;
+
+  private final int length;
+
+  private final int hashCode;
+
+  IssuerHashKey(HashAlgo hashAlgo, byte[] data) {
+    this(hashAlgo, data, 0, data.length);
+  }
+
+  private IssuerHashKey(HashAlgo hashAlgo, byte[] data, int from, int length) {
+    this.hashAlgo = hashAlgo;
+    this.data = data;
+    this.from = from;
+    this.length = length;
+
+    int hash = hashAlgo.hashCode();
+    for (int i = from; i < from + length; i++) {
+      hash = 31 * hash + data[i];
+    }
+    this.hashCode = hash;
+  } // constructor
+
+  /**
+   * Creates the key of the request issuer without copying the data.
+   * @param reqIssuer
+   *          The request issuer.
+   * @return the key, or {@code null} if the hash algorithm is not supported.
+   */
+  static IssuerHashKey of(RequestIssuer reqIssuer) {
+    HashAlgo hashAlgo = reqIssuer.hashAlgorithm();
+    if (hashAlgo == null) {
+      return null;
+    }
+
+    int from = reqIssuer.getNameHashFrom();
+    int length = reqIssuer.getFrom() + reqIssuer.getLength() - from;
+    return new IssuerHashKey(hashAlgo, reqIssuer.getData(), from, length);
+  } // method of
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    } else if (!(obj instanceof IssuerHashKey)) {
+      return false;
+    }
+
+    IssuerHashKey other = (IssuerHashKey) obj;
+    return hashCode == other.hashCode && hashAlgo == other.hashAlgo && length == other.length
+        && CompareUtil.areEqual(data, from, other.data, other.from, length);
+  }
+
+}
@@ -20,54 +20,89 @@ package org.xipki.ocsp.server.store;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.security.HashAlgo;
 
 /**
  * Issuer store.
  *
+ * <p>The issuers are indexed by the id and by the hash of issuer's name and key for every hash
+ * algorithm. The index is immutable and replaced as a whole on every change, so that the lookups
+ * need no synchronization.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
 class IssuerStore {
 
-  private List<IssuerEntry> issuers = new ArrayList<>();
+  private static class Index {
+
+    private final List<IssuerEntry> issuers;
+
+    private final Map<Integer, IssuerEntry> idMap;
+
+    private final Set<Integer> ids;
+
+    private final Map<IssuerHashKey, IssuerEntry> hashMap;
+
+    Index(List<IssuerEntry> issuers) {
+      Map<Integer, IssuerEntry> newIdMap = new HashMap<>();
+      for (IssuerEntry issuer : issuers) {
+        int id = issuer.getId();
+        if (newIdMap.containsKey(id)) {
+          throw new IllegalArgumentException(
+              "issuer with the same id " + id + " duplicated");
+        }
+        newIdMap.put(id, issuer);
+      }
+
+      HashAlgo[] hashAlgos = HashAlgo.values();
+      Map<IssuerHashKey, IssuerEntry> newHashMap =
+          new HashMap<>(issuers.size() * hashAlgos.length * 4 / 3 + 1);
+      for (IssuerEntry issuer : issuers) {
+        for (HashAlgo hashAlgo : hashAlgos) {
+          IssuerHashKey key = new IssuerHashKey(hashAlgo, issuer.getEncodedHash(hashAlgo));
+          // the first issuer wins, as in the sequential search
+          if (!newHashMap.containsKey(key)) {
+            newHashMap.put(key, issuer);
+          }
+        }
+      }
+
+      this.issuers = Collections.unmodifiableList(new ArrayList<>(issuers));
+      this.idMap = newIdMap;
+      this.ids = Collections.unmodifiableSet(newIdMap.keySet());
+      this.hashMap = newHashMap;
+    } // constructor
+
+  } // class Index
 
-  private Set<Integer> ids = Collections.emptySet();
+  private volatile Index index = new Index(Collections.<IssuerEntry>emptyList());
 
   private Map<Integer, CrlInfo> crlInfos = new HashMap<>();
 
   public IssuerStore() {
   }
 
-  public void setIssuers(List<IssuerEntry> issuers) {
-    Set<Integer> newIds = new HashSet<>();
-    for (IssuerEntry issuer : issuers) {
-      int id = issuer.getId();
-      if (newIds.contains(id)) {
-        throw new IllegalArgumentException(
-            "issuer with the same id " + id + " duplicated");
-      }
-      newIds.add(id);
-    }
-
-    // to accelerate the switch
-    List<IssuerEntry> copy = new ArrayList<IssuerEntry>(issuers);
-    this.ids = Collections.unmodifiableSet(newIds);
-    this.issuers = copy;
-  } // method setIssuers
+  public synchronized void setIssuers(List<IssuerEntry> issuers) {
+    this.index = new Index(issuers);
+  }
 
   public int size() {
-    return ids.size();
+    return index.ids.size();
   }
 
   public Set<Integer> getIds() {
-    return ids;
+    return index.ids;
+  }
+
+  public List<IssuerEntry> getIssuers() {
+    return index.issuers;
   }
 
   public Integer getIssuerIdForFp(RequestIssuer reqIssuer) {
@@ -76,31 +111,18 @@ class IssuerStore {
   }
 
   public IssuerEntry getIssuerForId(int id) {
-    for (IssuerEntry entry : issuers) {
-      if (entry.getId() == id) {
-        return entry;
-      }
-    }
-
-    return null;
+    return index.idMap.get(id);
   }
 
   public IssuerEntry getIssuerForFp(RequestIssuer reqIssuer) {
-    for (IssuerEntry entry : issuers) {
-      if (entry.matchHash(reqIssuer)) {
-        return entry;
-      }
-    }
-
-    return null;
+    IssuerHashKey key = IssuerHashKey.of(reqIssuer);
+    return (key == null) ? null : index.hashMap.get(key);
   }
 
-  public void addIssuer(IssuerEntry issuer) {
-    this.issuers.add(issuer);
-
-    Set<Integer> newIds = new HashSet<>(this.ids);
-    newIds.add(issuer.getId());
-    this.ids = Collections.unmodifiableSet(newIds);
+  public synchronized void addIssuer(IssuerEntry issuer) {
+    List<IssuerEntry> newIssuers = new ArrayList<>(index.issuers);
+    newIssuers.add(issuer);
+    this.index = new Index(newIssuers);
   }
 
   public void setCrlInfos(Map<Integer, CrlInfo> crlInfos) {
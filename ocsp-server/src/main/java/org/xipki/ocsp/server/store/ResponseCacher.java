@@ -18,20 +18,27 @@
 package org.xipki.ocsp.server.store;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.CertificateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.crypto.Digest;
 import org.slf4j.Logger;
@@ -42,6 +49,8 @@ import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.ocsp.api.OcspRespWithCacheInfo;
 import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
 import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.store.ResponseMemoryCache.CacheKey;
+import org.xipki.ocsp.server.store.ResponseMemoryCache.CachedResponse;
 import org.xipki.security.AlgorithmCode;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.X509Cert;
@@ -56,7 +65,8 @@ import org.xipki.util.concurrent.ConcurrentBag;
 import org.xipki.util.concurrent.ConcurrentBagEntry;
 
 /**
- * Response cacher.
+ * Response cacher. The responses are saved either in a database or in a
+ * memory-mapped file ({@link FileResponseStore}).
  *
  * @author Lijun Liao
  * @since 2.2.0
@@ -81,6 +91,8 @@ public class ResponseCacher implements Closeable {
   private static final String SQL_ADD_RESP = "INSERT INTO OCSP (ID,IID,IDENT,"
       + "THIS_UPDATE,NEXT_UPDATE,RESP) VALUES (?,?,?,?,?,?)";
 
+  private static final String SQL_SELECT_RESP_ID = "SELECT ID FROM OCSP WHERE ID=?";
+
   private static final String SQL_UPDATE_RESP = "UPDATE OCSP SET THIS_UPDATE=?,"
       + "NEXT_UPDATE=?,RESP=? WHERE ID=?";
 
@@ -99,6 +111,42 @@ public class ResponseCacher implements Closeable {
 
   } // class StoreUpdateService
 
+  private class PendingResponsesWriter implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        flushPendingResponses();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error while calling flushPendingResponses()");
+      }
+    }
+
+  } // class PendingResponsesWriter
+
+  private static class PendingResponse {
+
+    private final int issuerId;
+
+    private final String ident;
+
+    private final long thisUpdate;
+
+    private final long nextUpdate;
+
+    private final byte[] response;
+
+    PendingResponse(int issuerId, String ident, long thisUpdate, long nextUpdate,
+        byte[] response) {
+      this.issuerId = issuerId;
+      this.ident = ident;
+      this.thisUpdate = thisUpdate;
+      this.nextUpdate = nextUpdate;
+      this.response = response;
+    }
+
+  } // class PendingResponse
+
   private class ExpiredResponsesCleaner implements Runnable {
 
     private final Object lock = new Object();
@@ -115,7 +163,14 @@ public class ResponseCacher implements Closeable {
         inProcess.set(true);
         long maxThisUpdate = System.currentTimeMillis() / 1000 - validity;
         try {
-          int num = removeExpiredResponses(maxThisUpdate);
+          if (memoryCache != null) {
+            int num = memoryCache.removeExpired(maxThisUpdate, minNextUpdate());
+            LOG.info("removed {} response from memory cache", num);
+          }
+
+          int num = (fileStore != null)
+              ? fileStore.compact(maxThisUpdate, minNextUpdate())
+              : removeExpiredResponses(maxThisUpdate);
           LOG.info("removed {} response with thisUpdate < {}", num, maxThisUpdate);
         } catch (Throwable th) {
           LogUtil.error(LOG, th, "could not remove expired responses");
@@ -138,8 +193,12 @@ public class ResponseCacher implements Closeable {
 
   private final AtomicBoolean onService;
 
+  private final ResponseMemoryCache memoryCache;
+
   private DataSourceWrapper datasource;
 
+  private FileResponseStore fileStore;
+
   private IssuerStore issuerStore = new IssuerStore();
 
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
@@ -148,13 +207,77 @@ public class ResponseCacher implements Closeable {
 
   private ScheduledFuture<?> issuerUpdater;
 
+  private ScheduledFuture<?> pendingResponsesWriter;
+
+  private final Object pendingResponsesLock = new Object();
+
+  // responses to be written to the database, null if the write-behind is deactivated.
+  private LinkedHashMap<Long, PendingResponse> pendingResponses;
+
+  private int maxPendingResponses;
+
+  private int writeInterval;
+
+  private final AtomicLong droppedResponses = new AtomicLong();
+
   public ResponseCacher(DataSourceWrapper datasource, boolean master, Validity validity) {
-    this.datasource = Args.notNull(datasource, "datasource");
+    this(datasource, master, validity, 0);
+  }
+
+  /**
+   * Constructor.
+   * @param datasource
+   *          Datasource of the cache database.
+   * @param master
+   *          Whether this is the master responder.
+   * @param validity
+   *          Validity of the cached responses.
+   * @param memoryCacheSize
+   *          Maximal size of the in-memory cache tier in bytes. Non-positive value
+   *          deactivates the in-memory cache tier.
+   */
+  public ResponseCacher(DataSourceWrapper datasource, boolean master, Validity validity,
+      long memoryCacheSize) {
+    this(Args.notNull(datasource, "datasource"), null, master, validity, memoryCacheSize);
+  }
+
+  /**
+   * Constructor.
+   * @param dir
+   *          Directory of the memory-mapped segment file.
+   * @param segmentSize
+   *          Size of the segment file in bytes.
+   * @param master
+   *          Whether this is the master responder.
+   * @param validity
+   *          Validity of the cached responses.
+   * @param memoryCacheSize
+   *          Maximal size of the in-memory cache tier in bytes. Non-positive value
+   *          deactivates the in-memory cache tier.
+   * @throws IOException
+   *           if the segment file cannot be opened.
+   */
+  public ResponseCacher(File dir, int segmentSize, boolean master, Validity validity,
+      long memoryCacheSize) throws IOException {
+    this(null, new FileResponseStore(dir, segmentSize), master, validity, memoryCacheSize);
+  }
+
+  private ResponseCacher(DataSourceWrapper datasource, FileResponseStore fileStore,
+      boolean master, Validity validity, long memoryCacheSize) {
+    this.memoryCache = memoryCacheSize > 0 ? new ResponseMemoryCache(memoryCacheSize) : null;
+    this.datasource = datasource;
+    this.fileStore = fileStore;
     this.master = master;
     this.validity = (int) (Args.notNull(validity, "validity").approxMinutes() * 60);
-    this.sqlSelectIssuerCert = datasource.buildSelectFirstSql(1, "CERT FROM ISSUER WHERE ID=?");
-    this.sqlSelectOcsp = datasource.buildSelectFirstSql(1,
-        "IID,IDENT,THIS_UPDATE,NEXT_UPDATE,RESP FROM OCSP WHERE ID=?");
+    if (datasource == null) {
+      this.sqlSelectIssuerCert = null;
+      this.sqlSelectOcsp = null;
+    } else {
+      this.sqlSelectIssuerCert =
+          datasource.buildSelectFirstSql(1, "CERT FROM ISSUER WHERE ID=?");
+      this.sqlSelectOcsp = datasource.buildSelectFirstSql(1,
+          "IID,IDENT,THIS_UPDATE,NEXT_UPDATE,RESP FROM OCSP WHERE ID=?");
+    }
     this.onService = new AtomicBoolean(false);
 
     this.idDigesters = new ConcurrentBag<>();
@@ -164,6 +287,24 @@ public class ResponseCacher implements Closeable {
     }
   }
 
+  /**
+   * Activates the write-behind of the responses. Must be called before {@link #init()}.
+   *
+   * @param maxPendingResponses
+   *          Maximal number of responses waiting to be written to the database.
+   *          Further responses are dropped instead of blocking the caller.
+   * @param writeInterval
+   *          Interval in milliseconds to write the waiting responses to the database.
+   */
+  public void setWriteBehind(int maxPendingResponses, int writeInterval) {
+    if (fileStore != null) {
+      throw new IllegalStateException("write-behind is not supported by the file store");
+    }
+    this.maxPendingResponses = Args.positive(maxPendingResponses, "maxPendingResponses");
+    this.writeInterval = Args.positive(writeInterval, "writeInterval");
+    this.pendingResponses = new LinkedHashMap<>();
+  }
+
   public boolean isOnService() {
     return onService.get() && issuerStore != null;
   }
@@ -181,15 +322,15 @@ public class ResponseCacher implements Closeable {
     // check every 600 seconds (10 minutes)
     this.issuerUpdater = scheduledThreadPoolExecutor.scheduleAtFixedRate(
         new IssuerUpdater(), 448, 600, TimeUnit.SECONDS);
+
+    if (pendingResponses != null) {
+      this.pendingResponsesWriter = scheduledThreadPoolExecutor.scheduleWithFixedDelay(
+          new PendingResponsesWriter(), writeInterval, writeInterval, TimeUnit.MILLISECONDS);
+    }
   } // method init
 
   @Override
   public void close() {
-    if (datasource != null) {
-      datasource.close();
-      datasource = null;
-    }
-
     if (responseCleaner != null) {
       responseCleaner.cancel(false);
       responseCleaner = null;
@@ -200,6 +341,11 @@ public class ResponseCacher implements Closeable {
       issuerUpdater = null;
     }
 
+    if (pendingResponsesWriter != null) {
+      pendingResponsesWriter.cancel(false);
+      pendingResponsesWriter = null;
+    }
+
     if (scheduledThreadPoolExecutor != null) {
       scheduledThreadPoolExecutor.shutdown();
       while (!scheduledThreadPoolExecutor.isTerminated()) {
@@ -211,6 +357,21 @@ public class ResponseCacher implements Closeable {
       }
       scheduledThreadPoolExecutor = null;
     }
+
+    if (fileStore != null) {
+      fileStore.close();
+      fileStore = null;
+    }
+
+    if (datasource != null) {
+      // write the remaining responses before closing the datasource
+      if (pendingResponses != null) {
+        flushPendingResponses();
+      }
+
+      datasource.close();
+      datasource = null;
+    }
   } // method close
 
   public Integer getIssuerId(RequestIssuer reqIssuer) {
@@ -230,6 +391,22 @@ public class ResponseCacher implements Closeable {
       }
     }
 
+    if (fileStore != null) {
+      int id = 1;
+      for (Integer existingId : issuerStore.getIds()) {
+        id = Math.max(id, existingId + 1);
+      }
+
+      try {
+        fileStore.saveIssuer(id, issuerCert);
+      } catch (IOException ex) {
+        throw new DataAccessException("could not save issuer: " + ex.getMessage(), ex);
+      }
+
+      issuerStore.addIssuer(new IssuerEntry(id, issuerCert));
+      return id;
+    }
+
     byte[] encodedCert = issuerCert.getEncoded();
     String sha1FpCert = HashAlgo.SHA1.base64Hash(encodedCert);
 
@@ -265,9 +442,38 @@ public class ResponseCacher implements Closeable {
 
   public OcspRespWithCacheInfo getOcspResponse(int issuerId, BigInteger serialNumber,
       AlgorithmCode sigAlg) throws DataAccessException {
-    final String sql = sqlSelectOcsp;
     byte[] identBytes = buildIdent(serialNumber, sigAlg);
+    CacheKey cacheKey = null;
+    if (memoryCache != null) {
+      cacheKey = new CacheKey(issuerId, identBytes);
+      CachedResponse cachedResp = memoryCache.get(cacheKey, minNextUpdate());
+      if (cachedResp != null) {
+        return toOcspRespWithCacheInfo(cachedResp.getResponse(), cachedResp.getThisUpdate(),
+            cachedResp.getNextUpdate());
+      }
+    }
+
     long id = deriveId(issuerId, identBytes);
+
+    if (fileStore != null) {
+      CachedResponse cachedResp = fileStore.get(id, issuerId, identBytes);
+      if (cachedResp == null) {
+        return null;
+      }
+
+      long nextUpdate = cachedResp.getNextUpdate();
+      if (nextUpdate != 0 && nextUpdate < minNextUpdate()) {
+        return null;
+      }
+
+      if (memoryCache != null) {
+        memoryCache.put(cacheKey, cachedResp);
+      }
+      return toOcspRespWithCacheInfo(cachedResp.getResponse(), cachedResp.getThisUpdate(),
+          nextUpdate);
+    }
+
+    final String sql = sqlSelectOcsp;
     PreparedStatement ps = datasource.prepareStatement(sql);
     ResultSet rs = null;
 
@@ -291,10 +497,7 @@ public class ResponseCacher implements Closeable {
 
       long nextUpdate = rs.getLong("NEXT_UPDATE");
       if (nextUpdate != 0) {
-        // nextUpdate must be at least in 600 seconds
-        long minNextUpdate = System.currentTimeMillis() / 1000 + 600;
-
-        if (nextUpdate < minNextUpdate) {
+        if (nextUpdate < minNextUpdate()) {
           return null;
         }
       }
@@ -302,11 +505,10 @@ public class ResponseCacher implements Closeable {
       long thisUpdate = rs.getLong("THIS_UPDATE");
       String b64Resp = rs.getString("RESP");
       byte[] resp = Base64.decodeFast(b64Resp);
-      ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate);
-      if (nextUpdate != 0) {
-        cacheInfo.setNextUpdate(nextUpdate);
+      if (memoryCache != null) {
+        memoryCache.put(cacheKey, new CachedResponse(resp, thisUpdate, nextUpdate));
       }
-      return new OcspRespWithCacheInfo(resp, cacheInfo);
+      return toOcspRespWithCacheInfo(resp, thisUpdate, nextUpdate);
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
     } finally {
@@ -314,6 +516,20 @@ public class ResponseCacher implements Closeable {
     }
   } // method getOcspResponse
 
+  private static OcspRespWithCacheInfo toOcspRespWithCacheInfo(byte[] resp, long thisUpdate,
+      long nextUpdate) {
+    ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate);
+    if (nextUpdate != 0) {
+      cacheInfo.setNextUpdate(nextUpdate);
+    }
+    return new OcspRespWithCacheInfo(resp, cacheInfo);
+  }
+
+  private static long minNextUpdate() {
+    // nextUpdate must be at least in 600 seconds
+    return System.currentTimeMillis() / 1000 + 600;
+  }
+
   public void storeOcspResponse(int issuerId, BigInteger serialNumber, long thisUpdate,
       Long nextUpdate, AlgorithmCode sigAlgCode, byte[] response) {
     long nowInSec = System.currentTimeMillis() / 1000;
@@ -326,7 +542,36 @@ public class ResponseCacher implements Closeable {
     }
 
     byte[] identBytes = buildIdent(serialNumber, sigAlgCode);
+    if (memoryCache != null) {
+      memoryCache.put(new CacheKey(issuerId, identBytes),
+          new CachedResponse(response, thisUpdate, nextUpdate));
+    }
+
+    if (fileStore != null) {
+      fileStore.put(deriveId(issuerId, identBytes), issuerId, identBytes, thisUpdate,
+          nextUpdate, response);
+      return;
+    }
+
     String ident = Base64.encodeToString(identBytes);
+
+    if (pendingResponses != null) {
+      long id = deriveId(issuerId, identBytes);
+      PendingResponse pending =
+          new PendingResponse(issuerId, ident, thisUpdate, nextUpdate, response);
+      synchronized (pendingResponsesLock) {
+        // coalesce the responses with the same id, and drop the response if the queue is full
+        if (pendingResponses.size() < maxPendingResponses || pendingResponses.containsKey(id)) {
+          pendingResponses.put(id, pending);
+          return;
+        }
+      }
+
+      droppedResponses.incrementAndGet();
+      LOG.debug("dropped cached OCSP response iid={}, ident={}", issuerId, ident);
+      return;
+    }
+
     try {
       long id = deriveId(issuerId, identBytes);
 
@@ -387,6 +632,166 @@ public class ResponseCacher implements Closeable {
     }
   } // method storeOcspResponse
 
+  /**
+   * Writes the waiting responses to the database in batches. Responses which are already
+   * contained in the database are updated, the others are inserted.
+   */
+  private void flushPendingResponses() {
+    List<PendingResponse> responses;
+    List<Long> ids;
+    synchronized (pendingResponsesLock) {
+      if (pendingResponses.isEmpty()) {
+        return;
+      }
+
+      ids = new ArrayList<>(pendingResponses.keySet());
+      responses = new ArrayList<>(pendingResponses.values());
+      pendingResponses = new LinkedHashMap<>();
+    }
+
+    long start = System.currentTimeMillis();
+    String sql = null;
+    try {
+      Connection conn = datasource.getConnection();
+      PreparedStatement ps = null;
+      boolean autoCommitChanged = false;
+      try {
+        if (conn.getAutoCommit()) {
+          conn.setAutoCommit(false);
+          autoCommitChanged = true;
+        }
+
+        final int size = ids.size();
+
+        // update the existing responses
+        sql = SQL_UPDATE_RESP;
+        ps = datasource.prepareStatement(conn, sql);
+        for (int i = 0; i < size; i++) {
+          PendingResponse resp = responses.get(i);
+          int idx = 1;
+          ps.setLong(idx++, resp.thisUpdate);
+          ps.setLong(idx++, resp.nextUpdate);
+          ps.setString(idx++, Base64.encodeToString(resp.response));
+          ps.setLong(idx++, ids.get(i));
+          ps.addBatch();
+        }
+        int[] counts = ps.executeBatch();
+        datasource.releaseResources(ps, null, false);
+        ps = null;
+
+        // some drivers return SUCCESS_NO_INFO for batch updates, check whether the rows exist
+        boolean[] updated = new boolean[size];
+        for (int i = 0; i < size; i++) {
+          if (counts[i] == Statement.SUCCESS_NO_INFO) {
+            if (ps == null) {
+              sql = SQL_SELECT_RESP_ID;
+              ps = datasource.prepareStatement(conn, sql);
+            }
+
+            ps.setLong(1, ids.get(i));
+            ResultSet rs = ps.executeQuery();
+            try {
+              updated[i] = rs.next();
+            } finally {
+              rs.close();
+            }
+          } else {
+            updated[i] = counts[i] > 0;
+          }
+        }
+
+        if (ps != null) {
+          datasource.releaseResources(ps, null, false);
+          ps = null;
+        }
+
+        // insert the new responses
+        sql = SQL_ADD_RESP;
+        int numInserts = 0;
+        for (int i = 0; i < size; i++) {
+          if (updated[i]) {
+            continue;
+          }
+
+          if (ps == null) {
+            ps = datasource.prepareStatement(conn, sql);
+          }
+
+          PendingResponse resp = responses.get(i);
+          int idx = 1;
+          ps.setLong(idx++, ids.get(i));
+          ps.setInt(idx++, resp.issuerId);
+          ps.setString(idx++, resp.ident);
+          ps.setLong(idx++, resp.thisUpdate);
+          ps.setLong(idx++, resp.nextUpdate);
+          ps.setString(idx++, Base64.encodeToString(resp.response));
+          ps.addBatch();
+          numInserts++;
+        }
+
+        if (numInserts > 0) {
+          ps.executeBatch();
+        }
+
+        conn.commit();
+        LOG.debug("wrote {} cached OCSP responses ({} new) in {} ms", size, numInserts,
+            System.currentTimeMillis() - start);
+      } catch (SQLException ex) {
+        try {
+          conn.rollback();
+        } catch (SQLException ex2) {
+          LOG.warn("could not rollback: {}", ex2.getMessage());
+        }
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, null, false);
+        if (autoCommitChanged) {
+          try {
+            conn.setAutoCommit(true);
+          } catch (SQLException ex) {
+            LOG.warn("could not set autoCommit: {}", ex.getMessage());
+          }
+        }
+        datasource.returnConnection(conn);
+      }
+    } catch (DataAccessException ex) {
+      droppedResponses.addAndGet(ids.size());
+      LOG.info("could not cache {} OCSP responses: {}", ids.size(), ex.getMessage());
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("could not cache OCSP responses", ex);
+      }
+    }
+  } // method flushPendingResponses
+
+  /**
+   * Returns the statistics of the in-memory cache tier and the write-behind queue.
+   * @return the statistics, or {@code null} if neither the in-memory cache tier nor the
+   *         write-behind is activated.
+   */
+  public Map<String, Object> getStatistics() {
+    if (memoryCache == null && pendingResponses == null) {
+      return null;
+    }
+
+    Map<String, Object> stats = new LinkedHashMap<>();
+    if (memoryCache != null) {
+      stats.put("hits", memoryCache.getHits());
+      stats.put("misses", memoryCache.getMisses());
+      stats.put("evictions", memoryCache.getEvictions());
+      stats.put("entries", memoryCache.getNumEntries());
+      stats.put("size", memoryCache.getSize());
+      stats.put("maxSize", memoryCache.getMaxSize());
+    }
+
+    if (pendingResponses != null) {
+      synchronized (pendingResponsesLock) {
+        stats.put("pendingWrites", pendingResponses.size());
+      }
+      stats.put("droppedWrites", droppedResponses.get());
+    }
+    return stats;
+  } // method getStatistics
+
   private int removeExpiredResponses(long maxThisUpdate) throws DataAccessException {
     final String sql = SQL_DELETE_EXPIRED_RESP;
     PreparedStatement ps = null;
@@ -416,6 +821,19 @@ public class ResponseCacher implements Closeable {
    * @return whether the ResponseCacher is on service.
    */
   private boolean updateCacheStore0() {
+    if (fileStore != null) {
+      // the issuers are only changed by this instance
+      if (issuerStore.size() == 0) {
+        try {
+          issuerStore.setIssuers(fileStore.loadIssuers());
+        } catch (IOException | CertificateException ex) {
+          LogUtil.error(LOG, ex, "could not load issuers");
+          return false;
+        }
+      }
+      return true;
+    }
+
     try {
       if (this.issuerStore == null) {
         return initIssuerStore();
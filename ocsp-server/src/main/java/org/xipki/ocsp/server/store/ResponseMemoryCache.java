@@ -0,0 +1,235 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xipki.util.Args;
+
+/**
+ * Bounded in-memory tier of the {@link ResponseCacher}. The entries are evicted
+ * in LRU order if the total size exceeds the limit, and expired entries are
+ * removed on access and by {@link #removeExpired(long, long)}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class ResponseMemoryCache {
+
+  static class CacheKey {
+
+    private final int issuerId;
+
+    private final byte[] ident;
+
+    private final int hashCode;
+
+    CacheKey(int issuerId, byte[] ident) {
+      this.issuerId = issuerId;
+      this.ident = ident;
+      this.hashCode = 31 * issuerId + Arrays.hashCode(ident);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+
+      CacheKey other = (CacheKey) obj;
+      return issuerId == other.issuerId && Arrays.equals(ident, other.ident);
+    }
+
+  } // class CacheKey
+
+  static class CachedResponse {
+
+    private final byte[] response;
+
+    private final long thisUpdate;
+
+    // 0 if not present
+    private final long nextUpdate;
+
+    CachedResponse(byte[] response, long thisUpdate, long nextUpdate) {
+      this.response = response;
+      this.thisUpdate = thisUpdate;
+      this.nextUpdate = nextUpdate;
+    }
+
+    byte[] getResponse() {
+      return response;
+    }
+
+    long getThisUpdate() {
+      return thisUpdate;
+    }
+
+    long getNextUpdate() {
+      return nextUpdate;
+    }
+
+  } // class CachedResponse
+
+  // estimated overhead of an entry (key, value, map node) in bytes
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private final long maxSize;
+
+  private final LinkedHashMap<CacheKey, CachedResponse> entries;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  private long size;
+
+  /**
+   * Constructor.
+   * @param maxSize
+   *          Maximal total size of the cached entries in bytes.
+   */
+  ResponseMemoryCache(long maxSize) {
+    this.maxSize = Args.positive(maxSize, "maxSize");
+    this.entries = new LinkedHashMap<>(1024, 0.75f, true);
+  }
+
+  /**
+   * Returns the cached response.
+   * @param key
+   *          Key of the response.
+   * @param minNextUpdate
+   *          Minimal nextUpdate (seconds since January 1, 1970, 00:00:00 GMT). Responses
+   *          with nextUpdate before it are treated as expired.
+   * @return the cached response, {@code null} if not cached or expired.
+   */
+  CachedResponse get(CacheKey key, long minNextUpdate) {
+    CachedResponse resp;
+    synchronized (entries) {
+      resp = entries.get(key);
+      if (resp != null && resp.nextUpdate != 0 && resp.nextUpdate < minNextUpdate) {
+        remove(key);
+        evictions.incrementAndGet();
+        resp = null;
+      }
+    }
+
+    (resp == null ? misses : hits).incrementAndGet();
+    return resp;
+  } // method get
+
+  void put(CacheKey key, CachedResponse resp) {
+    synchronized (entries) {
+      CachedResponse old = entries.put(key, resp);
+      if (old != null) {
+        size -= entrySize(key, old);
+      }
+      size += entrySize(key, resp);
+
+      Iterator<Map.Entry<CacheKey, CachedResponse>> it = entries.entrySet().iterator();
+      while (size > maxSize && it.hasNext()) {
+        Map.Entry<CacheKey, CachedResponse> eldest = it.next();
+        it.remove();
+        size -= entrySize(eldest.getKey(), eldest.getValue());
+        evictions.incrementAndGet();
+      }
+    }
+  } // method put
+
+  /**
+   * Removes the expired responses.
+   * @param maxThisUpdate
+   *          Responses with thisUpdate before it are removed.
+   * @param minNextUpdate
+   *          Responses with nextUpdate before it are removed.
+   * @return number of removed responses.
+   */
+  int removeExpired(long maxThisUpdate, long minNextUpdate) {
+    int num = 0;
+    synchronized (entries) {
+      Iterator<Map.Entry<CacheKey, CachedResponse>> it = entries.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<CacheKey, CachedResponse> entry = it.next();
+        CachedResponse resp = entry.getValue();
+        if (resp.thisUpdate < maxThisUpdate
+            || (resp.nextUpdate != 0 && resp.nextUpdate < minNextUpdate)) {
+          it.remove();
+          size -= entrySize(entry.getKey(), resp);
+          num++;
+        }
+      }
+    }
+
+    evictions.addAndGet(num);
+    return num;
+  } // method removeExpired
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  long getEvictions() {
+    return evictions.get();
+  }
+
+  int getNumEntries() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  long getSize() {
+    synchronized (entries) {
+      return size;
+    }
+  }
+
+  long getMaxSize() {
+    return maxSize;
+  }
+
+  private void remove(CacheKey key) {
+    CachedResponse old = entries.remove(key);
+    if (old != null) {
+      size -= entrySize(key, old);
+    }
+  }
+
+  private static long entrySize(CacheKey key, CachedResponse resp) {
+    return ENTRY_OVERHEAD + key.ident.length + resp.response.length;
+  }
+
+}
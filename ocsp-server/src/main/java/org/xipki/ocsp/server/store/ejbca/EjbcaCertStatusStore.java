@@ -198,6 +198,7 @@ public class EjbcaCertStatusStore extends OcspStore {
 
           initialized = false;
           this.issuerStore = new EjbcaIssuerStore(newIssuers.values());
+          issuersChanged();
           LOG.info("Updated issuers: {}", name);
           initializationFailed = false;
           initialized = true;
@@ -502,6 +503,11 @@ public class EjbcaCertStatusStore extends OcspStore {
     }
   }
 
+  @Override
+  public boolean supportsIssuerChangeNotification() {
+    return true;
+  }
+
   @Override
   public boolean knowsIssuer(RequestIssuer reqIssuer) {
     return null != issuerStore.getIssuerForFp(reqIssuer);
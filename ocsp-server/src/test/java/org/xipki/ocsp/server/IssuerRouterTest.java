@@ -0,0 +1,189 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.CertStatusInfo;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.X509Cert;
+
+/**
+ * IssuerRouter test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class IssuerRouterTest {
+
+  private static class MemoryStore extends OcspStore {
+
+    private final boolean notifying;
+
+    private final Set<RequestIssuer> issuers = new CopyOnWriteArraySet<>();
+
+    private volatile int knowsIssuerCalls;
+
+    MemoryStore(boolean notifying, RequestIssuer... issuers) {
+      this.notifying = notifying;
+      this.issuers.addAll(Arrays.asList(issuers));
+    }
+
+    void addIssuer(RequestIssuer issuer) {
+      issuers.add(issuer);
+      if (notifying) {
+        issuersChanged();
+      }
+    }
+
+    void removeIssuer(RequestIssuer issuer) {
+      issuers.remove(issuer);
+      if (notifying) {
+        issuersChanged();
+      }
+    }
+
+    @Override
+    public boolean supportsIssuerChangeNotification() {
+      return notifying;
+    }
+
+    @Override
+    public boolean knowsIssuer(RequestIssuer reqIssuer) {
+      knowsIssuerCalls++;
+      return issuers.contains(reqIssuer);
+    }
+
+    @Override
+    public X509Cert getIssuerCert(RequestIssuer reqIssuer) {
+      return null;
+    }
+
+    @Override
+    protected CertStatusInfo getCertStatus0(Date time, RequestIssuer reqIssuer,
+        BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
+        boolean inheritCaRevocation) {
+      return null;
+    }
+
+    @Override
+    public void init(Map<String, ? extends Object> sourceConf, DataSourceWrapper datasource) {
+    }
+
+    @Override
+    public boolean isHealthy() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+  } // class MemoryStore
+
+  private static final RequestIssuer ISSUER1 = newIssuer(1);
+
+  private static final RequestIssuer ISSUER2 = newIssuer(2);
+
+  private static final RequestIssuer ISSUER3 = newIssuer(3);
+
+  @Test
+  public void testRouteInConfiguredOrder() {
+    MemoryStore store1 = new MemoryStore(true, ISSUER1);
+    MemoryStore store2 = new MemoryStore(true, ISSUER1, ISSUER2);
+    IssuerRouter router = new IssuerRouter(Arrays.<OcspStore>asList(store1, store2));
+
+    Assert.assertEquals(Arrays.asList(store1, store2), router.getStoresForIssuer(ISSUER1));
+    Assert.assertEquals(Arrays.asList(store2), router.getStoresForIssuer(ISSUER2));
+    Assert.assertEquals(Collections.emptyList(), router.getStoresForIssuer(ISSUER3));
+  }
+
+  @Test
+  public void testCacheOfNotifyingStores() {
+    MemoryStore store1 = new MemoryStore(true, ISSUER1);
+    MemoryStore store2 = new MemoryStore(true);
+    IssuerRouter router = new IssuerRouter(Arrays.<OcspStore>asList(store1, store2));
+
+    Assert.assertEquals(Arrays.asList(store1), router.getStoresForIssuer(ISSUER1));
+    final int calls = store1.knowsIssuerCalls;
+    // known issuers are cached
+    Assert.assertEquals(Arrays.asList(store1), router.getStoresForIssuer(copyOf(ISSUER1)));
+    Assert.assertEquals(calls, store1.knowsIssuerCalls);
+
+    // the cache is dropped once the issuers change
+    store2.addIssuer(ISSUER1);
+    Assert.assertEquals(Arrays.asList(store1, store2), router.getStoresForIssuer(ISSUER1));
+    store1.removeIssuer(ISSUER1);
+    Assert.assertEquals(Arrays.asList(store2), router.getStoresForIssuer(ISSUER1));
+
+    // unknown issuers are not cached
+    Assert.assertEquals(Collections.emptyList(), router.getStoresForIssuer(ISSUER2));
+    store1.addIssuer(ISSUER2);
+    Assert.assertEquals(Arrays.asList(store1), router.getStoresForIssuer(ISSUER2));
+  } // method testCacheOfNotifyingStores
+
+  @Test
+  public void testStoresWithoutNotification() {
+    MemoryStore notifying = new MemoryStore(true, ISSUER1);
+    // issuers of this store change without notification
+    MemoryStore external = new MemoryStore(false);
+    IssuerRouter router = new IssuerRouter(Arrays.<OcspStore>asList(external, notifying));
+
+    Assert.assertEquals(Arrays.asList(notifying), router.getStoresForIssuer(ISSUER1));
+    Assert.assertEquals(Collections.emptyList(), router.getStoresForIssuer(ISSUER2));
+
+    external.addIssuer(ISSUER1);
+    external.addIssuer(ISSUER2);
+    Assert.assertEquals(Arrays.asList(external, notifying), router.getStoresForIssuer(ISSUER1));
+    Assert.assertEquals(Arrays.asList(external), router.getStoresForIssuer(ISSUER2));
+
+    external.removeIssuer(ISSUER1);
+    Assert.assertEquals(Arrays.asList(notifying), router.getStoresForIssuer(ISSUER1));
+
+    // the answers of the notifying store are still cached
+    final int calls = notifying.knowsIssuerCalls;
+    router.getStoresForIssuer(ISSUER1);
+    Assert.assertEquals(calls, notifying.knowsIssuerCalls);
+  } // method testStoresWithoutNotification
+
+  private static RequestIssuer newIssuer(int index) {
+    byte[] hashData = new byte[40];
+    Arrays.fill(hashData, (byte) index);
+    return new RequestIssuer(HashAlgo.SHA1, hashData);
+  }
+
+  // a request issuer located inside a larger request
+  private static RequestIssuer copyOf(RequestIssuer issuer) {
+    byte[] data = new byte[issuer.getLength() + 10];
+    System.arraycopy(issuer.getData(), issuer.getFrom(), data, 5, issuer.getLength());
+    return new RequestIssuer(data, 5, issuer.getLength());
+  }
+
+}
@@ -0,0 +1,173 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.ocsp.server.store.CertStatusSnapshot.Entry;
+import org.xipki.ocsp.server.store.CertStatusSnapshot.Row;
+
+import junit.framework.Assert;
+
+/**
+ * Test for the refresh of {@link CertStatusSnapshot}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class CertStatusSnapshotTest {
+
+  /**
+   * Snapshot of rows held in memory instead of a database.
+   */
+  private static class MemorySnapshot extends CertStatusSnapshot {
+
+    private final Map<Long, Row> rows = new TreeMap<>();
+
+    private final int pageSize;
+
+    MemorySnapshot(int pageSize, long rebuildIntervalMs) {
+      super(pageSize, rebuildIntervalMs);
+      this.pageSize = pageSize;
+    }
+
+    void putRow(long id, long serial, long lastUpdate, boolean revoked) {
+      Entry entry = new Entry(0, 0, 0, revoked, revoked ? 1 : 0, revoked ? lastUpdate : 0, 0,
+          null);
+      rows.put(id, new Row(id, 1, BigInteger.valueOf(serial), lastUpdate, entry));
+    }
+
+    void deleteRow(long id) {
+      rows.remove(id);
+    }
+
+    @Override
+    List<Row> loadRowsById(long lastId) throws DataAccessException {
+      List<Row> result = new ArrayList<>();
+      for (Row row : rows.values()) {
+        if (row.getId() > lastId && result.size() < pageSize) {
+          result.add(row);
+        }
+      }
+      return result;
+    }
+
+    @Override
+    List<Row> loadRowsByLastUpdate(long lastLastUpdate, long lastId)
+        throws DataAccessException {
+      List<Row> sorted = new ArrayList<>(rows.values());
+      Collections.sort(sorted, new Comparator<Row>() {
+        @Override
+        public int compare(Row o1, Row o2) {
+          int diff = Long.compare(o1.getLastUpdate(), o2.getLastUpdate());
+          return diff != 0 ? diff : Long.compare(o1.getId(), o2.getId());
+        }
+      });
+
+      List<Row> result = new ArrayList<>();
+      for (Row row : sorted) {
+        boolean after = row.getLastUpdate() > lastLastUpdate
+            || (row.getLastUpdate() == lastLastUpdate && row.getId() > lastId);
+        if (after && result.size() < pageSize) {
+          result.add(row);
+        }
+      }
+      return result;
+    }
+
+  } // class MemorySnapshot
+
+  @Test
+  public void testIncrementalRefresh() throws Exception {
+    MemorySnapshot snapshot = new MemorySnapshot(2, Long.MAX_VALUE);
+    for (int i = 1; i <= 5; i++) {
+      snapshot.putRow(i, 100 + i, 1000, false);
+    }
+
+    snapshot.refresh();
+    Assert.assertTrue(snapshot.isReady());
+    Assert.assertEquals(5, snapshot.size());
+    Assert.assertFalse(snapshot.get(1, BigInteger.valueOf(103)).isRevoked());
+
+    // revoke an existing certificate and add a new one
+    snapshot.putRow(3, 103, 2000, true);
+    snapshot.putRow(6, 106, 2000, false);
+    snapshot.refresh();
+
+    Assert.assertEquals(6, snapshot.size());
+    Assert.assertTrue(snapshot.get(1, BigInteger.valueOf(103)).isRevoked());
+    Assert.assertNotNull(snapshot.get(1, BigInteger.valueOf(106)));
+    Assert.assertNull(snapshot.get(2, BigInteger.valueOf(106)));
+  } // method testIncrementalRefresh
+
+  @Test
+  public void testSameLastUpdateAcrossPages() throws Exception {
+    MemorySnapshot snapshot = new MemorySnapshot(2, Long.MAX_VALUE);
+    snapshot.putRow(1, 101, 1000, false);
+    snapshot.refresh();
+
+    // more rows with the same LUPDATE than fit into one page, including the last seen second
+    for (int i = 2; i <= 7; i++) {
+      snapshot.putRow(i, 100 + i, 1000, true);
+    }
+    snapshot.refresh();
+
+    Assert.assertEquals(7, snapshot.size());
+    for (int i = 2; i <= 7; i++) {
+      Assert.assertTrue("serial " + (100 + i),
+          snapshot.get(1, BigInteger.valueOf(100 + i)).isRevoked());
+    }
+  } // method testSameLastUpdateAcrossPages
+
+  @Test
+  public void testDeletionDetectedByRebuild() throws Exception {
+    MemorySnapshot snapshot = new MemorySnapshot(2, Long.MAX_VALUE);
+    snapshot.putRow(1, 101, 1000, false);
+    snapshot.putRow(2, 102, 1000, false);
+    snapshot.refresh();
+
+    // delete and insert within the same interval does not change the number of rows
+    snapshot.deleteRow(1);
+    snapshot.putRow(3, 103, 2000, false);
+    snapshot.refresh();
+    Assert.assertNotNull("deleted row is kept by incremental refresh",
+        snapshot.get(1, BigInteger.valueOf(101)));
+
+    MemorySnapshot rebuildingSnapshot = new MemorySnapshot(2, 0);
+    rebuildingSnapshot.putRow(1, 101, 1000, false);
+    rebuildingSnapshot.putRow(2, 102, 1000, false);
+    rebuildingSnapshot.refresh();
+
+    rebuildingSnapshot.deleteRow(1);
+    rebuildingSnapshot.putRow(3, 103, 2000, false);
+    rebuildingSnapshot.refresh();
+    Assert.assertEquals(2, rebuildingSnapshot.size());
+    Assert.assertNull(rebuildingSnapshot.get(1, BigInteger.valueOf(101)));
+    Assert.assertNotNull(rebuildingSnapshot.get(1, BigInteger.valueOf(103)));
+  } // method testDeletionDetectedByRebuild
+
+}
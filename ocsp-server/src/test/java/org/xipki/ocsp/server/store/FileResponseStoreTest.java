@@ -0,0 +1,154 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ocsp.server.store.ResponseMemoryCache.CachedResponse;
+
+import junit.framework.Assert;
+
+/**
+ * Test for {@link FileResponseStore}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class FileResponseStoreTest {
+
+  private static final int SEGMENT_SIZE = 1024 * 1024;
+
+  private static final byte[] IDENT = new byte[] {1, 2, 3, 4};
+
+  private File dir;
+
+  @Before
+  public void createDir() throws Exception {
+    dir = Files.createTempDirectory("ocsp-responses-").toFile();
+  }
+
+  @After
+  public void deleteDir() {
+    delete(dir);
+  }
+
+  @Test
+  public void testIssuerIdFullWidth() throws Exception {
+    FileResponseStore store = new FileResponseStore(dir, SEGMENT_SIZE);
+    try {
+      store.put(1, 70000, IDENT, 10, 20, new byte[] {5});
+      Assert.assertNotNull(store.get(1, 70000, IDENT));
+      // 70000 & 0xFFFF == 4464
+      Assert.assertNull(store.get(1, 4464, IDENT));
+    } finally {
+      store.close();
+    }
+  } // method testIssuerIdFullWidth
+
+  @Test
+  public void testReopen() throws Exception {
+    FileResponseStore store = new FileResponseStore(dir, SEGMENT_SIZE);
+    try {
+      store.put(1, 1, IDENT, 10, 20, new byte[] {5});
+      store.put(1, 1, IDENT, 11, 21, new byte[] {6});
+      store.put(2, 1, IDENT, 12, 22, new byte[] {7});
+    } finally {
+      store.close();
+    }
+
+    store = new FileResponseStore(dir, SEGMENT_SIZE);
+    try {
+      Assert.assertEquals(2, store.size());
+      CachedResponse resp = store.get(1, 1, IDENT);
+      Assert.assertEquals(11, resp.getThisUpdate());
+      Assert.assertEquals(6, resp.getResponse()[0]);
+    } finally {
+      store.close();
+    }
+  } // method testReopen
+
+  @Test
+  public void testCompact() throws Exception {
+    FileResponseStore store = new FileResponseStore(dir, SEGMENT_SIZE);
+    try {
+      store.put(1, 1, IDENT, 10, 20, new byte[] {5});
+      store.put(2, 1, IDENT, 100, 200, new byte[] {6});
+      store.put(2, 1, IDENT, 101, 201, new byte[] {7});
+      Assert.assertTrue(store.getGarbage() > 0);
+
+      Assert.assertEquals(1, store.compact(50, 0));
+      Assert.assertEquals(0, store.getGarbage());
+      Assert.assertNull(store.get(1, 1, IDENT));
+      Assert.assertEquals(7, store.get(2, 1, IDENT).getResponse()[0]);
+
+      // the store is writable after the compaction
+      store.put(3, 1, IDENT, 102, 202, new byte[] {8});
+      Assert.assertEquals(8, store.get(3, 1, IDENT).getResponse()[0]);
+    } finally {
+      store.close();
+    }
+  } // method testCompact
+
+  @Test
+  public void testBackgroundCompactionIfFull() throws Exception {
+    FileResponseStore store = new FileResponseStore(dir, SEGMENT_SIZE);
+    try {
+      byte[] response = new byte[10 * 1024];
+      // replacing the same response fills the segment with replaced responses, until a put
+      // does not fit into the segment and starts the compaction.
+      int numPuts = 0;
+      while (numPuts < 1000) {
+        response[0] = (byte) numPuts;
+        store.put(1, 1, IDENT, numPuts, numPuts + 100, response);
+        if (store.get(1, 1, IDENT).getThisUpdate() != numPuts) {
+          break;
+        }
+        numPuts++;
+      }
+      Assert.assertTrue("segment is not full", numPuts < 1000);
+
+      // no more puts until the compaction is finished, so no new garbage is added
+      store.awaitScheduledCompaction();
+      Assert.assertEquals(0, store.getGarbage());
+      Assert.assertEquals(1, store.size());
+
+      CachedResponse resp = store.get(1, 1, IDENT);
+      Assert.assertEquals(numPuts - 1, resp.getThisUpdate());
+      store.put(1, 1, IDENT, 1000, 1100, response);
+      Assert.assertEquals(1000, store.get(1, 1, IDENT).getThisUpdate());
+    } finally {
+      store.close();
+    }
+  } // method testBackgroundCompactionIfFull
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+}
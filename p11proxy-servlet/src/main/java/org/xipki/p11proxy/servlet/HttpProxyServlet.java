@@ -27,6 +27,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 
@@ -52,8 +53,8 @@ public class HttpProxyServlet extends HttpServlet {
 
   private boolean logReqResp;
 
-  public HttpProxyServlet() {
-    responder = new P11ProxyResponder();
+  public HttpProxyServlet(P11ProxyResponder responder) {
+    this.responder = Args.notNull(responder, "responder");
   }
 
   public void setLogReqResp(boolean logReqResp) {
@@ -36,8 +36,170 @@ import com.alibaba.fastjson.JSON;
  */
 public class P11ProxyConf extends ValidatableConf {
 
+  /**
+   * Persistent TLS transport with client authentication, in addition to the HTTP servlet.
+   */
+  public static class TcpServer extends ValidatableConf {
+
+    /**
+     * address to bind, the loopback address if not set.
+     */
+    private String host;
+
+    private int port;
+
+    /**
+     * number of threads to process the requests.
+     */
+    private int threads = 16;
+
+    /**
+     * maximal size of a message in bytes.
+     */
+    private int maxMessageSize = 64 * 1024 * 1024;
+
+    /**
+     * keystore containing the TLS server key. Required unless insecure is true.
+     */
+    private String keystore;
+
+    private String keystoreType;
+
+    private String keystorePassword;
+
+    /**
+     * truststore containing the trusted TLS client certificates. Required unless insecure is
+     * true, the TLS client authentication is always required.
+     */
+    private String truststore;
+
+    private String truststorePassword;
+
+    /**
+     * whether to use plain TCP without any authentication of the clients. Everyone who can
+     * reach the port can use all keys, so the listener should be bound to the loopback address.
+     */
+    private boolean insecure;
+
+    public String getHost() {
+      return host;
+    }
+
+    public void setHost(String host) {
+      this.host = host;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public void setPort(int port) {
+      this.port = port;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getMaxMessageSize() {
+      return maxMessageSize;
+    }
+
+    public void setMaxMessageSize(int maxMessageSize) {
+      this.maxMessageSize = maxMessageSize;
+    }
+
+    public String getKeystore() {
+      return keystore;
+    }
+
+    public void setKeystore(String keystore) {
+      this.keystore = keystore;
+    }
+
+    public String getKeystoreType() {
+      return keystoreType;
+    }
+
+    public void setKeystoreType(String keystoreType) {
+      this.keystoreType = keystoreType;
+    }
+
+    public String getKeystorePassword() {
+      return keystorePassword;
+    }
+
+    public void setKeystorePassword(String keystorePassword) {
+      this.keystorePassword = keystorePassword;
+    }
+
+    public String getTruststore() {
+      return truststore;
+    }
+
+    public void setTruststore(String truststore) {
+      this.truststore = truststore;
+    }
+
+    public String getTruststorePassword() {
+      return truststorePassword;
+    }
+
+    public void setTruststorePassword(String truststorePassword) {
+      this.truststorePassword = truststorePassword;
+    }
+
+    public boolean isInsecure() {
+      return insecure;
+    }
+
+    public void setInsecure(boolean insecure) {
+      this.insecure = insecure;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (port < 1 || port > 65535) {
+        throw new InvalidConfException("tcpServer.port is not in [1, 65535]");
+      }
+
+      if (threads < 1) {
+        throw new InvalidConfException("tcpServer.threads is not positive");
+      }
+
+      if (maxMessageSize < 1024) {
+        throw new InvalidConfException("tcpServer.maxMessageSize is less than 1024");
+      }
+
+      if (insecure) {
+        if (keystore != null || truststore != null) {
+          throw new InvalidConfException(
+              "tcpServer.keystore and tcpServer.truststore are not allowed if insecure is true");
+        }
+      } else {
+        notEmpty(keystore, "tcpServer.keystore");
+        notEmpty(truststore, "tcpServer.truststore");
+      }
+    } // method validate
+
+  } // class TcpServer
+
+  public static final int DFLT_SIGN_BATCH_THREADS = 8;
+
   private SecurityConf security;
 
+  private TcpServer tcpServer;
+
+  /**
+   * maximal number of threads to sign the templates of ACTION_SIGN_BATCH requests in parallel.
+   * It should not exceed the number of sessions of the slots.
+   */
+  private int signBatchThreads = DFLT_SIGN_BATCH_THREADS;
+
   public static P11ProxyConf readConfFromFile(String fileName)
       throws IOException, InvalidConfException {
     Args.notBlank(fileName, "fileName");
@@ -57,9 +219,30 @@ public class P11ProxyConf extends ValidatableConf {
     this.security = security;
   }
 
+  public TcpServer getTcpServer() {
+    return tcpServer;
+  }
+
+  public void setTcpServer(TcpServer tcpServer) {
+    this.tcpServer = tcpServer;
+  }
+
+  public int getSignBatchThreads() {
+    return signBatchThreads;
+  }
+
+  public void setSignBatchThreads(int signBatchThreads) {
+    this.signBatchThreads = signBatchThreads;
+  }
+
   @Override
   public void validate() throws InvalidConfException {
     validate(security);
+    validate(tcpServer);
+
+    if (signBatchThreads < 1) {
+      throw new InvalidConfException("signBatchThreads is not positive");
+    }
   }
 
 }
@@ -17,14 +17,24 @@
 
 package org.xipki.p11proxy.servlet;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -53,6 +63,7 @@ import org.xipki.security.pkcs11.P11UnsupportedMechanismException;
 import org.xipki.security.pkcs11.proxy.P11ProxyConstants;
 import org.xipki.security.pkcs11.proxy.ProxyMessage;
 import org.xipki.security.util.KeyUtil;
+import org.xipki.util.Args;
 import org.xipki.util.Hex;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
@@ -64,7 +75,7 @@ import org.xipki.util.LogUtil;
  * @since 2.0.0
  */
 
-public class P11ProxyResponder {
+public class P11ProxyResponder implements Closeable {
   private static final Logger LOG = LoggerFactory.getLogger(P11ProxyResponder.class);
 
   private static final Set<Short> actionsRequireNonNullRequest;
@@ -73,6 +84,8 @@ public class P11ProxyResponder {
 
   private final Set<Short> versions;
 
+  private final ThreadPoolExecutor signBatchExecutor;
+
   static {
     Set<Short> actions = new HashSet<>();
     actions.add(P11ProxyConstants.ACTION_GET_SERVER_CAPS);
@@ -99,6 +112,7 @@ public class P11ProxyResponder {
     actions.add(P11ProxyConstants.ACTION_REMOVE_IDENTITY);
     actions.add(P11ProxyConstants.ACTION_REMOVE_OBJECTS);
     actions.add(P11ProxyConstants.ACTION_SIGN);
+    actions.add(P11ProxyConstants.ACTION_SIGN_BATCH);
     actions.add(P11ProxyConstants.ACTION_UPDATE_CERT);
     actions.add(P11ProxyConstants.ACTION_DIGEST_SECRETKEY);
     actions.add(P11ProxyConstants.ACTION_IMPORT_SECRET_KEY);
@@ -107,9 +121,40 @@ public class P11ProxyResponder {
   } // method static
 
   public P11ProxyResponder() {
+    this(P11ProxyConf.DFLT_SIGN_BATCH_THREADS);
+  }
+
+  /**
+   * Constructor.
+   * @param signBatchThreads
+   *          Maximal number of threads to sign the templates of ACTION_SIGN_BATCH requests in
+   *          parallel. Each thread borrows its own session of the slot, so it should not
+   *          exceed the number of sessions of the slots.
+   */
+  public P11ProxyResponder(int signBatchThreads) {
     Set<Short> tmpVersions = new HashSet<>();
     tmpVersions.add(P11ProxyConstants.VERSION_V1_0);
+    tmpVersions.add(P11ProxyConstants.VERSION_V1_1);
     this.versions = Collections.unmodifiableSet(tmpVersions);
+
+    Args.positive(signBatchThreads, "signBatchThreads");
+    final AtomicInteger threadIndex = new AtomicInteger();
+    this.signBatchExecutor = new ThreadPoolExecutor(signBatchThreads, signBatchThreads,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "p11proxy-batch-signer-"
+                + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    this.signBatchExecutor.allowCoreThreadTimeOut(true);
+  } // constructor
+
+  @Override
+  public void close() {
+    signBatchExecutor.shutdownNow();
   }
 
   public Set<Short> versions() {
@@ -393,40 +438,22 @@ public class P11ProxyResponder {
         }
         case P11ProxyConstants.ACTION_SIGN: {
           ProxyMessage.SignTemplate signTemplate = ProxyMessage.SignTemplate.getInstance(content);
-          long mechanism = signTemplate.getMechanism().getMechanism();
-          ProxyMessage.P11Params asn1Params = signTemplate.getMechanism().getParams();
-
-          P11Params params = null;
-
-          if (asn1Params != null) {
-            switch (asn1Params.getTagNo()) {
-              case ProxyMessage.P11Params.TAG_RSA_PKCS_PSS:
-                params = ProxyMessage.RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
-                break;
-              case ProxyMessage.P11Params.TAG_OPAQUE:
-                params = new P11ByteArrayParams(
-                    ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              case ProxyMessage.P11Params.TAG_IV:
-                params = new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              default:
-                throw new BadAsn1ObjectException(
-                    "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
-            }
-          }
-
-          byte[] message = signTemplate.getMessage();
           P11Identity identity = p11CryptService.getIdentity(signTemplate.getSlotId().getValue(),
               signTemplate.getObjectId().getValue());
           if (identity == null) {
             return getResp(version, transactionId, P11ProxyConstants.RC_UNKNOWN_ENTITY, action);
           }
 
-          byte[] signature = identity.sign(mechanism, params, message);
+          byte[] signature = sign(identity, signTemplate);
           ASN1Object obj = new DEROctetString(signature);
           return getSuccessResp(version, transactionId, action, obj);
         }
+        case P11ProxyConstants.ACTION_SIGN_BATCH: {
+          ProxyMessage.SignBatchTemplate batchTemplate =
+              ProxyMessage.SignBatchTemplate.getInstance(content);
+          ASN1Object obj = signBatch(p11CryptService, batchTemplate.getSignTemplates());
+          return getSuccessResp(version, transactionId, action, obj);
+        }
         case P11ProxyConstants.ACTION_UPDATE_CERT: {
           ProxyMessage.ObjectIdAndCert asn1 = ProxyMessage.ObjectIdAndCert.getInstance(content);
           P11Slot slot = getSlot(p11CryptService, asn1.getSlotId().getValue());
@@ -445,18 +472,7 @@ public class P11ProxyResponder {
       return getResp(version, transactionId, P11ProxyConstants.RC_BAD_REQUEST, action);
     } catch (P11TokenException ex) {
       LogUtil.error(LOG, ex, buildErrorMsg(action, transactionId));
-      short rc;
-      if (ex instanceof P11UnknownEntityException) {
-        rc = P11ProxyConstants.RC_UNKNOWN_ENTITY;
-      } else if (ex instanceof P11DuplicateEntityException) {
-        rc = P11ProxyConstants.RC_DUPLICATE_ENTITY;
-      } else if (ex instanceof P11UnsupportedMechanismException) {
-        rc = P11ProxyConstants.RC_UNSUPPORTED_MECHANISM;
-      } else {
-        rc = P11ProxyConstants.RC_P11_TOKENERROR;
-      }
-
-      return getResp(version, transactionId, rc, action);
+      return getResp(version, transactionId, getReturnCode(ex), action);
     } catch (XiSecurityException | CertificateException | InvalidKeyException ex) {
       LogUtil.error(LOG, ex, buildErrorMsg(action, transactionId));
       return getResp(version, transactionId, P11ProxyConstants.RC_INTERNAL_ERROR, action);
@@ -466,6 +482,120 @@ public class P11ProxyResponder {
     }
   } // method processRequest
 
+  private static byte[] sign(P11Identity identity, ProxyMessage.SignTemplate signTemplate)
+      throws P11TokenException, BadAsn1ObjectException {
+    long mechanism = signTemplate.getMechanism().getMechanism();
+    ProxyMessage.P11Params asn1Params = signTemplate.getMechanism().getParams();
+
+    P11Params params = null;
+    if (asn1Params != null) {
+      switch (asn1Params.getTagNo()) {
+        case ProxyMessage.P11Params.TAG_RSA_PKCS_PSS:
+          params = ProxyMessage.RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
+          break;
+        case ProxyMessage.P11Params.TAG_OPAQUE:
+          params = new P11ByteArrayParams(ASN1OctetString.getInstance(asn1Params).getOctets());
+          break;
+        case ProxyMessage.P11Params.TAG_IV:
+          params = new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
+          break;
+        default:
+          throw new BadAsn1ObjectException(
+              "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
+      }
+    }
+
+    return identity.sign(mechanism, params, signTemplate.getMessage());
+  } // method sign
+
+  /**
+   * Signs the templates in parallel, each with its own session borrowed from the session pool
+   * of the slot. The current thread signs the templates which have not been taken by the
+   * threads of the executor. A failure of one template does not affect the others, it is
+   * reported by its return code.
+   */
+  private ProxyMessage.SignBatchResult signBatch(final P11CryptService p11CryptService,
+      final List<ProxyMessage.SignTemplate> signTemplates) {
+    final int n = signTemplates.size();
+    final byte[][] signatures = new byte[n][];
+    final short[] returnCodes = new short[n];
+
+    List<FutureTask<Void>> tasks = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      final int index = i;
+      tasks.add(new FutureTask<Void>(new Runnable() {
+        @Override
+        public void run() {
+          ProxyMessage.SignTemplate signTemplate = signTemplates.get(index);
+          try {
+            P11Identity identity = p11CryptService.getIdentity(
+                signTemplate.getSlotId().getValue(), signTemplate.getObjectId().getValue());
+            if (identity == null) {
+              returnCodes[index] = P11ProxyConstants.RC_UNKNOWN_ENTITY;
+            } else {
+              signatures[index] = sign(identity, signTemplate);
+              returnCodes[index] = P11ProxyConstants.RC_SUCCESS;
+            }
+          } catch (BadAsn1ObjectException ex) {
+            LogUtil.error(LOG, ex, "could not decode SignTemplate " + index + " of batch");
+            returnCodes[index] = P11ProxyConstants.RC_BAD_REQUEST;
+          } catch (P11TokenException ex) {
+            LogUtil.error(LOG, ex, "could not sign SignTemplate " + index + " of batch");
+            returnCodes[index] = getReturnCode(ex);
+          } catch (Throwable th) {
+            LogUtil.error(LOG, th, "could not sign SignTemplate " + index + " of batch");
+            returnCodes[index] = P11ProxyConstants.RC_INTERNAL_ERROR;
+          }
+        }
+      }, null));
+    }
+
+    // the first template is signed in the current thread
+    for (int i = 1; i < n; i++) {
+      try {
+        signBatchExecutor.execute(tasks.get(i));
+      } catch (RejectedExecutionException ex) {
+        // the responder has been closed, the task will be run in the current thread
+        break;
+      }
+    }
+
+    // a task which has already been started or finished will not be run again
+    for (FutureTask<Void> task : tasks) {
+      task.run();
+    }
+
+    for (int i = 1; i < n; i++) {
+      try {
+        tasks.get(i).get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        returnCodes[i] = P11ProxyConstants.RC_INTERNAL_ERROR;
+      } catch (ExecutionException ex) {
+        // the task catches all exceptions
+        returnCodes[i] = P11ProxyConstants.RC_INTERNAL_ERROR;
+      }
+
+      if (returnCodes[i] != P11ProxyConstants.RC_SUCCESS) {
+        signatures[i] = null;
+      }
+    }
+
+    return new ProxyMessage.SignBatchResult(signatures, returnCodes);
+  } // method signBatch
+
+  private static short getReturnCode(P11TokenException ex) {
+    if (ex instanceof P11UnknownEntityException) {
+      return P11ProxyConstants.RC_UNKNOWN_ENTITY;
+    } else if (ex instanceof P11DuplicateEntityException) {
+      return P11ProxyConstants.RC_DUPLICATE_ENTITY;
+    } else if (ex instanceof P11UnsupportedMechanismException) {
+      return P11ProxyConstants.RC_UNSUPPORTED_MECHANISM;
+    } else {
+      return P11ProxyConstants.RC_P11_TOKENERROR;
+    }
+  } // method getReturnCode
+
   private static String buildErrorMsg(short action, byte[] transactionId) {
     return "could not process action " + P11ProxyConstants.getActionName(action)
         + " (tid=" + Hex.encode(transactionId) + ")";
@@ -17,8 +17,11 @@
 
 package org.xipki.p11proxy.servlet;
 
+import java.io.File;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 
+import javax.net.ssl.SSLContext;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -33,10 +36,12 @@ import org.slf4j.LoggerFactory;
 import org.xipki.security.Securities;
 import org.xipki.security.XiSecurityException;
 import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.security.pkcs11.proxy.P11ProxyTcpServer;
 import org.xipki.util.InvalidConfException;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.XipkiBaseDir;
+import org.xipki.util.http.SSLContextBuilder;
 
 /**
  * The Servlet Filter of P11Proxy servlets.
@@ -52,8 +57,12 @@ public class ProxyServletFilter implements Filter {
 
   private Securities securities;
 
+  private P11ProxyResponder responder;
+
   private HttpProxyServlet servlet;
 
+  private P11ProxyTcpServer tcpServer;
+
   private boolean logReqResp;
 
   @Override
@@ -89,13 +98,64 @@ public class ProxyServletFilter implements Filter {
           "could not initialize LocalP11CryptServicePool: " + ex.getMessage(), ex);
     }
 
-    servlet = new HttpProxyServlet();
+    responder = new P11ProxyResponder(conf.getSignBatchThreads());
+    servlet = new HttpProxyServlet(responder);
     servlet.setLogReqResp(logReqResp);
     servlet.setLocalP11CryptServicePool(pool);
+
+    if (conf.getTcpServer() != null) {
+      tcpServer = createTcpServer(conf.getTcpServer(), responder, pool);
+      try {
+        tcpServer.start();
+      } catch (IOException ex) {
+        throw new ServletException("could not start TCP server: " + ex.getMessage(), ex);
+      }
+    }
   } // method init
 
+  private static P11ProxyTcpServer createTcpServer(P11ProxyConf.TcpServer conf,
+      final P11ProxyResponder responder, final LocalP11CryptServicePool pool)
+      throws ServletException {
+    SSLContext sslContext = null;
+    if (!conf.isInsecure()) {
+      SSLContextBuilder builder = new SSLContextBuilder();
+      if (conf.getKeystoreType() != null) {
+        builder.setKeyStoreType(conf.getKeystoreType());
+      }
+
+      try {
+        char[] pwd = conf.getKeystorePassword() == null ? null
+            : conf.getKeystorePassword().toCharArray();
+        builder.loadKeyMaterial(new File(IoUtil.expandFilepath(conf.getKeystore())), pwd, pwd);
+
+        pwd = conf.getTruststorePassword() == null ? null
+            : conf.getTruststorePassword().toCharArray();
+        builder.loadTrustMaterial(new File(IoUtil.expandFilepath(conf.getTruststore())), pwd);
+        sslContext = builder.build();
+      } catch (GeneralSecurityException | IOException ex) {
+        throw new ServletException("could not build SSLContext: " + ex.getMessage(), ex);
+      }
+    }
+
+    return new P11ProxyTcpServer(conf.getHost(), conf.getPort(), sslContext, conf.getThreads(),
+        conf.getMaxMessageSize(), new P11ProxyTcpServer.RequestHandler() {
+          @Override
+          public byte[] processRequest(byte[] request) {
+            return responder.processRequest(pool, request);
+          }
+        });
+  } // method createTcpServer
+
   @Override
   public void destroy() {
+    if (tcpServer != null) {
+      tcpServer.close();
+    }
+
+    if (responder != null) {
+      responder.close();
+    }
+
     if (securities != null) {
       securities.close();
     }
@@ -29,6 +29,7 @@ import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.Enumeration;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -211,7 +212,14 @@ public class BenchmarkHttpClient {
 
   public static interface ResponseHandler {
 
-    void onComplete(FullHttpResponse response);
+    /**
+     * Processes the response.
+     * @param response
+     *          The response.
+     * @param latencyNanos
+     *          Time between sending the request and receiving the response, in nanoseconds.
+     */
+    void onComplete(FullHttpResponse response, long latencyNanos);
 
     void onError();
 
@@ -261,7 +269,10 @@ public class BenchmarkHttpClient {
     public void channelRead0(ChannelHandlerContext ctx, FullHttpResponse resp) {
       try {
         decrementPendingRequests();
-        responseHandler.onComplete(resp);
+        // the responses of the pipelined requests are received in the order of the requests
+        Long sentTime = sentTimes.poll();
+        long latency = (sentTime == null) ? 0 : System.nanoTime() - sentTime;
+        responseHandler.onComplete(resp, latency);
       } catch (Throwable th) {
         LOG.error("unexpected error", th);
       }
@@ -270,6 +281,7 @@ public class BenchmarkHttpClient {
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
       decrementPendingRequests();
+      sentTimes.poll();
       ctx.close();
       LOG.warn("error", cause);
       responseHandler.onError();
@@ -282,6 +294,9 @@ public class BenchmarkHttpClient {
 
   private final CountLatch latch = new CountLatch(0, 0);
 
+  // send times of the pending requests in nanoseconds
+  private final ConcurrentLinkedQueue<Long> sentTimes = new ConcurrentLinkedQueue<>();
+
   private int queueSize = 1000;
 
   private ResponseHandler responseHandler;
@@ -405,6 +420,25 @@ public class BenchmarkHttpClient {
   } // method start
 
   public void send(FullHttpRequest request) throws HttpClientException {
+    send0(request, false, 0);
+  }
+
+  /**
+   * Sends the request scheduled at the given time. The latency is measured from the scheduled
+   * time, including the time the request waits for space in the sending queue.
+   * @param request
+   *          The request.
+   * @param scheduledTime
+   *          The scheduled time, as in {@link System#nanoTime()}.
+   * @throws HttpClientException
+   *           if the request could not be sent.
+   */
+  public void send(FullHttpRequest request, long scheduledTime) throws HttpClientException {
+    send0(request, true, scheduledTime);
+  }
+
+  private void send0(FullHttpRequest request, boolean scheduled, long scheduledTime)
+      throws HttpClientException {
     request.headers().add(HttpHeaderNames.HOST, hostHeader);
     if (!channel.isActive()) {
       throw new HttpClientException("channel is not active");
@@ -416,6 +450,7 @@ public class BenchmarkHttpClient {
       throw new HttpClientException("sending poll is full");
     }
     incrementPendingRequests();
+    sentTimes.add(scheduled ? scheduledTime : System.nanoTime());
     ChannelFuture future = this.channel.writeAndFlush(request);
     future.awaitUninterruptibly();
   }
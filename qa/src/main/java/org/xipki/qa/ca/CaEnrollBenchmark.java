@@ -176,14 +176,20 @@ public class CaEnrollBenchmark extends BenchmarkExecutor implements ResponseHand
 
     @Override
     public void run() {
+      final boolean openLoop = isOpenLoop();
       while (!stop() && getErrorAccout() < 1) {
         try {
+          long scheduledTime = openLoop ? nextScheduledTime() : 0;
+          if (openLoop && stop()) {
+            break;
+          }
+
           PKIMessage certReq = nextCertRequest();
           if (certReq == null) {
             break;
           }
 
-          testNext(certReq);
+          testNext(certReq, openLoop, scheduledTime);
         } catch (HttpClientException | CertificateException | IOException ex) {
           LOG.warn("exception", ex);
           account(1, 1);
@@ -200,14 +206,19 @@ public class CaEnrollBenchmark extends BenchmarkExecutor implements ResponseHand
       }
     }
 
-    private void testNext(PKIMessage certReq) throws HttpClientException, IOException {
+    private void testNext(PKIMessage certReq, boolean openLoop, long scheduledTime)
+        throws HttpClientException, IOException {
       byte[] encoded = certReq.getEncoded();
       ByteBuf content = Unpooled.wrappedBuffer(encoded);
       FullHttpRequest httpReq = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
           HttpMethod.POST, conf.caUrl, content);
       httpReq.headers().addInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes())
         .add(HttpHeaderNames.CONTENT_TYPE, REQUEST_MIMETYPE);
-      httpClient.send(httpReq);
+      if (openLoop) {
+        httpClient.send(httpReq, scheduledTime);
+      } else {
+        httpClient.send(httpReq);
+      }
     } // method testNext
 
   } // class Testor
@@ -335,7 +346,8 @@ public class CaEnrollBenchmark extends BenchmarkExecutor implements ResponseHand
   } // method nextCertRequest
 
   @Override
-  public void onComplete(FullHttpResponse response) {
+  public void onComplete(FullHttpResponse response, long latencyNanos) {
+    recordLatency(latencyNanos);
     boolean success;
     try {
       success = onComplete0(response);
@@ -164,6 +164,16 @@ class OcspBenchRequestor {
   }
 
   public void ask(BigInteger[] serialNumbers) throws OcspRequestorException, HttpClientException {
+    httpClient.send(buildHttpRequest(serialNumbers));
+  }
+
+  public void ask(BigInteger[] serialNumbers, long scheduledTime)
+      throws OcspRequestorException, HttpClientException {
+    httpClient.send(buildHttpRequest(serialNumbers), scheduledTime);
+  }
+
+  private FullHttpRequest buildHttpRequest(BigInteger[] serialNumbers)
+      throws OcspRequestorException {
     byte[] ocspReq = buildRequest(serialNumbers);
     int size = ocspReq.length;
 
@@ -187,9 +197,8 @@ class OcspBenchRequestor {
       request.headers().addInt("Content-Length", content.readableBytes());
     }
     request.headers().add("Content-Type", "application/ocsp-request");
-
-    httpClient.send(request);
-  } // method ask
+    return request;
+  } // method buildHttpRequest
 
   private byte[] buildRequest(BigInteger[] serialNumbers) throws OcspRequestorException {
     boolean canCache = (serialNumbers.length == 1) && !requestOptions.isUseNonce();
@@ -58,14 +58,24 @@ public class OcspBenchmark extends BenchmarkExecutor implements ResponseHandler
 
     @Override
     public void run() {
+      final boolean openLoop = isOpenLoop();
       while (!stop()) {
+        long scheduledTime = openLoop ? nextScheduledTime() : 0;
+        if (openLoop && stop()) {
+          break;
+        }
+
         BigInteger sn = nextSerialNumber();
         if (sn == null) {
           break;
         }
 
         try {
-          requestor.ask(new BigInteger[]{sn});
+          if (openLoop) {
+            requestor.ask(new BigInteger[]{sn}, scheduledTime);
+          } else {
+            requestor.ask(new BigInteger[]{sn});
+          }
         } catch (Throwable th) {
           LOG.warn("{}: {}", th.getClass().getName(), th.getMessage());
           account(1, 1);
@@ -130,7 +140,8 @@ public class OcspBenchmark extends BenchmarkExecutor implements ResponseHandler
   }
 
   @Override
-  public void onComplete(FullHttpResponse response) {
+  public void onComplete(FullHttpResponse response, long latencyNanos) {
+    recordLatency(latencyNanos);
     boolean success;
     try {
       success = onComplete0(response);
@@ -120,7 +120,9 @@ public abstract class P11KeyGenSpeed extends BenchmarkExecutor {
     public void run() {
       while (!stop() && getErrorAccout() < 1) {
         try {
+          long start = System.nanoTime();
           genKeypair();
+          recordLatency(System.nanoTime() - start);
           account(1, 0);
         } catch (Exception ex) {
           LOG.error("P11KeyGenSpeed.Testor.run()", ex);
@@ -232,7 +232,9 @@ public abstract class P11SignSpeed extends BenchmarkExecutor {
     public void run() {
       while (!stop() && getErrorAccout() < 1) {
         try {
+          long start = System.nanoTime();
           signer.sign(data);
+          recordLatency(System.nanoTime() - start);
           account(batch, 0);
         } catch (Exception ex) {
           LOG.error("P11SignSpeed.Testor.run()", ex);
@@ -107,7 +107,9 @@ public abstract class P12KeyGenSpeed extends BenchmarkExecutor {
     public void run() {
       while (!stop() && getErrorAccout() < 1) {
         try {
+          long start = System.nanoTime();
           generateKeypair(securityFactory.getRandom4Key());
+          recordLatency(System.nanoTime() - start);
           account(1, 0);
         } catch (Exception ex) {
           LOG.error("P12KeyGenSpeed.Testor.run()", ex);
@@ -238,7 +238,9 @@ public abstract class P12SignSpeed extends BenchmarkExecutor {
     public void run() {
       while (!stop() && getErrorAccout() < 1) {
         try {
+          long start = System.nanoTime();
           signer.sign(data);
+          recordLatency(System.nanoTime() - start);
           account(batch, 0);
         } catch (Exception ex) {
           LOG.error("P12SignSpeed.Testor.run()", ex);
@@ -21,7 +21,10 @@ import java.io.Closeable;
 import java.security.Key;
 import java.security.PublicKey;
 import java.security.SignatureException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.operator.ContentSigner;
 import org.xipki.password.PasswordResolver;
 
@@ -38,6 +41,12 @@ public interface ConcurrentContentSigner extends Closeable {
 
   String getAlgorithmName();
 
+  /**
+   * Returns the algorithm identifier of the signature or MAC algorithm.
+   * @return the algorithm identifier.
+   */
+  AlgorithmIdentifier getAlgorithmIdentifier();
+
   /**
    * Returns the algorithm code in XiPKI context.
    * @return algorithm code
@@ -110,6 +119,19 @@ public interface ConcurrentContentSigner extends Closeable {
    */
   byte[][] sign(byte[][] data) throws NoIdleSignerException, SignatureException;
 
+  /**
+   * Signs the data asynchronously. The data are distributed over the signers of this
+   * {@link ConcurrentContentSigner}, so that for e.g. PKCS#11 signers the signature operations
+   * are executed in parallel in different sessions. The signature operations are executed by
+   * at most one thread per signer, owned by this {@link ConcurrentContentSigner}.
+   * @param data
+   *          Data to be signed. Must not be {@code null}.
+   * @return the futures of the signatures, in the same order as {@code data}. A future
+   *         completes exceptionally with {@link NoIdleSignerException} or
+   *         {@link SignatureException} if the corresponding data could not be signed.
+   */
+  List<CompletableFuture<byte[]>> signAll(List<byte[]> data);
+
   /**
    * Borrows a signer with implementation-dependent default timeout.
    * @return the signer
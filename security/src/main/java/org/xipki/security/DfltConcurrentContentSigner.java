@@ -23,8 +23,16 @@ import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -47,6 +55,57 @@ import org.xipki.util.concurrent.ConcurrentBag;
 
 public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
+  private class BatchSignJob implements Runnable {
+
+    private final List<byte[]> data;
+
+    private final List<CompletableFuture<byte[]>> futures;
+
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    private final AtomicInteger activeWorkers;
+
+    BatchSignJob(List<byte[]> data, List<CompletableFuture<byte[]>> futures, int numWorkers) {
+      this.data = data;
+      this.futures = futures;
+      this.activeWorkers = new AtomicInteger(numWorkers);
+    }
+
+    @Override
+    public void run() {
+      ConcurrentBagEntrySigner signer = null;
+      try {
+        signer = borrowSigner();
+      } catch (NoIdleSignerException ex) {
+        // the other workers will sign the data, the last one fails the remaining data.
+        LOG.debug("could not borrow signer for batch signing: {}", ex.getMessage());
+        if (activeWorkers.decrementAndGet() == 0) {
+          int index;
+          while ((index = nextIndex.getAndIncrement()) < data.size()) {
+            futures.get(index).completeExceptionally(ex);
+          }
+        }
+        return;
+      }
+
+      try {
+        XiContentSigner xiSigner = signer.value();
+        int index;
+        while ((index = nextIndex.getAndIncrement()) < data.size()) {
+          try {
+            futures.get(index).complete(sign(xiSigner, data.get(index)));
+          } catch (Throwable th) {
+            futures.get(index).completeExceptionally(th);
+          }
+        }
+      } finally {
+        activeWorkers.decrementAndGet();
+        requiteSigner(signer);
+      }
+    } // method run
+
+  } // class BatchSignJob
+
   private static final Logger LOG = LoggerFactory.getLogger(DfltConcurrentContentSigner.class);
 
   private static final AtomicInteger NAME_INDEX = new AtomicInteger(1);
@@ -57,6 +116,8 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   private final String name;
 
+  private final AlgorithmIdentifier algorithmIdentifier;
+
   private final String algorithmName;
 
   private final boolean mac;
@@ -71,6 +132,11 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   private X509Cert[] certificateChain;
 
+  // executes the batch signing jobs, at most one thread per signer
+  private ThreadPoolExecutor batchSignExecutor;
+
+  private boolean closed;
+
   static {
     final String propKey = "org.xipki.security.signservice.timeout";
     String str = System.getProperty(propKey);
@@ -97,7 +163,7 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     Args.notEmpty(signers, "signers");
 
     this.mac = mac;
-    AlgorithmIdentifier algorithmIdentifier = signers.get(0).getAlgorithmIdentifier();
+    this.algorithmIdentifier = signers.get(0).getAlgorithmIdentifier();
     this.algorithmName = AlgorithmUtil.getSigOrMacAlgoName(algorithmIdentifier);
     this.algorithmCode = AlgorithmUtil.getSigOrMacAlgoCode(algorithmIdentifier);
 
@@ -229,6 +295,11 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     }
   }
 
+  @Override
+  public AlgorithmIdentifier getAlgorithmIdentifier() {
+    return algorithmIdentifier;
+  }
+
   @Override
   public String getAlgorithmName() {
     return algorithmName;
@@ -236,20 +307,20 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   @Override
   public void close() {
-  }
+    synchronized (signers) {
+      closed = true;
+      if (batchSignExecutor != null) {
+        batchSignExecutor.shutdown();
+        batchSignExecutor = null;
+      }
+    }
+  } // method close
 
   @Override
   public byte[] sign(byte[] data) throws NoIdleSignerException, SignatureException {
     ConcurrentBagEntrySigner signer = borrowSigner();
     try {
-      OutputStream signatureStream = signer.value().getOutputStream();
-      try {
-        signatureStream.write(data);
-      } catch (IOException ex) {
-        throw new SignatureException(
-            "could not write data to SignatureStream: " + ex.getMessage(), ex);
-      }
-      return signer.value().getSignature();
+      return sign(signer.value(), data);
     } finally {
       requiteSigner(signer);
     }
@@ -258,20 +329,34 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
   @Override
   public byte[][] sign(byte[][] data) throws NoIdleSignerException, SignatureException {
     byte[][] signatures = new byte[data.length][];
-    ConcurrentBagEntrySigner signer = borrowSigner();
+    if (data.length > 1 && signers.size() > 1) {
+      // the calling thread signs as well
+      List<CompletableFuture<byte[]>> futures = signAll0(Arrays.asList(data), true);
+      for (int i = 0; i < data.length; i++) {
+        try {
+          signatures[i] = futures.get(i).get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new SignatureException("interrupted", ex);
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof NoIdleSignerException) {
+            throw (NoIdleSignerException) cause;
+          } else if (cause instanceof SignatureException) {
+            throw (SignatureException) cause;
+          } else {
+            throw new SignatureException(cause.getMessage(), cause);
+          }
+        }
+      }
+      return signatures;
+    }
 
+    ConcurrentBagEntrySigner signer = borrowSigner();
     try {
       XiContentSigner xiSigner = signer.value();
-
       for (int i = 0; i < data.length; i++) {
-        OutputStream signatureStream = xiSigner.getOutputStream();
-        try {
-          signatureStream.write(data[i]);
-        } catch (IOException ex) {
-          throw new SignatureException(
-              "could not write data to SignatureStream: " + ex.getMessage(), ex);
-        }
-        signatures[i] = xiSigner.getSignature();
+        signatures[i] = sign(xiSigner, data[i]);
       }
     } finally {
       requiteSigner(signer);
@@ -280,4 +365,84 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     return signatures;
   } // method sign
 
+  @Override
+  public List<CompletableFuture<byte[]>> signAll(List<byte[]> data) {
+    return signAll0(data, false);
+  }
+
+  private List<CompletableFuture<byte[]>> signAll0(List<byte[]> data, boolean inCallerThread) {
+    Args.notNull(data, "data");
+    final int n = data.size();
+    List<CompletableFuture<byte[]>> futures = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      futures.add(new CompletableFuture<byte[]>());
+    }
+
+    if (n == 0) {
+      return futures;
+    }
+
+    // one worker per signer, each worker borrows a signer and takes the next unsigned data
+    // until all data are signed.
+    ExecutorService executor = getBatchSignExecutor();
+    int numWorkers = (executor == null) ? 1 : Math.min(n, Math.max(1, signers.size()));
+    BatchSignJob job = new BatchSignJob(data, futures, numWorkers);
+
+    boolean runInCallerThread = inCallerThread || executor == null;
+    int numAsyncWorkers = runInCallerThread ? numWorkers - 1 : numWorkers;
+    for (int i = 0; i < numAsyncWorkers; i++) {
+      try {
+        executor.execute(job);
+      } catch (RejectedExecutionException ex) {
+        // executor has been shutdown
+        job.run();
+      }
+    }
+
+    if (runInCallerThread) {
+      job.run();
+    }
+    return futures;
+  } // method signAll0
+
+  private ExecutorService getBatchSignExecutor() {
+    synchronized (signers) {
+      if (closed) {
+        return null;
+      }
+
+      if (batchSignExecutor == null) {
+        final int size = Math.max(1, signers.size());
+        batchSignExecutor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+              private final AtomicInteger index = new AtomicInteger(1);
+
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                    name + "-batch-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+              }
+
+            });
+        // no idle threads are kept if no batch is signed
+        batchSignExecutor.allowCoreThreadTimeOut(true);
+      }
+      return batchSignExecutor;
+    }
+  } // method getBatchSignExecutor
+
+  private static byte[] sign(XiContentSigner signer, byte[] data) throws SignatureException {
+    OutputStream signatureStream = signer.getOutputStream();
+    try {
+      signatureStream.write(data);
+    } catch (IOException ex) {
+      throw new SignatureException(
+          "could not write data to SignatureStream: " + ex.getMessage(), ex);
+    }
+    return signer.getSignature();
+  } // method sign
+
 }
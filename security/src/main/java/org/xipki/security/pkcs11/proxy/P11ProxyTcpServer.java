@@ -0,0 +1,266 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+/**
+ * Server side of the persistent TCP (optionally TLS) transport of the PKCS#11 proxy messages.
+ * The requests read from a connection are processed in parallel by a fixed number of worker
+ * threads, and the responses are written back as soon as they are available.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class P11ProxyTcpServer implements Closeable {
+
+  /**
+   * Processes the encoded request and returns the encoded response.
+   */
+  public interface RequestHandler {
+
+    byte[] processRequest(byte[] request);
+
+  } // interface RequestHandler
+
+  private class ClientConnection implements Runnable {
+
+    private final Socket socket;
+
+    private final OutputStream out;
+
+    ClientConnection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    @Override
+    public void run() {
+      try {
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        while (!closed) {
+          final byte[] request = P11ProxyTcpTransport.readMessage(in, maxMessageSize);
+          if (request == null) {
+            break;
+          }
+
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              byte[] response = handler.processRequest(request);
+              try {
+                synchronized (out) {
+                  out.write(response);
+                  out.flush();
+                }
+              } catch (IOException ex) {
+                LogUtil.warn(LOG, ex, "could not write response to " + remoteAddress());
+                close();
+              }
+            }
+          });
+        }
+      } catch (IOException | RejectedExecutionException ex) {
+        if (!closed && !socket.isClosed()) {
+          LogUtil.warn(LOG, ex, "error while reading request from " + remoteAddress());
+        }
+      } finally {
+        close();
+      }
+    } // method run
+
+    private String remoteAddress() {
+      return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    void close() {
+      if (clientConnections.remove(this)) {
+        try {
+          socket.close();
+        } catch (IOException ex) {
+          LOG.debug("could not close socket: {}", ex.getMessage());
+        }
+      }
+    } // method close
+
+  } // class ClientConnection
+
+  private static final Logger LOG = LoggerFactory.getLogger(P11ProxyTcpServer.class);
+
+  private final Set<ClientConnection> clientConnections = ConcurrentHashMap.newKeySet();
+
+  private final String host;
+
+  private final int port;
+
+  private final SSLContext sslContext;
+
+  private final RequestHandler handler;
+
+  private final int maxMessageSize;
+
+  private final ExecutorService executor;
+
+  private ServerSocket serverSocket;
+
+  private volatile boolean closed;
+
+  /**
+   * Constructor.
+   * @param host
+   *          Address to bind. {@code null} to bind the loopback address.
+   * @param port
+   *          Port to listen, 0 for an automatically allocated port.
+   * @param sslContext
+   *          SSL context, the TLS client authentication is always required. {@code null} for
+   *          plain TCP without any authentication of the clients.
+   * @param threads
+   *          Number of worker threads to process the requests.
+   * @param maxMessageSize
+   *          Maximal size of a message in bytes.
+   * @param handler
+   *          The request handler.
+   */
+  public P11ProxyTcpServer(String host, int port, SSLContext sslContext, int threads,
+      int maxMessageSize, RequestHandler handler) {
+    this.host = host;
+    this.port = Args.range(port, "port", 0, 65535);
+    this.sslContext = sslContext;
+    this.maxMessageSize = Args.positive(maxMessageSize, "maxMessageSize");
+    this.handler = Args.notNull(handler, "handler");
+
+    final AtomicInteger threadIndex = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(Args.positive(threads, "threads"),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                "p11proxy-tcp-worker-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  } // constructor
+
+  public synchronized void start() throws IOException {
+    if (serverSocket != null) {
+      return;
+    }
+
+    InetAddress bindAddress = (host == null) ? InetAddress.getLoopbackAddress()
+        : InetAddress.getByName(host);
+    if (sslContext == null) {
+      serverSocket = new ServerSocket(port, 0, bindAddress);
+      LOG.warn("PKCS#11 proxy TCP server on {} does not authenticate the clients", bindAddress);
+    } else {
+      SSLServerSocket sslServerSocket = (SSLServerSocket) sslContext.getServerSocketFactory()
+          .createServerSocket(port, 0, bindAddress);
+      sslServerSocket.setNeedClientAuth(true);
+      serverSocket = sslServerSocket;
+    }
+
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "p11proxy-tcp-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    LOG.info("started PKCS#11 proxy TCP server on port {} ({})", getPort(),
+        sslContext == null ? "TCP" : "TLS");
+  } // method start
+
+  public int getPort() {
+    return (serverSocket == null) ? port : serverSocket.getLocalPort();
+  }
+
+  private void accept() {
+    while (!closed) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException ex) {
+        if (!closed) {
+          LogUtil.error(LOG, ex, "could not accept connection");
+        }
+        continue;
+      }
+
+      try {
+        socket.setTcpNoDelay(true);
+        ClientConnection conn = new ClientConnection(socket);
+        clientConnections.add(conn);
+        Thread thread = new Thread(conn, "p11proxy-tcp-" + socket.getRemoteSocketAddress());
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException ex) {
+        LogUtil.warn(LOG, ex, "could not initialize connection");
+        try {
+          socket.close();
+        } catch (IOException ex2) {
+          LOG.debug("could not close socket: {}", ex2.getMessage());
+        }
+      }
+    }
+  } // method accept
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (serverSocket != null) {
+      try {
+        serverSocket.close();
+      } catch (IOException ex) {
+        LogUtil.warn(LOG, ex, "could not close server socket");
+      }
+    }
+
+    for (ClientConnection conn : clientConnections) {
+      conn.close();
+    }
+    executor.shutdownNow();
+  } // method close
+
+}
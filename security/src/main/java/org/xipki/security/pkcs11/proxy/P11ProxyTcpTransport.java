@@ -0,0 +1,342 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+import org.xipki.util.IoUtil;
+
+/**
+ * Persistent transport of the PKCS#11 proxy messages over TCP (optionally TLS).
+ *
+ * <p>The messages are self-delimiting (see {@link ProxyP11Module#send(short,
+ * org.bouncycastle.asn1.ASN1Object)}), and are written to a fixed number of long-lived
+ * connections without any further framing. Each connection may carry many outstanding
+ * requests (pipelining), the responses are matched to the requests by the transaction ID and
+ * may arrive in any order.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class P11ProxyTcpTransport implements Closeable {
+
+  private class Connection implements Runnable {
+
+    private final Socket socket;
+
+    private final OutputStream out;
+
+    private final DataInputStream in;
+
+    private final Map<Integer, CompletableFuture<byte[]>> pendingRequests =
+        new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.out = new BufferedOutputStream(socket.getOutputStream());
+      this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    byte[] send(int transactionId, byte[] request) throws IOException {
+      CompletableFuture<byte[]> future = new CompletableFuture<>();
+      if (pendingRequests.putIfAbsent(transactionId, future) != null) {
+        throw new IOException("duplicated transaction ID " + transactionId);
+      }
+
+      // close() sets closed before failing the pending requests
+      if (closed) {
+        pendingRequests.remove(transactionId);
+        throw new IOException("connection closed");
+      }
+
+      try {
+        synchronized (out) {
+          out.write(request);
+          out.flush();
+        }
+      } catch (IOException ex) {
+        pendingRequests.remove(transactionId);
+        close(ex);
+        throw ex;
+      }
+
+      try {
+        return future.get(timeout, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException ex) {
+        pendingRequests.remove(transactionId);
+        throw new IOException("no response received within " + timeout + " ms");
+      } catch (InterruptedException ex) {
+        pendingRequests.remove(transactionId);
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted", ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        throw (cause instanceof IOException) ? (IOException) cause
+            : new IOException(cause.getMessage(), cause);
+      }
+    } // method send
+
+    @Override
+    public void run() {
+      try {
+        while (!closed) {
+          byte[] response = readMessage(in, maxMessageSize);
+          if (response == null) {
+            close(new EOFException("connection closed by server"));
+            return;
+          }
+
+          int transactionId = IoUtil.parseInt(response, 2);
+          CompletableFuture<byte[]> future = pendingRequests.remove(transactionId);
+          if (future != null) {
+            future.complete(response);
+          } else {
+            LOG.warn("received response for unknown transaction ID {}", transactionId);
+          }
+        }
+      } catch (IOException ex) {
+        close(ex);
+      }
+    } // method run
+
+    void close(IOException cause) {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      if (!(cause instanceof EOFException)) {
+        LOG.info("closing connection to {}:{}: {}", host, port, cause.getMessage());
+      }
+
+      try {
+        socket.close();
+      } catch (IOException ex) {
+        LOG.debug("could not close socket: {}", ex.getMessage());
+      }
+
+      for (Integer transactionId : pendingRequests.keySet()) {
+        CompletableFuture<byte[]> future = pendingRequests.remove(transactionId);
+        if (future != null) {
+          future.completeExceptionally(cause);
+        }
+      }
+    } // method close
+
+  } // class Connection
+
+  private static final Logger LOG = LoggerFactory.getLogger(P11ProxyTcpTransport.class);
+
+  private static final int HEADER_SIZE = 10;
+
+  private static final int CONNECT_TIMEOUT = 10000; // 10 seconds
+
+  private final AtomicInteger nextConnection = new AtomicInteger();
+
+  private final String host;
+
+  private final int port;
+
+  private final SSLSocketFactory sslSocketFactory;
+
+  private final HostnameVerifier hostnameVerifier;
+
+  private final AtomicReferenceArray<Connection> connections;
+
+  // one lock per connection, so that connecting one connection does not block the others
+  private final Object[] connectLocks;
+
+  private final int timeout;
+
+  private final int maxMessageSize;
+
+  private volatile boolean closed;
+
+  /**
+   * Constructor.
+   * @param host
+   *          Host of the server.
+   * @param port
+   *          Port of the server.
+   * @param sslSocketFactory
+   *          SSL socket factory. {@code null} for plain TCP.
+   * @param hostnameVerifier
+   *          Hostname verifier. Only used for TLS, may be {@code null}.
+   * @param numConnections
+   *          Number of connections.
+   * @param timeout
+   *          Timeout in milliseconds to wait for the response.
+   * @param maxMessageSize
+   *          Maximal size of a message in bytes.
+   */
+  P11ProxyTcpTransport(String host, int port, SSLSocketFactory sslSocketFactory,
+      HostnameVerifier hostnameVerifier, int numConnections, int timeout, int maxMessageSize) {
+    this.host = Args.notBlank(host, "host");
+    this.port = Args.range(port, "port", 1, 65535);
+    this.sslSocketFactory = sslSocketFactory;
+    this.hostnameVerifier = hostnameVerifier;
+    Args.positive(numConnections, "numConnections");
+    this.connections = new AtomicReferenceArray<>(numConnections);
+    this.connectLocks = new Object[numConnections];
+    for (int i = 0; i < numConnections; i++) {
+      connectLocks[i] = new Object();
+    }
+    this.timeout = Args.positive(timeout, "timeout");
+    this.maxMessageSize = Args.positive(maxMessageSize, "maxMessageSize");
+  }
+
+  /**
+   * Sends the request and waits for its response.
+   * @param request
+   *          Encoded request with unique transaction ID.
+   * @return the encoded response.
+   * @throws IOException
+   *           if the request could not be sent or no response is received.
+   */
+  byte[] send(byte[] request) throws IOException {
+    if (request.length < HEADER_SIZE) {
+      throw new IOException("request too short");
+    }
+
+    int transactionId = IoUtil.parseInt(request, 2);
+    return getConnection().send(transactionId, request);
+  }
+
+  private Connection getConnection() throws IOException {
+    if (closed) {
+      throw new IOException("transport closed");
+    }
+
+    int index = (nextConnection.getAndIncrement() & 0x7FFFFFFF) % connections.length();
+    Connection conn = connections.get(index);
+    if (conn != null && !conn.closed) {
+      return conn;
+    }
+
+    synchronized (connectLocks[index]) {
+      conn = connections.get(index);
+      if (conn == null || conn.closed) {
+        conn = connect();
+        connections.set(index, conn);
+        // close() may have missed the new connection
+        if (closed) {
+          connections.set(index, null);
+          conn.close(new IOException("transport closed"));
+          throw new IOException("transport closed");
+        }
+      }
+      return conn;
+    }
+  } // method getConnection
+
+  private Connection connect() throws IOException {
+    Socket socket = (sslSocketFactory == null) ? new Socket() : sslSocketFactory.createSocket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+      socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+
+      if (socket instanceof SSLSocket) {
+        SSLSocket sslSocket = (SSLSocket) socket;
+        sslSocket.startHandshake();
+        if (hostnameVerifier != null && !hostnameVerifier.verify(host, sslSocket.getSession())) {
+          throw new IOException("hostname " + host + " does not match the server certificate");
+        }
+      }
+
+      Connection conn = new Connection(socket);
+      Thread thread = new Thread(conn, "p11proxy-tcp-" + host + ":" + port);
+      thread.setDaemon(true);
+      thread.start();
+      LOG.info("opened connection to {}:{}", host, port);
+      return conn;
+    } catch (IOException ex) {
+      socket.close();
+      throw ex;
+    }
+  } // method connect
+
+  @Override
+  public void close() {
+    closed = true;
+    for (int i = 0; i < connections.length(); i++) {
+      Connection conn = connections.getAndSet(i, null);
+      if (conn != null) {
+        conn.close(new IOException("transport closed"));
+      }
+    }
+  } // method close
+
+  /**
+   * Reads one message.
+   * @param in
+   *          The input stream.
+   * @param maxMessageSize
+   *          Maximal size of a message in bytes.
+   * @return the message, or {@code null} if the stream is closed before the first byte.
+   * @throws IOException
+   *           if the message could not be read or is too long.
+   */
+  static byte[] readMessage(DataInputStream in, int maxMessageSize) throws IOException {
+    byte[] header = new byte[HEADER_SIZE];
+    int firstByte = in.read();
+    if (firstByte == -1) {
+      return null;
+    }
+
+    header[0] = (byte) firstByte;
+    in.readFully(header, 1, HEADER_SIZE - 1);
+
+    int bodyLen = IoUtil.parseInt(header, 6);
+    if (bodyLen < 0 || bodyLen > maxMessageSize - HEADER_SIZE) {
+      throw new IOException("invalid message length " + bodyLen);
+    }
+
+    byte[] message = new byte[HEADER_SIZE + bodyLen];
+    System.arraycopy(header, 0, message, 0, HEADER_SIZE);
+    in.readFully(message, HEADER_SIZE, bodyLen);
+    return message;
+  } // method readMessage
+
+}
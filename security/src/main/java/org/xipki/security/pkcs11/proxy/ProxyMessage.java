@@ -19,6 +19,7 @@ package org.xipki.security.pkcs11.proxy;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -1880,6 +1881,160 @@ public abstract class ProxyMessage extends ASN1Object {
     }
   } // class SignTemplate
 
+  /**
+   * Definition of SignBatchTemplate.
+   *
+   * <pre>
+   * SignBatchTemplate ::= SEQUENCE OF SignTemplate
+   * </pre>
+   */
+  public static class SignBatchTemplate extends ProxyMessage {
+
+    private final List<SignTemplate> signTemplates;
+
+    public SignBatchTemplate(List<SignTemplate> signTemplates) {
+      this.signTemplates = Args.notEmpty(signTemplates, "signTemplates");
+    }
+
+    private SignBatchTemplate(ASN1Sequence seq) throws BadAsn1ObjectException {
+      final int size = seq.size();
+      if (size == 0) {
+        throw new BadAsn1ObjectException("SignBatchTemplate must not be empty");
+      }
+
+      this.signTemplates = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        signTemplates.add(SignTemplate.getInstance(seq.getObjectAt(i)));
+      }
+    }
+
+    public static SignBatchTemplate getInstance(Object obj) throws BadAsn1ObjectException {
+      if (obj == null || obj instanceof SignBatchTemplate) {
+        return (SignBatchTemplate) obj;
+      }
+
+      try {
+        if (obj instanceof ASN1Sequence) {
+          return new SignBatchTemplate((ASN1Sequence) obj);
+        } else if (obj instanceof byte[]) {
+          return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+        } else {
+          throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+        }
+      } catch (IOException | IllegalArgumentException ex) {
+        throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(), ex);
+      }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+      ASN1EncodableVector vec = new ASN1EncodableVector();
+      for (SignTemplate signTemplate : signTemplates) {
+        vec.add(signTemplate);
+      }
+      return new DERSequence(vec);
+    }
+
+    public List<SignTemplate> getSignTemplates() {
+      return signTemplates;
+    }
+
+  } // class SignBatchTemplate
+
+  /**
+   * Definition of SignBatchResult. The i-th result corresponds to the i-th SignTemplate of
+   * the request.
+   *
+   * <pre>
+   * SignBatchResult ::= SEQUENCE OF CHOICE {
+   *     signature      OCTET STRING,
+   *     returnCode     INTEGER }
+   * </pre>
+   */
+  public static class SignBatchResult extends ProxyMessage {
+
+    private final byte[][] signatures;
+
+    private final short[] returnCodes;
+
+    /**
+     * Constructor.
+     * @param signatures
+     *          The signatures, {@code null} for the failed ones.
+     * @param returnCodes
+     *          The return codes, {@link P11ProxyConstants#RC_SUCCESS} for the successful ones.
+     */
+    public SignBatchResult(byte[][] signatures, short[] returnCodes) {
+      this.signatures = Args.notNull(signatures, "signatures");
+      this.returnCodes = Args.notNull(returnCodes, "returnCodes");
+      if (signatures.length != returnCodes.length) {
+        throw new IllegalArgumentException("signatures and returnCodes have different length");
+      }
+    }
+
+    private SignBatchResult(ASN1Sequence seq) throws BadAsn1ObjectException {
+      final int size = seq.size();
+      this.signatures = new byte[size][];
+      this.returnCodes = new short[size];
+      for (int i = 0; i < size; i++) {
+        ASN1Encodable obj = seq.getObjectAt(i);
+        if (obj instanceof ASN1OctetString) {
+          signatures[i] = ((ASN1OctetString) obj).getOctets();
+          returnCodes[i] = P11ProxyConstants.RC_SUCCESS;
+        } else {
+          returnCodes[i] = getInteger(obj).shortValue();
+          if (returnCodes[i] == P11ProxyConstants.RC_SUCCESS) {
+            throw new BadAsn1ObjectException("returnCode must not be RC_SUCCESS");
+          }
+        }
+      }
+    }
+
+    public static SignBatchResult getInstance(Object obj) throws BadAsn1ObjectException {
+      if (obj == null || obj instanceof SignBatchResult) {
+        return (SignBatchResult) obj;
+      }
+
+      try {
+        if (obj instanceof ASN1Sequence) {
+          return new SignBatchResult((ASN1Sequence) obj);
+        } else if (obj instanceof byte[]) {
+          return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+        } else {
+          throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+        }
+      } catch (IOException | IllegalArgumentException ex) {
+        throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(), ex);
+      }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+      ASN1EncodableVector vec = new ASN1EncodableVector();
+      for (int i = 0; i < signatures.length; i++) {
+        if (returnCodes[i] == P11ProxyConstants.RC_SUCCESS) {
+          vec.add(new DEROctetString(signatures[i]));
+        } else {
+          vec.add(new ASN1Integer(returnCodes[i]));
+        }
+      }
+      return new DERSequence(vec);
+    }
+
+    public int size() {
+      return signatures.length;
+    }
+
+    public byte[] getSignature(int index) {
+      return signatures[index];
+    }
+
+    public short getReturnCode(int index) {
+      return returnCodes[index];
+    }
+
+  } // class SignBatchResult
+
   private static void requireRange(ASN1Sequence seq, int minSize, int maxSize)
       throws BadAsn1ObjectException {
     int size = seq.size();
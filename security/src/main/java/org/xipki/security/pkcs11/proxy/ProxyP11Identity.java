@@ -74,17 +74,7 @@ class ProxyP11Identity extends P11Identity {
 
     ProxyMessage.SignTemplate signTemplate = new ProxyMessage.SignTemplate(
         ((ProxyP11Slot) slot).getAsn1SlotId(), asn1KeyId, mechanism, p11Param, content);
-    byte[] result = ((ProxyP11Slot) slot).getModule().send(P11ProxyConstants.ACTION_SIGN,
-        signTemplate);
-
-    ASN1OctetString octetString;
-    try {
-      octetString = DEROctetString.getInstance(result);
-    } catch (IllegalArgumentException ex) {
-      throw new P11TokenException("the returned result is not OCTET STRING");
-    }
-
-    return (octetString == null) ? null : octetString.getOctets();
+    return ((ProxyP11Slot) slot).getModule().sign(signTemplate);
   } // method sign0
 
   @Override
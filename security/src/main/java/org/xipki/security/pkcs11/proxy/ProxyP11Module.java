@@ -24,6 +24,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
@@ -33,6 +35,7 @@ import java.security.cert.CertificateException;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -40,7 +43,9 @@ import javax.net.ssl.SSLSocketFactory;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.security.BadAsn1ObjectException;
@@ -85,13 +90,31 @@ public class ProxyP11Module extends P11Module {
 
   private static final String PROP_SSL_HOStNAMEVERIFIER = "ssl.hostnameVerifier";
 
+  private static final String PROP_CONNECTIONS = "connections";
+
+  private static final String PROP_TIMEOUT = "timeout";
+
+  private static final String PROP_SIGN_BATCH_WINDOW = "signBatchWindow";
+
+  private static final String PROP_SIGN_BATCH_SIZE = "signBatchSize";
+
+  private static final int DFLT_CONNECTIONS = 4;
+
+  private static final int DFLT_TIMEOUT = 30000; // 30 seconds
+
+  private static final int DFLT_SIGN_BATCH_WINDOW = 500; // 500 microseconds
+
+  private static final int DFLT_SIGN_BATCH_SIZE = 64;
+
+  private static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024; // 64 MB
+
   private static final Logger LOG = LoggerFactory.getLogger(ProxyP11Module.class);
 
   private static final String REQUEST_MIMETYPE = "application/x-xipki-pkcs11";
 
   private static final String RESPONSE_MIMETYPE = "application/x-xipki-pkcs11";
 
-  private final Random random = new Random();
+  private final AtomicInteger transactionIdCounter = new AtomicInteger(new Random().nextInt());
 
   private final short version = P11ProxyConstants.VERSION_V1_0;
 
@@ -107,6 +130,15 @@ public class ProxyP11Module extends P11Module {
 
   private HostnameVerifier hostnameVerifier;
 
+  private P11ProxyTcpTransport tcpTransport;
+
+  private final int signBatchWindow;
+
+  private final int signBatchSize;
+
+  // null if the server does not support ACTION_SIGN_BATCH, or batching is disabled
+  private volatile ProxyP11SignBatcher signBatcher;
+
   private ProxyP11Module(P11ModuleConf moduleConf) throws P11TokenException {
     super(moduleConf);
 
@@ -117,10 +149,27 @@ public class ProxyP11Module extends P11Module {
     ConfPairs confPairs = new ConfPairs(modulePath);
 
     String urlStr = confPairs.value(PROP_URL);
-    try {
-      serverUrl = new URL(urlStr);
-    } catch (MalformedURLException ex) {
-      throw new IllegalArgumentException("invalid url: " + urlStr);
+    // tcp://host:port and tcps://host:port use the persistent TCP transport
+    String lowerUrlStr = urlStr == null ? null : urlStr.toLowerCase();
+    final boolean tcp = lowerUrlStr != null
+        && (lowerUrlStr.startsWith("tcp://") || lowerUrlStr.startsWith("tcps://"));
+    URI tcpUri = null;
+    if (tcp) {
+      try {
+        tcpUri = new URI(urlStr);
+      } catch (URISyntaxException ex) {
+        throw new IllegalArgumentException("invalid url: " + urlStr);
+      }
+
+      if (tcpUri.getHost() == null || tcpUri.getPort() == -1) {
+        throw new IllegalArgumentException("host or port is not specified in url: " + urlStr);
+      }
+    } else {
+      try {
+        serverUrl = new URL(urlStr);
+      } catch (MalformedURLException ex) {
+        throw new IllegalArgumentException("invalid url: " + urlStr);
+      }
     }
 
     String moduleStr = confPairs.value(PROP_MODULE);
@@ -185,6 +234,19 @@ public class ProxyP11Module extends P11Module {
       throw new P11TokenException("could not create HostnameVerifier", ex);
     }
 
+    // in microseconds, 0 to disable the batching of sign requests
+    this.signBatchWindow = getIntValue(confPairs, PROP_SIGN_BATCH_WINDOW, DFLT_SIGN_BATCH_WINDOW);
+    this.signBatchSize = getIntValue(confPairs, PROP_SIGN_BATCH_SIZE, DFLT_SIGN_BATCH_SIZE);
+
+    if (tcp) {
+      int connections = getIntValue(confPairs, PROP_CONNECTIONS, DFLT_CONNECTIONS);
+      int timeout = getIntValue(confPairs, PROP_TIMEOUT, DFLT_TIMEOUT);
+      boolean tls = "tcps".equalsIgnoreCase(tcpUri.getScheme());
+      this.tcpTransport = new P11ProxyTcpTransport(tcpUri.getHost(), tcpUri.getPort(),
+          tls ? sslSocketFactory : null, hostnameVerifier, connections, timeout,
+          MAX_MESSAGE_SIZE);
+    }
+
     refresh();
   } // constructor
 
@@ -213,6 +275,15 @@ public class ProxyP11Module extends P11Module {
     }
     this.readOnly = caps.isReadOnly();
 
+    if (signBatchWindow > 0 && signBatchSize > 1
+        && caps.getVersions().contains(P11ProxyConstants.VERSION_V1_1)) {
+      if (signBatcher == null) {
+        signBatcher = new ProxyP11SignBatcher(this, signBatchWindow, signBatchSize);
+      }
+    } else {
+      signBatcher = null;
+    }
+
     resp = send(P11ProxyConstants.ACTION_GET_SLOT_IDS, null);
 
     ASN1Sequence seq;
@@ -265,10 +336,59 @@ public class ProxyP11Module extends P11Module {
         LogUtil.error(LOG, th, "could not close PKCS#11 slot " + slotId);
       }
     }
+
+    if (tcpTransport != null) {
+      tcpTransport.close();
+    }
+  } // method close
+
+  private static int getIntValue(ConfPairs confPairs, String name, int defaultValue)
+      throws P11TokenException {
+    String str = confPairs.value(name);
+    if (str == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      throw new P11TokenException("invalid " + name + ": " + str);
+    }
+  } // method getIntValue
+
+  /**
+   * Signs the given template. Concurrent requests are sent in batches if supported by the
+   * server.
+   * @param signTemplate
+   *          The template to sign.
+   * @return the signature.
+   * @throws P11TokenException
+   *           if the signature could not be created.
+   */
+  byte[] sign(ProxyMessage.SignTemplate signTemplate) throws P11TokenException {
+    ProxyP11SignBatcher batcher = signBatcher;
+    return (batcher == null) ? signSingle(signTemplate) : batcher.sign(signTemplate);
   }
 
+  byte[] signSingle(ProxyMessage.SignTemplate signTemplate) throws P11TokenException {
+    byte[] result = send(P11ProxyConstants.ACTION_SIGN, signTemplate);
+
+    ASN1OctetString octetString;
+    try {
+      octetString = DEROctetString.getInstance(result);
+    } catch (IllegalArgumentException ex) {
+      throw new P11TokenException("the returned result is not OCTET STRING");
+    }
+
+    return (octetString == null) ? null : octetString.getOctets();
+  } // method signSingle
+
   protected byte[] send(byte[] request) throws IOException {
     Args.notNull(request, "request");
+    if (tcpTransport != null) {
+      return tcpTransport.send(request);
+    }
+
     HttpURLConnection httpUrlConnection = IoUtil.openHttpConn(serverUrl);
 
     if (httpUrlConnection instanceof HttpsURLConnection) {
@@ -465,8 +585,9 @@ public class ProxyP11Module extends P11Module {
   } // method send
 
   private byte[] randomTransactionId() {
+    // unique among the outstanding requests, as required by the TCP transport
     byte[] tid = new byte[4];
-    random.nextBytes(tid);
+    IoUtil.writeInt(transactionIdCounter.getAndIncrement(), tid, 0);
     return tid;
   }
 
@@ -0,0 +1,266 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.xipki.security.BadAsn1ObjectException;
+import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.util.Args;
+
+/**
+ * Coalesces the concurrent sign requests of a {@link ProxyP11Module} into
+ * {@link P11ProxyConstants#ACTION_SIGN_BATCH} messages.
+ *
+ * <p>There is no dispatcher thread: one of the waiting callers collects the queued requests
+ * for at most the batch window and sends them, the others wait for their results. A request
+ * without any concurrent request is sent immediately as {@link P11ProxyConstants#ACTION_SIGN}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class ProxyP11SignBatcher {
+
+  private static class PendingSign {
+
+    private final ProxyMessage.SignTemplate signTemplate;
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private byte[] signature;
+
+    private P11TokenException exception;
+
+    PendingSign(ProxyMessage.SignTemplate signTemplate) {
+      this.signTemplate = signTemplate;
+    }
+
+    void complete(byte[] signature, P11TokenException exception) {
+      this.signature = signature;
+      this.exception = exception;
+      latch.countDown();
+    }
+
+    boolean isDone() {
+      return latch.getCount() == 0;
+    }
+
+  } // class PendingSign
+
+  // poll interval while collecting the requests
+  private static final long COLLECT_STEP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final ConcurrentLinkedQueue<PendingSign> queue = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger queueSize = new AtomicInteger();
+
+  private final AtomicInteger activeSigns = new AtomicInteger();
+
+  private final AtomicBoolean collecting = new AtomicBoolean();
+
+  private final ProxyP11Module module;
+
+  private final long windowNanos;
+
+  private final int maxBatchSize;
+
+  /**
+   * Constructor.
+   * @param module
+   *          The module to send the requests. May be {@code null} only if
+   *          {@link #signSingle(ProxyMessage.SignTemplate)} and
+   *          {@link #signBatch(ProxyMessage.SignBatchTemplate)} are overridden.
+   * @param windowMicros
+   *          Maximal time in microseconds to wait for further requests.
+   * @param maxBatchSize
+   *          Maximal number of requests in one batch.
+   */
+  ProxyP11SignBatcher(ProxyP11Module module, int windowMicros, int maxBatchSize) {
+    this.module = module;
+    this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Args.positive(windowMicros, "windowMicros"));
+    this.maxBatchSize = Args.min(maxBatchSize, "maxBatchSize", 2);
+  }
+
+  byte[] sign(ProxyMessage.SignTemplate signTemplate) throws P11TokenException {
+    if (activeSigns.incrementAndGet() == 1) {
+      // no concurrent request
+      try {
+        return signSingle(signTemplate);
+      } finally {
+        activeSigns.decrementAndGet();
+      }
+    }
+
+    PendingSign pendingSign = new PendingSign(signTemplate);
+    queue.add(pendingSign);
+    queueSize.incrementAndGet();
+
+    try {
+      while (!pendingSign.isDone()) {
+        if (collecting.compareAndSet(false, true)) {
+          List<PendingSign> batch;
+          try {
+            batch = collect();
+          } finally {
+            collecting.set(false);
+          }
+
+          if (!batch.isEmpty()) {
+            send(batch);
+          }
+        } else {
+          try {
+            pendingSign.latch.await(windowNanos, TimeUnit.NANOSECONDS);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new P11TokenException("interrupted while waiting for the signature");
+          }
+        }
+      }
+    } finally {
+      activeSigns.decrementAndGet();
+    }
+
+    if (pendingSign.exception != null) {
+      throw pendingSign.exception;
+    }
+    return pendingSign.signature;
+  } // method sign
+
+  private List<PendingSign> collect() {
+    // wait until all concurrent requests are queued, or the window is over
+    final long deadline = System.nanoTime() + windowNanos;
+    while (true) {
+      int size = queueSize.get();
+      if (size >= maxBatchSize || size >= activeSigns.get()) {
+        break;
+      }
+
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        break;
+      }
+      LockSupport.parkNanos(Math.min(remaining, COLLECT_STEP_NANOS));
+    }
+
+    List<PendingSign> batch = new ArrayList<>(Math.min(queueSize.get(), maxBatchSize));
+    while (batch.size() < maxBatchSize) {
+      PendingSign pendingSign = queue.poll();
+      if (pendingSign == null) {
+        break;
+      }
+      queueSize.decrementAndGet();
+      batch.add(pendingSign);
+    }
+    return batch;
+  } // method collect
+
+  private void send(List<PendingSign> batch) {
+    try {
+      send0(batch);
+    } catch (Throwable th) {
+      // complete the remaining requests, otherwise their callers wait forever
+      P11TokenException ex = new P11TokenException(th.getMessage(), th);
+      for (PendingSign pendingSign : batch) {
+        if (!pendingSign.isDone()) {
+          pendingSign.complete(null, ex);
+        }
+      }
+      throw th;
+    }
+  } // method send
+
+  private void send0(List<PendingSign> batch) {
+    final int n = batch.size();
+    if (n == 1) {
+      PendingSign pendingSign = batch.get(0);
+      try {
+        pendingSign.complete(signSingle(pendingSign.signTemplate), null);
+      } catch (P11TokenException ex) {
+        pendingSign.complete(null, ex);
+      } catch (RuntimeException ex) {
+        pendingSign.complete(null, new P11TokenException(ex.getMessage(), ex));
+      }
+      return;
+    }
+
+    List<ProxyMessage.SignTemplate> signTemplates = new ArrayList<>(n);
+    for (PendingSign pendingSign : batch) {
+      signTemplates.add(pendingSign.signTemplate);
+    }
+
+    ProxyMessage.SignBatchResult result;
+    try {
+      byte[] resp = signBatch(new ProxyMessage.SignBatchTemplate(signTemplates));
+      try {
+        result = ProxyMessage.SignBatchResult.getInstance(resp);
+      } catch (BadAsn1ObjectException ex) {
+        throw new P11TokenException("the returned result is not SignBatchResult", ex);
+      }
+
+      if (result == null || result.size() != n) {
+        throw new P11TokenException("the returned result does not contain " + n + " results");
+      }
+    } catch (P11TokenException ex) {
+      for (PendingSign pendingSign : batch) {
+        pendingSign.complete(null, ex);
+      }
+      return;
+    } catch (RuntimeException ex) {
+      P11TokenException ex2 = new P11TokenException(ex.getMessage(), ex);
+      for (PendingSign pendingSign : batch) {
+        pendingSign.complete(null, ex2);
+      }
+      return;
+    }
+
+    for (int i = 0; i < n; i++) {
+      short rc = result.getReturnCode(i);
+      if (rc == P11ProxyConstants.RC_SUCCESS) {
+        batch.get(i).complete(result.getSignature(i), null);
+      } else {
+        batch.get(i).complete(null, new P11TokenException(
+            "server returned RC " + P11ProxyConstants.getReturnCodeName(rc)));
+      }
+    }
+  } // method send0
+
+  /**
+   * Sends the template as {@link P11ProxyConstants#ACTION_SIGN}.
+   */
+  byte[] signSingle(ProxyMessage.SignTemplate signTemplate) throws P11TokenException {
+    return module.signSingle(signTemplate);
+  }
+
+  /**
+   * Sends the templates as {@link P11ProxyConstants#ACTION_SIGN_BATCH}.
+   * @return the encoded SignBatchResult.
+   */
+  byte[] signBatch(ProxyMessage.SignBatchTemplate batchTemplate) throws P11TokenException {
+    return module.send(P11ProxyConstants.ACTION_SIGN_BATCH, batchTemplate);
+  }
+
+}
@@ -0,0 +1,187 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.IoUtil;
+
+/**
+ * Tests the TCP transport of the PKCS#11 proxy against a loopback server which echoes the
+ * requests.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class P11ProxyTcpTransportTest {
+
+  private static interface Sender {
+
+    byte[] send(byte[] request) throws IOException;
+
+  } // interface Sender
+
+  private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+  private static final P11ProxyTcpServer.RequestHandler ECHO_HANDLER =
+      new P11ProxyTcpServer.RequestHandler() {
+        @Override
+        public byte[] processRequest(byte[] request) {
+          return request;
+        }
+      };
+
+  @Test
+  public void testPipelining() throws Exception {
+    // responses are delayed randomly, so that they are returned out of order
+    P11ProxyTcpServer server = new P11ProxyTcpServer("127.0.0.1", 0, null, 16,
+        MAX_MESSAGE_SIZE, new P11ProxyTcpServer.RequestHandler() {
+          @Override
+          public byte[] processRequest(byte[] request) {
+            try {
+              Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+            return request;
+          }
+        });
+    server.start();
+
+    final P11ProxyTcpTransport transport = new P11ProxyTcpTransport("127.0.0.1",
+        server.getPort(), null, null, 2, 10000, MAX_MESSAGE_SIZE);
+    try {
+      final Sender sender = new Sender() {
+        @Override
+        public byte[] send(byte[] request) throws IOException {
+          return transport.send(request);
+        }
+      };
+
+      runClients(sender, 16, 200);
+    } finally {
+      transport.close();
+      server.close();
+    }
+  } // method testPipelining
+
+  @Test
+  public void testReconnect() throws Exception {
+    P11ProxyTcpServer server = new P11ProxyTcpServer("127.0.0.1", 0, null, 4,
+        MAX_MESSAGE_SIZE, ECHO_HANDLER);
+    server.start();
+    int port = server.getPort();
+
+    P11ProxyTcpTransport transport = new P11ProxyTcpTransport("127.0.0.1", port, null, null,
+        1, 10000, MAX_MESSAGE_SIZE);
+    try {
+      byte[] request = newRequest(1, 100);
+      Assert.assertArrayEquals(request, transport.send(request));
+
+      // restart the server, the broken connection will be replaced
+      server.close();
+      server = new P11ProxyTcpServer("127.0.0.1", port, null, 4, MAX_MESSAGE_SIZE,
+          ECHO_HANDLER);
+      for (int i = 0; ; i++) {
+        try {
+          server.start();
+          break;
+        } catch (BindException ex) {
+          // the port is released asynchronously
+          if (i == 50) {
+            throw ex;
+          }
+          Thread.sleep(100);
+        }
+      }
+
+      request = newRequest(2, 100);
+      byte[] response = null;
+      for (int i = 0; i < 10 && response == null; i++) {
+        try {
+          response = transport.send(request);
+        } catch (IOException ex) {
+          Thread.sleep(100);
+        }
+      }
+      Assert.assertArrayEquals(request, response);
+    } finally {
+      transport.close();
+      server.close();
+    }
+  } // method testReconnect
+
+  private static void runClients(final Sender sender, int numThreads,
+      final int numRequestsPerThread) throws Exception {
+    final AtomicInteger tidCounter = new AtomicInteger();
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < numRequestsPerThread; j++) {
+              byte[] request = newRequest(tidCounter.incrementAndGet(),
+                  ThreadLocalRandom.current().nextInt(256));
+              byte[] response = sender.send(request);
+              if (!Arrays.equals(request, response)) {
+                throw new IllegalStateException("response does not match the request");
+              }
+            }
+          } catch (Throwable th) {
+            error.compareAndSet(null, th);
+          }
+        }
+      };
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    if (error.get() != null) {
+      throw new AssertionError("error while sending request", error.get());
+    }
+  } // method runClients
+
+  private static byte[] newRequest(int transactionId, int contentLen) {
+    byte[] request = new byte[14 + contentLen];
+    IoUtil.writeShort(P11ProxyConstants.VERSION_V1_0, request, 0);
+    IoUtil.writeInt(transactionId, request, 2);
+    IoUtil.writeInt(4 + contentLen, request, 6);
+    IoUtil.writeShort(P11ProxyConstants.ACTION_SIGN, request, 10);
+    for (int i = 14; i < request.length; i++) {
+      request[i] = (byte) i;
+    }
+    return request;
+  } // method newRequest
+
+}
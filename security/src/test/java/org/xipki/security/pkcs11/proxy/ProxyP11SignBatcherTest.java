@@ -0,0 +1,289 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.security.pkcs11.P11TokenException;
+
+/**
+ * ProxyP11SignBatcher test. The "signature" returned by the fake server is the reversed
+ * message, and messages starting with 0 are rejected by the server.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class ProxyP11SignBatcherTest {
+
+  private static class FakeSignBatcher extends ProxyP11SignBatcher {
+
+    // released to finish the requests starting with 0xFF
+    private final CountDownLatch blockedRelease = new CountDownLatch(1);
+
+    private final CountDownLatch blockedEntered = new CountDownLatch(1);
+
+    private final AtomicInteger singleSigns = new AtomicInteger();
+
+    private final AtomicInteger batches = new AtomicInteger();
+
+    private final AtomicInteger batchedSigns = new AtomicInteger();
+
+    private volatile int maxBatchSize;
+
+    private volatile boolean failBatch;
+
+    private volatile boolean errorInBatch;
+
+    FakeSignBatcher(int windowMicros, int maxBatchSize) {
+      super(null, windowMicros, maxBatchSize);
+    }
+
+    @Override
+    byte[] signSingle(ProxyMessage.SignTemplate signTemplate) throws P11TokenException {
+      byte[] message = signTemplate.getMessage();
+      if (message[0] == (byte) 0xFF) {
+        blockedEntered.countDown();
+        try {
+          blockedRelease.await();
+        } catch (InterruptedException ex) {
+          throw new P11TokenException("interrupted");
+        }
+      } else {
+        singleSigns.incrementAndGet();
+      }
+
+      if (message[0] == 0) {
+        throw new P11TokenException("rejected");
+      }
+      return reverse(message);
+    }
+
+    @Override
+    byte[] signBatch(ProxyMessage.SignBatchTemplate batchTemplate) throws P11TokenException {
+      List<ProxyMessage.SignTemplate> templates = batchTemplate.getSignTemplates();
+      batches.incrementAndGet();
+      batchedSigns.addAndGet(templates.size());
+      synchronized (this) {
+        maxBatchSize = Math.max(maxBatchSize, templates.size());
+      }
+
+      if (failBatch) {
+        throw new P11TokenException("batch failed");
+      } else if (errorInBatch) {
+        throw new Error("error in batch");
+      }
+
+      final int n = templates.size();
+      byte[][] signatures = new byte[n][];
+      short[] returnCodes = new short[n];
+      for (int i = 0; i < n; i++) {
+        byte[] message = templates.get(i).getMessage();
+        if (message[0] == 0) {
+          returnCodes[i] = P11ProxyConstants.RC_P11_TOKENERROR;
+        } else {
+          signatures[i] = reverse(message);
+          returnCodes[i] = P11ProxyConstants.RC_SUCCESS;
+        }
+      }
+
+      try {
+        return new ProxyMessage.SignBatchResult(signatures, returnCodes).getEncoded();
+      } catch (java.io.IOException ex) {
+        throw new P11TokenException(ex);
+      }
+    } // method signBatch
+
+  } // class FakeSignBatcher
+
+  @Test
+  public void testSingleRequest() throws Exception {
+    FakeSignBatcher batcher = new FakeSignBatcher(500, 64);
+    byte[] message = {1, 2, 3};
+    Assert.assertArrayEquals(reverse(message), batcher.sign(newSignTemplate(message)));
+    Assert.assertEquals(1, batcher.singleSigns.get());
+    Assert.assertEquals(0, batcher.batches.get());
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    FakeSignBatcher batcher = new FakeSignBatcher(200000, 4);
+    Thread blocked = startBlockedRequest(batcher);
+
+    final int numRequests = 10;
+    // messages starting with 0 are rejected by the server
+    Result[] results = sign(batcher, numRequests, 3);
+    for (int i = 0; i < numRequests; i++) {
+      byte[] message = newMessage(i, 3);
+      if (message[0] == 0) {
+        Assert.assertNotNull("exception " + i, results[i].exception);
+      } else {
+        Assert.assertNull("exception " + i, results[i].exception);
+        Assert.assertArrayEquals("signature " + i, reverse(message), results[i].signature);
+      }
+    }
+
+    // batches contain more than one request, single requests are sent as ACTION_SIGN
+    Assert.assertEquals(numRequests, batcher.batchedSigns.get() + batcher.singleSigns.get());
+    Assert.assertTrue("no batch has been sent", batcher.batches.get() > 0);
+    Assert.assertTrue("batch too large: " + batcher.maxBatchSize, batcher.maxBatchSize <= 4);
+
+    batcher.blockedRelease.countDown();
+    blocked.join(10000);
+  } // method testConcurrentRequests
+
+  @Test
+  public void testFailedBatch() throws Exception {
+    FakeSignBatcher batcher = new FakeSignBatcher(200000, 64);
+    batcher.failBatch = true;
+    Thread blocked = startBlockedRequest(batcher);
+
+    final int numRequests = 8;
+    Result[] results = sign(batcher, numRequests, 1);
+    int numFailed = 0;
+    for (int i = 0; i < numRequests; i++) {
+      if (results[i].exception != null) {
+        numFailed++;
+      } else {
+        Assert.assertArrayEquals(reverse(newMessage(i, 1)), results[i].signature);
+      }
+    }
+
+    Assert.assertEquals(batcher.batchedSigns.get(), numFailed);
+    Assert.assertTrue("no batch has been sent", batcher.batches.get() > 0);
+
+    batcher.blockedRelease.countDown();
+    blocked.join(10000);
+  } // method testFailedBatch
+
+  @Test
+  public void testErrorInBatch() throws Exception {
+    FakeSignBatcher batcher = new FakeSignBatcher(200000, 64);
+    batcher.errorInBatch = true;
+    Thread blocked = startBlockedRequest(batcher);
+
+    final int numRequests = 8;
+    // every request is finished, also the ones batched by another thread
+    Result[] results = sign(batcher, numRequests, 1);
+    int numFailed = 0;
+    int numErrors = 0;
+    for (int i = 0; i < numRequests; i++) {
+      if (results[i].error != null) {
+        numErrors++;
+      } else if (results[i].exception != null) {
+        numFailed++;
+      } else {
+        Assert.assertArrayEquals(reverse(newMessage(i, 1)), results[i].signature);
+      }
+    }
+
+    Assert.assertEquals(batcher.batchedSigns.get(), numFailed + numErrors);
+    Assert.assertTrue("no batch has been sent", batcher.batches.get() > 0);
+    Assert.assertTrue("error has not been thrown", numErrors > 0);
+
+    batcher.blockedRelease.countDown();
+    blocked.join(10000);
+  } // method testErrorInBatch
+
+  private static class Result {
+
+    private volatile byte[] signature;
+
+    private volatile P11TokenException exception;
+
+    private volatile Error error;
+
+  } // class Result
+
+  /**
+   * Starts a request which blocks in the server until it is released, so that the following
+   * requests are concurrent.
+   */
+  private static Thread startBlockedRequest(final FakeSignBatcher batcher) throws Exception {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          batcher.sign(newSignTemplate(new byte[]{(byte) 0xFF}));
+        } catch (P11TokenException ex) {
+          // ignore it
+        }
+      }
+    };
+    thread.start();
+    Assert.assertTrue(batcher.blockedEntered.await(10, TimeUnit.SECONDS));
+    return thread;
+  } // method startBlockedRequest
+
+  private static Result[] sign(final FakeSignBatcher batcher, int numRequests,
+      final int rejectModulus) throws Exception {
+    final Result[] results = new Result[numRequests];
+    Thread[] threads = new Thread[numRequests];
+    for (int i = 0; i < numRequests; i++) {
+      final int index = i;
+      results[i] = new Result();
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results[index].signature =
+                batcher.sign(newSignTemplate(newMessage(index, rejectModulus)));
+          } catch (P11TokenException ex) {
+            results[index].exception = ex;
+          } catch (Error ex) {
+            results[index].error = ex;
+          }
+        }
+      };
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join(10000);
+      Assert.assertFalse("request has not been finished", thread.isAlive());
+    }
+    return results;
+  } // method sign
+
+  // the first byte is 0 for every rejectModulus-th message if rejectModulus > 1
+  private static byte[] newMessage(int index, int rejectModulus) {
+    byte first = (byte) ((rejectModulus > 1 && index % rejectModulus == 0) ? 0 : 1);
+    return new byte[]{first, (byte) index, (byte) (index >> 8)};
+  }
+
+  private static ProxyMessage.SignTemplate newSignTemplate(byte[] message) {
+    return SignBatchMessageTest.newSignTemplate(1, new byte[]{1}, 0x40, null, message);
+  }
+
+  private static byte[] reverse(byte[] bytes) {
+    byte[] ret = new byte[bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      ret[i] = bytes[bytes.length - 1 - i];
+    }
+    return ret;
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.security.BadAsn1ObjectException;
+import org.xipki.security.pkcs11.P11ObjectIdentifier;
+import org.xipki.security.pkcs11.P11SlotIdentifier;
+
+/**
+ * Tests the ASN.1 encoding of SignBatchTemplate and SignBatchResult.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class SignBatchMessageTest {
+
+  private static final long CKM_SHA256_RSA_PKCS = 0x40;
+
+  private static final long CKM_AES_CBC = 0x1082;
+
+  @Test
+  public void testSignBatchTemplate() throws Exception {
+    byte[] iv = new byte[16];
+    Arrays.fill(iv, (byte) 0x5A);
+
+    ProxyMessage.SignBatchTemplate batch = new ProxyMessage.SignBatchTemplate(Arrays.asList(
+        newSignTemplate(1, new byte[]{1, 2}, CKM_SHA256_RSA_PKCS, null, new byte[]{10, 11}),
+        newSignTemplate(2, new byte[]{3}, CKM_AES_CBC,
+            new ProxyMessage.P11Params(ProxyMessage.P11Params.TAG_IV, new DEROctetString(iv)),
+            new byte[100])));
+
+    ProxyMessage.SignBatchTemplate decoded =
+        ProxyMessage.SignBatchTemplate.getInstance(batch.getEncoded());
+    List<ProxyMessage.SignTemplate> templates = decoded.getSignTemplates();
+    Assert.assertEquals(2, templates.size());
+
+    ProxyMessage.SignTemplate template = templates.get(0);
+    Assert.assertEquals(new P11SlotIdentifier(0, 1), template.getSlotId().getValue());
+    Assert.assertEquals(new P11ObjectIdentifier(new byte[]{1, 2}, "key-1"),
+        template.getObjectId().getValue());
+    Assert.assertEquals(CKM_SHA256_RSA_PKCS, template.getMechanism().getMechanism());
+    Assert.assertNull(template.getMechanism().getParams());
+    Assert.assertArrayEquals(new byte[]{10, 11}, template.getMessage());
+
+    template = templates.get(1);
+    Assert.assertEquals(new P11SlotIdentifier(0, 2), template.getSlotId().getValue());
+    Assert.assertEquals(CKM_AES_CBC, template.getMechanism().getMechanism());
+    ProxyMessage.P11Params params = template.getMechanism().getParams();
+    Assert.assertEquals(ProxyMessage.P11Params.TAG_IV, params.getTagNo());
+    Assert.assertArrayEquals(iv, ASN1OctetString.getInstance(params.getP11Params()).getOctets());
+    Assert.assertArrayEquals(new byte[100], template.getMessage());
+
+    Assert.assertArrayEquals(batch.getEncoded(), decoded.getEncoded());
+  } // method testSignBatchTemplate
+
+  @Test(expected = BadAsn1ObjectException.class)
+  public void testEmptySignBatchTemplate() throws Exception {
+    ProxyMessage.SignBatchTemplate.getInstance(new DERSequence().getEncoded());
+  }
+
+  @Test
+  public void testSignBatchResult() throws Exception {
+    byte[][] signatures = {new byte[]{1, 2, 3}, null, new byte[0], null};
+    short[] returnCodes = {P11ProxyConstants.RC_SUCCESS, P11ProxyConstants.RC_UNKNOWN_ENTITY,
+      P11ProxyConstants.RC_SUCCESS, P11ProxyConstants.RC_P11_TOKENERROR};
+
+    ProxyMessage.SignBatchResult result = new ProxyMessage.SignBatchResult(signatures,
+        returnCodes);
+    ProxyMessage.SignBatchResult decoded =
+        ProxyMessage.SignBatchResult.getInstance(result.getEncoded());
+
+    Assert.assertEquals(4, decoded.size());
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals("returnCode " + i, returnCodes[i], decoded.getReturnCode(i));
+      Assert.assertArrayEquals("signature " + i, signatures[i], decoded.getSignature(i));
+    }
+
+    Assert.assertArrayEquals(result.getEncoded(), decoded.getEncoded());
+  } // method testSignBatchResult
+
+  @Test(expected = BadAsn1ObjectException.class)
+  public void testSignBatchResultWithSuccessCode() throws Exception {
+    // a successful result must be encoded as signature
+    ProxyMessage.SignBatchResult.getInstance(new DERSequence(
+        new ASN1Integer(P11ProxyConstants.RC_SUCCESS)).getEncoded());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSignBatchResultWithDifferentLength() {
+    new ProxyMessage.SignBatchResult(new byte[2][], new short[1]);
+  }
+
+  static ProxyMessage.SignTemplate newSignTemplate(long slotId, byte[] keyId, long mechanism,
+      ProxyMessage.P11Params params, byte[] message) {
+    return new ProxyMessage.SignTemplate(
+        new ProxyMessage.SlotIdentifier(new P11SlotIdentifier(0, slotId)),
+        new ProxyMessage.ObjectIdentifier(new P11ObjectIdentifier(keyId, "key-" + slotId)),
+        mechanism, params, message);
+  }
+
+}
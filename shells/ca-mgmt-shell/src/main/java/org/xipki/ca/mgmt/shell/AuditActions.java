@@ -0,0 +1,154 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.mgmt.shell;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Completion;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.completers.FileCompleter;
+import org.xipki.audit.services.AuditFileReader;
+import org.xipki.shell.CmdFailure;
+import org.xipki.shell.Completers;
+import org.xipki.shell.IllegalCmdParamException;
+import org.xipki.shell.XiAction;
+import org.xipki.util.IoUtil;
+
+/**
+ * Actions to read the audit files.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class AuditActions {
+
+  @Command(scope = "ca", name = "read-audit",
+      description = "decode and verify the binary audit files")
+  @Service
+  public static class ReadAudit extends XiAction {
+
+    @Option(name = "--dir", description = "directory of the audit files")
+    @Completion(Completers.DirCompleter.class)
+    private String dir;
+
+    @Option(name = "--file", description = "audit file")
+    @Completion(FileCompleter.class)
+    private String file;
+
+    @Option(name = "--out", description = "where to save the decoded events")
+    @Completion(FileCompleter.class)
+    private String outFile;
+
+    @Option(name = "--verify-only", description = "verify the files without decoding the events")
+    private Boolean verifyOnly = Boolean.FALSE;
+
+    @Override
+    protected Object execute0() throws Exception {
+      if ((dir == null) == (file == null)) {
+        throw new IllegalCmdParamException("exactly one of --dir and --file must be specified");
+      }
+
+      List<Path> segments = (dir != null)
+          ? AuditFileReader.listSegments(Paths.get(expandFilepath(dir)))
+          : Collections.singletonList(Paths.get(expandFilepath(file)));
+
+      PrintWriter out = null;
+      if (outFile != null && !isTrue(verifyOnly)) {
+        Path path = Paths.get(expandFilepath(outFile));
+        IoUtil.mkdirsParent(path);
+        out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+      }
+
+      long numEvents = 0;
+      long numInvalidBlocks = 0;
+      int numBrokenLinks = 0;
+      try {
+        byte[] lastHash = null;
+        long lastSegmentNumber = -1;
+        for (Path segment : segments) {
+          try (AuditFileReader reader = new AuditFileReader(segment)) {
+            if (lastHash != null) {
+              // the chain is broken if the segments are not consecutive or have been modified
+              if (reader.getSegmentNumber() != lastSegmentNumber + 1
+                  || !Arrays.equals(lastHash, reader.getPrevHash())) {
+                numBrokenLinks++;
+                println("hash chain broken between segment " + lastSegmentNumber + " and "
+                    + reader.getSegmentNumber());
+              }
+            }
+
+            AuditFileReader.Record record;
+            while ((record = reader.next()) != null) {
+              if (record.isSeal()) {
+                if (!record.isValid()) {
+                  numInvalidBlocks++;
+                  println("invalid block in " + segment + ": " + record);
+                }
+              } else {
+                numEvents++;
+                if (!isTrue(verifyOnly)) {
+                  if (out != null) {
+                    out.println(record);
+                  } else {
+                    println(record.toString());
+                  }
+                }
+              }
+            }
+
+            if (reader.getUnsealedRecords() > 0) {
+              println(reader.getUnsealedRecords() + " events at the end of " + segment
+                  + " are not sealed");
+            }
+
+            lastHash = reader.getLastHash();
+            lastSegmentNumber = reader.getSegmentNumber();
+          } catch (IOException ex) {
+            throw new CmdFailure("could not read " + segment + ": " + ex.getMessage(), ex);
+          }
+        }
+      } finally {
+        if (out != null) {
+          out.close();
+        }
+      }
+
+      println("read " + numEvents + " events from " + segments.size() + " files");
+      if (numInvalidBlocks > 0 || numBrokenLinks > 0) {
+        throw new CmdFailure("verification failed: " + numInvalidBlocks + " invalid blocks, "
+            + numBrokenLinks + " broken links between files");
+      }
+
+      println("verified the hash chain successfully");
+      return null;
+    } // method execute0
+
+  } // class ReadAudit
+
+}
@@ -157,10 +157,20 @@ public class DbActions {
     @Option(name = "--resume", description = "resume from the last successful point")
     private Boolean resume = Boolean.FALSE;
 
+    @Option(name = "--threads",
+        description = "number of threads to export the certificates,\n"
+            + "the database must allow threads + 1 connections")
+    private Integer numThreads = 1;
+
+    @Option(name = "--store",
+        description = "store the entries in the zip files without compression")
+    private Boolean storeEntries = Boolean.FALSE;
+
     @Override
     protected DbPortWorker getDbPortWorker() throws Exception {
       return new DbPortWorker.ExportCaDb(datasourceFactory, passwordResolver, dbconfFile, outdir,
-          resume, numCertsInBundle, numCertsPerCommit);
+          resume, numCertsInBundle, numCertsPerCommit, numThreads.intValue(),
+          isTrue(storeEntries));
     }
 
   } // class ExportCa
@@ -212,10 +222,20 @@ public class DbActions {
     @Option(name = "--resume", description = "resume from the last successful point")
     private Boolean resume = Boolean.FALSE;
 
+    @Option(name = "--threads",
+        description = "number of threads to import the certificates,\n"
+            + "the database must allow threads + 1 connections")
+    private Integer numThreads = 1;
+
+    @Option(name = "--defer-indexes",
+        description = "create the indexes of the table CERT after importing the certificates,\n"
+            + "an interrupted import must be resumed with this option")
+    private Boolean deferIndexes = Boolean.FALSE;
+
     @Override
     protected DbPortWorker getDbPortWorker() throws Exception {
       return new DbPortWorker.ImportCaDb(datasourceFactory, passwordResolver, dbconfFile, resume,
-          indir, numCertsPerCommit.intValue());
+          indir, numCertsPerCommit.intValue(), numThreads.intValue(), isTrue(deferIndexes));
     }
 
   } // class ImportCa
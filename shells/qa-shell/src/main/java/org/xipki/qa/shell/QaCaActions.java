@@ -284,6 +284,20 @@ public class QaCaActions {
             + "0 for implemention default")
     private Integer queueSize = 0;
 
+    @Option(name = "--rate",
+        description = "target number of requests per second in the open-loop mode\n"
+            + "0 to send the next request after the previous one has completed")
+    private Integer targetRate = 0;
+
+    @Option(name = "--ramp-up",
+        description = "time to increase the request rate linearly to the target rate")
+    private String rampUp = "0s";
+
+    @Option(name = "--result-file",
+        description = "file to save the result, in CSV format if ending with .csv, JSON otherwise")
+    @Completion(FileCompleter.class)
+    private String resultFile;
+
     @Override
     protected Object execute0() throws Exception {
       if (numThreads < 1) {
@@ -327,6 +341,9 @@ public class QaCaActions {
 
       benchmark.setDuration(duration);
       benchmark.setThreads(numThreads);
+      benchmark.setResultFile(resultFile);
+      benchmark.setTargetRate(targetRate);
+      benchmark.setRampUp(rampUp);
       benchmark.execute();
 
       return null;
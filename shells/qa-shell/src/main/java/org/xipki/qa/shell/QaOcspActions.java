@@ -508,6 +508,20 @@ public class QaOcspActions {
             + "0 for implemention default")
     private Integer queueSize = 0;
 
+    @Option(name = "--rate",
+        description = "target number of requests per second in the open-loop mode\n"
+            + "0 to send the next request after the previous one has completed")
+    private Integer targetRate = 0;
+
+    @Option(name = "--ramp-up",
+        description = "time to increase the request rate linearly to the target rate")
+    private String rampUp = "0s";
+
+    @Option(name = "--result-file",
+        description = "file to save the result, in CSV format if ending with .csv, JSON otherwise")
+    @Completion(FileCompleter.class)
+    private String resultFile;
+
     @Override
     protected Object execute0() throws Exception {
       int ii = 0;
@@ -576,6 +590,9 @@ public class QaOcspActions {
             serialNumberIterator, maxRequests, queueSize, description.toString());
         loadTest.setDuration(duration);
         loadTest.setThreads(numThreads);
+        loadTest.setResultFile(resultFile);
+        loadTest.setTargetRate(targetRate);
+        loadTest.setRampUp(rampUp);
         loadTest.execute();
       } finally {
         if (serialNumberIterator instanceof FileBigIntegerIterator) {
@@ -26,6 +26,7 @@ import org.apache.karaf.shell.api.action.Completion;
 import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.completers.FileCompleter;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.gm.GMObjectIdentifiers;
 import org.slf4j.Logger;
@@ -128,6 +129,11 @@ public class QaSecurityActions {
     @Option(name = "--thread", description = "number of threads")
     private Integer numThreads = 5;
 
+    @Option(name = "--result-file",
+        description = "file to save the result, in CSV format if ending with .csv, JSON otherwise")
+    @Completion(FileCompleter.class)
+    private String resultFile;
+
     protected abstract BenchmarkExecutor getTester() throws Exception;
 
     @Override
@@ -135,6 +141,7 @@ public class QaSecurityActions {
       BenchmarkExecutor tester = getTester();
       tester.setDuration(duration);
       tester.setThreads(getNumThreads());
+      tester.setResultFile(resultFile);
 
       tester.execute();
       return null;
@@ -17,14 +17,22 @@
 
 package org.xipki.util;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Benchmark executor.
@@ -41,6 +49,10 @@ public abstract class BenchmarkExecutor {
 
   private static final int DEFAULT_THREADS = 25;
 
+  private static final long LATENCY_PRINT_INTERVAL_MS = 10000;
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
   private boolean interrupted;
 
   private String description;
@@ -55,6 +67,34 @@ public abstract class BenchmarkExecutor {
 
   private String unit = "";
 
+  // histograms of the recording threads
+  private final List<LatencyHistogram> latencyHistograms = new CopyOnWriteArrayList<>();
+
+  private final ThreadLocal<LatencyHistogram> threadLatencyHistogram =
+      new ThreadLocal<LatencyHistogram>() {
+        @Override
+        protected LatencyHistogram initialValue() {
+          LatencyHistogram histogram = new LatencyHistogram();
+          latencyHistograms.add(histogram);
+          return histogram;
+        }
+      };
+
+  private LatencyHistogram lastPrintedLatency = new LatencyHistogram();
+
+  private long lastLatencyPrintTimeMs;
+
+  private String resultFile;
+
+  // target number of requests per second in the open-loop mode, 0 for the closed-loop mode
+  private int targetRate;
+
+  private int rampUp; // in seconds
+
+  private final AtomicLong scheduledRequests = new AtomicLong(0);
+
+  private long startTimeNanos;
+
   public BenchmarkExecutor(String description) {
     this(description, 0);
   }
@@ -97,6 +137,10 @@ public abstract class BenchmarkExecutor {
       }
     }
     sb.append("threads: ").append(threads).append("\n");
+    if (isOpenLoop()) {
+      sb.append("target rate: ").append(targetRate).append(" requests/s\n");
+      sb.append("ramp-up: ").append(StringUtil.formatTime(rampUp, false)).append("\n");
+    }
     sb.append("duration: ").append(StringUtil.formatTime(duration, false)).append("\n");
     sb.append("unit: ").append(unit);
 
@@ -135,6 +179,62 @@ public abstract class BenchmarkExecutor {
   }
 
   public void setDuration(String duration) {
+    this.duration = parseDuration(duration, 1);
+  }
+
+  /**
+   * Sets the target number of requests per second. If positive, the requests are sent in the
+   * open-loop mode: every request is scheduled at a fixed time, independent of the completion of
+   * the previous requests, and its latency is measured from the scheduled time. Otherwise the
+   * next request is sent when the previous one has completed (closed-loop mode).
+   * @param targetRate
+   *          Target number of requests per second, 0 for the closed-loop mode.
+   */
+  public void setTargetRate(int targetRate) {
+    this.targetRate = Math.max(0, targetRate);
+  }
+
+  /**
+   * Sets the time within which the request rate is increased linearly from 0 to the target rate.
+   * Only used in the open-loop mode.
+   * @param rampUp
+   *          The ramp-up time, e.g. 10s, 1m.
+   */
+  public void setRampUp(String rampUp) {
+    this.rampUp = parseDuration(rampUp, 0);
+  }
+
+  public boolean isOpenLoop() {
+    return targetRate > 0;
+  }
+
+  /**
+   * Waits until the scheduled time of the next request in the open-loop mode.
+   * @return the scheduled time of the request, as in {@link System#nanoTime()}.
+   */
+  protected long nextScheduledTime() {
+    long scheduledTime = startTimeNanos + scheduledOffset(scheduledRequests.getAndIncrement());
+
+    long waitTime;
+    while ((waitTime = scheduledTime - System.nanoTime()) > 0 && !stop()) {
+      LockSupport.parkNanos(waitTime);
+    }
+    return scheduledTime;
+  } // method nextScheduledTime
+
+  private long scheduledOffset(long index) {
+    final double nanosPerSecond = 1e9;
+    // number of requests sent within the ramp-up
+    double rampUpRequests = (double) targetRate * rampUp / 2;
+    if (index < rampUpRequests) {
+      // the rate increases linearly, so the number of requests grows with the square of the time
+      return (long) (Math.sqrt(2.0 * rampUp * index / targetRate) * nanosPerSecond);
+    } else {
+      return (long) ((rampUp + (index - rampUpRequests) / targetRate) * nanosPerSecond);
+    }
+  } // method scheduledOffset
+
+  private static int parseDuration(String duration, int minValue) {
     Args.notBlank(duration, "duration");
     char unit = duration.charAt(duration.length() - 1);
 
@@ -153,24 +253,21 @@ public abstract class BenchmarkExecutor {
       throw new IllegalArgumentException("invalid duration " + duration);
     }
 
-    if (num < 1) {
+    if (num < minValue) {
       throw new IllegalArgumentException("invalid duration " + duration);
     }
 
     switch (unit) {
       case 's':
-        this.duration = num;
-        break;
+        return num;
       case 'm':
-        this.duration = num * 60;
-        break;
+        return num * 60;
       case 'h':
-        this.duration = num * 3600; // 3600 = 60 * 60
-        break;
+        return num * 3600; // 3600 = 60 * 60
       default:
         throw new IllegalStateException("invalid duration unit " + unit);
     }
-  }
+  } // method parseDuration
 
   public void setThreads(int threads) {
     if (threads > 0) {
@@ -193,8 +290,43 @@ public abstract class BenchmarkExecutor {
     return threads;
   }
 
+  /**
+   * Records the latency of a request.
+   * @param latencyNanos
+   *          The latency in nanoseconds.
+   */
+  public void recordLatency(long latencyNanos) {
+    threadLatencyHistogram.get().record(latencyNanos);
+  }
+
+  /**
+   * Returns the latencies recorded by all threads so far.
+   * @return the merged histogram.
+   */
+  public LatencyHistogram getLatencyHistogram() {
+    LatencyHistogram merged = new LatencyHistogram();
+    for (LatencyHistogram histogram : latencyHistograms) {
+      merged.add(histogram);
+    }
+    return merged;
+  }
+
+  /**
+   * Sets the file to which the result is written after the benchmark. The result is written in
+   * CSV format if the file name ends with .csv, and in JSON format otherwise.
+   * @param resultFile
+   *          The result file, may be {@code null}.
+   */
+  public void setResultFile(String resultFile) {
+    this.resultFile = resultFile;
+  }
+
   protected void resetStartTime() {
     processLog.reset();
+    startTimeNanos = System.nanoTime();
+    scheduledRequests.set(0);
+    lastPrintedLatency = new LatencyHistogram();
+    lastLatencyPrintTimeMs = processLog.startTimeMs();
   }
 
   protected boolean stop() {
@@ -208,7 +340,22 @@ public abstract class BenchmarkExecutor {
 
   protected void printStatus() {
     processLog.printStatus();
-  }
+
+    long nowMs = System.currentTimeMillis();
+    if (nowMs - lastLatencyPrintTimeMs < LATENCY_PRINT_INTERVAL_MS) {
+      return;
+    }
+
+    LatencyHistogram current = getLatencyHistogram();
+    LatencyHistogram interval = current.subtract(lastPrintedLatency);
+    if (interval.getTotalCount() > 0) {
+      System.out.println("\n    latency (last "
+          + StringUtil.formatTime((nowMs - lastLatencyPrintTimeMs) / 1000, false) + "): "
+          + formatLatency(interval));
+    }
+    lastPrintedLatency = current;
+    lastLatencyPrintTimeMs = nowMs;
+  } // method printStatus
 
   public void setUnit(String unit) {
     this.unit = Args.notNull(unit, "unit");
@@ -227,9 +374,102 @@ public abstract class BenchmarkExecutor {
         "\n     failed: ", StringUtil.formatAccount(errorAccount.get(), 1), " ", unit,
         "\n    average: ", averageText, " ", unit, "/s\n");
 
+    LatencyHistogram latency = getLatencyHistogram();
+    if (latency.getTotalCount() > 0) {
+      msg += "    latency: " + formatLatency(latency) + "\n";
+    }
+
     System.out.println(msg);
+
+    if (resultFile != null) {
+      try {
+        writeResult(latency);
+        System.out.println("saved result to file " + resultFile);
+      } catch (IOException ex) {
+        System.err.println("could not save result to file " + resultFile + ": "
+            + ex.getMessage());
+      }
+    }
+  } // method printSummary
+
+  private static String formatLatency(LatencyHistogram histogram) {
+    StringBuilder sb = new StringBuilder(100);
+    sb.append("mean ").append(toMs(histogram.getMean()));
+    for (double percentile : PERCENTILES) {
+      sb.append(", p").append(formatPercentile(percentile)).append(" ")
+        .append(toMs(histogram.getValueAtPercentile(percentile)));
+    }
+    sb.append(", max ").append(toMs(histogram.getMaxValue())).append(" ms");
+    return sb.toString();
+  } // method formatLatency
+
+  private void writeResult(LatencyHistogram latency) throws IOException {
+    String[] names = {"threads", "durationMs", "unit", "startedAt", "finishedAt", "account",
+        "failed", "average", "latencyCount", "latencyMeanMs", "latencyP50Ms", "latencyP90Ms",
+        "latencyP99Ms", "latencyP999Ms", "latencyMaxMs"};
+    String[] values = {Integer.toString(threads), Long.toString(processLog.totalElapsedTime()),
+        unit, Long.toString(processLog.startTimeMs()), Long.toString(processLog.endTimeMs()),
+        Long.toString(processLog.numProcessed()), Long.toString(errorAccount.get()),
+        Integer.toString(processLog.totalAverageSpeed()),
+        Long.toString(latency.getTotalCount()), toMs(latency.getMean()),
+        toMs(latency.getValueAtPercentile(50)), toMs(latency.getValueAtPercentile(90)),
+        toMs(latency.getValueAtPercentile(99)), toMs(latency.getValueAtPercentile(99.9)),
+        toMs(latency.getMaxValue())};
+
+    StringBuilder sb = new StringBuilder(500);
+    if (resultFile.toLowerCase(Locale.ROOT).endsWith(".csv")) {
+      for (int i = 0; i < names.length; i++) {
+        sb.append(i == 0 ? "" : ",").append(names[i]);
+      }
+      sb.append("\n");
+      for (int i = 0; i < values.length; i++) {
+        sb.append(i == 0 ? "" : ",").append(values[i]);
+      }
+      sb.append("\n");
+    } else {
+      sb.append("{\n  \"description\":\"").append(escapeJson(description)).append("\"");
+      for (int i = 0; i < names.length; i++) {
+        sb.append(",\n  \"").append(names[i]).append("\":");
+        if ("unit".equals(names[i])) {
+          sb.append("\"").append(escapeJson(values[i])).append("\"");
+        } else {
+          sb.append(values[i]);
+        }
+      }
+      sb.append("\n}\n");
+    }
+
+    Path path = Paths.get(IoUtil.expandFilepath(resultFile));
+    IoUtil.mkdirsParent(path);
+    Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+  } // method writeResult
+
+  private static String toMs(double nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1000000);
+  }
+
+  private static String formatPercentile(double percentile) {
+    return (percentile == (long) percentile) ? Long.toString((long) percentile)
+        : Double.toString(percentile);
   }
 
+  private static String escapeJson(String text) {
+    StringBuilder sb = new StringBuilder(text.length() + 10);
+    for (int i = 0; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      if (ch == '"' || ch == '\\') {
+        sb.append('\\').append(ch);
+      } else if (ch == '\n') {
+        sb.append("\\n");
+      } else if (ch < 0x20) {
+        sb.append(String.format("\\u%04x", (int) ch));
+      } else {
+        sb.append(ch);
+      }
+    }
+    return sb.toString();
+  } // method escapeJson
+
   protected static long getSecureIndex() {
     SecureRandom random = new SecureRandom();
     while (true) {
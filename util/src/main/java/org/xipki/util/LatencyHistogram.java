@@ -0,0 +1,201 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, similar to HdrHistogram.
+ *
+ * <p>Values below 128 are counted exactly, larger values in 64 sub-buckets per power of 2, so that
+ * the relative error of the reported values is below 1.6%. Values larger than
+ * {@link #MAX_TRACKABLE_VALUE} (about 73 minutes) are counted as this value.
+ *
+ * <p>Recording is lock-free and may be called concurrently, the histograms can be merged. For best
+ * performance, each thread should record into its own histogram.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class LatencyHistogram {
+
+  public static final long MAX_TRACKABLE_VALUE = (1L << 42) - 1;
+
+  private static final int SUB_BUCKET_BITS = 7;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+  private static final int LENGTH = index(MAX_TRACKABLE_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(LENGTH);
+
+  private final AtomicLong totalCount = new AtomicLong();
+
+  private final AtomicLong totalValue = new AtomicLong();
+
+  private final AtomicLong maxValue = new AtomicLong();
+
+  public LatencyHistogram() {
+  }
+
+  /**
+   * Records a value.
+   * @param value
+   *          The value in nanoseconds. Negative values are counted as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > MAX_TRACKABLE_VALUE) {
+      value = MAX_TRACKABLE_VALUE;
+    }
+
+    counts.incrementAndGet(index(value));
+    totalCount.incrementAndGet();
+    totalValue.addAndGet(value);
+
+    long max;
+    while (value > (max = maxValue.get())) {
+      if (maxValue.compareAndSet(max, value)) {
+        break;
+      }
+    }
+  } // method record
+
+  /**
+   * Adds the values recorded in the other histogram.
+   * @param other
+   *          The other histogram.
+   */
+  public void add(LatencyHistogram other) {
+    Args.notNull(other, "other");
+    for (int i = 0; i < LENGTH; i++) {
+      long count = other.counts.get(i);
+      if (count != 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+
+    totalCount.addAndGet(other.totalCount.get());
+    totalValue.addAndGet(other.totalValue.get());
+
+    long otherMax = other.maxValue.get();
+    long max;
+    while (otherMax > (max = maxValue.get())) {
+      if (maxValue.compareAndSet(max, otherMax)) {
+        break;
+      }
+    }
+  } // method add
+
+  /**
+   * Returns the values recorded after the other histogram has been copied from this one. The
+   * maximal value is estimated from the buckets.
+   * @param previous
+   *          The earlier copy of this histogram.
+   * @return the difference.
+   */
+  public LatencyHistogram subtract(LatencyHistogram previous) {
+    Args.notNull(previous, "previous");
+    LatencyHistogram diff = new LatencyHistogram();
+    int maxIndex = -1;
+    for (int i = 0; i < LENGTH; i++) {
+      long count = counts.get(i) - previous.counts.get(i);
+      if (count > 0) {
+        diff.counts.set(i, count);
+        maxIndex = i;
+      }
+    }
+
+    diff.totalCount.set(totalCount.get() - previous.totalCount.get());
+    diff.totalValue.set(totalValue.get() - previous.totalValue.get());
+    if (maxIndex != -1) {
+      diff.maxValue.set(Math.min(maxValue.get(), highestEquivalentValue(maxIndex)));
+    }
+    return diff;
+  } // method subtract
+
+  public LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram();
+    copy.add(this);
+    return copy;
+  }
+
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  public long getMaxValue() {
+    return maxValue.get();
+  }
+
+  public double getMean() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : (double) totalValue.get() / count;
+  }
+
+  /**
+   * Returns the value at the given percentile.
+   * @param percentile
+   *          The percentile, between 0 and 100.
+   * @return the highest value equivalent to the value at the percentile, or 0 if no value is
+   *         recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    Args.range((int) percentile, "percentile", 0, 100);
+    long count = totalCount.get();
+    if (count == 0) {
+      return 0;
+    }
+
+    long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long sum = 0;
+    for (int i = 0; i < LENGTH; i++) {
+      sum += counts.get(i);
+      if (sum >= countAtPercentile) {
+        return Math.min(maxValue.get(), highestEquivalentValue(i));
+      }
+    }
+
+    return maxValue.get();
+  } // method getValueAtPercentile
+
+  static int index(long value) {
+    int bucket = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    if (bucket == 0) {
+      return (int) value;
+    }
+
+    return bucket * SUB_BUCKET_HALF_COUNT + (int) (value >>> bucket);
+  }
+
+  static long highestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    int bucket = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+    long offset = index - bucket * SUB_BUCKET_HALF_COUNT;
+    return ((offset + 1) << bucket) - 1;
+  }
+
+}
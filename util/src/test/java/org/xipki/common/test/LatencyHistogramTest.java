@@ -0,0 +1,89 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.common.test;
+
+import org.junit.Test;
+import org.xipki.util.LatencyHistogram;
+
+import junit.framework.Assert;
+
+/**
+ * Test for {@link LatencyHistogram}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 10000; i++) {
+      histogram.record(i * 1000);
+    }
+
+    Assert.assertEquals(10000, histogram.getTotalCount());
+    Assert.assertEquals(10000 * 1000L, histogram.getMaxValue());
+    assertWithinError(5000 * 1000L, histogram.getValueAtPercentile(50));
+    assertWithinError(9900 * 1000L, histogram.getValueAtPercentile(99));
+    assertWithinError(9990 * 1000L, histogram.getValueAtPercentile(99.9));
+    Assert.assertEquals(10000 * 1000L, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 0; i < 100; i++) {
+      histogram.record(i);
+    }
+
+    Assert.assertEquals(49, histogram.getValueAtPercentile(50));
+    Assert.assertEquals(98, histogram.getValueAtPercentile(99));
+  }
+
+  @Test
+  public void testAddAndSubtract() {
+    LatencyHistogram h1 = new LatencyHistogram();
+    LatencyHistogram h2 = new LatencyHistogram();
+    for (long i = 1; i <= 100; i++) {
+      h1.record(i * 1000);
+      h2.record(i * 1000000);
+    }
+
+    LatencyHistogram merged = new LatencyHistogram();
+    merged.add(h1);
+    LatencyHistogram previous = merged.copy();
+    merged.add(h2);
+
+    Assert.assertEquals(200, merged.getTotalCount());
+    Assert.assertEquals(100 * 1000000L, merged.getMaxValue());
+    assertWithinError(100 * 1000L, merged.getValueAtPercentile(50));
+
+    LatencyHistogram diff = merged.subtract(previous);
+    Assert.assertEquals(100, diff.getTotalCount());
+    assertWithinError(50 * 1000000L, diff.getValueAtPercentile(50));
+    assertWithinError(100 * 1000000L, diff.getMaxValue());
+  }
+
+  private static void assertWithinError(long expected, long actual) {
+    Assert.assertTrue("expected " + expected + ", but was " + actual,
+        Math.abs(expected - actual) <= expected / 60);
+  }
+
+}